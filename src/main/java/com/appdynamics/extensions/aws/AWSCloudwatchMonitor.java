@@ -7,11 +7,27 @@
 
 package com.appdynamics.extensions.aws;
 
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_CYCLE_DEADLINE_PERCENT;
+
 import com.appdynamics.extensions.ABaseMonitor;
 import com.appdynamics.extensions.TasksExecutionServiceProvider;
+import com.appdynamics.extensions.aws.collectors.BackfillScheduler;
+import com.appdynamics.extensions.aws.collectors.MetricDataRequestMerger;
+import com.appdynamics.extensions.aws.config.ConcurrencyConfig;
 import com.appdynamics.extensions.aws.config.Configuration;
+import com.appdynamics.extensions.aws.config.MetricsConfig;
 import com.appdynamics.extensions.aws.config.TaskSchedule;
+import com.appdynamics.extensions.aws.metric.processors.ListMetricsCache;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
+import com.appdynamics.extensions.aws.providers.PublishLagTracker;
 import com.appdynamics.extensions.aws.providers.RegionEndpointProvider;
+import com.appdynamics.extensions.aws.providers.SeriesHealthTracker;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.streams.MetricStreamReceiver;
+import com.appdynamics.extensions.aws.util.ApiCallBudgetPlanner;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.aws.util.StatsPrefetcher;
 import com.appdynamics.extensions.conf.MonitorContext;
 import com.appdynamics.extensions.conf.MonitorContextConfiguration;
 import com.appdynamics.extensions.conf.modules.JobScheduleModule;
@@ -25,6 +41,7 @@ import java.io.FileNotFoundException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @param <T> Configuration class
@@ -33,16 +50,30 @@ import java.util.Map;
 public abstract class AWSCloudwatchMonitor<T> extends ABaseMonitor {
 
     private Class<T> clazz;
-    private T config;
+    private volatile T config;
+    private File configFile;
+
+    private volatile long cycleDeadlineInMillis;
+
+    private final ExecutorServiceProvider executorServiceProvider = new ExecutorServiceProvider();
+
+    private int noOfNamespaceThreadsForPool;
 
     private JobScheduleModule jobScheduleModule = new JobScheduleModule();
 
+    private StatsPrefetcher<T> statsPrefetcher = new StatsPrefetcher<T>(new StatsPrefetcher.StatsCollector<T>() {
+        public List<Metric> collectStats(T config) {
+            return AWSCloudwatchMonitor.this.collectStats(config);
+        }
+    });
+
     public AWSCloudwatchMonitor(Class<T> clazz) {
         this.clazz = clazz;
     }
 
     @Override
     protected void onConfigReload(File file) {
+        configFile = file;
         Yaml yaml = new Yaml();
         try {
             config = yaml.loadAs(new FileInputStream(file), clazz);
@@ -66,18 +97,7 @@ public abstract class AWSCloudwatchMonitor<T> extends ABaseMonitor {
             throw new IllegalArgumentException("Please do not define taskSchedule in config file. Extension creates taskSchedule based on the CloudWatch monitor level.");
         }
 
-        String cloudWatchMonitoring = configuration.getCloudWatchMonitoring();
-        int taskDelaySeconds = -1;
-
-        if (Configuration.CloudWatchMonitoringLevel.BASIC.getLevel().equalsIgnoreCase(cloudWatchMonitoring)) {
-            taskDelaySeconds = 300; //Every 5 minutes
-        } else if (Configuration.CloudWatchMonitoringLevel.DETAILED.getLevel().equalsIgnoreCase(cloudWatchMonitoring)) {
-            taskDelaySeconds = 60; //Every minute
-        }
-
-        if (configuration.getCloudWatchMonitoringInterval() > 0) {
-            taskDelaySeconds = configuration.getCloudWatchMonitoringInterval() * 60;
-        }
+        int taskDelaySeconds = getCycleIntervalInSecs(configuration);
 
         Map<String, Map<String, Integer>> dynamicConfig = new HashMap<>();
 
@@ -99,7 +119,7 @@ public abstract class AWSCloudwatchMonitor<T> extends ABaseMonitor {
         getLogger().info("Starting AWS Cloudwatch Monitoring task");
 
         try {
-            List<Metric> statsForUpload = getStatsForUpload(config);
+            List<Metric> statsForUpload = statsPrefetcher.getStats(config);
 
             serviceProvider.getMetricWriteHelper().transformAndPrintMetrics(statsForUpload);
             serviceProvider.getMetricWriteHelper().onComplete();
@@ -109,17 +129,237 @@ public abstract class AWSCloudwatchMonitor<T> extends ABaseMonitor {
         }
     }
 
+    private List<Metric> collectStats(T config) {
+        CollectionCycle collectionCycle = new CollectionCycle(cycleDeadlineInMillis, executorServiceProvider);
+
+        List<Metric> stats = getStatsForUpload(config, collectionCycle);
+        ApiCallBudgetPlanner.getInstance().completeCycle(collectionCycle);
+        PublishLagTracker.getInstance().completeCycle();
+
+        return stats;
+    }
+
     protected void initialiseRegionServiceProviders(T config) {
         Configuration thisConfig = (Configuration) config;
         RegionEndpointProvider regionEndpointProvider = RegionEndpointProvider.getInstance();
         regionEndpointProvider.initialise(thisConfig.getRegionEndPoints());
     }
 
+    protected void initialiseSeriesWatermarkProvider(T config) {
+        Configuration thisConfig = (Configuration) config;
+        String checkpointFile = thisConfig.getMetricsConfig() != null ?
+                thisConfig.getMetricsConfig().getCheckpointFile() : null;
+
+        if (checkpointFile != null && !new File(checkpointFile).isAbsolute() && configFile != null) {
+            checkpointFile = new File(configFile.getParentFile(), checkpointFile).getPath();
+        }
+
+        SeriesWatermarkProvider.getInstance().initialise(checkpointFile);
+    }
+
+    protected void initialiseListMetricsCache(T config) {
+        Configuration thisConfig = (Configuration) config;
+        int ttlInMins = thisConfig.getMetricsConfig() != null ?
+                thisConfig.getMetricsConfig().getListMetricsCacheTtlInMins() : 0;
+
+        ListMetricsCache.getInstance().initialise(ttlInMins);
+    }
+
+    protected void initialiseRequestCoalescer(T config) {
+        Configuration thisConfig = (Configuration) config;
+        int ttlInSecs = thisConfig.getMetricsConfig() != null ?
+                thisConfig.getMetricsConfig().getRequestCoalescingTtlInSecs() : -1;
+
+        RequestCoalescer.getInstance().initialise(ttlInSecs);
+    }
+
+    protected void initialiseBackfillScheduler(T config) {
+        Configuration thisConfig = (Configuration) config;
+        int rateLimit = thisConfig.getMetricsConfig() != null ?
+                thisConfig.getMetricsConfig().getBackfillRateLimit() : 0;
+
+        BackfillScheduler.getInstance().initialise(rateLimit);
+    }
+
+    protected void initialiseSeriesHealthTracker(T config) {
+        Configuration thisConfig = (Configuration) config;
+        MetricsConfig metricsConfig = thisConfig.getMetricsConfig();
+
+        if (metricsConfig != null) {
+            SeriesHealthTracker.getInstance().initialise(metricsConfig.getDeadSeriesThreshold(),
+                    metricsConfig.getDeadSeriesMaxProbeIntervalInMins());
+        } else {
+            SeriesHealthTracker.getInstance().initialise(0, 0);
+        }
+    }
+
+    protected void initialiseApiCallBudgetPlanner(T config) {
+        Configuration thisConfig = (Configuration) config;
+        MetricsConfig metricsConfig = thisConfig.getMetricsConfig();
+
+        int cycleIntervalInSecs = getCycleIntervalInSecs(thisConfig);
+
+        if (metricsConfig != null) {
+            ApiCallBudgetPlanner.getInstance().initialise(metricsConfig.getApiCallBudgetPerCycle(),
+                    metricsConfig.getApiCallBudgetPerDay(), cycleIntervalInSecs);
+        } else {
+            ApiCallBudgetPlanner.getInstance().initialise(0, 0, cycleIntervalInSecs);
+        }
+    }
+
+    protected void initialiseMetricDataRequestMerger(T config) {
+        Configuration thisConfig = (Configuration) config;
+        MetricsConfig metricsConfig = thisConfig.getMetricsConfig();
+
+        if (metricsConfig != null) {
+            MetricDataRequestMerger.getInstance().initialise(metricsConfig.getRequestMergingWindowInMillis(),
+                    metricsConfig.getGetMetricDataRateLimit());
+        } else {
+            MetricDataRequestMerger.getInstance().initialise(0, 0);
+        }
+    }
+
+    protected synchronized void initialiseExecutorServiceProvider(T config) {
+        Configuration thisConfig = (Configuration) config;
+        noOfNamespaceThreadsForPool = getNoOfNamespaceThreadsForPool(config);
+        executorServiceProvider.initialise(noOfNamespaceThreadsForPool, thisConfig.getConcurrencyConfig());
+    }
+
+    /**
+     * Resizes the thread pools for the given number of namespaces collected at the same time,
+     * once known when collecting, unless they are already sized for it
+     */
+    protected synchronized void resizeExecutorServiceProvider(T config, int noOfNamespaceThreads) {
+        if (noOfNamespaceThreads == noOfNamespaceThreadsForPool) {
+            return;
+        }
+
+        Configuration thisConfig = (Configuration) config;
+        noOfNamespaceThreadsForPool = noOfNamespaceThreads;
+        executorServiceProvider.initialise(noOfNamespaceThreadsForPool, thisConfig.getConcurrencyConfig());
+    }
+
+    /**
+     * Returns the number of namespaces collected at the same time, a single one by default
+     */
+    protected int getNoOfNamespaceThreadsForPool(T config) {
+        return 1;
+    }
+
+    /**
+     * Bounds each cycle to the configured deadline, or to a share of the
+     * monitoring interval if not configured, so stats are uploaded on time
+     */
+    protected void initialiseCycleDeadline(T config) {
+        Configuration thisConfig = (Configuration) config;
+        ConcurrencyConfig concurrencyConfig = thisConfig.getConcurrencyConfig();
+
+        int cycleIntervalInSecs = getCycleIntervalInSecs(thisConfig);
+        int cycleDeadlineInSecs = concurrencyConfig != null ? concurrencyConfig.getCycleDeadlineInSecs() : 0;
+
+        long deadlineInMillis;
+
+        if (cycleDeadlineInSecs < 0) {
+            deadlineInMillis = 0;
+
+        } else if (cycleDeadlineInSecs > 0) {
+            deadlineInMillis = TimeUnit.SECONDS.toMillis(cycleDeadlineInSecs);
+
+        } else {
+            deadlineInMillis = TimeUnit.SECONDS.toMillis(cycleIntervalInSecs) * DEFAULT_CYCLE_DEADLINE_PERCENT / 100;
+        }
+
+        if (deadlineInMillis != cycleDeadlineInMillis) {
+            if (deadlineInMillis > 0) {
+                getLogger().info(String.format("Cycle deadline initialised to [%s]ms, it overrides threadTimeOut: "
+                        + "tasks still running at the deadline are dropped even within their threadTimeOut",
+                        deadlineInMillis));
+            } else {
+                getLogger().info("Cycle deadline disabled, tasks are waited for up to threadTimeOut each");
+            }
+        }
+
+        cycleDeadlineInMillis = deadlineInMillis;
+    }
+
+    protected void initialiseMetricStreamReceiver(T config) {
+        Configuration thisConfig = (Configuration) config;
+        MetricStreamReceiver.getInstance().initialise(thisConfig.getMetricStreamConfig());
+    }
+
+    protected void initialiseStatsPrefetcher(T config) {
+        Configuration thisConfig = (Configuration) config;
+        MetricsConfig metricsConfig = thisConfig.getMetricsConfig();
+
+        int uploadIntervalInSecs = getCycleIntervalInSecs(thisConfig);
+
+        if (metricsConfig != null) {
+            statsPrefetcher.initialise(metricsConfig.getPrefetchLeadTimeInSecs(), uploadIntervalInSecs,
+                    metricsConfig.getDefaultPeriodInSec());
+        } else {
+            statsPrefetcher.initialise(0, uploadIntervalInSecs, 0);
+        }
+
+        PublishLagTracker.getInstance().initialise(statsPrefetcher.isEnabled());
+    }
+
+    /**
+     * Derives the default metric period from the CloudWatch monitoring level when
+     * not configured, i.e. 5 minutes for Basic and 1 minute for Detailed monitoring,
+     * shortened to the monitoring interval if configured
+     */
+    protected void initialiseDefaultPeriod(T config) {
+        Configuration thisConfig = (Configuration) config;
+        MetricsConfig metricsConfig = thisConfig.getMetricsConfig();
+
+        if (metricsConfig == null || metricsConfig.getDefaultPeriodInSec() > 0) {
+            return;
+        }
+
+        metricsConfig.setDefaultPeriodInSec(Math.min(getMonitoringLevelIntervalInSecs(thisConfig),
+                getCycleIntervalInSecs(thisConfig)));
+    }
+
+    /**
+     * Returns the interval between two collection cycles, i.e. the configured
+     * monitoring interval, or the CloudWatch monitoring level's if not configured
+     */
+    protected static int getCycleIntervalInSecs(Configuration configuration) {
+        if (configuration.getCloudWatchMonitoringInterval() > 0) {
+            return configuration.getCloudWatchMonitoringInterval() * 60;
+        }
+
+        return getMonitoringLevelIntervalInSecs(configuration);
+    }
+
+    /**
+     * Returns every minute for Detailed monitoring, every 5 minutes otherwise
+     */
+    private static int getMonitoringLevelIntervalInSecs(Configuration configuration) {
+        return Configuration.CloudWatchMonitoringLevel.DETAILED.getLevel()
+                .equalsIgnoreCase(configuration.getCloudWatchMonitoring()) ? 60 : 300;
+    }
+
     protected void initialize(T config) {
         initialiseRegionServiceProviders(config);
+        initialiseSeriesWatermarkProvider(config);
+        initialiseListMetricsCache(config);
+        initialiseRequestCoalescer(config);
+        initialiseDefaultPeriod(config);
+        initialiseBackfillScheduler(config);
+        initialiseSeriesHealthTracker(config);
+        initialiseApiCallBudgetPlanner(config);
+        initialiseMetricDataRequestMerger(config);
+        initialiseExecutorServiceProvider(config);
+        initialiseCycleDeadline(config);
+        initialiseMetricStreamReceiver(config);
+        initialiseStatsPrefetcher(config);
     }
 
-    protected abstract List<Metric> getStatsForUpload(T config);
+    /**
+     * Returns the stats collected with the given config, within the deadline of the given collection
+     */
+    protected abstract List<Metric> getStatsForUpload(T config, CollectionCycle collectionCycle);
 
     protected abstract Logger getLogger();
 }
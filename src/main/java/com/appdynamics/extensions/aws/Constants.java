@@ -17,9 +17,33 @@ public class Constants {
 
     public static final int DEFAULT_THREAD_TIMEOUT = 30;
 
+    public static final int DEFAULT_MAX_TOTAL_THREADS = 128;
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION = 50;
+
+    public static final int DEFAULT_CYCLE_DEADLINE_PERCENT = 90;
+
     public static final int DEFAULT_METRIC_PERIOD_IN_SEC = 60;
 
     public static final int DEFAULT_MAX_ERROR_RETRY = 0;
 
+    public static final int DEFAULT_API_CALL_TIMEOUT_IN_SECS = 30;
+
+    public static final int DEFAULT_API_CALL_ATTEMPT_TIMEOUT_IN_SECS = 10;
+
+    public static final int LATEST_DATAPOINT_WINDOW_IN_PERIODS = 2;
+
+    public static final int MAX_METRIC_DATA_QUERIES_PER_REQUEST = 500;
+
+    public static final int MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST = 100800;
+
+    public static final int MAX_DIMENSION_FILTERS_PER_LIST_METRICS_REQUEST = 10;
+
+    public static final int MAX_LIST_METRICS_REQUESTS_PER_FILTER = 20;
+
+    public static final int MAX_SEARCH_EXPRESSIONS_PER_REQUEST = 5;
+
+    public static final int MAX_INSIGHTS_QUERY_LIMIT = 500;
+
     public static final String METRIC_PATH_SEPARATOR = "|";
 }
\ No newline at end of file
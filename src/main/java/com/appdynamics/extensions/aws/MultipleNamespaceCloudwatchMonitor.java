@@ -10,17 +10,22 @@ package com.appdynamics.extensions.aws;
 import static com.appdynamics.extensions.aws.Constants.DEFAULT_NO_OF_THREADS;
 import static com.appdynamics.extensions.aws.Constants.DEFAULT_THREAD_TIMEOUT;
 
+import com.appdynamics.extensions.aws.collectors.MetricDataRequestMerger;
 import com.appdynamics.extensions.aws.collectors.NamespaceMetricStatisticsCollector;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
+import com.appdynamics.extensions.aws.util.AWSUtil;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
 import com.appdynamics.extensions.metrics.Metric;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -35,54 +40,77 @@ public abstract class MultipleNamespaceCloudwatchMonitor<T> extends AWSCloudwatc
     }
 
     @Override
-    protected List<Metric> getStatsForUpload(T config) {
+    protected List<Metric> getStatsForUpload(T config, CollectionCycle collectionCycle) {
         List<Metric> allNamespacesStats =
                 Collections.synchronizedList(new ArrayList<Metric>());
 
-        ExecutorService threadPool = null;
+        List<NamespaceMetricStatisticsCollector> namespaceMetricsCollectors =
+                getNamespaceMetricStatisticsCollectorList(config);
 
-        try {
-            List<NamespaceMetricStatisticsCollector> namespaceMetricsCollectors =
-                    getNamespaceMetricStatisticsCollectorList(config);
+        int noOfNamespaceThreads = getNoOfNamespaceThreadsToUse(config, namespaceMetricsCollectors.size());
 
-            threadPool = Executors.newFixedThreadPool(getNoOfNamespaceThreadsToUse(config));
+        // the namespaces to collect are only known once their collectors are built
+        resizeExecutorServiceProvider(config, noOfNamespaceThreads);
 
-            CompletionService<List<Metric>> tasks =
-                    createConcurrentAccountTasks(threadPool, namespaceMetricsCollectors);
+        Executor namespaceExecutor = collectionCycle.getExecutorServiceProvider().getExecutor(
+                ExecutorServiceProvider.Level.NAMESPACE, noOfNamespaceThreads);
 
-            collectMetrics(tasks,
-                    namespaceMetricsCollectors.size(),
-                    allNamespacesStats);
+        List<Future<List<Metric>>> futureTasks = new ArrayList<Future<List<Metric>>>();
+        CompletionService<List<Metric>> tasks =
+                createConcurrentAccountTasks(namespaceExecutor, namespaceMetricsCollectors, collectionCycle, futureTasks);
 
-        } finally {
-            if (threadPool != null && !threadPool.isShutdown()) {
-                threadPool.shutdown();
-            }
-        }
+        collectMetrics(tasks,
+                namespaceMetricsCollectors.size(),
+                collectionCycle,
+                allNamespacesStats);
+
+        // namespaces given up on must not keep collecting into the next cycle
+        AWSUtil.cancelTasks(futureTasks);
 
         return allNamespacesStats;
     }
 
     private CompletionService<List<Metric>> createConcurrentAccountTasks(
-            ExecutorService threadPool,
-            List<NamespaceMetricStatisticsCollector> namespaceMetricsCollectors) {
+            Executor namespaceExecutor,
+            List<NamespaceMetricStatisticsCollector> namespaceMetricsCollectors,
+            final CollectionCycle collectionCycle,
+            List<Future<List<Metric>>> futureTasks) {
         CompletionService<List<Metric>> namespaceCollectorTasks =
-                new ExecutorCompletionService<List<Metric>>(threadPool);
-
-        for (NamespaceMetricStatisticsCollector namespaceCollector : namespaceMetricsCollectors) {
-            namespaceCollectorTasks.submit(namespaceCollector);
+                new ExecutorCompletionService<List<Metric>>(namespaceExecutor);
+
+        for (final NamespaceMetricStatisticsCollector namespaceCollector : namespaceMetricsCollectors) {
+            futureTasks.add(namespaceCollectorTasks.submit(new Callable<List<Metric>>() {
+                public List<Metric> call() {
+                    return namespaceCollector.collect(collectionCycle);
+                }
+            }));
         }
 
         return namespaceCollectorTasks;
     }
 
     private void collectMetrics(CompletionService<List<Metric>> parallelTasks,
-                                int taskSize, List<Metric> allNamespacesStats) {
-
+                                int taskSize, CollectionCycle collectionCycle, List<Metric> allNamespacesStats) {
         for (int index = 0; index < taskSize; index++) {
             try {
-                List<Metric> namespaceStats =
-                        parallelTasks.take().get(DEFAULT_THREAD_TIMEOUT, TimeUnit.SECONDS);
+                Future<List<Metric>> task;
+
+                if (collectionCycle.hasDeadline()) {
+                    // whichever namespace completes first, only bounded by the deadline
+                    task = parallelTasks.poll(collectionCycle.getTimeoutInMillis(ExecutorServiceProvider.Level.NAMESPACE,
+                            0), TimeUnit.MILLISECONDS);
+
+                    if (task == null) {
+                        getLogger().warn(String.format("[%s] namespace tasks did not complete by the cycle deadline, "
+                                + "their statistics are dropped", taskSize - index));
+                        return;
+                    }
+
+                } else {
+                    task = parallelTasks.take();
+                }
+
+                List<Metric> namespaceStats = task.get(DEFAULT_THREAD_TIMEOUT, TimeUnit.SECONDS);
 
                 allNamespacesStats.addAll(namespaceStats);
 
@@ -96,9 +124,21 @@ public abstract class MultipleNamespaceCloudwatchMonitor<T> extends AWSCloudwatc
         }
     }
 
-    private int getNoOfNamespaceThreadsToUse(T config) {
+    private int getNoOfNamespaceThreadsToUse(T config, int noOfNamespaces) {
         int noOfThreads = getNoOfNamespaceThreads(config);
-        return noOfThreads > 0 ? noOfThreads : DEFAULT_NO_OF_THREADS;
+        noOfThreads = noOfThreads > 0 ? noOfThreads : DEFAULT_NO_OF_THREADS;
+
+        // namespaces are collected at the same time so their GetMetricData requests can be merged
+        return MetricDataRequestMerger.getInstance().isEnabled() ? Math.max(noOfThreads, noOfNamespaces) : noOfThreads;
+    }
+
+    /**
+     * Returns the configured number of namespace threads, the pools are resized
+     * for the namespaces to merge, if more, when collecting
+     */
+    @Override
+    protected int getNoOfNamespaceThreadsForPool(T config) {
+        return getNoOfNamespaceThreadsToUse(config, 0);
     }
 
     protected abstract List<NamespaceMetricStatisticsCollector> getNamespaceMetricStatisticsCollectorList(T config);
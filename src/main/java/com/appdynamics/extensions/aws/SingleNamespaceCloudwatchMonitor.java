@@ -8,6 +8,7 @@
 package com.appdynamics.extensions.aws;
 
 import com.appdynamics.extensions.aws.collectors.NamespaceMetricStatisticsCollector;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
 import com.appdynamics.extensions.metrics.Metric;
 
 import java.util.List;
@@ -27,8 +28,8 @@ public abstract class SingleNamespaceCloudwatchMonitor<T> extends AWSCloudwatchM
      * since we're only dealing with a single namespace
      */
     @Override
-    protected List<Metric> getStatsForUpload(T config) {
-        return getNamespaceMetricsCollector(config).call();
+    protected List<Metric> getStatsForUpload(T config, CollectionCycle collectionCycle) {
+        return getNamespaceMetricsCollector(config).collect(collectionCycle);
     }
 
     protected abstract NamespaceMetricStatisticsCollector getNamespaceMetricsCollector(T config);
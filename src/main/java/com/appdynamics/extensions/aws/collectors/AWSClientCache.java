@@ -1,20 +1,71 @@
 package com.appdynamics.extensions.aws.collectors;
 
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.util.InFlightRequestLimiter;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION;
+
 /**
+ * Clients are keyed by account, region and the settings they were built from, see {@link #getClientKey}.
+ * Clients no longer used, e.g. built from settings since changed, are closed once they expire.
+ *
  * @author Akshay Srivastava
  */
 public class AWSClientCache {
 
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(AWSClientCache.class);
+
+    private static final long UNUSED_CLIENT_EXPIRY_IN_MINS = 60;
+
     private static AWSClientCache instance;
 
     private final Cache<String, CloudWatchClient> cloudwatchClientCache;
 
+    private final Cache<String, CloudWatchAsyncClient> cloudwatchAsyncClientCache;
+
+    private final Cache<String, InFlightRequestLimiter> requestLimiterCache;
+
     public AWSClientCache() {
-        cloudwatchClientCache = CacheBuilder.newBuilder().build();
+        cloudwatchClientCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(UNUSED_CLIENT_EXPIRY_IN_MINS, TimeUnit.MINUTES)
+                .removalListener(new RemovalListener<String, CloudWatchClient>() {
+                    public void onRemoval(RemovalNotification<String, CloudWatchClient> notification) {
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            LOGGER.debug(String.format("Closing CloudWatch client of [%s]", notification.getKey()));
+                            notification.getValue().close();
+                        }
+                    }
+                })
+                .build();
+        cloudwatchAsyncClientCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(UNUSED_CLIENT_EXPIRY_IN_MINS, TimeUnit.MINUTES)
+                .removalListener(new RemovalListener<String, CloudWatchAsyncClient>() {
+                    public void onRemoval(RemovalNotification<String, CloudWatchAsyncClient> notification) {
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            LOGGER.debug(String.format("Closing CloudWatch async client of [%s]", notification.getKey()));
+                            notification.getValue().close();
+                        }
+                    }
+                })
+                .build();
+        requestLimiterCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(UNUSED_CLIENT_EXPIRY_IN_MINS, TimeUnit.MINUTES)
+                .build();
     }
 
     public void put(Object regionInfo, CloudWatchClient cloudwatchClient) {
@@ -25,6 +76,98 @@ public class AWSClientCache {
         return cloudwatchClientCache.getIfPresent(String.valueOf(regionInfo));
     }
 
+    /**
+     * Returns the client of the given key, created by the loader if not cached yet.
+     * Concurrent callers of the same key wait for a single client to be created
+     */
+    public CloudWatchClient get(Object regionInfo, Callable<CloudWatchClient> loader) {
+        try {
+            return cloudwatchClientCache.get(String.valueOf(regionInfo), loader);
+
+        } catch (ExecutionException e) {
+            throw new AwsException(String.format("Error creating CloudWatch client of [%s]", regionInfo), e.getCause());
+
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Returns the key the given client is cached with, null if it is not cached
+     */
+    public String getClientKey(CloudWatchClient cloudwatchClient) {
+        for (Map.Entry<String, CloudWatchClient> client : cloudwatchClientCache.asMap().entrySet()) {
+            if (client.getValue() == cloudwatchClient) {
+                return client.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    public void putAsync(Object regionInfo, CloudWatchAsyncClient cloudwatchAsyncClient) {
+        cloudwatchAsyncClientCache.put(String.valueOf(regionInfo), cloudwatchAsyncClient);
+    }
+
+    public CloudWatchAsyncClient getAsync(Object regionInfo) {
+        return cloudwatchAsyncClientCache.getIfPresent(String.valueOf(regionInfo));
+    }
+
+    /**
+     * Same as {@link #get(Object, Callable)}, for the asynchronous clients
+     */
+    public CloudWatchAsyncClient getAsync(Object regionInfo, Callable<CloudWatchAsyncClient> loader) {
+        try {
+            return cloudwatchAsyncClientCache.get(String.valueOf(regionInfo), loader);
+
+        } catch (ExecutionException e) {
+            throw new AwsException(String.format("Error creating CloudWatch async client of [%s]", regionInfo),
+                    e.getCause());
+
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Returns the limiter shared by every request sent with the asynchronous client of the given key,
+     * see {@link #getAsyncClientKey}, so the requests in flight never exceed the connections of its http client
+     */
+    public synchronized InFlightRequestLimiter getRequestLimiter(Object regionInfo, int maxInFlightRequests) {
+        String key = String.valueOf(regionInfo);
+        InFlightRequestLimiter requestLimiter = requestLimiterCache.getIfPresent(key);
+
+        if (requestLimiter == null) {
+            requestLimiter = new InFlightRequestLimiter(getMaxInFlightRequests(maxInFlightRequests));
+            requestLimiterCache.put(key, requestLimiter);
+        }
+
+        return requestLimiter;
+    }
+
+    /**
+     * Returns the key of the asynchronous client of an account in a region, whose connections are sized
+     * to the max in flight requests. When the limit changes, e.g. on config reload, a new client is built
+     * and the previous one is closed once it expires, as the requests it may still be sending are done by then
+     */
+    public static String getAsyncClientKey(String clientKey, int maxInFlightRequests) {
+        return clientKey + "/" + getMaxInFlightRequests(maxInFlightRequests);
+    }
+
+    private static int getMaxInFlightRequests(int maxInFlightRequests) {
+        return maxInFlightRequests > 0 ? maxInFlightRequests : DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION;
+    }
+
+    /**
+     * Returns the key of the clients of an account in a region, accounts sharing a region never share
+     * a client, and thus never the credentials of another account. The settings fingerprint, see
+     * {@link com.appdynamics.extensions.aws.util.AWSUtil#getClientSettingsFingerprint}, changes with the
+     * credentials, timeouts or proxy, so clients are built again with the new ones, e.g. on config reload
+     */
+    public static String getClientKey(String accountName, Object regionInfo, String settingsFingerprint) {
+        return accountName + "@" + regionInfo + "#" + settingsFingerprint;
+    }
+
     public static AWSClientCache getInstance() {
         if (instance == null) {
             instance = new AWSClientCache();
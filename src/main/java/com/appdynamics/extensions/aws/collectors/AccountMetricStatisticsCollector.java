@@ -8,17 +8,19 @@
 package com.appdynamics.extensions.aws.collectors;
 
 import com.appdynamics.extensions.aws.config.Account;
+import com.appdynamics.extensions.aws.config.AggregateMetric;
 import com.appdynamics.extensions.aws.config.AwsClientConfig;
 import com.appdynamics.extensions.aws.config.CredentialsDecryptionConfig;
+import com.appdynamics.extensions.aws.config.IncludeMetric;
 import com.appdynamics.extensions.aws.config.MetricsTimeRange;
 import com.appdynamics.extensions.aws.config.ProxyConfig;
 import com.appdynamics.extensions.aws.exceptions.AwsException;
 import com.appdynamics.extensions.aws.metric.AccountMetricStatistics;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
 import com.appdynamics.extensions.aws.util.AWSUtil;
-import com.appdynamics.extensions.executorservice.MonitorExecutorService;
-import com.appdynamics.extensions.executorservice.MonitorThreadPoolExecutor;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.RateLimiter;
@@ -33,9 +35,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
@@ -68,6 +69,10 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
 
     private int maxErrorRetrySize;
 
+    private int apiCallTimeoutInSecs;
+
+    private int apiCallAttemptTimeoutInSecs;
+
     private CredentialsDecryptionConfig credentialsDecryptionConfig;
 
     private ProxyConfig proxyConfig;
@@ -77,6 +82,26 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
 
     private String metricPrefix;
 
+    private boolean useGetMetricData;
+
+    private boolean latestDatapointOnly;
+
+    private List<AggregateMetric> aggregateMetrics;
+
+    private boolean useSearchExpressions;
+
+    private List<IncludeMetric> includeMetrics;
+
+    private int defaultPeriodInSec;
+
+    private int backfillMaxWindowInMins;
+
+    private boolean useAsyncClient;
+
+    private int maxInFlightRequestsPerRegion;
+
+    private CollectionCycle collectionCycle;
+
     private AccountMetricStatisticsCollector(Builder builder) {
         this.account = builder.account;
         this.noOfMetricThreadsPerRegion = builder.noOfMetricThreadsPerRegion;
@@ -88,9 +113,21 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
         this.awsRequestsCounter = builder.awsRequestsCounter;
         this.metricPrefix = builder.metricPrefix;
         this.threadTimeOut = builder.threadTimeOut;
+        this.useGetMetricData = builder.useGetMetricData;
+        this.latestDatapointOnly = builder.latestDatapointOnly;
+        this.aggregateMetrics = builder.aggregateMetrics;
+        this.useSearchExpressions = builder.useSearchExpressions;
+        this.includeMetrics = builder.includeMetrics;
+        this.defaultPeriodInSec = builder.defaultPeriodInSec;
+        this.backfillMaxWindowInMins = builder.backfillMaxWindowInMins;
+        this.useAsyncClient = builder.useAsyncClient;
+        this.maxInFlightRequestsPerRegion = builder.maxInFlightRequestsPerRegion;
+        this.collectionCycle = builder.collectionCycle != null ? builder.collectionCycle : new CollectionCycle(0);
 
         setNoOfRegionThreadsPerAccount(builder.noOfRegionThreadsPerAccount);
         setMaxErrorRetrySize(builder.maxErrorRetrySize);
+        this.apiCallTimeoutInSecs = builder.apiCallTimeoutInSecs;
+        this.apiCallAttemptTimeoutInSecs = builder.apiCallAttemptTimeoutInSecs;
     }
 
     /**
@@ -102,8 +139,6 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
     public AccountMetricStatistics call() {
         AccountMetricStatistics accountStats = null;
 
-        MonitorExecutorService executorService = null;
-
         try {
             validateAccount(account);
 
@@ -119,13 +154,14 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
                 awsCredentials = createAWSCredentials(account, credentialsDecryptionConfig);
             }
 
-            AwsClientConfig awsClientConfig = AWSUtil.createAwsClientConfiguration(maxErrorRetrySize, proxyConfig);
-
-            executorService = new MonitorThreadPoolExecutor((ThreadPoolExecutor) Executors.newFixedThreadPool(noOfRegionThreadsPerAccount));
+            AwsClientConfig awsClientConfig = AWSUtil.createAwsClientConfiguration(maxErrorRetrySize, proxyConfig,
+                    apiCallTimeoutInSecs, apiCallAttemptTimeoutInSecs);
 
+            Executor regionExecutor = collectionCycle.getExecutorServiceProvider().getExecutor(
+                    ExecutorServiceProvider.Level.REGION, noOfRegionThreadsPerAccount);
 
             List<FutureTask<RegionMetricStatistics>> tasks = createConcurrentRegionTasks(
-                    executorService, account.getRegions(), awsCredentials, awsClientConfig);
+                    regionExecutor, account.getRegions(), awsCredentials, awsClientConfig);
             collectMetrics(tasks, account.getRegions().size(), accountStats);
 
         } catch (Exception e) {
@@ -134,19 +170,13 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
                             "Error getting AccountMetricStatistics for Namespace [%s] Account [%s]",
                             metricsProcessor.getNamespace(),
                             account.getDisplayAccountName()), e);
-
-        } finally {
-            if (executorService != null && !executorService.isShutdown()) {
-                executorService.shutdown();
-            }
         }
 
-
         return accountStats;
     }
 
     private List<FutureTask<RegionMetricStatistics>> createConcurrentRegionTasks(
-            MonitorExecutorService executorService,
+            Executor regionExecutor,
             Set<String> regions,
             StaticCredentialsProvider awsCredentials,
             AwsClientConfig awsClientConfig) {
@@ -165,12 +195,23 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
                             .withRateLimiter(rateLimiter)
                             .withAWSRequestCounter(awsRequestsCounter)
                             .withPrefix(metricPrefix)
+                            .withUseGetMetricData(useGetMetricData)
+                            .withLatestDatapointOnly(latestDatapointOnly)
+                            .withAggregateMetrics(aggregateMetrics)
+                            .withUseSearchExpressions(useSearchExpressions)
+                            .withIncludeMetrics(includeMetrics)
+                            .withDefaultPeriodInSec(defaultPeriodInSec)
+                            .withBackfillMaxWindowInMins(backfillMaxWindowInMins)
+                            .withLinkedAccounts(account.getLinkedAccounts())
+                            .withUseAsyncClient(useAsyncClient)
+                            .withMaxInFlightRequestsPerRegion(maxInFlightRequestsPerRegion)
+                            .withCollectionCycle(collectionCycle)
                             .withAmazonCloudWatchConfig(awsCredentials, awsClientConfig)
                             .build();
 
             FutureTask<RegionMetricStatistics> regionTaskExecutor = new FutureTask<RegionMetricStatistics>(regionTask);
 
-            executorService.submit("AccountMetricStatisticsCollector", regionTaskExecutor);
+            regionExecutor.execute(regionTaskExecutor);
             futureTasks.add(regionTaskExecutor);
         }
 
@@ -179,21 +220,34 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
 
     private void collectMetrics(List<FutureTask<RegionMetricStatistics>> parallelTasks,
                                 int taskSize, AccountMetricStatistics accountMetricStatistics) {
+        int droppedTasks = 0;
 
         for (FutureTask<RegionMetricStatistics> task : parallelTasks) {
             try {
-                RegionMetricStatistics regionStats = task.get(threadTimeOut, TimeUnit.SECONDS);
+                RegionMetricStatistics regionStats = task.get(collectionCycle.getTimeoutInMillis(
+                        ExecutorServiceProvider.Level.REGION, threadTimeOut), TimeUnit.MILLISECONDS);
                 accountMetricStatistics.add(regionStats);
 
             } catch (InterruptedException e) {
                 LOGGER.error("Task interrupted. ", e);
+                // this collector was given up on, and so are its tasks
+                AWSUtil.cancelTasks(parallelTasks);
+                Thread.currentThread().interrupt();
+                break;
             } catch (ExecutionException e) {
                 LOGGER.error("Task execution failed. ", e);
             } catch (TimeoutException e) {
-                LOGGER.error("Task timed out. ", e);
+                task.cancel(true);
+                droppedTasks++;
             }
         }
 
+        if (droppedTasks > 0) {
+            LOGGER.warn(String.format("[%s] region tasks of Namespace [%s] Account [%s] timed out, "
+                            + "their statistics are dropped",
+                    droppedTasks, metricsProcessor.getNamespace(), account.getDisplayAccountName()));
+            collectionCycle.recordDroppedTasks(metricsProcessor.getNamespace(), droppedTasks);
+        }
     }
 
     private void setMaxErrorRetrySize(int maxErrorRetrySize) {
@@ -219,11 +273,23 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
         private MetricsTimeRange metricsTimeRange;
         private MetricsProcessor metricsProcessor;
         private int maxErrorRetrySize;
+        private int apiCallTimeoutInSecs;
+        private int apiCallAttemptTimeoutInSecs;
         private CredentialsDecryptionConfig credentialsDecryptionConfig;
         private ProxyConfig proxyConfig;
         private RateLimiter rateLimiter;
         private LongAdder awsRequestsCounter;
         private String metricPrefix;
+        private boolean useGetMetricData;
+        private boolean latestDatapointOnly;
+        private List<AggregateMetric> aggregateMetrics;
+        private boolean useSearchExpressions;
+        private List<IncludeMetric> includeMetrics;
+        private int defaultPeriodInSec;
+        private int backfillMaxWindowInMins;
+        private boolean useAsyncClient;
+        private int maxInFlightRequestsPerRegion;
+        private CollectionCycle collectionCycle;
 
         public Builder withAccount(Account account) {
             this.account = account;
@@ -255,6 +321,16 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
             return this;
         }
 
+        public Builder withApiCallTimeoutInSecs(int apiCallTimeoutInSecs) {
+            this.apiCallTimeoutInSecs = apiCallTimeoutInSecs;
+            return this;
+        }
+
+        public Builder withApiCallAttemptTimeoutInSecs(int apiCallAttemptTimeoutInSecs) {
+            this.apiCallAttemptTimeoutInSecs = apiCallAttemptTimeoutInSecs;
+            return this;
+        }
+
         public Builder withCredentialsDecryptionConfig(CredentialsDecryptionConfig credentialsDecryptionConfig) {
             this.credentialsDecryptionConfig = credentialsDecryptionConfig;
             return this;
@@ -288,6 +364,56 @@ public class AccountMetricStatisticsCollector implements Callable<AccountMetricS
             this.threadTimeOut = threadTimeOut;
             return this;
         }
+
+        public Builder withUseGetMetricData(boolean useGetMetricData) {
+            this.useGetMetricData = useGetMetricData;
+            return this;
+        }
+
+        public Builder withLatestDatapointOnly(boolean latestDatapointOnly) {
+            this.latestDatapointOnly = latestDatapointOnly;
+            return this;
+        }
+
+        public Builder withAggregateMetrics(List<AggregateMetric> aggregateMetrics) {
+            this.aggregateMetrics = aggregateMetrics;
+            return this;
+        }
+
+        public Builder withUseSearchExpressions(boolean useSearchExpressions) {
+            this.useSearchExpressions = useSearchExpressions;
+            return this;
+        }
+
+        public Builder withIncludeMetrics(List<IncludeMetric> includeMetrics) {
+            this.includeMetrics = includeMetrics;
+            return this;
+        }
+
+        public Builder withDefaultPeriodInSec(int defaultPeriodInSec) {
+            this.defaultPeriodInSec = defaultPeriodInSec;
+            return this;
+        }
+
+        public Builder withBackfillMaxWindowInMins(int backfillMaxWindowInMins) {
+            this.backfillMaxWindowInMins = backfillMaxWindowInMins;
+            return this;
+        }
+
+        public Builder withUseAsyncClient(boolean useAsyncClient) {
+            this.useAsyncClient = useAsyncClient;
+            return this;
+        }
+
+        public Builder withMaxInFlightRequestsPerRegion(int maxInFlightRequestsPerRegion) {
+            this.maxInFlightRequestsPerRegion = maxInFlightRequestsPerRegion;
+            return this;
+        }
+
+        public Builder withCollectionCycle(CollectionCycle collectionCycle) {
+            this.collectionCycle = collectionCycle;
+            return this;
+        }
     }
 
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.config.AggregateMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.StatusCode;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_END_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_START_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.MAX_SEARCH_EXPRESSIONS_PER_REQUEST;
+import static com.appdynamics.extensions.aws.util.AWSUtil.createSearchExpression;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getStartTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.QueryIds.toIndex;
+import static com.appdynamics.extensions.aws.util.QueryIds.toQueryId;
+import static com.appdynamics.extensions.aws.validators.Validator.validateTimeRange;
+
+/**
+ * Retrieves a batch of {@link AggregateMetric}s with a single GetMetricData
+ * request, each compiled into a metric math expression such as
+ * <b>SUM(SEARCH('{"AWS/EC2","InstanceId"} MetricName="NetworkIn"', 'Sum', 60))</b>,
+ * so CloudWatch aggregates the matching series server side.
+ * <p>
+ * <p>Cloudwatch Limitation:
+ * A single GetMetricData request can contain a limited number of
+ * SEARCH expressions, therefore batches should not exceed
+ * {@link com.appdynamics.extensions.aws.Constants#MAX_SEARCH_EXPRESSIONS_PER_REQUEST}.
+ * <p>
+ * Returns one statistic per aggregate, whose metric has the configured
+ * dimension values and an "Aggregate" dimension holding the function,
+ * e.g. <b>Aggregate|SUM|NetworkIn</b>.
+ */
+public class AggregateMetricStatisticsCollector implements Callable<List<MetricStatistic>> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(AggregateMetricStatisticsCollector.class);
+
+    private static final char QUERY_ID_PREFIX = 'a';
+
+    private static final String AGGREGATE_DIMENSION_NAME = "Aggregate";
+
+    private static final List<String> FUNCTIONS = Arrays.asList("SUM", "AVG", "MAX", "MIN", "STDDEV");
+
+    private static final String DEFAULT_FUNCTION = "SUM";
+
+    private String accountName;
+
+    private String region;
+
+    private String namespace;
+
+    private CloudWatchClient awsCloudWatch;
+
+    private List<AggregateMetric> aggregateMetrics;
+
+    private int startTimeInMinsBeforeNow;
+
+    private int endTimeInMinsBeforeNow;
+
+    private LongAdder awsRequestsCounter;
+
+    private int periodInSec;
+
+    private String metricPrefix;
+
+    private AggregateMetricStatisticsCollector(Builder builder) {
+        this.accountName = builder.accountName;
+        this.region = builder.region;
+        this.namespace = builder.namespace;
+        this.awsCloudWatch = builder.awsCloudWatch;
+        this.aggregateMetrics = builder.aggregateMetrics;
+        this.awsRequestsCounter = builder.awsRequestsCounter;
+        this.periodInSec = builder.periodInSec > 0 ? builder.periodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
+        this.metricPrefix = builder.metricPrefix;
+
+        setStartTimeInMinsBeforeNow(builder.metricsTimeRange.getStartTimeInMinsBeforeNow());
+        setEndTimeInMinsBeforeNow(builder.metricsTimeRange.getEndTimeInMinsBeforeNow());
+    }
+
+    /**
+     * Uses {@link CloudWatchClient} to retrieve the aggregated datapoints of
+     * every aggregate metric in the batch, following pagination until all
+     * are returned.
+     * <p>
+     * Returns one statistic per aggregate metric, in the same order as the batch,
+     * based from the latest aggregated datapoint.
+     */
+    public List<MetricStatistic> call() throws Exception {
+        List<MetricStatistic> metricStatistics = Lists.newArrayListWithCapacity(aggregateMetrics.size());
+
+        try {
+            validateTimeRange(startTimeInMinsBeforeNow, endTimeInMinsBeforeNow);
+
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(String.format("Collecting aggregate MetricStatistics for Namespace [%s] Account [%s] "
+                        + "Region [%s] Batch size [%s]", namespace, accountName, region, aggregateMetrics.size()));
+            }
+
+            List<MetricDataQuery> queries = Lists.newArrayListWithCapacity(aggregateMetrics.size());
+
+            for (int index = 0; index < aggregateMetrics.size(); index++) {
+                queries.add(MetricDataQuery.builder()
+                        .id(toQueryId(QUERY_ID_PREFIX, index))
+                        .expression(createExpression(aggregateMetrics.get(index)))
+                        .period(periodInSec)
+                        .returnData(true)
+                        .build());
+            }
+
+            Instant[] latestTimestamps = new Instant[aggregateMetrics.size()];
+            Double[] latestValues = new Double[aggregateMetrics.size()];
+
+            Instant endTime = getTimeInMinsBeforeNow(endTimeInMinsBeforeNow, periodInSec);
+
+            GetMetricDataRequest.Builder requestBuilder = GetMetricDataRequest.builder()
+                    .metricDataQueries(queries)
+                    .startTime(getStartTimeInMinsBeforeNow(startTimeInMinsBeforeNow, endTime, periodInSec))
+                    .endTime(endTime);
+
+            String nextToken = null;
+
+            do {
+                GetMetricDataResponse response = RequestCoalescer.getInstance().getMetricData(awsCloudWatch,
+                        requestBuilder.nextToken(nextToken).build(), awsRequestsCounter);
+
+                for (MetricDataResult result : response.metricDataResults()) {
+                    int index = toIndex(result.id(), QUERY_ID_PREFIX);
+
+                    if (index >= 0 && index < aggregateMetrics.size()) {
+                        updateLatestValue(result, index, latestTimestamps, latestValues);
+                    }
+                }
+
+                nextToken = response.nextToken();
+
+            } while (nextToken != null);
+
+            for (int index = 0; index < aggregateMetrics.size(); index++) {
+                AggregateMetric aggregateMetric = aggregateMetrics.get(index);
+
+                AWSMetric metric = new AWSMetric();
+                metric.setIncludeMetric(aggregateMetric);
+                metric.setMetric(createAggregatedMetric(aggregateMetric));
+
+                MetricStatistic metricStatistic = new MetricStatistic();
+                metricStatistic.setMetric(metric);
+                metricStatistic.setMetricPrefix(metricPrefix);
+                metricStatistic.setValue(latestValues[index]);
+
+                if (latestValues[index] == null && LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(String.format("No aggregate statistics retrieved for Namespace [%s] "
+                                    + "Account [%s] Region [%s] Metric [%s] Expression [%s]",
+                            namespace, accountName, region, aggregateMetric.getName(),
+                            createExpression(aggregateMetric)));
+                }
+
+                metricStatistics.add(metricStatistic);
+            }
+
+        } catch (Exception e) {
+            throw new AwsException(String.format(
+                    "Error getting aggregate MetricStatistics for Namespace [%s] Account [%s] Region [%s] Batch size [%s]",
+                    namespace, accountName, region, aggregateMetrics.size()), e);
+        }
+
+        return metricStatistics;
+    }
+
+    /**
+     * Returns the metric math expression of the aggregate metric, e.g.
+     * <b>SUM(SEARCH('{"AWS/EC2","InstanceId"} MetricName="NetworkIn"', 'Sum', 60))</b>
+     */
+    String createExpression(AggregateMetric aggregateMetric) {
+        String searchExpression = createSearchExpression(namespace, aggregateMetric.getDimensionNames(),
+                aggregateMetric.getName(), aggregateMetric.getDimensionValues(),
+                StatisticType.fromString(aggregateMetric.getStatType()), periodInSec);
+
+        return String.format("%s(%s)", getFunction(aggregateMetric), searchExpression);
+    }
+
+    private Metric createAggregatedMetric(AggregateMetric aggregateMetric) {
+        List<Dimension> dimensions = Lists.newArrayList();
+
+        if (aggregateMetric.getDimensionValues() != null) {
+            for (Map.Entry<String, String> dimensionValue :
+                    new TreeMap<String, String>(aggregateMetric.getDimensionValues()).entrySet()) {
+                dimensions.add(Dimension.builder().name(dimensionValue.getKey()).value(dimensionValue.getValue()).build());
+            }
+        }
+
+        dimensions.add(Dimension.builder().name(AGGREGATE_DIMENSION_NAME).value(getFunction(aggregateMetric)).build());
+
+        return Metric.builder()
+                .namespace(namespace)
+                .metricName(aggregateMetric.getName())
+                .dimensions(dimensions)
+                .build();
+    }
+
+    private String getFunction(AggregateMetric aggregateMetric) {
+        String function = aggregateMetric.getFunction() != null ? aggregateMetric.getFunction().trim().toUpperCase() : null;
+
+        if (FUNCTIONS.contains(function)) {
+            return function;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Invalid aggregate function provided [%s], defaulting to [%s]",
+                    aggregateMetric.getFunction(), DEFAULT_FUNCTION));
+        }
+
+        return DEFAULT_FUNCTION;
+    }
+
+    private void updateLatestValue(MetricDataResult result, int index,
+                                   Instant[] latestTimestamps, Double[] latestValues) {
+        List<Instant> timestamps = result.timestamps();
+        List<Double> values = result.values();
+        int size = Math.min(timestamps.size(), values.size());
+
+        for (int pointIndex = 0; pointIndex < size; pointIndex++) {
+            Instant timestamp = timestamps.get(pointIndex);
+
+            if (latestTimestamps[index] == null || timestamp.isAfter(latestTimestamps[index])) {
+                latestTimestamps[index] = timestamp;
+                latestValues[index] = values.get(pointIndex);
+            }
+        }
+
+        if (result.statusCode() == StatusCode.FORBIDDEN || result.statusCode() == StatusCode.INTERNAL_ERROR) {
+            LOGGER.warn(String.format("GetMetricData returned status [%s] for Account [%s] Region [%s] "
+                            + "Aggregate metric [%s] Messages [%s]", result.statusCodeAsString(), accountName, region,
+                    aggregateMetrics.get(index).getName(), result.messages()));
+        }
+    }
+
+    /**
+     * Splits the aggregate metrics into the batches of the GetMetricData requests computing them,
+     * only aggregates sharing the same time range and period are batched together
+     */
+    static List<List<AggregateMetric>> createBatches(List<AggregateMetric> aggregateMetrics,
+                                                     MetricTimeRangeResolver timeRangeResolver) {
+        List<List<AggregateMetric>> batches = Lists.newArrayList();
+
+        for (List<AggregateMetric> timeRangeAggregates : timeRangeResolver.groupByTimeRangeAndPeriod(aggregateMetrics).values()) {
+            batches.addAll(Lists.partition(timeRangeAggregates, MAX_SEARCH_EXPRESSIONS_PER_REQUEST));
+        }
+
+        return batches;
+    }
+
+    private void setStartTimeInMinsBeforeNow(int startTimeInMinsBeforeNow) {
+        this.startTimeInMinsBeforeNow = startTimeInMinsBeforeNow < 0 ?
+                DEFAULT_START_TIME_IN_MINS_BEFORE_NOW : startTimeInMinsBeforeNow;
+    }
+
+    private void setEndTimeInMinsBeforeNow(int endTimeInMinsBeforeNow) {
+        this.endTimeInMinsBeforeNow = endTimeInMinsBeforeNow < 0 ?
+                DEFAULT_END_TIME_IN_MINS_BEFORE_NOW : endTimeInMinsBeforeNow;
+    }
+
+    /**
+     * Builder class to maintain readability when
+     * building {@link AggregateMetricStatisticsCollector} due to its params size
+     */
+    public static class Builder {
+
+        private String accountName;
+
+        private String region;
+
+        private String namespace;
+
+        private CloudWatchClient awsCloudWatch;
+
+        private List<AggregateMetric> aggregateMetrics;
+
+        private MetricsTimeRange metricsTimeRange;
+
+        private LongAdder awsRequestsCounter;
+
+        private int periodInSec;
+
+        private String metricPrefix;
+
+        public Builder withAccountName(String accountName) {
+            this.accountName = accountName;
+            return this;
+        }
+
+        public Builder withRegion(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder withNamespace(String namespace) {
+            this.namespace = namespace;
+            return this;
+        }
+
+        public Builder withAwsCloudWatch(CloudWatchClient awsCloudWatch) {
+            this.awsCloudWatch = awsCloudWatch;
+            return this;
+        }
+
+        public Builder withAggregateMetrics(List<AggregateMetric> aggregateMetrics) {
+            this.aggregateMetrics = aggregateMetrics;
+            return this;
+        }
+
+        public Builder withMetricsTimeRange(MetricsTimeRange metricsTimeRange) {
+            this.metricsTimeRange = metricsTimeRange;
+            return this;
+        }
+
+        public Builder withAWSRequestCounter(LongAdder awsRequestsCounter) {
+            this.awsRequestsCounter = awsRequestsCounter;
+            return this;
+        }
+
+        public Builder withPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        public AggregateMetricStatisticsCollector build() {
+            return new AggregateMetricStatisticsCollector(this);
+        }
+
+        public Builder withPeriodInSec(int periodInSec) {
+            this.periodInSec = periodInSec;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
+import software.amazon.awssdk.services.cloudwatch.model.ScanBy;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST;
+import static com.appdynamics.extensions.aws.util.QueryIds.toIndex;
+import static com.appdynamics.extensions.aws.util.QueryIds.toQueryId;
+
+/**
+ * Retrieves every datapoint of a batch of series since their own start time,
+ * e.g. the datapoints missed while the agent was down, and streams them to
+ * {@link MetricsProcessor#processBackfilledStatistics} with their timestamp.
+ * <p>
+ * The time range is split into chunks holding at most 100,800 datapoints,
+ * each retrieved with GetMetricData sorted oldest first. Every page is
+ * rate limited and handed to the processor as soon as it is received,
+ * so at most one page of datapoints is held in memory.
+ * <p>
+ * Returns the number of datapoints streamed.
+ */
+public class BackfillMetricStatisticsCollector implements Callable<Integer> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(BackfillMetricStatisticsCollector.class);
+
+    private static final char QUERY_ID_PREFIX = 'b';
+
+    private String accountName;
+
+    private String region;
+
+    private CloudWatchClient awsCloudWatch;
+
+    private List<AWSMetric> metrics;
+
+    private List<StatisticType> statTypes;
+
+    private List<Instant> startTimes;
+
+    private Instant endTime;
+
+    private int periodInSec;
+
+    private MetricsProcessor metricsProcessor;
+
+    private RateLimiter rateLimiter;
+
+    private LongAdder awsRequestsCounter;
+
+    private String metricPrefix;
+
+    private BackfillMetricStatisticsCollector(Builder builder) {
+        this.accountName = builder.accountName;
+        this.region = builder.region;
+        this.awsCloudWatch = builder.awsCloudWatch;
+        this.metrics = builder.metrics;
+        this.statTypes = builder.statTypes;
+        this.startTimes = builder.startTimes;
+        this.endTime = builder.endTime;
+        this.periodInSec = builder.periodInSec > 0 ? builder.periodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
+        this.metricsProcessor = builder.metricsProcessor;
+        this.rateLimiter = builder.rateLimiter;
+        this.awsRequestsCounter = builder.awsRequestsCounter;
+        this.metricPrefix = builder.metricPrefix;
+    }
+
+    public Integer call() throws Exception {
+        int backfilledDatapoints = 0;
+
+        try {
+            List<MetricDataQuery> queries = createMetricDataQueries();
+
+            Instant startTime = endTime;
+
+            for (Instant metricStartTime : startTimes) {
+                if (metricStartTime.isBefore(startTime)) {
+                    startTime = metricStartTime;
+                }
+            }
+
+            long chunkInSecs = (long) Math.max(1, MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST / metrics.size()) * periodInSec;
+
+            for (Instant chunkStartTime = startTime; chunkStartTime.isBefore(endTime); ) {
+                Instant chunkEndTime = chunkStartTime.plusSeconds(chunkInSecs);
+
+                if (chunkEndTime.isAfter(endTime)) {
+                    chunkEndTime = endTime;
+                }
+
+                backfilledDatapoints += backfillChunk(queries, chunkStartTime, chunkEndTime);
+                chunkStartTime = chunkEndTime;
+            }
+
+            LOGGER.info(String.format("Backfilled [%s] datapoints of [%s] series for Account [%s] Region [%s] "
+                            + "from [%s] to [%s]", backfilledDatapoints, metrics.size(), accountName, region,
+                    startTime, endTime));
+
+        } catch (Exception e) {
+            throw new AwsException(String.format(
+                    "Error backfilling MetricStatistics for Account [%s] Region [%s] Batch size [%s]",
+                    accountName, region, metrics.size()), e);
+        }
+
+        return backfilledDatapoints;
+    }
+
+    private int backfillChunk(List<MetricDataQuery> queries, Instant chunkStartTime, Instant chunkEndTime) {
+        GetMetricDataRequest.Builder requestBuilder = GetMetricDataRequest.builder()
+                .metricDataQueries(queries)
+                .startTime(chunkStartTime)
+                .endTime(chunkEndTime)
+                .scanBy(ScanBy.TIMESTAMP_ASCENDING);
+
+        int backfilledDatapoints = 0;
+        String nextToken = null;
+
+        do {
+            //Backfill requests have their own rate limit, so they leave the quota of the regular cycles alone
+            rateLimiter.acquire();
+
+            GetMetricDataResponse response = awsCloudWatch.getMetricData(requestBuilder.nextToken(nextToken).build());
+            awsRequestsCounter.increment();
+
+            List<MetricStatistic> page = Lists.newArrayList();
+
+            for (MetricDataResult result : response.metricDataResults()) {
+                addDatapoints(result, page);
+            }
+
+            if (!page.isEmpty()) {
+                metricsProcessor.processBackfilledStatistics(accountName, region, page);
+                backfilledDatapoints += page.size();
+            }
+
+            nextToken = response.nextToken();
+
+        } while (nextToken != null);
+
+        return backfilledDatapoints;
+    }
+
+    private void addDatapoints(MetricDataResult result, List<MetricStatistic> page) {
+        int index = toIndex(result.id(), QUERY_ID_PREFIX);
+
+        if (index < 0 || index >= metrics.size()) {
+            return;
+        }
+
+        AWSMetric metric = metrics.get(index);
+
+        List<Instant> timestamps = result.timestamps();
+        List<Double> values = result.values();
+        int size = Math.min(timestamps.size(), values.size());
+
+        for (int pointIndex = 0; pointIndex < size; pointIndex++) {
+            Instant timestamp = timestamps.get(pointIndex);
+
+            // the batch is requested from the oldest start time amongst its series
+            if (timestamp.isBefore(startTimes.get(index))) {
+                continue;
+            }
+
+            MetricStatistic metricStatistic = new MetricStatistic();
+            metricStatistic.setMetric(metric);
+            metricStatistic.setMetricPrefix(metricPrefix);
+            metricStatistic.setValue(values.get(pointIndex));
+            metricStatistic.setTimestamp(timestamp);
+            page.add(metricStatistic);
+        }
+    }
+
+    private List<MetricDataQuery> createMetricDataQueries() {
+        List<MetricDataQuery> queries = Lists.newArrayListWithCapacity(metrics.size());
+
+        for (int index = 0; index < metrics.size(); index++) {
+            AWSMetric metric = metrics.get(index);
+
+            Metric queryMetric = Metric.builder()
+                    .namespace(metric.getMetric().namespace())
+                    .metricName(metric.getIncludeMetric().getName())
+                    .dimensions(metric.getMetric().dimensions())
+                    .build();
+
+            MetricStat metricStat = MetricStat.builder()
+                    .metric(queryMetric)
+                    .period(periodInSec)
+                    .stat(statTypes.get(index).getTypeName())
+                    .build();
+
+            queries.add(MetricDataQuery.builder()
+                    .id(toQueryId(QUERY_ID_PREFIX, index))
+                    .metricStat(metricStat)
+                    .accountId(metric.getAccountId())
+                    .returnData(true)
+                    .build());
+        }
+
+        return queries;
+    }
+
+    /**
+     * Builder class to maintain readability when
+     * building {@link BackfillMetricStatisticsCollector} due to its params size
+     */
+    public static class Builder {
+
+        private String accountName;
+
+        private String region;
+
+        private CloudWatchClient awsCloudWatch;
+
+        private List<AWSMetric> metrics;
+
+        private List<StatisticType> statTypes;
+
+        private List<Instant> startTimes;
+
+        private Instant endTime;
+
+        private int periodInSec;
+
+        private MetricsProcessor metricsProcessor;
+
+        private RateLimiter rateLimiter;
+
+        private LongAdder awsRequestsCounter;
+
+        private String metricPrefix;
+
+        public Builder withAccountName(String accountName) {
+            this.accountName = accountName;
+            return this;
+        }
+
+        public Builder withRegion(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder withAwsCloudWatch(CloudWatchClient awsCloudWatch) {
+            this.awsCloudWatch = awsCloudWatch;
+            return this;
+        }
+
+        public Builder withMetrics(List<AWSMetric> metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder withStatTypes(List<StatisticType> statTypes) {
+            this.statTypes = statTypes;
+            return this;
+        }
+
+        /**
+         * Start time of each metric, the first datapoint to backfill
+         */
+        public Builder withStartTimes(List<Instant> startTimes) {
+            this.startTimes = startTimes;
+            return this;
+        }
+
+        /**
+         * End time ( exclusive ) shared by the metrics
+         */
+        public Builder withEndTime(Instant endTime) {
+            this.endTime = endTime;
+            return this;
+        }
+
+        public Builder withPeriodInSec(int periodInSec) {
+            this.periodInSec = periodInSec;
+            return this;
+        }
+
+        public Builder withMetricsProcessor(MetricsProcessor metricsProcessor) {
+            this.metricsProcessor = metricsProcessor;
+            return this;
+        }
+
+        public Builder withRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        public Builder withAWSRequestCounter(LongAdder awsRequestsCounter) {
+            this.awsRequestsCounter = awsRequestsCounter;
+            return this;
+        }
+
+        public Builder withPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        public BackfillMetricStatisticsCollector build() {
+            return new BackfillMetricStatisticsCollector(this);
+        }
+    }
+}
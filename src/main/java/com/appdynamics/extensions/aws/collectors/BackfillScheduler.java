@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link BackfillMetricStatisticsCollector}s in the background, shared by all
+ * namespaces and monitors loaded with this library.
+ * <p>
+ * Backfills run one at a time on a single daemon thread, with their own rate limit,
+ * so the regular collection cycles never wait for them and keep most of the CloudWatch
+ * request quota. Backfills submitted while too many are pending are dropped.
+ * <p>
+ * The gap of each series is only backfilled once, even if its watermark is not
+ * moved by the following cycles, e.g. when the series has no new datapoint.
+ */
+public class BackfillScheduler {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(BackfillScheduler.class);
+
+    private static final int MAX_PENDING_BACKFILLS = 1000;
+
+    private static final int DEFAULT_BACKFILL_RATE_LIMIT = 5;
+
+    private static BackfillScheduler instance;
+
+    private final ThreadPoolExecutor backfillExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_PENDING_BACKFILLS),
+            new ThreadFactoryBuilder().setNameFormat("Backfill-%d").setDaemon(true).build());
+
+    private final Map<Long, Instant> backfilledUntil = new HashMap<Long, Instant>();
+
+    private volatile RateLimiter rateLimiter = RateLimiter.create(DEFAULT_BACKFILL_RATE_LIMIT);
+
+    private BackfillScheduler() {
+    }
+
+    public static synchronized BackfillScheduler getInstance() {
+        if (instance == null) {
+            instance = new BackfillScheduler();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets the max number of backfill requests per second, the default is used if not positive
+     */
+    public void initialise(int rateLimit) {
+        int newRateLimit = rateLimit > 0 ? rateLimit : DEFAULT_BACKFILL_RATE_LIMIT;
+
+        if (newRateLimit != rateLimiter.getRate()) {
+            rateLimiter = RateLimiter.create(newRateLimit);
+
+            LOGGER.info(String.format("Backfill rate limit initialised to [%s] requests per second", newRateLimit));
+        }
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Claims the gap of the series between the given times, returns the start
+     * of the part which has not been backfilled yet, or null if there is none
+     */
+    public synchronized Instant claimGap(long fingerprint, Instant gapStartTime, Instant gapEndTime) {
+        Instant previousEndTime = backfilledUntil.get(fingerprint);
+        Instant startTime = previousEndTime != null && previousEndTime.isAfter(gapStartTime) ?
+                previousEndTime : gapStartTime;
+
+        if (!startTime.isBefore(gapEndTime)) {
+            return null;
+        }
+
+        backfilledUntil.put(fingerprint, gapEndTime);
+        return startTime;
+    }
+
+    /**
+     * Queues the backfill, returns false if it was dropped
+     */
+    public boolean submit(final BackfillMetricStatisticsCollector backfill) {
+        try {
+            backfillExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        backfill.call();
+
+                    } catch (Exception e) {
+                        LOGGER.error("Backfill failed", e);
+                    }
+                }
+            });
+
+            return true;
+
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn(String.format("Dropped backfill, [%s] backfills are already pending",
+                    backfillExecutor.getQueue().size()));
+            return false;
+        }
+    }
+}
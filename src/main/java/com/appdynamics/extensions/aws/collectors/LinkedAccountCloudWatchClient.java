@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchServiceClientConfiguration;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
+import software.amazon.awssdk.services.cloudwatch.paginators.ListMetricsIterable;
+
+import java.util.Objects;
+
+/**
+ * Lists the metrics of a source account linked to a CloudWatch monitoring account,
+ * through the client of the monitoring account. Every ListMetrics request is sent with
+ * IncludeLinkedAccounts and OwningAccount set to the linked account.
+ * <p>
+ * Only ListMetrics is supported, as it is the only request made by
+ * {@link com.appdynamics.extensions.aws.metric.processors.MetricsProcessor}s
+ */
+public class LinkedAccountCloudWatchClient implements CloudWatchClient {
+
+    private final CloudWatchClient monitoringAccountCloudWatch;
+
+    private final String linkedAccountId;
+
+    public LinkedAccountCloudWatchClient(CloudWatchClient monitoringAccountCloudWatch, String linkedAccountId) {
+        this.monitoringAccountCloudWatch = monitoringAccountCloudWatch;
+        this.linkedAccountId = linkedAccountId;
+    }
+
+    @Override
+    public ListMetricsResponse listMetrics(ListMetricsRequest listMetricsRequest) {
+        return monitoringAccountCloudWatch.listMetrics(listMetricsRequest.toBuilder()
+                .includeLinkedAccounts(true)
+                .owningAccount(linkedAccountId)
+                .build());
+    }
+
+    @Override
+    public ListMetricsIterable listMetricsPaginator(ListMetricsRequest listMetricsRequest) {
+        return new ListMetricsIterable(this, listMetricsRequest);
+    }
+
+    @Override
+    public String serviceName() {
+        return monitoringAccountCloudWatch.serviceName();
+    }
+
+    @Override
+    public CloudWatchServiceClientConfiguration serviceClientConfiguration() {
+        return monitoringAccountCloudWatch.serviceClientConfiguration();
+    }
+
+    /**
+     * The monitoring account client is shared, hence left open
+     */
+    @Override
+    public void close() {
+    }
+
+    public CloudWatchClient getMonitoringAccountCloudWatch() {
+        return monitoringAccountCloudWatch;
+    }
+
+    public String getLinkedAccountId() {
+        return linkedAccountId;
+    }
+
+    // same client for the same linked account, so cached ListMetrics catalogs are reused across cycles
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof LinkedAccountCloudWatchClient)) {
+            return false;
+        }
+
+        LinkedAccountCloudWatchClient that = (LinkedAccountCloudWatchClient) o;
+        return monitoringAccountCloudWatch.equals(that.monitoringAccountCloudWatch)
+                && Objects.equals(linkedAccountId, that.linkedAccountId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(monitoringAccountCloudWatch, linkedAccountId);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST;
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_QUERIES_PER_REQUEST;
+import static com.appdynamics.extensions.aws.util.QueryIds.toIndex;
+import static com.appdynamics.extensions.aws.util.QueryIds.toQueryId;
+
+/**
+ * Merges the GetMetricData requests of concurrent {@link MetricDataStatisticsCollector}s,
+ * e.g. of every namespace collected by a {@link com.appdynamics.extensions.aws.MultipleNamespaceCloudwatchMonitor},
+ * into shared requests.
+ * <p>
+ * Requests sent with the same CloudWatch client ( i.e. account and region ) for the same
+ * time range are merged while the first one waits for the configured window, or until the
+ * merged request is full. The merged request is then sent, following pagination, through a
+ * single dispatch queue per client, rate limited to the GetMetricData rate limit, and the
+ * results are split back to each request with their original query ids.
+ * <p>
+ * Merging is disabled until {@link #initialise(int, int)} is called with a positive window.
+ */
+public class MetricDataRequestMerger {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(MetricDataRequestMerger.class);
+
+    private static final char QUERY_ID_PREFIX = 'q';
+
+    private static MetricDataRequestMerger instance;
+
+    private final Map<List<Object>, MergedRequest> openRequests = new HashMap<List<Object>, MergedRequest>();
+
+    private final Map<CloudWatchClient, RateLimiter> dispatchQueues = new ConcurrentHashMap<CloudWatchClient, RateLimiter>();
+
+    private volatile int windowInMillis;
+
+    private volatile int rateLimit;
+
+    private MetricDataRequestMerger() {
+    }
+
+    public static synchronized MetricDataRequestMerger getInstance() {
+        if (instance == null) {
+            instance = new MetricDataRequestMerger();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets how long ( in milliseconds ) the first request waits for others to be merged,
+     * a non-positive window disables merging, and the rate limit of each dispatch queue
+     */
+    public void initialise(int windowInMillis, int rateLimit) {
+        if (windowInMillis != this.windowInMillis || rateLimit != this.rateLimit) {
+            this.windowInMillis = windowInMillis;
+            this.rateLimit = rateLimit;
+            dispatchQueues.clear();
+
+            LOGGER.info(String.format("GetMetricData request merging initialised with window [%s] ms "
+                    + "rate limit [%s]", windowInMillis, rateLimit));
+        }
+    }
+
+    public boolean isEnabled() {
+        return windowInMillis > 0;
+    }
+
+    /**
+     * Returns the results of every page of the request, sent merged with concurrent requests
+     */
+    public List<MetricDataResult> getMetricData(CloudWatchClient awsCloudWatch, GetMetricDataRequest request,
+                                                LongAdder awsRequestsCounter) {
+        List<Object> key = Arrays.<Object>asList(awsCloudWatch, request.startTime(), request.endTime(),
+                request.scanByAsString());
+        int datapoints = getDatapoints(request);
+
+        List<MetricDataQuery> originalQueries = request.metricDataQueries();
+        MergedRequest mergedRequest;
+        int firstQueryIndex;
+        boolean leader = false;
+
+        synchronized (this) {
+            mergedRequest = openRequests.get(key);
+
+            if (mergedRequest != null && !mergedRequest.fits(request.metricDataQueries().size(), datapoints)) {
+                // sent right away, this request starts a new one
+                openRequests.remove(key);
+                mergedRequest.close();
+                mergedRequest = null;
+            }
+
+            if (mergedRequest == null) {
+                mergedRequest = new MergedRequest();
+                openRequests.put(key, mergedRequest);
+                leader = true;
+            }
+
+            // the queries of each request are contiguous in the merged request
+            firstQueryIndex = mergedRequest.queries.size();
+
+            for (MetricDataQuery query : originalQueries) {
+                mergedRequest.queries.add(query.toBuilder()
+                        .id(toQueryId(QUERY_ID_PREFIX, mergedRequest.queries.size())).build());
+            }
+
+            mergedRequest.datapoints += datapoints;
+
+            if (!mergedRequest.fits(1, 0)) {
+                openRequests.remove(key);
+                mergedRequest.close();
+            }
+        }
+
+        if (leader) {
+            mergedRequest.awaitMerges(windowInMillis);
+
+            List<MetricDataQuery> mergedQueries;
+
+            synchronized (this) {
+                openRequests.remove(key, mergedRequest);
+                mergedQueries = Lists.newArrayList(mergedRequest.queries);
+            }
+
+            mergedRequest.dispatch(awsCloudWatch, request.toBuilder().metricDataQueries(mergedQueries),
+                    getDispatchQueue(awsCloudWatch), awsRequestsCounter);
+        }
+
+        List<MetricDataResult> results = Lists.newArrayList();
+
+        for (MetricDataResult result : mergedRequest.getResults()) {
+            int queryIndex = toIndex(result.id(), QUERY_ID_PREFIX) - firstQueryIndex;
+
+            if (queryIndex >= 0 && queryIndex < originalQueries.size()) {
+                results.add(result.toBuilder().id(originalQueries.get(queryIndex).id()).build());
+            }
+        }
+
+        return results;
+    }
+
+    private RateLimiter getDispatchQueue(CloudWatchClient awsCloudWatch) {
+        RateLimiter dispatchQueue = dispatchQueues.get(awsCloudWatch);
+
+        if (dispatchQueue == null) {
+            dispatchQueues.putIfAbsent(awsCloudWatch, RateLimiter.create(rateLimit > 0 ? rateLimit : 50));
+            dispatchQueue = dispatchQueues.get(awsCloudWatch);
+        }
+
+        return dispatchQueue;
+    }
+
+    private static int getDatapoints(GetMetricDataRequest request) {
+        long timeRangeInSecs = Duration.between(request.startTime(), request.endTime()).getSeconds();
+        int datapoints = 0;
+
+        for (MetricDataQuery query : request.metricDataQueries()) {
+            int periodInSec = query.metricStat() != null && query.metricStat().period() != null ?
+                    query.metricStat().period() : 60;
+            datapoints += (int) Math.ceil(Math.max(timeRangeInSecs, 1) / (double) Math.max(periodInSec, 1));
+        }
+
+        return datapoints;
+    }
+
+    private static class MergedRequest {
+
+        private final List<MetricDataQuery> queries = Lists.newArrayList();
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private final CompletableFuture<List<MetricDataResult>> results = new CompletableFuture<List<MetricDataResult>>();
+
+        private int datapoints;
+
+        private boolean fits(int moreQueries, int moreDatapoints) {
+            return queries.size() + moreQueries <= MAX_METRIC_DATA_QUERIES_PER_REQUEST
+                    && datapoints + moreDatapoints <= MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST;
+        }
+
+        private void close() {
+            closed.countDown();
+        }
+
+        private void awaitMerges(int windowInMillis) {
+            try {
+                closed.await(windowInMillis, TimeUnit.MILLISECONDS);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void dispatch(CloudWatchClient awsCloudWatch, GetMetricDataRequest.Builder requestBuilder,
+                              RateLimiter dispatchQueue, LongAdder awsRequestsCounter) {
+            try {
+                List<MetricDataResult> mergedResults = Lists.newArrayList();
+                String nextToken = null;
+
+                do {
+                    dispatchQueue.acquire();
+
+                    GetMetricDataResponse response = RequestCoalescer.getInstance().getMetricData(awsCloudWatch,
+                            requestBuilder.nextToken(nextToken).build(), awsRequestsCounter);
+                    mergedResults.addAll(response.metricDataResults());
+                    nextToken = response.nextToken();
+
+                } while (nextToken != null);
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(String.format("Sent merged GetMetricData request with [%s] queries",
+                            requestBuilder.build().metricDataQueries().size()));
+                }
+
+                results.complete(mergedResults);
+
+            } catch (RuntimeException e) {
+                results.completeExceptionally(e);
+            }
+        }
+
+        private List<MetricDataResult> getResults() {
+            try {
+                return results.get();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AwsException("Interrupted while waiting for merged GetMetricData request", e);
+
+            } catch (ExecutionException e) {
+                throw new AwsException("Error executing merged GetMetricData request", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.providers.PublishLagTracker;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
+import software.amazon.awssdk.services.cloudwatch.model.ScanBy;
+import software.amazon.awssdk.services.cloudwatch.model.StatusCode;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_END_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_START_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.LATEST_DATAPOINT_WINDOW_IN_PERIODS;
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST;
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_QUERIES_PER_REQUEST;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getSeriesFingerprint;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getStartTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.QueryIds.toIndex;
+import static com.appdynamics.extensions.aws.util.QueryIds.toQueryId;
+import static com.appdynamics.extensions.aws.validators.Validator.validateTimeRange;
+
+/**
+ * Retrieves statistics for a batch of metrics with a single
+ * GetMetricData request, using one {@link MetricDataQuery} per metric.
+ * <p>
+ * <p>Cloudwatch Limitation:
+ * A single GetMetricData request can contain up to 500 queries
+ * and return up to 100,800 data points, therefore batches
+ * should be sized with {@link #getMaxBatchSize(int, int)}.
+ * <p>
+ * When only the latest datapoint is wanted, only the last
+ * {@link com.appdynamics.extensions.aws.Constants#LATEST_DATAPOINT_WINDOW_IN_PERIODS} periods
+ * of the time range are requested, so every query fits in the first page whatever
+ * the configured time range, and results are requested newest first.
+ * <p>
+ * When series watermarks are enabled, the batch is requested from the
+ * oldest watermark amongst its metrics, datapoints older than the watermark
+ * of their metric are ignored and the latest value consumed is reported
+ * again for metrics without a newer datapoint.
+ */
+public class MetricDataStatisticsCollector implements Callable<List<MetricStatistic>> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(MetricDataStatisticsCollector.class);
+
+    private static final char QUERY_ID_PREFIX = 'm';
+
+    private static final long NO_DATAPOINT = Long.MIN_VALUE;
+
+    private String accountName;
+
+    private String region;
+
+    private CloudWatchClient awsCloudWatch;
+
+    private List<AWSMetric> metrics;
+
+    private List<StatisticType> statTypes;
+
+    private int startTimeInMinsBeforeNow;
+
+    private int endTimeInMinsBeforeNow;
+
+    private LongAdder awsRequestsCounter;
+
+    private int periodInSec;
+
+    private String metricPrefix;
+
+    private boolean latestDatapointOnly;
+
+    private MetricDataStatisticsCollector(Builder builder) {
+        this.accountName = builder.accountName;
+        this.region = builder.region;
+        this.awsCloudWatch = builder.awsCloudWatch;
+        this.metrics = builder.metrics;
+        this.statTypes = builder.statTypes;
+        this.awsRequestsCounter = builder.awsRequestsCounter;
+        this.periodInSec = builder.periodInSec > 0 ? builder.periodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
+        this.metricPrefix = builder.metricPrefix;
+        this.latestDatapointOnly = builder.latestDatapointOnly;
+
+        setStartTimeInMinsBeforeNow(builder.metricsTimeRange.getStartTimeInMinsBeforeNow());
+        setEndTimeInMinsBeforeNow(builder.metricsTimeRange.getEndTimeInMinsBeforeNow());
+    }
+
+    /**
+     * Uses {@link CloudWatchClient} to retrieve the datapoints of every
+     * metric in the batch, following pagination until all are returned.
+     * <p>
+     * Returns one statistic per metric, in the same order as the batch,
+     * based from the latest datapoint of each metric.
+     */
+    public List<MetricStatistic> call() throws Exception {
+        List<MetricStatistic> metricStatistics = Lists.newArrayListWithCapacity(metrics.size());
+
+        try {
+            validateTimeRange(startTimeInMinsBeforeNow, endTimeInMinsBeforeNow);
+
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(String.format("Collecting MetricStatistics for Account [%s] Region [%s] Batch size [%s]",
+                        accountName, region, metrics.size()));
+            }
+
+            List<MetricDataQuery> queries = createMetricDataQueries();
+
+            // indexed by query, results are matched through the index encoded in their id
+            long[] latestTimestamps = new long[metrics.size()];
+            double[] latestValues = new double[metrics.size()];
+            boolean[] datapointsReturned = new boolean[metrics.size()];
+            Arrays.fill(latestTimestamps, NO_DATAPOINT);
+
+            SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+            long[] fingerprints = new long[metrics.size()];
+
+            Instant endTime = getTimeInMinsBeforeNow(endTimeInMinsBeforeNow, periodInSec);
+            Instant startTime = getStartTime(watermarkProvider, fingerprints, endTime);
+
+            GetMetricDataRequest.Builder requestBuilder = GetMetricDataRequest.builder()
+                    .metricDataQueries(queries)
+                    .startTime(startTime)
+                    .endTime(endTime);
+
+            if (latestDatapointOnly) {
+                requestBuilder.scanBy(ScanBy.TIMESTAMP_DESCENDING);
+            }
+
+            MetricDataRequestMerger requestMerger = MetricDataRequestMerger.getInstance();
+
+            if (!latestDatapointOnly && requestMerger.isEnabled() && startTime.isBefore(endTime)) {
+                // merged with the concurrent requests of other namespaces, every page is returned at once
+                List<MetricDataResult> results = requestMerger.getMetricData(awsCloudWatch, requestBuilder.build(),
+                        awsRequestsCounter);
+                updateLatestValues(results, latestTimestamps, latestValues, datapointsReturned, watermarkProvider,
+                        fingerprints);
+
+            } else {
+                String nextToken = null;
+                int metricsWithValue = 0;
+
+                while (startTime.isBefore(endTime)) {
+                    GetMetricDataResponse response = RequestCoalescer.getInstance().getMetricData(awsCloudWatch,
+                            requestBuilder.nextToken(nextToken).build(), awsRequestsCounter);
+
+                    metricsWithValue += updateLatestValues(response.metricDataResults(), latestTimestamps,
+                            latestValues, datapointsReturned, watermarkProvider, fingerprints);
+
+                    nextToken = response.nextToken();
+
+                    if (nextToken == null || (latestDatapointOnly && metricsWithValue == metrics.size())) {
+                        break;
+                    }
+                }
+            }
+
+            recordPublishLag(latestTimestamps);
+
+            for (int index = 0; index < metrics.size(); index++) {
+                AWSMetric metric = metrics.get(index);
+
+                MetricStatistic metricStatistic = new MetricStatistic();
+                metricStatistic.setMetric(metric);
+                metricStatistic.setMetricPrefix(metricPrefix);
+
+                if (latestTimestamps[index] != NO_DATAPOINT) {
+                    metricStatistic.setValue(latestValues[index]);
+                    watermarkProvider.update(fingerprints[index], Instant.ofEpochMilli(latestTimestamps[index]),
+                            latestValues[index]);
+
+                } else if (datapointsReturned[index] || !startTime.isBefore(endTime)) {
+                    // nothing new past the watermark, the latest value consumed is reported again
+                    metricStatistic.setValue(watermarkProvider.getLatestValue(fingerprints[index]));
+
+                } else {
+                    metricStatistic.setNoDatapointReturned(true);
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(String.format("No statistics retrieved for Namespace [%s] "
+                                        + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
+                                metric.getMetric().namespace(), accountName, region,
+                                metric.getIncludeMetric().getName(), metric.getMetric().dimensions()));
+                    }
+                }
+
+                metricStatistics.add(metricStatistic);
+            }
+
+        } catch (Exception e) {
+            throw new AwsException(String.format(
+                    "Error getting MetricStatistics for Account [%s] Region [%s] Batch size [%s]",
+                    accountName, region, metrics.size()), e);
+        }
+
+        return metricStatistics;
+    }
+
+    private List<MetricDataQuery> createMetricDataQueries() {
+        List<MetricDataQuery> queries = Lists.newArrayListWithCapacity(metrics.size());
+
+        for (int index = 0; index < metrics.size(); index++) {
+            AWSMetric metric = metrics.get(index);
+
+            Metric queryMetric = Metric.builder()
+                    .namespace(metric.getMetric().namespace())
+                    .metricName(metric.getIncludeMetric().getName())
+                    .dimensions(metric.getMetric().dimensions())
+                    .build();
+
+            MetricStat metricStat = MetricStat.builder()
+                    .metric(queryMetric)
+                    .period(periodInSec)
+                    .stat(statTypes.get(index).getTypeName())
+                    .build();
+
+            // metrics of accounts linked to a monitoring account are retrieved from their owning account
+            queries.add(MetricDataQuery.builder()
+                    .id(toQueryId(QUERY_ID_PREFIX, index))
+                    .metricStat(metricStat)
+                    .accountId(metric.getAccountId())
+                    .returnData(true)
+                    .build());
+        }
+
+        return queries;
+    }
+
+    /**
+     * Returns the oldest start time amongst the metrics of the batch,
+     * filling the series fingerprints if watermarks are enabled
+     */
+    private Instant getStartTime(SeriesWatermarkProvider watermarkProvider, long[] fingerprints, Instant endTime) {
+        Instant configuredStartTime = getStartTimeInMinsBeforeNow(startTimeInMinsBeforeNow, endTime, periodInSec);
+
+        if (latestDatapointOnly) {
+            Instant latestWindowStartTime = endTime.minusSeconds((long) LATEST_DATAPOINT_WINDOW_IN_PERIODS * periodInSec);
+
+            if (latestWindowStartTime.isAfter(configuredStartTime)) {
+                configuredStartTime = latestWindowStartTime;
+            }
+        }
+
+        if (!watermarkProvider.isEnabled()) {
+            return configuredStartTime;
+        }
+
+        Instant startTime = null;
+
+        for (int index = 0; index < metrics.size(); index++) {
+            fingerprints[index] = getSeriesFingerprint(accountName, region, metrics.get(index), statTypes.get(index));
+
+            Instant metricStartTime = watermarkProvider.getStartTime(fingerprints[index],
+                    configuredStartTime, periodInSec, metrics.get(index).getMetric().namespace());
+
+            if (startTime == null || metricStartTime.isBefore(startTime)) {
+                startTime = metricStartTime;
+            }
+        }
+
+        return startTime != null ? startTime : configuredStartTime;
+    }
+
+    private void recordPublishLag(long[] latestTimestamps) {
+        PublishLagTracker publishLagTracker = PublishLagTracker.getInstance();
+
+        if (!publishLagTracker.isEnabled() || metrics.isEmpty()) {
+            return;
+        }
+
+        long freshestTimestamp = NO_DATAPOINT;
+
+        for (long latestTimestamp : latestTimestamps) {
+            freshestTimestamp = Math.max(freshestTimestamp, latestTimestamp);
+        }
+
+        if (freshestTimestamp != NO_DATAPOINT) {
+            publishLagTracker.recordDatapoint(metrics.get(0).getMetric().namespace(),
+                    Instant.ofEpochMilli(freshestTimestamp).plusSeconds(periodInSec), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Keeps the latest current datapoint of each result, returns the
+     * number of queries which had no value before
+     */
+    private int updateLatestValues(List<MetricDataResult> results, long[] latestTimestamps, double[] latestValues,
+                                   boolean[] datapointsReturned, SeriesWatermarkProvider watermarkProvider,
+                                   long[] fingerprints) {
+        int newValues = 0;
+
+        for (MetricDataResult result : results) {
+            int index = toIndex(result.id(), QUERY_ID_PREFIX);
+
+            if (index < 0 || index >= metrics.size()) {
+                continue;
+            }
+
+            datapointsReturned[index] |= !result.timestamps().isEmpty();
+
+            if (updateLatestValue(result, index, latestTimestamps, latestValues, watermarkProvider,
+                    fingerprints[index])) {
+                newValues++;
+            }
+        }
+
+        return newValues;
+    }
+
+    /**
+     * Keeps the latest current datapoint of the result for the given query index,
+     * returns true if the query had no value before
+     */
+    private boolean updateLatestValue(MetricDataResult result, int index,
+                                      long[] latestTimestamps, double[] latestValues,
+                                      SeriesWatermarkProvider watermarkProvider, long fingerprint) {
+        List<Instant> timestamps = result.timestamps();
+        List<Double> values = result.values();
+        boolean hadValue = latestTimestamps[index] != NO_DATAPOINT;
+
+        // results are sorted newest first when only the latest datapoint is requested
+        int size = Math.min(timestamps.size(), values.size());
+        int pointsToScan = latestDatapointOnly ? Math.min(1, size) : size;
+
+        for (int pointIndex = 0; pointIndex < pointsToScan; pointIndex++) {
+            Instant timestamp = timestamps.get(pointIndex);
+
+            if (!watermarkProvider.isCurrent(fingerprint, timestamp)) {
+                continue;
+            }
+
+            long timestampInMillis = timestamp.toEpochMilli();
+
+            if (timestampInMillis > latestTimestamps[index]) {
+                latestTimestamps[index] = timestampInMillis;
+                latestValues[index] = values.get(pointIndex);
+            }
+        }
+
+        if (result.statusCode() == StatusCode.FORBIDDEN || result.statusCode() == StatusCode.INTERNAL_ERROR) {
+            LOGGER.warn(String.format("GetMetricData returned status [%s] for Account [%s] Region [%s] Metric [%s] Messages [%s]",
+                    result.statusCodeAsString(), accountName, region,
+                    metrics.get(index).getIncludeMetric().getName(), result.messages()));
+        }
+
+        return !hadValue && latestTimestamps[index] != NO_DATAPOINT;
+    }
+
+    /**
+     * Returns whether the metrics must be retrieved with GetMetricData batches rather than
+     * GetMetricStatistics requests. Only GetMetricData can retrieve the metrics of linked
+     * accounts, and only GetMetricData requests are merged with those of other namespaces
+     */
+    public static boolean isRequired(boolean useGetMetricData, boolean latestDatapointOnly,
+                                     boolean hasLinkedAccounts) {
+        return useGetMetricData || latestDatapointOnly || hasLinkedAccounts
+                || MetricDataRequestMerger.getInstance().isEnabled();
+    }
+
+    /**
+     * Splits the metrics into the batches of the GetMetricData requests retrieving them,
+     * only metrics sharing the same time range and period are batched together
+     */
+    static List<List<AWSMetric>> createBatches(List<AWSMetric> metrics, MetricTimeRangeResolver timeRangeResolver,
+                                               boolean latestDatapointOnly) {
+        List<List<AWSMetric>> batches = Lists.newArrayList();
+
+        for (List<AWSMetric> timeRangeMetrics : timeRangeResolver.groupMetricsByTimeRangeAndPeriod(metrics).values()) {
+            IncludeMetric includeMetric = timeRangeMetrics.get(0).getIncludeMetric();
+            int periodInSec = timeRangeResolver.getPeriodInSec(includeMetric);
+            int timeRangeInMins = getRequestedTimeRangeInMins(timeRangeResolver.getMetricsTimeRange(includeMetric),
+                    periodInSec, latestDatapointOnly);
+
+            batches.addAll(Lists.partition(timeRangeMetrics, getMaxBatchSize(timeRangeInMins, periodInSec)));
+        }
+
+        return batches;
+    }
+
+    /**
+     * Returns the length ( in minutes ) of the time range requested for each metric,
+     * only its latest periods when only the latest datapoint is wanted
+     */
+    static int getRequestedTimeRangeInMins(MetricsTimeRange timeRange, int periodInSec, boolean latestDatapointOnly) {
+        int timeRangeInMins = timeRange.getStartTimeInMinsBeforeNow() - timeRange.getEndTimeInMinsBeforeNow();
+
+        if (latestDatapointOnly) {
+            int latestWindowInMins = (int) Math.ceil(LATEST_DATAPOINT_WINDOW_IN_PERIODS * periodInSec / 60.0);
+            timeRangeInMins = Math.min(timeRangeInMins, latestWindowInMins);
+        }
+
+        return timeRangeInMins;
+    }
+
+    /**
+     * Returns the number of metrics that can be packed into a single
+     * GetMetricData request without exceeding the query or datapoint limits
+     *
+     * @param timeRangeInMins the time range of each query in minutes
+     * @param periodInSec     the period of each query in seconds
+     * @return max batch size
+     */
+    public static int getMaxBatchSize(int timeRangeInMins, int periodInSec) {
+        int datapointsPerQuery = (int) Math.ceil(Math.max(timeRangeInMins, 1) * 60.0 / Math.max(periodInSec, 1));
+        int batchSize = MAX_METRIC_DATA_DATAPOINTS_PER_REQUEST / Math.max(datapointsPerQuery, 1);
+        return Math.max(1, Math.min(MAX_METRIC_DATA_QUERIES_PER_REQUEST, batchSize));
+    }
+
+    private void setStartTimeInMinsBeforeNow(int startTimeInMinsBeforeNow) {
+        this.startTimeInMinsBeforeNow = startTimeInMinsBeforeNow < 0 ?
+                DEFAULT_START_TIME_IN_MINS_BEFORE_NOW : startTimeInMinsBeforeNow;
+    }
+
+    private void setEndTimeInMinsBeforeNow(int endTimeInMinsBeforeNow) {
+        this.endTimeInMinsBeforeNow = endTimeInMinsBeforeNow < 0 ?
+                DEFAULT_END_TIME_IN_MINS_BEFORE_NOW : endTimeInMinsBeforeNow;
+    }
+
+    /**
+     * Builder class to maintain readability when
+     * building {@link MetricDataStatisticsCollector} due to its params size
+     */
+    public static class Builder {
+
+        private String accountName;
+
+        private String region;
+
+        private CloudWatchClient awsCloudWatch;
+
+        private List<AWSMetric> metrics;
+
+        private List<StatisticType> statTypes;
+
+        private MetricsTimeRange metricsTimeRange;
+
+        private LongAdder awsRequestsCounter;
+
+        private int periodInSec;
+
+        private String metricPrefix;
+
+        private boolean latestDatapointOnly;
+
+        public Builder withAccountName(String accountName) {
+            this.accountName = accountName;
+            return this;
+        }
+
+        public Builder withRegion(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder withAwsCloudWatch(CloudWatchClient awsCloudWatch) {
+            this.awsCloudWatch = awsCloudWatch;
+            return this;
+        }
+
+        public Builder withMetrics(List<AWSMetric> metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder withStatTypes(List<StatisticType> statTypes) {
+            this.statTypes = statTypes;
+            return this;
+        }
+
+        public Builder withMetricsTimeRange(MetricsTimeRange metricsTimeRange) {
+            this.metricsTimeRange = metricsTimeRange;
+            return this;
+        }
+
+        public Builder withAWSRequestCounter(LongAdder awsRequestsCounter) {
+            this.awsRequestsCounter = awsRequestsCounter;
+            return this;
+        }
+
+        public Builder withPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        public Builder withLatestDatapointOnly(boolean latestDatapointOnly) {
+            this.latestDatapointOnly = latestDatapointOnly;
+            return this;
+        }
+
+        public MetricDataStatisticsCollector build() {
+            return new MetricDataStatisticsCollector(this);
+        }
+
+        public Builder withPeriodInSec(int periodInSec) {
+            this.periodInSec = periodInSec;
+            return this;
+        }
+    }
+}
@@ -12,25 +12,32 @@ import com.appdynamics.extensions.aws.dto.AWSMetric;
 import com.appdynamics.extensions.aws.exceptions.AwsException;
 import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.providers.PublishLagTracker;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.util.InFlightRequestLimiter;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.Datapoint;
 import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsRequest;
 import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
 
 import static com.appdynamics.extensions.aws.Constants.DEFAULT_END_TIME_IN_MINS_BEFORE_NOW;
 import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
 import static com.appdynamics.extensions.aws.Constants.DEFAULT_START_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getSeriesFingerprint;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getStartTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getTimeInMinsBeforeNow;
 import static com.appdynamics.extensions.aws.validators.Validator.validateTimeRange;
 
 /**
@@ -65,8 +72,12 @@ public class MetricStatisticCollector implements Callable<MetricStatistic> {
 
     private LongAdder awsRequestsCounter;
 
+    private int periodInSec;
+
     private String metricPrefix;
 
+    private long fingerprint;
+
     private MetricStatisticCollector(Builder builder) {
 
         this.accountName = builder.accountName;
@@ -75,6 +86,7 @@ public class MetricStatisticCollector implements Callable<MetricStatistic> {
         this.metric = builder.metric;
         this.statType = builder.statType;
         this.awsRequestsCounter = builder.awsRequestsCounter;
+        this.periodInSec = builder.periodInSec > 0 ? builder.periodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
         this.metricPrefix = builder.metricPrefix;
 
         //Check if time ranges are specified locally for a metric. If not use the global time ranges.
@@ -99,72 +111,180 @@ public class MetricStatisticCollector implements Callable<MetricStatistic> {
      * <p>
      * Returns statistic based from the latest datapoint
      * and the statistic type specified.
+     * <p>
+     * When series watermarks are enabled, only datapoints from the last
+     * consumed one onwards are requested, and its value is reported
+     * again if nothing newer is available.
      */
     public MetricStatistic call() throws Exception {
         MetricStatistic metricStatistic = null;
 
         try {
-            validateTimeRange(startTimeInMinsBeforeNow, endTimeInMinsBeforeNow);
+            metricStatistic = createMetricStatistic();
+            GetMetricStatisticsRequest request = createGetMetricStatisticsRequest();
 
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace(String.format("Collecting MetricStatistic for Namespace [%s] "
-                                + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
-                        metric.getMetric().namespace(), accountName, region,
-                        metric.getIncludeMetric().getName(), metric.getMetric().dimensions()));
+            if (request != null) {
+                GetMetricStatisticsResponse result = RequestCoalescer.getInstance().getMetricStatistics(awsCloudWatch,
+                        request, awsRequestsCounter);
+
+                setValue(metricStatistic, result);
+
+            } else {
+                setLatestKnownValue(metricStatistic);
             }
 
-            metricStatistic = new MetricStatistic();
-            metricStatistic.setMetric(metric);
-            metricStatistic.setMetricPrefix(metricPrefix);
+        } catch (Exception e) {
+            throw createAwsException(e);
+        }
 
-            GetMetricStatisticsRequest request = createGetMetricStatisticsRequest();
-            GetMetricStatisticsResponse result = awsCloudWatch.getMetricStatistics(request);
-            awsRequestsCounter.increment();
+        return metricStatistic;
+    }
 
-            Datapoint latestDatapoint = getLatestDatapoint(result.datapoints());
+    /**
+     * Same as {@link #call()}, but sends the request with the given {@link CloudWatchAsyncClient}
+     * once the limiter allows it, without holding the calling thread until the response arrives
+     */
+    public CompletableFuture<MetricStatistic> callAsync(CloudWatchAsyncClient awsCloudWatchAsync,
+                                                        InFlightRequestLimiter requestLimiter) {
+        final MetricStatistic metricStatistic;
+        final GetMetricStatisticsRequest request;
 
-            if (latestDatapoint != null) {
-                Double value = getValue(latestDatapoint);
-                metricStatistic.setValue(value);
-                metricStatistic.setUnit(latestDatapoint.unitAsString());
-            }
+        try {
+            metricStatistic = createMetricStatistic();
+            request = createGetMetricStatisticsRequest();
 
         } catch (Exception e) {
-            throw new AwsException(String.format(
-                    "Error getting MetricStatistic for Namespace [%s] "
+            return InFlightRequestLimiter.failedFuture(createAwsException(e));
+        }
+
+        if (request == null) {
+            setLatestKnownValue(metricStatistic);
+            return CompletableFuture.completedFuture(metricStatistic);
+        }
+
+        CompletableFuture<GetMetricStatisticsResponse> response = RequestCoalescer.getInstance()
+                .getMetricStatisticsAsync(awsCloudWatchAsync, request, requestLimiter, awsRequestsCounter);
+
+        CompletableFuture<MetricStatistic> metricStatisticResponse = response.handle(
+                new BiFunction<GetMetricStatisticsResponse, Throwable, MetricStatistic>() {
+                    public MetricStatistic apply(GetMetricStatisticsResponse result, Throwable throwable) {
+                        if (throwable != null) {
+                            throw createAwsException(throwable instanceof CompletionException
+                                    && throwable.getCause() != null ? throwable.getCause() : throwable);
+                        }
+
+                        setValue(metricStatistic, result);
+                        return metricStatistic;
+                    }
+                });
+
+        InFlightRequestLimiter.propagateCancellation(metricStatisticResponse, response);
+        return metricStatisticResponse;
+    }
+
+    private MetricStatistic createMetricStatistic() {
+        validateTimeRange(startTimeInMinsBeforeNow, endTimeInMinsBeforeNow);
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(String.format("Collecting MetricStatistic for Namespace [%s] "
                             + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
                     metric.getMetric().namespace(), accountName, region,
-                    metric.getIncludeMetric().getName(), metric.getMetric().dimensions()), e);
+                    metric.getIncludeMetric().getName(), metric.getMetric().dimensions()));
         }
 
+        MetricStatistic metricStatistic = new MetricStatistic();
+        metricStatistic.setMetric(metric);
+        metricStatistic.setMetricPrefix(metricPrefix);
+
         return metricStatistic;
     }
 
+    /**
+     * Returns the request of the datapoints not consumed yet,
+     * null if no new datapoint is expected
+     */
     private GetMetricStatisticsRequest createGetMetricStatisticsRequest() {
+        SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+        fingerprint = watermarkProvider.isEnabled() ?
+                getSeriesFingerprint(accountName, region, metric, statType) : 0L;
+
+        Instant endTime = getTimeInMinsBeforeNow(endTimeInMinsBeforeNow, periodInSec);
+        Instant startTime = watermarkProvider.getStartTime(fingerprint,
+                getStartTimeInMinsBeforeNow(startTimeInMinsBeforeNow, endTime, periodInSec),
+                periodInSec, metric.getMetric().namespace());
+
+        if (!startTime.isBefore(endTime)) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("No new datapoints expected for Namespace [%s] "
+                                + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
+                        metric.getMetric().namespace(), accountName, region,
+                        metric.getIncludeMetric().getName(), metric.getMetric().dimensions()));
+            }
+
+            return null;
+        }
+
+        return createGetMetricStatisticsRequest(startTime, endTime);
+    }
+
+    private void setValue(MetricStatistic metricStatistic, GetMetricStatisticsResponse result) {
+        SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+        Datapoint latestDatapoint = getLatestDatapoint(result.datapoints());
+
+        if (latestDatapoint != null) {
+            PublishLagTracker.getInstance().recordDatapoint(metric.getMetric().namespace(),
+                    latestDatapoint.timestamp().plusSeconds(periodInSec), System.currentTimeMillis());
+        }
+
+        if (latestDatapoint == null) {
+            metricStatistic.setNoDatapointReturned(true);
+            return;
+        }
+
+        if (watermarkProvider.isCurrent(fingerprint, latestDatapoint.timestamp())) {
+            Double value = getValue(latestDatapoint);
+            metricStatistic.setValue(value);
+            metricStatistic.setUnit(latestDatapoint.unitAsString());
+            watermarkProvider.update(fingerprint, latestDatapoint.timestamp(), value);
+
+        } else {
+            setLatestKnownValue(metricStatistic);
+        }
+    }
+
+    /**
+     * Reports the value of the latest datapoint consumed when nothing newer is available
+     */
+    private void setLatestKnownValue(MetricStatistic metricStatistic) {
+        metricStatistic.setValue(SeriesWatermarkProvider.getInstance().getLatestValue(fingerprint));
+    }
+
+    private AwsException createAwsException(Throwable cause) {
+        return new AwsException(String.format(
+                "Error getting MetricStatistic for Namespace [%s] "
+                        + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
+                metric.getMetric().namespace(), accountName, region,
+                metric.getIncludeMetric().getName(), metric.getMetric().dimensions()), cause);
+    }
+
+    private GetMetricStatisticsRequest createGetMetricStatisticsRequest(Instant startTime, Instant endTime) {
         GetMetricStatisticsRequest getMetricStatisticsRequest = GetMetricStatisticsRequest.builder()
-                .startTime(DateTime.now(DateTimeZone.UTC).minusMinutes(startTimeInMinsBeforeNow).toDate().toInstant())
+                .startTime(startTime)
                 .namespace(metric.getMetric().namespace())
                 .dimensions(metric.getMetric().dimensions())
-                .period(DEFAULT_METRIC_PERIOD_IN_SEC)
+                .period(periodInSec)
                 .metricName(metric.getIncludeMetric().getName())
                 .statistics(statType.asStatistic())
-                .endTime(DateTime.now(DateTimeZone.UTC).minusMinutes(endTimeInMinsBeforeNow).toDate().toInstant())
+                .endTime(endTime)
                 .build();
 
         return getMetricStatisticsRequest;
     }
 
     private Datapoint getLatestDatapoint(List<Datapoint> datapoints) {
-        Datapoint datapoint = null;
-
-        if (datapoints != null && !datapoints.isEmpty()) {
-            if (datapoints.size() > 1) {
-                Collections.sort(datapoints, new DatapointComparator());
-            }
+        Datapoint datapoint = findLatestDatapoint(datapoints);
 
-            datapoint = datapoints.get(0);
-
-        } else if (LOGGER.isDebugEnabled()) {
+        if (datapoint == null && LOGGER.isDebugEnabled()) {
             LOGGER.debug(String.format("No statistics retrieved for Namespace [%s] "
                             + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
                     metric.getMetric().namespace(), accountName, region,
@@ -175,31 +295,27 @@ public class MetricStatisticCollector implements Callable<MetricStatistic> {
     }
 
     /**
-     * Descending order comparator for Datapoint
-     * Null value is always considered last
+     * Returns the datapoint with the latest timestamp in a single pass,
+     * null datapoints are ignored and datapoints without timestamp are
+     * only returned when no other datapoint is available
      */
-    private class DatapointComparator implements Comparator<Datapoint> {
-
-        public int compare(Datapoint datapoint1, Datapoint datapoint2) {
-
-            if (getTimestamp(datapoint1) == null && getTimestamp(datapoint2) == null) {
-                return 0;
-
-            } else if (getTimestamp(datapoint1) == null && getTimestamp(datapoint2) != null) {
-                return 1;
-
-            } else if (getTimestamp(datapoint1) != null && getTimestamp(datapoint2) == null) {
-                return -1;
-
-            } else {
-                return -1 * getTimestamp(datapoint1).compareTo(getTimestamp(datapoint2));
+    static Datapoint findLatestDatapoint(List<Datapoint> datapoints) {
+        Datapoint latestDatapoint = null;
+
+        if (datapoints != null) {
+            for (Datapoint datapoint : datapoints) {
+                if (datapoint == null) {
+                    continue;
+                }
+
+                if (latestDatapoint == null || (datapoint.timestamp() != null &&
+                        (latestDatapoint.timestamp() == null || datapoint.timestamp().isAfter(latestDatapoint.timestamp())))) {
+                    latestDatapoint = datapoint;
+                }
             }
-
         }
 
-        private Date getTimestamp(Datapoint datapoint) {
-            return datapoint != null ? Date.from(datapoint.timestamp()) : null;
-        }
+        return latestDatapoint;
     }
 
     private Double getValue(Datapoint datapoint) {
@@ -258,6 +374,8 @@ public class MetricStatisticCollector implements Callable<MetricStatistic> {
 
         private LongAdder awsRequestsCounter;
 
+        private int periodInSec;
+
         private String metricPrefix;
 
         public Builder withAccountName(String accountName) {
@@ -304,5 +422,10 @@ public class MetricStatisticCollector implements Callable<MetricStatistic> {
             this.metricPrefix = metricPrefix;
             return this;
         }
+
+        public Builder withPeriodInSec(int periodInSec) {
+            this.periodInSec = periodInSec;
+            return this;
+        }
     }
 }
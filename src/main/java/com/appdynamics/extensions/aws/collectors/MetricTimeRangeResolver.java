@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
+
+/**
+ * Resolves the time range and period requested for the metrics of a region, the ones
+ * specified locally on the include metric, else the ones of the namespace.
+ * <p>
+ * Also groups the metrics which may share a GetMetricData request, as a single
+ * time range, aligned to the period, applies to all queries of a request.
+ */
+class MetricTimeRangeResolver {
+
+    private final MetricsTimeRange metricsTimeRange;
+
+    private final int defaultPeriodInSec;
+
+    MetricTimeRangeResolver(MetricsTimeRange metricsTimeRange, int defaultPeriodInSec) {
+        this.metricsTimeRange = metricsTimeRange;
+        this.defaultPeriodInSec = defaultPeriodInSec > 0 ? defaultPeriodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
+    }
+
+    /**
+     * Returns the time range of the metric, or the time range of the namespace when not specified locally
+     */
+    MetricsTimeRange getMetricsTimeRange(IncludeMetric includeMetric) {
+        return includeMetric.getMetricsTimeRange() != null ? includeMetric.getMetricsTimeRange() : metricsTimeRange;
+    }
+
+    /**
+     * Returns the period of the metric, or the default period when not specified locally
+     */
+    int getPeriodInSec(IncludeMetric includeMetric) {
+        return includeMetric.getPeriodInSec() > 0 ? includeMetric.getPeriodInSec() : defaultPeriodInSec;
+    }
+
+    /**
+     * Groups the include metrics sharing the same time range and period
+     */
+    <T extends IncludeMetric> Map<List<Integer>, List<T>> groupByTimeRangeAndPeriod(List<T> metrics) {
+        Map<List<Integer>, List<T>> metricsByTimeRange = new LinkedHashMap<List<Integer>, List<T>>();
+
+        for (T metric : metrics) {
+            addToGroup(metricsByTimeRange, getTimeRangeKey(metric), metric);
+        }
+
+        return metricsByTimeRange;
+    }
+
+    /**
+     * Groups the metrics whose include metrics share the same time range and period
+     */
+    Map<List<Integer>, List<AWSMetric>> groupMetricsByTimeRangeAndPeriod(List<AWSMetric> metrics) {
+        Map<List<Integer>, List<AWSMetric>> metricsByTimeRange = new LinkedHashMap<List<Integer>, List<AWSMetric>>();
+
+        for (AWSMetric metric : metrics) {
+            addToGroup(metricsByTimeRange, getTimeRangeKey(metric.getIncludeMetric()), metric);
+        }
+
+        return metricsByTimeRange;
+    }
+
+    private List<Integer> getTimeRangeKey(IncludeMetric includeMetric) {
+        MetricsTimeRange timeRange = getMetricsTimeRange(includeMetric);
+        return Arrays.asList(timeRange.getStartTimeInMinsBeforeNow(), timeRange.getEndTimeInMinsBeforeNow(),
+                getPeriodInSec(includeMetric));
+    }
+
+    private static <K, T> void addToGroup(Map<K, List<T>> groups, K key, T metric) {
+        List<T> group = groups.get(key);
+
+        if (group == null) {
+            group = Lists.newArrayList();
+            groups.put(key, group);
+        }
+
+        group.add(metric);
+    }
+}
@@ -14,24 +14,34 @@ import com.appdynamics.extensions.aws.config.MetricsConfig;
 import com.appdynamics.extensions.aws.config.ProxyConfig;
 import com.appdynamics.extensions.aws.exceptions.AwsException;
 import com.appdynamics.extensions.aws.metric.AccountMetricStatistics;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.NamespaceMetricStatistics;
+import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
-import com.appdynamics.extensions.executorservice.MonitorExecutorService;
-import com.appdynamics.extensions.executorservice.MonitorThreadPoolExecutor;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
+import com.appdynamics.extensions.aws.providers.SeriesHealthTracker;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.streams.MetricStreamReceiver;
+import com.appdynamics.extensions.aws.streams.StreamedMetricStatisticsCollector;
+import com.appdynamics.extensions.aws.util.AWSUtil;
+import com.appdynamics.extensions.aws.util.ApiCallBudgetPlanner;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.metrics.Metric;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.RateLimiter;
 import com.singularity.ee.agent.systemagent.api.MetricWriter;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
@@ -76,7 +86,8 @@ public class NamespaceMetricStatisticsCollector implements Callable<List<Metric>
 
     /**
      * Loops through each account for specified namespace and hands
-     * off account metrics retrieval to {@link AccountMetricStatisticsCollector}
+     * off account metrics retrieval to {@link AccountMetricStatisticsCollector},
+     * or reads the latest datapoints of the metric streams if the namespace is streamed
      * <p>
      * Uses {@link MetricsProcessor} to convert all stats retrieved
      * into a {@link Map<String, Double>} format
@@ -84,31 +95,82 @@ public class NamespaceMetricStatisticsCollector implements Callable<List<Metric>
      * Returns the accumulated metrics statistics for specified namespace
      */
     public List<Metric> call() {
+        return collect(new CollectionCycle(0));
+    }
+
+    /**
+     * Same as {@link #call()}, but also bounded by the deadline of the given collection
+     */
+    public List<Metric> collect(CollectionCycle collectionCycle) {
         LOGGER.info(String.format("Collecting statistics for Namespace [%s]",
                 metricsProcessor.getNamespace()));
 
         if (accounts != null && !accounts.isEmpty()) {
-            MonitorExecutorService executorService = null;
-
             try {
                 validateNamespace(metricsProcessor.getNamespace());
 
-                executorService = new MonitorThreadPoolExecutor((ThreadPoolExecutor) Executors.newFixedThreadPool(getNoOfAccountThreads()));
+                NamespaceMetricStatistics namespaceMetrics;
+                MetricStreamReceiver metricStreamReceiver = MetricStreamReceiver.getInstance();
+
+                if (metricStreamReceiver.isStreamed(metricsProcessor.getNamespace())) {
+                    namespaceMetrics = new StreamedMetricStatisticsCollector.Builder()
+                            .withAccounts(accounts)
+                            .withMetricsProcessor(metricsProcessor)
+                            .withIncludeMetrics(metricsConfig.getIncludeMetrics())
+                            .withTable(metricStreamReceiver.getTable())
+                            .withStaleAfterInMins(metricStreamReceiver.getStaleAfterInMins())
+                            .withPrefix(metricPrefix)
+                            .build()
+                            .call();
+
+                } else {
+                    Executor accountExecutor = collectionCycle.getExecutorServiceProvider().getExecutor(
+                            ExecutorServiceProvider.Level.ACCOUNT, getNoOfAccountThreads());
 
+                    List<FutureTask<AccountMetricStatistics>> tasks =
+                            createConcurrentAccountTasks(accountExecutor, collectionCycle);
 
-                List<FutureTask<AccountMetricStatistics>> tasks =
-                        createConcurrentAccountTasks(executorService);
+                    namespaceMetrics = new NamespaceMetricStatistics();
+                    namespaceMetrics.setNamespace(metricsProcessor.getNamespace());
+
+                    collectMetrics(tasks, namespaceMetrics, collectionCycle);
+                }
 
-                NamespaceMetricStatistics namespaceMetrics = new NamespaceMetricStatistics();
-                namespaceMetrics.setNamespace(metricsProcessor.getNamespace());
+                SeriesWatermarkProvider.getInstance().force();
 
-                collectMetrics(tasks, namespaceMetrics);
                 List<Metric> metricStatsForUpload = metricsProcessor.createMetricStatsMapForUpload(namespaceMetrics);
                 String total_requests = "AWS API Calls";
                 Metric metric = new Metric(total_requests, Double.toString(awsRequestsCounter.doubleValue()), metricPrefix + total_requests,
                         MetricWriter.METRIC_AGGREGATION_TYPE_SUM, MetricWriter.METRIC_TIME_ROLLUP_TYPE_SUM, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE);
                 metricStatsForUpload.add(metric);
 
+                ApiCallBudgetPlanner budgetPlanner = ApiCallBudgetPlanner.getInstance();
+
+                if (budgetPlanner.isEnabled()) {
+                    String namespace = metricsProcessor.getNamespace();
+                    addCounterMetric(metricStatsForUpload, "Planned API Calls", budgetPlanner.getAndResetPlannedCalls(namespace));
+                    addCounterMetric(metricStatsForUpload, "Planned Datapoints", budgetPlanner.getAndResetPlannedDatapoints(namespace));
+                    addCounterMetric(metricStatsForUpload, "Deferred Series", budgetPlanner.getAndResetDeferredSeries(namespace));
+                }
+
+                if (collectionCycle.hasDeadline()) {
+                    addCounterMetric(metricStatsForUpload, "Dropped Collector Tasks",
+                            collectionCycle.getDroppedTasks(metricsProcessor.getNamespace()));
+                }
+
+                SeriesHealthTracker seriesHealthTracker = SeriesHealthTracker.getInstance();
+
+                if (seriesHealthTracker.isEnabled()) {
+                    String suppressedSeries = "Suppressed Series";
+                    metricStatsForUpload.add(new Metric(suppressedSeries,
+                            Integer.toString(seriesHealthTracker.getSuppressedSeriesCount(metricsProcessor.getNamespace())),
+                            metricPrefix + suppressedSeries, MetricWriter.METRIC_AGGREGATION_TYPE_OBSERVATION,
+                            MetricWriter.METRIC_TIME_ROLLUP_TYPE_CURRENT, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE));
+
+                    addCounterMetric(metricStatsForUpload, "Skipped Series Fetches",
+                            seriesHealthTracker.getAndResetSkippedFetches(metricsProcessor.getNamespace()));
+                }
+
                 return metricStatsForUpload;
 
             } catch (Exception e) {
@@ -116,11 +178,6 @@ public class NamespaceMetricStatisticsCollector implements Callable<List<Metric>
                         String.format(
                                 "Error getting NamespaceMetricStatistics for Namespace [%s]",
                                 metricsProcessor.getNamespace()), e);
-
-            } finally {
-                if (executorService != null && !executorService.isShutdown()) {
-                    executorService.shutdown();
-                }
             }
 
         } else {
@@ -132,15 +189,18 @@ public class NamespaceMetricStatisticsCollector implements Callable<List<Metric>
     }
 
     private List<FutureTask<AccountMetricStatistics>> createConcurrentAccountTasks(
-            MonitorExecutorService executorService) {
+            Executor accountExecutor, CollectionCycle collectionCycle) {
 
         List<FutureTask<AccountMetricStatistics>> futureTasks = Lists.newArrayList();
+        int backfillMaxWindowInMins = getBackfillMaxWindowInMins();
 
         for (Account account : accounts) {
             AccountMetricStatisticsCollector accountTask =
                     new AccountMetricStatisticsCollector.Builder()
                             .withAccount(account)
                             .withMaxErrorRetrySize(metricsConfig.getMaxErrorRetrySize())
+                            .withApiCallTimeoutInSecs(metricsConfig.getApiCallTimeoutInSecs())
+                            .withApiCallAttemptTimeoutInSecs(metricsConfig.getApiCallAttemptTimeoutInSecs())
                             .withMetricsProcessor(metricsProcessor)
                             .withMetricsTimeRange(metricsConfig.getMetricsTimeRange())
                             .withNoOfMetricThreadsPerRegion(concurrencyConfig.getNoOfMetricThreadsPerRegion())
@@ -148,35 +208,137 @@ public class NamespaceMetricStatisticsCollector implements Callable<List<Metric>
                             .withThreadTimeOut(concurrencyConfig.getThreadTimeOut())
                             .withCredentialsDecryptionConfig(credentialsDecryptionConfig)
                             .withProxyConfig(proxyConfig)
-                            .withRateLimiter(RateLimiter.create(metricsConfig.getGetMetricStatisticsRateLimit()))
+                            .withRateLimiter(RateLimiter.create(getRateLimit(account)))
                             .withAWSRequestCounter(awsRequestsCounter)
                             .withPrefix(metricPrefix)
+                            .withUseGetMetricData(metricsConfig.isUseGetMetricData())
+                            .withLatestDatapointOnly(metricsConfig.isLatestDatapointOnly())
+                            .withAggregateMetrics(metricsConfig.getAggregateMetrics())
+                            .withUseSearchExpressions(metricsConfig.isUseSearchExpressions())
+                            .withIncludeMetrics(metricsConfig.getIncludeMetrics())
+                            .withDefaultPeriodInSec(metricsConfig.getDefaultPeriodInSec())
+                            .withBackfillMaxWindowInMins(backfillMaxWindowInMins)
+                            .withUseAsyncClient(concurrencyConfig.isUseAsyncClient())
+                            .withMaxInFlightRequestsPerRegion(concurrencyConfig.getMaxInFlightRequestsPerRegion())
+                            .withCollectionCycle(collectionCycle)
                             .build();
 
             FutureTask<AccountMetricStatistics> accountTaskExecutor = new FutureTask<AccountMetricStatistics>(accountTask);
-            executorService.submit("NamespaceMetricStatisticsCollector", accountTaskExecutor);
+            accountExecutor.execute(accountTaskExecutor);
             futureTasks.add(accountTaskExecutor);
         }
 
         return futureTasks;
     }
 
-    private void collectMetrics(List<FutureTask<AccountMetricStatistics>> parallelTasks, NamespaceMetricStatistics namespaceMetricStatistics) {
+    /**
+     * Returns the configured backfill window, 0 when the processor would drop the backfilled statistics
+     */
+    private int getBackfillMaxWindowInMins() {
+        int backfillMaxWindowInMins = metricsConfig.getBackfillMaxWindowInMins();
+
+        if (backfillMaxWindowInMins > 0 && !metricsProcessor.isBackfillSupported()) {
+            LOGGER.warn(String.format("Backfill is not supported by the MetricsProcessor of Namespace [%s], "
+                    + "skipping backfill", metricsProcessor.getNamespace()));
+            return 0;
+        }
+
+        return backfillMaxWindowInMins;
+    }
+
+    private void collectMetrics(List<FutureTask<AccountMetricStatistics>> parallelTasks,
+                                NamespaceMetricStatistics namespaceMetricStatistics, CollectionCycle collectionCycle) {
+        int droppedTasks = 0;
+
+        for (int index = 0; index < parallelTasks.size(); index++) {
+            FutureTask<AccountMetricStatistics> task = parallelTasks.get(index);
 
-        for (FutureTask<AccountMetricStatistics> task : parallelTasks) {
             try {
                 LOGGER.debug(String.format("Task: %s",task.toString()));
-                AccountMetricStatistics accountStats = task.get(concurrencyConfig.getThreadTimeOut(), TimeUnit.SECONDS);
-                namespaceMetricStatistics.add(accountStats);
+                AccountMetricStatistics accountStats = task.get(collectionCycle.getTimeoutInMillis(
+                        ExecutorServiceProvider.Level.ACCOUNT, concurrencyConfig.getThreadTimeOut()), TimeUnit.MILLISECONDS);
+
+                for (AccountMetricStatistics stats : splitLinkedAccounts(accountStats, accounts.get(index))) {
+                    namespaceMetricStatistics.add(stats);
+                }
 
             } catch (InterruptedException e) {
                 LOGGER.error("Task interrupted. ", e);
+                // this collector was given up on, and so are its tasks
+                AWSUtil.cancelTasks(parallelTasks);
+                Thread.currentThread().interrupt();
+                break;
             } catch (ExecutionException e) {
                 LOGGER.error("Task execution failed. ", e);
             } catch (TimeoutException e) {
-                LOGGER.error("Task timed out. ", e);
+                task.cancel(true);
+                droppedTasks++;
+            }
+        }
+
+        if (droppedTasks > 0) {
+            LOGGER.warn(String.format("[%s] account tasks of Namespace [%s] timed out, their statistics are dropped",
+                    droppedTasks, metricsProcessor.getNamespace()));
+            collectionCycle.recordDroppedTasks(metricsProcessor.getNamespace(), droppedTasks);
+        }
+    }
+
+    /**
+     * Splits the statistics collected through a monitoring account by the linked account owning
+     * each metric, so they are reported under the display name of their account as when
+     * each account is collected separately
+     */
+    private List<AccountMetricStatistics> splitLinkedAccounts(AccountMetricStatistics accountStats, Account account) {
+        Map<String, String> linkedAccounts = account.getLinkedAccounts();
+
+        if (accountStats == null || linkedAccounts == null || linkedAccounts.isEmpty()) {
+            return Lists.newArrayList(accountStats);
+        }
+
+        Map<String, AccountMetricStatistics> statsByAccountId = new LinkedHashMap<String, AccountMetricStatistics>();
+        statsByAccountId.put(null, new AccountMetricStatistics());
+        statsByAccountId.get(null).setAccountName(accountStats.getAccountName());
+
+        for (Map.Entry<String, String> linkedAccount : linkedAccounts.entrySet()) {
+            AccountMetricStatistics linkedAccountStats = new AccountMetricStatistics();
+            linkedAccountStats.setAccountName(StringUtils.isNotBlank(linkedAccount.getValue()) ?
+                    linkedAccount.getValue() : linkedAccount.getKey());
+            statsByAccountId.put(linkedAccount.getKey(), linkedAccountStats);
+        }
+
+        for (RegionMetricStatistics regionStats : accountStats.getRegionMetricStatisticsList()) {
+            Map<String, RegionMetricStatistics> regionStatsByAccountId = Maps.newHashMap();
+
+            for (MetricStatistic metricStatistic : regionStats.getMetricStatisticsList()) {
+                String accountId = metricStatistic.getMetric().getAccountId();
+                RegionMetricStatistics accountRegionStats = regionStatsByAccountId.get(accountId);
+
+                if (accountRegionStats == null) {
+                    accountRegionStats = new RegionMetricStatistics();
+                    accountRegionStats.setRegion(regionStats.getRegion());
+                    regionStatsByAccountId.put(accountId, accountRegionStats);
+                    statsByAccountId.get(accountId).add(accountRegionStats);
+                }
+
+                accountRegionStats.addMetricStatistic(metricStatistic);
             }
         }
+
+        return Lists.newArrayList(statsByAccountId.values());
+    }
+
+    private void addCounterMetric(List<Metric> metricStatsForUpload, String metricName, long value) {
+        metricStatsForUpload.add(new Metric(metricName, Long.toString(value), metricPrefix + metricName,
+                MetricWriter.METRIC_AGGREGATION_TYPE_SUM, MetricWriter.METRIC_TIME_ROLLUP_TYPE_SUM,
+                MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_COLLECTIVE));
+    }
+
+    private double getRateLimit(Account account) {
+        boolean hasLinkedAccounts = account.getLinkedAccounts() != null && !account.getLinkedAccounts().isEmpty();
+
+        return MetricDataStatisticsCollector.isRequired(metricsConfig.isUseGetMetricData(),
+                metricsConfig.isLatestDatapointOnly(), hasLinkedAccounts) ?
+                metricsConfig.getGetMetricDataRateLimit() : metricsConfig.getGetMetricStatisticsRateLimit();
     }
 
     private int getNoOfAccountThreads() {
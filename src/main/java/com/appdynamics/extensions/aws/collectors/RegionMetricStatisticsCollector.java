@@ -7,39 +7,69 @@
 
 package com.appdynamics.extensions.aws.collectors;
 
+import com.appdynamics.extensions.aws.config.AggregateMetric;
 import com.appdynamics.extensions.aws.config.AwsClientConfig;
+import com.appdynamics.extensions.aws.config.Dimension;
+import com.appdynamics.extensions.aws.config.IncludeMetric;
 import com.appdynamics.extensions.aws.config.MetricsTimeRange;
 import com.appdynamics.extensions.aws.dto.AWSMetric;
 import com.appdynamics.extensions.aws.exceptions.AwsException;
 import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
+import com.appdynamics.extensions.aws.metric.StatisticType;
 import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
 import com.appdynamics.extensions.aws.providers.RegionEndpointProvider;
-import com.appdynamics.extensions.executorservice.MonitorExecutorService;
-import com.appdynamics.extensions.executorservice.MonitorThreadPoolExecutor;
+import com.appdynamics.extensions.aws.providers.SeriesHealthTracker;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.util.AWSUtil;
+import com.appdynamics.extensions.aws.util.ApiCallBudgetPlanner;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
+import com.appdynamics.extensions.aws.util.InFlightRequestLimiter;
+import com.appdynamics.extensions.aws.util.TimeBoundExecutor;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.RateLimiter;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import java.net.URI;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.InstanceProfileCredentialsProvider;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClientBuilder;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClientBuilder;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
 
 import static com.appdynamics.extensions.aws.Constants.DEFAULT_NO_OF_THREADS;
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_QUERIES_PER_REQUEST;
+import static com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper.isInsightsMetric;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getSeriesFingerprint;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getStartTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getTimeInMinsBeforeNow;
 import static com.appdynamics.extensions.aws.validators.Validator.validateRegion;
 
 /**
@@ -71,6 +101,28 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
 
     private String metricPrefix;
 
+    private boolean useGetMetricData;
+
+    private boolean latestDatapointOnly;
+
+    private List<AggregateMetric> aggregateMetrics;
+
+    private boolean useSearchExpressions;
+
+    private List<IncludeMetric> includeMetrics;
+
+    private MetricTimeRangeResolver timeRangeResolver;
+
+    private int backfillMaxWindowInMins;
+
+    private Map<String, String> linkedAccounts;
+
+    private CloudWatchAsyncClient awsCloudWatchAsync;
+
+    private InFlightRequestLimiter requestLimiter;
+
+    private CollectionCycle collectionCycle;
+
     private RegionMetricStatisticsCollector(Builder builder) {
 
         this.accountName = builder.accountName;
@@ -82,6 +134,20 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
         this.awsRequestsCounter = builder.awsRequestsCounter;
         this.metricPrefix = builder.metricPrefix;
         this.threadTimeOut = builder.threadTimeOut;
+        this.useGetMetricData = builder.useGetMetricData;
+        this.latestDatapointOnly = builder.latestDatapointOnly;
+        this.aggregateMetrics = builder.aggregateMetrics;
+        this.useSearchExpressions = builder.useSearchExpressions;
+        this.includeMetrics = builder.includeMetrics;
+        this.timeRangeResolver = new MetricTimeRangeResolver(builder.metricsTimeRange, builder.defaultPeriodInSec);
+        this.backfillMaxWindowInMins = builder.backfillMaxWindowInMins;
+        this.linkedAccounts = builder.linkedAccounts;
+        this.collectionCycle = builder.collectionCycle != null ? builder.collectionCycle : new CollectionCycle(0);
+
+        if (builder.useAsyncClient && builder.awsClientConfig != null) {
+            this.requestLimiter = builder.getRequestLimiter();
+            this.awsCloudWatchAsync = builder.getAwsCloudWatchAsync(requestLimiter);
+        }
 
         setNoOfMetricThreadsPerRegion(builder.noOfMetricThreadsPerRegion);
     }
@@ -89,15 +155,19 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
     /**
      * Uses {@link MetricsProcessor} to retrieve metric names
      * then hands off individual metric statistics retrieval to
-     * {@link MetricStatisticCollector}
+     * {@link MetricStatisticCollector} (or {@link SeriesMetricStatisticsCollector}
+     * when several statistics of the same series are needed), or batched retrieval to
+     * {@link MetricDataStatisticsCollector} when GetMetricData or latest datapoint only is enabled,
+     * or when the metrics of accounts linked to this monitoring account are collected too.
+     * Aggregate metrics are retrieved by {@link AggregateMetricStatisticsCollector}, and
+     * include metrics with a Metrics Insights query by {@link SearchMetricStatisticsCollector},
+     * as are all include metrics when SEARCH expressions are enabled.
      * <p>
      * Returns the accumulated metrics statistics for specified region
      */
     public RegionMetricStatistics call() {
         RegionMetricStatistics regionMetricStats = null;
 
-        MonitorExecutorService executorService = null;
-
         try {
             RegionEndpointProvider regionEndpointProvider =
                     RegionEndpointProvider.getInstance();
@@ -108,68 +178,395 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
                     "Collecting RegionMetricStatistics for Namespace [%s] Account [%s] Region [%s]",
                     metricsProcessor.getNamespace(), accountName, region));
 
-            List<AWSMetric> metrics = metricsProcessor.getMetrics(awsCloudWatch, accountName, awsRequestsCounter);
+            Executor metricExecutor = new TimeBoundExecutor(collectionCycle.getExecutorServiceProvider().getExecutor(
+                    ExecutorServiceProvider.Level.METRIC, noOfMetricThreadsPerRegion), collectionCycle,
+                    ExecutorServiceProvider.Level.METRIC, threadTimeOut);
 
             regionMetricStats = new RegionMetricStatistics();
             regionMetricStats.setRegion(region);
 
-            if (metrics != null && !metrics.isEmpty()) {
+            List<IncludeMetric> insightsMetrics = Lists.newArrayList();
+            List<IncludeMetric> searchMetrics = Lists.newArrayList();
 
-                executorService = new MonitorThreadPoolExecutor((ThreadPoolExecutor) Executors.newFixedThreadPool(noOfMetricThreadsPerRegion));
+            if (includeMetrics != null) {
+                for (IncludeMetric includeMetric : includeMetrics) {
+                    (isInsightsMetric(includeMetric) ? insightsMetrics : searchMetrics).add(includeMetric);
+                }
+            }
 
+            List<FutureTask<List<MetricStatistic>>> expressionTasks = createConcurrentAggregateMetricTasks(metricExecutor);
+            expressionTasks.addAll(createConcurrentSearchTasks(metricExecutor, insightsMetrics, null));
 
-                List<FutureTask<MetricStatistic>> tasks = createConcurrentMetricTasks(
-                        executorService, metrics);
-                collectMetrics(tasks, metrics.size(), regionMetricStats);
+            List<Dimension> searchDimensions = useSearchExpressions ? metricsProcessor.getDimensions() : null;
+
+            if (searchDimensions != null && !searchDimensions.isEmpty() && !searchMetrics.isEmpty()) {
+                List<FutureTask<List<MetricStatistic>>> tasks = createConcurrentSearchTasks(
+                        metricExecutor, searchMetrics, searchDimensions);
+                collectBatchedMetrics(tasks, regionMetricStats);
 
             } else {
-                LOGGER.info(String.format(
-                        "No metric names available to process for Namespace [%s] Account [%s] Region [%s]",
-                        metricsProcessor.getNamespace(), accountName, region));
+                if (useSearchExpressions) {
+                    LOGGER.warn(String.format("No dimensions available to search metrics for Namespace [%s], "
+                            + "using ListMetrics instead", metricsProcessor.getNamespace()));
+                }
+
+                collectListedMetrics(metricExecutor, regionMetricStats, insightsMetrics);
             }
 
+            collectBatchedMetrics(expressionTasks, regionMetricStats);
+
         } catch (Exception e) {
             throw new AwsException(String.format(
                     "Error getting RegionMetricStatistics for Namespace [%s] Account [%s] Region [%s]",
                     metricsProcessor.getNamespace(), accountName, region), e);
+        }
 
-        } finally {
-            if (executorService != null && !executorService.isShutdown()) {
-                executorService.shutdown();
+        return regionMetricStats;
+    }
+
+    /**
+     * Discovers the metrics with {@link MetricsProcessor#getMetrics} then retrieves their statistics
+     */
+    private void collectListedMetrics(Executor metricExecutor,
+                                      RegionMetricStatistics regionMetricStatistics,
+                                      List<IncludeMetric> insightsMetrics) {
+        List<FutureTask<List<AWSMetric>>> linkedAccountTasks = hasLinkedAccounts() ?
+                createConcurrentLinkedAccountListTasks(metricExecutor) : null;
+
+        List<AWSMetric> metrics;
+
+        try {
+            // ListMetrics partitions share the region's threads, they are all done before collection starts
+            metrics = metricsProcessor.getMetrics(awsCloudWatch, accountName, awsRequestsCounter, metricExecutor);
+
+        } catch (RuntimeException e) {
+            if (linkedAccountTasks != null) {
+                AWSUtil.cancelTasks(linkedAccountTasks);
+            }
+
+            throw e;
+        }
+
+        if (linkedAccountTasks != null) {
+            metrics = metrics != null ? Lists.newArrayList(metrics) : Lists.<AWSMetric>newArrayList();
+            metrics.addAll(collectLinkedAccountMetrics(linkedAccountTasks));
+        }
+
+        if (metrics != null && !insightsMetrics.isEmpty()) {
+            // already retrieved by Metrics Insights queries
+            final Set<String> insightsMetricNames = Sets.newHashSet();
+
+            for (IncludeMetric insightsMetric : insightsMetrics) {
+                insightsMetricNames.add(insightsMetric.getName());
             }
+
+            metrics = Lists.newArrayList(Collections2.filter(metrics, new Predicate<AWSMetric>() {
+                public boolean apply(AWSMetric metric) {
+                    return !insightsMetricNames.contains(metric.getIncludeMetric().getName());
+                }
+            }));
         }
 
-        return regionMetricStats;
+        if (metrics != null && !metrics.isEmpty()) {
+
+            // gaps are found before the watermarks are moved by this cycle
+            if (backfillMaxWindowInMins > 0) {
+                scheduleBackfill(metrics);
+            }
+
+            SeriesHealthTracker seriesHealthTracker = SeriesHealthTracker.getInstance();
+            List<AWSMetric> fetchedMetrics = seriesHealthTracker.isEnabled() ?
+                    filterSuppressedSeries(seriesHealthTracker, metrics) : metrics;
+
+            boolean batchRequests = MetricDataStatisticsCollector.isRequired(useGetMetricData, latestDatapointOnly,
+                    hasLinkedAccounts());
+            ApiCallBudgetPlanner budgetPlanner = ApiCallBudgetPlanner.getInstance();
+
+            if (budgetPlanner.isEnabled() && !fetchedMetrics.isEmpty()) {
+                fetchedMetrics = sortByPriority(fetchedMetrics);
+
+                if (!batchRequests && estimateApiCalls(fetchedMetrics, false) > budgetPlanner.getRemainingCalls(collectionCycle)) {
+                    LOGGER.info(String.format("Batching the series of Namespace [%s] Account [%s] Region [%s] "
+                                    + "with GetMetricData to stay within the API call budget",
+                            metricsProcessor.getNamespace(), accountName, region));
+                    batchRequests = true;
+                }
+
+                fetchedMetrics = reserveApiCalls(budgetPlanner, fetchedMetrics, batchRequests);
+            }
+
+            if (batchRequests) {
+                List<FutureTask<List<MetricStatistic>>> tasks = createConcurrentMetricDataTasks(
+                        metricExecutor, fetchedMetrics);
+                collectBatchedMetrics(tasks, regionMetricStatistics);
+
+            } else if (awsCloudWatchAsync != null) {
+                List<CompletableFuture<List<MetricStatistic>>> seriesResponses = Lists.newArrayList();
+                List<CompletableFuture<MetricStatistic>> responses = sendAsyncMetricRequests(
+                        fetchedMetrics, seriesResponses);
+                collectMetrics(responses, fetchedMetrics.size(), regionMetricStatistics);
+                collectBatchedMetrics(seriesResponses, regionMetricStatistics);
+
+            } else {
+                List<FutureTask<List<MetricStatistic>>> seriesTasks = Lists.newArrayList();
+                List<FutureTask<MetricStatistic>> tasks = createConcurrentMetricTasks(
+                        metricExecutor, fetchedMetrics, seriesTasks);
+                collectMetrics(tasks, fetchedMetrics.size(), regionMetricStatistics);
+                collectBatchedMetrics(seriesTasks, regionMetricStatistics);
+            }
+
+            if (seriesHealthTracker.isEnabled()) {
+                recordSeriesHealth(seriesHealthTracker, fetchedMetrics, regionMetricStatistics);
+            }
+
+        } else {
+            LOGGER.info(String.format(
+                    "No metric names available to process for Namespace [%s] Account [%s] Region [%s]",
+                    metricsProcessor.getNamespace(), accountName, region));
+        }
     }
 
-    private List<FutureTask<MetricStatistic>> createConcurrentMetricTasks(MonitorExecutorService executorService,
-                                                                          List<AWSMetric> metrics) {
+    /**
+     * Reserves the requests needed to fetch the metrics, returns the highest priority
+     * metrics fitting the granted requests, the others are deferred to a later cycle
+     */
+    private List<AWSMetric> reserveApiCalls(ApiCallBudgetPlanner budgetPlanner, List<AWSMetric> metrics,
+                                            boolean batchRequests) {
+        String namespace = metricsProcessor.getNamespace();
+        int estimatedCalls = estimateApiCalls(metrics, batchRequests);
+        int grantedCalls = budgetPlanner.reserve(collectionCycle, namespace, estimatedCalls);
+        List<AWSMetric> plannedMetrics = metrics;
+
+        if (grantedCalls < estimatedCalls) {
+            // the largest number of metrics, in priority order, whose requests fit the granted ones
+            int low = 0;
+            int high = metrics.size();
+
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+
+                if (estimateApiCalls(metrics.subList(0, middle), batchRequests) <= grantedCalls) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
 
-        List<FutureTask<MetricStatistic>> futureTasks = Lists.newArrayList();
+            plannedMetrics = Lists.newArrayList(metrics.subList(0, low));
+            budgetPlanner.release(collectionCycle, namespace, grantedCalls - estimateApiCalls(plannedMetrics, batchRequests));
+            budgetPlanner.recordDeferredSeries(namespace, metrics.size() - low);
+
+            LOGGER.warn(String.format("Deferred [%s] of [%s] series for Namespace [%s] Account [%s] Region [%s] "
+                    + "to stay within the API call budget", metrics.size() - low, metrics.size(), namespace,
+                    accountName, region));
+        }
+
+        budgetPlanner.recordPlannedDatapoints(namespace, estimateDatapoints(plannedMetrics));
+        return plannedMetrics;
+    }
+
+    /**
+     * Returns the number of requests needed to fetch the metrics, as grouped
+     * by {@link #createConcurrentMetricDataTasks} or {@link #createConcurrentMetricTasks}
+     */
+    private int estimateApiCalls(List<AWSMetric> metrics, boolean batchRequests) {
+        if (!batchRequests) {
+            return SeriesMetricStatisticsCollector.groupBySeries(metrics, timeRangeResolver).size();
+        }
+
+        return MetricDataStatisticsCollector.createBatches(metrics, timeRangeResolver, latestDatapointOnly).size();
+    }
+
+    private long estimateDatapoints(List<AWSMetric> metrics) {
+        long datapoints = 0;
 
-        long startTime = System.currentTimeMillis();
         for (AWSMetric metric : metrics) {
+            int periodInSec = timeRangeResolver.getPeriodInSec(metric.getIncludeMetric());
+            int timeRangeInMins = MetricDataStatisticsCollector.getRequestedTimeRangeInMins(
+                    timeRangeResolver.getMetricsTimeRange(metric.getIncludeMetric()), periodInSec, latestDatapointOnly);
+            datapoints += (long) Math.ceil(Math.max(timeRangeInMins, 1) * 60.0 / periodInSec);
+        }
 
-            //Limit the number of requests per second. Limit can be configured using getMetricStatisticsRateLimit config
-            rateLimiter.acquire();
+        return datapoints;
+    }
 
-            MetricStatisticCollector metricTask =
-                    new MetricStatisticCollector.Builder()
-                            .withAccountName(accountName)
-                            .withRegion(region)
-                            .withAwsCloudWatch(awsCloudWatch)
-                            .withMetric(metric)
-                            .withMetricsTimeRange(metricsTimeRange)
-                            .withStatType(metricsProcessor.getStatisticType(metric))
-                            .withAWSRequestCounter(awsRequestsCounter)
-                            .withPrefix(metricPrefix)
-                            .build();
+    private List<AWSMetric> sortByPriority(List<AWSMetric> metrics) {
+        List<AWSMetric> sortedMetrics = Lists.newArrayList(metrics);
 
-            FutureTask<MetricStatistic> accountTaskExecutor = new FutureTask<MetricStatistic>(metricTask);
+        Collections.sort(sortedMetrics, new Comparator<AWSMetric>() {
+            public int compare(AWSMetric metric1, AWSMetric metric2) {
+                return Integer.compare(metric2.getIncludeMetric().getPriority(),
+                        metric1.getIncludeMetric().getPriority());
+            }
+        });
 
-            executorService.submit("RegionMetricStatisticsCollector", accountTaskExecutor);
-            futureTasks.add(accountTaskExecutor);
+        return sortedMetrics;
+    }
+
+    /**
+     * Returns the metrics whose series are not suppressed, or due for a probe
+     */
+    private List<AWSMetric> filterSuppressedSeries(SeriesHealthTracker seriesHealthTracker, List<AWSMetric> metrics) {
+        List<AWSMetric> fetchedMetrics = Lists.newArrayListWithCapacity(metrics.size());
+        long now = System.currentTimeMillis();
+
+        for (AWSMetric metric : metrics) {
+            long fingerprint = getSeriesFingerprint(accountName, region, metric,
+                    metricsProcessor.getStatisticType(metric));
+
+            if (seriesHealthTracker.shouldFetch(metricsProcessor.getNamespace(), fingerprint, now)) {
+                fetchedMetrics.add(metric);
+            }
+        }
+
+        if (fetchedMetrics.size() < metrics.size() && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Skipped [%s] suppressed series for Namespace [%s] Account [%s] Region [%s]",
+                    metrics.size() - fetchedMetrics.size(), metricsProcessor.getNamespace(), accountName, region));
         }
+
+        return fetchedMetrics;
+    }
+
+    /**
+     * Records whether each fetched series returned datapoints in its requested time range.
+     * Series with nothing new past their watermark are healthy, whereas series whose
+     * task failed or timed out have no statistic at all and count as empty
+     */
+    private void recordSeriesHealth(SeriesHealthTracker seriesHealthTracker, List<AWSMetric> fetchedMetrics,
+                                    RegionMetricStatistics regionMetricStatistics) {
+        Set<AWSMetric> metricsWithDatapoint = Sets.newIdentityHashSet();
+
+        for (MetricStatistic metricStatistic : regionMetricStatistics.getMetricStatisticsList()) {
+            if (!metricStatistic.isNoDatapointReturned()) {
+                metricsWithDatapoint.add(metricStatistic.getMetric());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (AWSMetric metric : fetchedMetrics) {
+            long fingerprint = getSeriesFingerprint(accountName, region, metric,
+                    metricsProcessor.getStatisticType(metric));
+            seriesHealthTracker.recordFetch(metricsProcessor.getNamespace(), fingerprint,
+                    metricsWithDatapoint.contains(metric), now);
+        }
+    }
+
+    /**
+     * Schedules the backfill of the datapoints each series missed between its watermark and
+     * the time range of this cycle, e.g. while the agent was down, up to the backfill window
+     */
+    private void scheduleBackfill(List<AWSMetric> metrics) {
+        SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+
+        if (!watermarkProvider.isEnabled()) {
+            LOGGER.debug("Backfill requires a checkpointFile, skipping backfill");
+            return;
+        }
+
+        BackfillScheduler backfillScheduler = BackfillScheduler.getInstance();
+
+        // series are batched with others sharing the same account, period and gap end time
+        Map<List<Object>, List<AWSMetric>> metricsByGap = new LinkedHashMap<List<Object>, List<AWSMetric>>();
+        Map<List<Object>, List<Instant>> startTimesByGap = new LinkedHashMap<List<Object>, List<Instant>>();
+
+        for (AWSMetric metric : metrics) {
+            StatisticType statType = metricsProcessor.getStatisticType(metric);
+            long fingerprint = getSeriesFingerprint(accountName, region, metric, statType);
+            Instant latestTimestamp = watermarkProvider.getLatestTimestamp(fingerprint);
+
+            if (latestTimestamp == null) {
+                continue;
+            }
+
+            int periodInSec = timeRangeResolver.getPeriodInSec(metric.getIncludeMetric());
+            MetricsTimeRange timeRange = timeRangeResolver.getMetricsTimeRange(metric.getIncludeMetric());
+            Instant gapEndTime = getStartTimeInMinsBeforeNow(timeRange.getStartTimeInMinsBeforeNow(),
+                    getTimeInMinsBeforeNow(timeRange.getEndTimeInMinsBeforeNow(), periodInSec), periodInSec);
+
+            Instant gapStartTime = latestTimestamp.plusSeconds(periodInSec);
+            Instant oldestStartTime = gapEndTime.minus(backfillMaxWindowInMins, ChronoUnit.MINUTES);
+
+            if (gapStartTime.isBefore(oldestStartTime)) {
+                gapStartTime = oldestStartTime;
+            }
+
+            gapStartTime = backfillScheduler.claimGap(fingerprint, gapStartTime, gapEndTime);
+
+            if (gapStartTime == null) {
+                continue;
+            }
+
+            List<Object> gapKey = Arrays.<Object>asList(getReportedAccountName(metric), periodInSec, gapEndTime);
+
+            if (!metricsByGap.containsKey(gapKey)) {
+                metricsByGap.put(gapKey, Lists.<AWSMetric>newArrayList());
+                startTimesByGap.put(gapKey, Lists.<Instant>newArrayList());
+            }
+
+            metricsByGap.get(gapKey).add(metric);
+            startTimesByGap.get(gapKey).add(gapStartTime);
+        }
+
+        for (Map.Entry<List<Object>, List<AWSMetric>> gap : metricsByGap.entrySet()) {
+            List<List<AWSMetric>> batches = Lists.partition(gap.getValue(), MAX_METRIC_DATA_QUERIES_PER_REQUEST);
+            List<List<Instant>> startTimeBatches = Lists.partition(startTimesByGap.get(gap.getKey()),
+                    MAX_METRIC_DATA_QUERIES_PER_REQUEST);
+
+            for (int index = 0; index < batches.size(); index++) {
+                backfillScheduler.submit(new BackfillMetricStatisticsCollector.Builder()
+                        .withAccountName((String) gap.getKey().get(0))
+                        .withRegion(region)
+                        .withAwsCloudWatch(awsCloudWatch)
+                        .withMetrics(batches.get(index))
+                        .withStatTypes(getStatisticTypes(batches.get(index)))
+                        .withStartTimes(startTimeBatches.get(index))
+                        .withPeriodInSec((Integer) gap.getKey().get(1))
+                        .withEndTime((Instant) gap.getKey().get(2))
+                        .withMetricsProcessor(metricsProcessor)
+                        .withRateLimiter(backfillScheduler.getRateLimiter())
+                        .withAWSRequestCounter(awsRequestsCounter)
+                        .withPrefix(metricPrefix)
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * Returns the display name of the account owning the metric, as reported by
+     * {@link NamespaceMetricStatisticsCollector} for linked accounts
+     */
+    private String getReportedAccountName(AWSMetric metric) {
+        if (metric.getAccountId() == null || linkedAccounts == null) {
+            return accountName;
+        }
+
+        String linkedAccountName = linkedAccounts.get(metric.getAccountId());
+        return StringUtils.isNotBlank(linkedAccountName) ? linkedAccountName : metric.getAccountId();
+    }
+
+    private boolean hasLinkedAccounts() {
+        return linkedAccounts != null && !linkedAccounts.isEmpty();
+    }
+
+    private List<FutureTask<MetricStatistic>> createConcurrentMetricTasks(Executor metricExecutor,
+                                                                          List<AWSMetric> metrics,
+                                                                          List<FutureTask<List<MetricStatistic>>> seriesTasks) {
+
+        List<MetricStatisticCollector> metricTasks = Lists.newArrayList();
+        List<SeriesMetricStatisticsCollector> seriesMetricTasks = Lists.newArrayList();
+
+        for (List<AWSMetric> seriesMetrics : SeriesMetricStatisticsCollector.groupBySeries(metrics, timeRangeResolver)) {
+            if (seriesMetrics.size() == 1) {
+                metricTasks.add(createMetricStatisticCollector(seriesMetrics.get(0)));
+            } else {
+                seriesMetricTasks.add(createSeriesMetricStatisticsCollector(seriesMetrics));
+            }
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<FutureTask<MetricStatistic>> futureTasks = submitTasks(metricExecutor, metricTasks);
+        seriesTasks.addAll(submitTasks(metricExecutor, seriesMetricTasks));
         long elapsedTime = System.currentTimeMillis() - startTime;
 
         LOGGER.debug("Get metric statistics took " + elapsedTime +"(ms)");
@@ -177,23 +574,359 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
         return futureTasks;
     }
 
-    private void collectMetrics(List<FutureTask<MetricStatistic>> parallelTasks,
+    /**
+     * Same as {@link #createConcurrentMetricTasks}, but sends the requests with the asynchronous client
+     * from the region's thread, which only waits when the region's requests in flight reach their limit
+     */
+    private List<CompletableFuture<MetricStatistic>> sendAsyncMetricRequests(
+            List<AWSMetric> metrics, List<CompletableFuture<List<MetricStatistic>>> seriesResponses) {
+
+        List<CompletableFuture<MetricStatistic>> responses = Lists.newArrayList();
+
+        int droppedTasks = 0;
+
+        long startTime = System.currentTimeMillis();
+        for (List<AWSMetric> seriesMetrics : SeriesMetricStatisticsCollector.groupBySeries(metrics, timeRangeResolver)) {
+
+            if (!acquireRequestPermit()) {
+                droppedTasks++;
+                continue;
+            }
+
+            if (seriesMetrics.size() == 1) {
+                responses.add(createMetricStatisticCollector(seriesMetrics.get(0))
+                        .callAsync(awsCloudWatchAsync, requestLimiter));
+
+            } else {
+                seriesResponses.add(createSeriesMetricStatisticsCollector(seriesMetrics)
+                        .callAsync(awsCloudWatchAsync, requestLimiter));
+            }
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        LOGGER.debug("Sending asynchronous metric statistics requests took " + elapsedTime +"(ms)");
+
+        recordDroppedTasks(droppedTasks);
+
+        return responses;
+    }
+
+    private MetricStatisticCollector createMetricStatisticCollector(AWSMetric metric) {
+        return new MetricStatisticCollector.Builder()
+                .withAccountName(accountName)
+                .withRegion(region)
+                .withAwsCloudWatch(awsCloudWatch)
+                .withMetric(metric)
+                .withMetricsTimeRange(metricsTimeRange)
+                .withStatType(metricsProcessor.getStatisticType(metric))
+                .withPeriodInSec(timeRangeResolver.getPeriodInSec(metric.getIncludeMetric()))
+                .withAWSRequestCounter(awsRequestsCounter)
+                .withPrefix(metricPrefix)
+                .build();
+    }
+
+    private SeriesMetricStatisticsCollector createSeriesMetricStatisticsCollector(List<AWSMetric> seriesMetrics) {
+        return new SeriesMetricStatisticsCollector.Builder()
+                .withAccountName(accountName)
+                .withRegion(region)
+                .withAwsCloudWatch(awsCloudWatch)
+                .withMetrics(seriesMetrics)
+                .withStatTypes(getStatisticTypes(seriesMetrics))
+                .withMetricsTimeRange(timeRangeResolver.getMetricsTimeRange(seriesMetrics.get(0).getIncludeMetric()))
+                .withPeriodInSec(timeRangeResolver.getPeriodInSec(seriesMetrics.get(0).getIncludeMetric()))
+                .withAWSRequestCounter(awsRequestsCounter)
+                .withPrefix(metricPrefix)
+                .build();
+    }
+
+    private List<FutureTask<List<MetricStatistic>>> createConcurrentMetricDataTasks(Executor metricExecutor,
+                                                                                    List<AWSMetric> metrics) {
+
+        List<MetricDataStatisticsCollector> metricDataTasks = Lists.newArrayList();
+
+        for (List<AWSMetric> batch : MetricDataStatisticsCollector.createBatches(metrics, timeRangeResolver,
+                latestDatapointOnly)) {
+            metricDataTasks.add(new MetricDataStatisticsCollector.Builder()
+                    .withAccountName(accountName)
+                    .withRegion(region)
+                    .withAwsCloudWatch(awsCloudWatch)
+                    .withMetrics(batch)
+                    .withStatTypes(getStatisticTypes(batch))
+                    .withMetricsTimeRange(timeRangeResolver.getMetricsTimeRange(batch.get(0).getIncludeMetric()))
+                    .withPeriodInSec(timeRangeResolver.getPeriodInSec(batch.get(0).getIncludeMetric()))
+                    .withLatestDatapointOnly(latestDatapointOnly)
+                    .withAWSRequestCounter(awsRequestsCounter)
+                    .withPrefix(metricPrefix)
+                    .build());
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<FutureTask<List<MetricStatistic>>> futureTasks = submitTasks(metricExecutor, metricDataTasks);
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        LOGGER.debug("Get metric data took " + elapsedTime + "(ms)");
+
+        return futureTasks;
+    }
+
+    private List<FutureTask<List<MetricStatistic>>> createConcurrentAggregateMetricTasks(Executor metricExecutor) {
+
+        if (aggregateMetrics == null || aggregateMetrics.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        List<AggregateMetricStatisticsCollector> aggregateTasks = Lists.newArrayList();
+
+        for (List<AggregateMetric> batch : AggregateMetricStatisticsCollector.createBatches(aggregateMetrics,
+                timeRangeResolver)) {
+            aggregateTasks.add(new AggregateMetricStatisticsCollector.Builder()
+                    .withAccountName(accountName)
+                    .withRegion(region)
+                    .withNamespace(metricsProcessor.getNamespace())
+                    .withAwsCloudWatch(awsCloudWatch)
+                    .withAggregateMetrics(batch)
+                    .withMetricsTimeRange(timeRangeResolver.getMetricsTimeRange(batch.get(0)))
+                    .withPeriodInSec(timeRangeResolver.getPeriodInSec(batch.get(0)))
+                    .withAWSRequestCounter(awsRequestsCounter)
+                    .withPrefix(metricPrefix)
+                    .build());
+        }
+
+        return submitTasks(metricExecutor, aggregateTasks);
+    }
+
+    /**
+     * Creates the SEARCH expression tasks of the metrics, or the Metrics Insights
+     * query tasks if there are no search dimensions
+     */
+    private List<FutureTask<List<MetricStatistic>>> createConcurrentSearchTasks(Executor metricExecutor,
+                                                                                List<IncludeMetric> metrics,
+                                                                                List<Dimension> searchDimensions) {
+
+        List<SearchMetricStatisticsCollector> searchTasks = Lists.newArrayList();
+        boolean insightsQueries = searchDimensions == null;
+
+        for (List<IncludeMetric> batch : SearchMetricStatisticsCollector.createBatches(metrics, timeRangeResolver,
+                insightsQueries)) {
+            searchTasks.add(new SearchMetricStatisticsCollector.Builder()
+                    .withAccountName(accountName)
+                    .withRegion(region)
+                    .withNamespace(metricsProcessor.getNamespace())
+                    .withAwsCloudWatch(awsCloudWatch)
+                    .withIncludeMetrics(batch)
+                    .withStatTypes(getIncludeMetricStatisticTypes(batch))
+                    .withDimensions(searchDimensions)
+                    .withInsightsQueries(insightsQueries)
+                    .withMetricsTimeRange(timeRangeResolver.getMetricsTimeRange(batch.get(0)))
+                    .withPeriodInSec(timeRangeResolver.getPeriodInSec(batch.get(0)))
+                    .withAWSRequestCounter(awsRequestsCounter)
+                    .withPrefix(metricPrefix)
+                    .build());
+        }
+
+        return submitTasks(metricExecutor, searchTasks);
+    }
+
+    /**
+     * Lists the metrics of each linked account concurrently on the region's executor. Each linked account
+     * lists its own ListMetrics partitions sequentially, so its task never waits for the region's threads
+     */
+    private List<FutureTask<List<AWSMetric>>> createConcurrentLinkedAccountListTasks(Executor metricExecutor) {
+        List<FutureTask<List<AWSMetric>>> futureTasks = Lists.newArrayList();
+
+        for (final String linkedAccountId : linkedAccounts.keySet()) {
+            FutureTask<List<AWSMetric>> futureTask = new FutureTask<List<AWSMetric>>(new Callable<List<AWSMetric>>() {
+                public List<AWSMetric> call() {
+                    List<AWSMetric> linkedAccountMetrics = metricsProcessor.getMetrics(
+                            new LinkedAccountCloudWatchClient(awsCloudWatch, linkedAccountId),
+                            accountName, awsRequestsCounter, null);
+
+                    if (linkedAccountMetrics == null) {
+                        return Lists.newArrayList();
+                    }
+
+                    for (AWSMetric linkedAccountMetric : linkedAccountMetrics) {
+                        linkedAccountMetric.setAccountId(linkedAccountId);
+                    }
+
+                    return linkedAccountMetrics;
+                }
+            });
+
+            metricExecutor.execute(futureTask);
+            futureTasks.add(futureTask);
+        }
+
+        return futureTasks;
+    }
+
+    /**
+     * Waits for the metrics of every linked account, up to the thread timeout or the cycle deadline,
+     * the remaining listings are cancelled if any fails
+     */
+    private List<AWSMetric> collectLinkedAccountMetrics(List<FutureTask<List<AWSMetric>>> parallelTasks) {
+        List<AWSMetric> metrics = Lists.newArrayList();
+
+        try {
+            for (FutureTask<List<AWSMetric>> task : parallelTasks) {
+                metrics.addAll(task.get(collectionCycle.getTimeoutInMillis(
+                        ExecutorServiceProvider.Level.METRIC, threadTimeOut), TimeUnit.MILLISECONDS));
+            }
+
+        } catch (InterruptedException e) {
+            AWSUtil.cancelTasks(parallelTasks);
+            Thread.currentThread().interrupt();
+            throw new AwsException("Interrupted while listing the metrics of linked accounts", e);
+
+        } catch (ExecutionException e) {
+            AWSUtil.cancelTasks(parallelTasks);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new AwsException("Error listing the metrics of linked accounts", e.getCause());
+
+        } catch (TimeoutException e) {
+            AWSUtil.cancelTasks(parallelTasks);
+            throw new AwsException(String.format("Timed out listing the metrics of the linked accounts of "
+                    + "Namespace [%s] Account [%s] Region [%s]", metricsProcessor.getNamespace(), accountName, region), e);
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Submits a task per collector to the region's executor, tasks not submitted
+     * by the cycle deadline are dropped as they could not complete in time anyway
+     */
+    private <T> List<FutureTask<T>> submitTasks(Executor metricExecutor, List<? extends Callable<T>> collectors) {
+        List<FutureTask<T>> futureTasks = Lists.newArrayList();
+
+        int droppedTasks = 0;
+
+        for (Callable<T> collector : collectors) {
+            if (!acquireRequestPermit()) {
+                droppedTasks++;
+                continue;
+            }
+
+            FutureTask<T> futureTask = new FutureTask<T>(collector);
+
+            metricExecutor.execute(futureTask);
+            futureTasks.add(futureTask);
+        }
+
+        recordDroppedTasks(droppedTasks);
+
+        return futureTasks;
+    }
+
+    /**
+     * Waits for the rate limit before a request is sent, returns false without
+     * waiting once the cycle deadline has expired
+     */
+    private boolean acquireRequestPermit() {
+        if (collectionCycle.isExpired(ExecutorServiceProvider.Level.METRIC)) {
+            return false;
+        }
+
+        //Limit the number of requests per second. Limit can be configured using getMetricStatisticsRateLimit
+        //or getMetricDataRateLimit config, depending on the API used by the namespace
+        rateLimiter.acquire();
+        return true;
+    }
+
+    private List<StatisticType> getIncludeMetricStatisticTypes(List<IncludeMetric> includeMetrics) {
+        List<StatisticType> statTypes = Lists.newArrayListWithCapacity(includeMetrics.size());
+
+        for (IncludeMetric includeMetric : includeMetrics) {
+            // the statistic type is resolved by the processor, as for listed metrics
+            AWSMetric metric = new AWSMetric();
+            metric.setIncludeMetric(includeMetric);
+            metric.setMetric(Metric.builder()
+                    .namespace(metricsProcessor.getNamespace())
+                    .metricName(includeMetric.getName())
+                    .build());
+
+            statTypes.add(metricsProcessor.getStatisticType(metric));
+        }
+
+        return statTypes;
+    }
+
+    private List<StatisticType> getStatisticTypes(List<AWSMetric> metrics) {
+        List<StatisticType> statTypes = Lists.newArrayListWithCapacity(metrics.size());
+
+        for (AWSMetric metric : metrics) {
+            statTypes.add(metricsProcessor.getStatisticType(metric));
+        }
+
+        return statTypes;
+    }
+
+    private void collectBatchedMetrics(List<? extends Future<List<MetricStatistic>>> parallelTasks,
+                                       RegionMetricStatistics regionMetricStatistics) {
+        int droppedTasks = 0;
+
+        for (Future<List<MetricStatistic>> task : parallelTasks) {
+
+            try {
+                List<MetricStatistic> metricStatistics = task.get(collectionCycle.getTimeoutInMillis(
+                        ExecutorServiceProvider.Level.METRIC, threadTimeOut), TimeUnit.MILLISECONDS);
+
+                for (MetricStatistic metricStatistic : metricStatistics) {
+                    regionMetricStatistics.addMetricStatistic(metricStatistic);
+                }
+
+            } catch (InterruptedException e) {
+                LOGGER.error("Task interrupted. ", e);
+                // this collector was given up on, and so are its tasks
+                AWSUtil.cancelTasks(parallelTasks);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                LOGGER.error("Task execution failed. ", e);
+            } catch (TimeoutException e) {
+                task.cancel(true);
+                droppedTasks++;
+            }
+        }
+
+        recordDroppedTasks(droppedTasks);
+    }
+
+    private void collectMetrics(List<? extends Future<MetricStatistic>> parallelTasks,
                                 int taskSize, RegionMetricStatistics regionMetricStatistics) {
+        int droppedTasks = 0;
 
-        for (FutureTask<MetricStatistic> task : parallelTasks) {
+        for (Future<MetricStatistic> task : parallelTasks) {
 
             try {
-                MetricStatistic metricStatistics = task.get(threadTimeOut, TimeUnit.SECONDS);
+                MetricStatistic metricStatistics = task.get(collectionCycle.getTimeoutInMillis(
+                        ExecutorServiceProvider.Level.METRIC, threadTimeOut), TimeUnit.MILLISECONDS);
                 regionMetricStatistics.addMetricStatistic(metricStatistics);
 
             } catch (InterruptedException e) {
                 LOGGER.error("Task interrupted. ", e);
+                // this collector was given up on, and so are its tasks
+                AWSUtil.cancelTasks(parallelTasks);
+                Thread.currentThread().interrupt();
+                break;
             } catch (ExecutionException e) {
                 LOGGER.error("Task execution failed. ", e);
             } catch (TimeoutException e) {
-                LOGGER.error("Task timed out. ", e);
+                task.cancel(true);
+                droppedTasks++;
             }
         }
+
+        recordDroppedTasks(droppedTasks);
+    }
+
+    private void recordDroppedTasks(int droppedTasks) {
+        if (droppedTasks > 0) {
+            LOGGER.warn(String.format("[%s] metric tasks of Namespace [%s] Account [%s] Region [%s] timed out, "
+                            + "their statistics are dropped",
+                    droppedTasks, metricsProcessor.getNamespace(), accountName, region));
+            collectionCycle.recordDroppedTasks(metricsProcessor.getNamespace(), droppedTasks);
+        }
     }
 
     private void setNoOfMetricThreadsPerRegion(int noOfMetricThreadsPerRegion) {
@@ -227,6 +960,36 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
 
         private String metricPrefix;
 
+        private boolean useGetMetricData;
+
+        private boolean latestDatapointOnly;
+
+        private List<AggregateMetric> aggregateMetrics;
+
+        private boolean useSearchExpressions;
+
+        private List<IncludeMetric> includeMetrics;
+
+        private int defaultPeriodInSec;
+
+        private int backfillMaxWindowInMins;
+
+        private Map<String, String> linkedAccounts;
+
+        private boolean useAsyncClient;
+
+        private int maxInFlightRequestsPerRegion;
+
+        private AwsCredentialsProvider awsCredentials;
+
+        private AwsClientConfig awsClientConfig;
+
+        private URI endpointUri;
+
+        private String clientKey;
+
+        private CollectionCycle collectionCycle;
+
         private AWSClientCache awsClientCache = AWSClientCache.getInstance();
 
         public Builder withAccountName(String accountName) {
@@ -249,36 +1012,41 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
             return this;
         }
 
-        public Builder withAmazonCloudWatchConfig(AwsCredentialsProvider awsCredentials, AwsClientConfig awsClientConfig) {
+        public Builder withAmazonCloudWatchConfig(final AwsCredentialsProvider awsCredentials,
+                                                  final AwsClientConfig awsClientConfig) {
             // Derive the endpoint URI from your endpoint provider.
             String endpointUrl = RegionEndpointProvider.getInstance().getEndpoint(region);
-            URI endpointUri = URI.create("https://" + endpointUrl);
+            final URI endpointUri = URI.create("https://" + endpointUrl);
             LOGGER.debug(String.format("Endpoint URI: %s",endpointUri));
 
-            // Retrieve a CloudWatchClient from the cache, keyed by the endpoint URI.
-            CloudWatchClient cloudWatchClient = awsClientCache.get(endpointUri.toString());
-            if (cloudWatchClient == null) {
-                LOGGER.info("CloudWatch client not found in cache; creating a new client and adding it to cache.");
-
-                CloudWatchClientBuilder clientBuilder = CloudWatchClient.builder()
-                        .endpointOverride(endpointUri)
-                        .region(Region.of(region))
-                        .httpClient(awsClientConfig.getHttpClient())
-                        .overrideConfiguration(awsClientConfig.getOverrideConfiguration());
-
-                if (awsCredentials == null) {
-                    //clientBuilder.credentialsProvider(InstanceProfileCredentialsProvider.create());
-                    LOGGER.info("No credentials provided; using default credentials provider.");
-                } else {
-                    clientBuilder.credentialsProvider(awsCredentials);
-                    LOGGER.info("Credentials provided; using supplied AWS credentials provider.");
+            // Retrieve a CloudWatchClient from the cache, keyed by the account, endpoint URI and client settings.
+            String clientKey = AWSClientCache.getClientKey(accountName, endpointUri,
+                    AWSUtil.getClientSettingsFingerprint(awsCredentials, awsClientConfig));
+            CloudWatchClient cloudWatchClient = awsClientCache.get(clientKey, new Callable<CloudWatchClient>() {
+                public CloudWatchClient call() {
+                    LOGGER.info("CloudWatch client not found in cache; creating a new client and adding it to cache.");
+
+                    CloudWatchClientBuilder clientBuilder = CloudWatchClient.builder()
+                            .endpointOverride(endpointUri)
+                            .region(Region.of(region))
+                            .httpClient(awsClientConfig.getHttpClient())
+                            .overrideConfiguration(awsClientConfig.getOverrideConfiguration());
+
+                    if (awsCredentials == null) {
+                        //clientBuilder.credentialsProvider(InstanceProfileCredentialsProvider.create());
+                        LOGGER.info("No credentials provided; using default credentials provider.");
+                    } else {
+                        clientBuilder.credentialsProvider(awsCredentials);
+                        LOGGER.info("Credentials provided; using supplied AWS credentials provider.");
+                    }
+                    return clientBuilder.build();
                 }
-                cloudWatchClient = clientBuilder.build();
-                awsClientCache.put(endpointUri, cloudWatchClient);
-            } else {
-                cloudWatchClient = awsClientCache.get(endpointUri);
-            }
+            });
             this.awsCloudWatch = cloudWatchClient;
+            this.awsCredentials = awsCredentials;
+            this.awsClientConfig = awsClientConfig;
+            this.endpointUri = endpointUri;
+            this.clientKey = clientKey;
             return this;
         }
 
@@ -310,5 +1078,91 @@ public class RegionMetricStatisticsCollector implements Callable<RegionMetricSta
             this.threadTimeOut = threadTimeOut;
             return this;
         }
+
+        public Builder withUseGetMetricData(boolean useGetMetricData) {
+            this.useGetMetricData = useGetMetricData;
+            return this;
+        }
+
+        public Builder withLatestDatapointOnly(boolean latestDatapointOnly) {
+            this.latestDatapointOnly = latestDatapointOnly;
+            return this;
+        }
+
+        public Builder withAggregateMetrics(List<AggregateMetric> aggregateMetrics) {
+            this.aggregateMetrics = aggregateMetrics;
+            return this;
+        }
+
+        public Builder withUseSearchExpressions(boolean useSearchExpressions) {
+            this.useSearchExpressions = useSearchExpressions;
+            return this;
+        }
+
+        public Builder withIncludeMetrics(List<IncludeMetric> includeMetrics) {
+            this.includeMetrics = includeMetrics;
+            return this;
+        }
+
+        public Builder withLinkedAccounts(Map<String, String> linkedAccounts) {
+            this.linkedAccounts = linkedAccounts;
+            return this;
+        }
+
+        public Builder withUseAsyncClient(boolean useAsyncClient) {
+            this.useAsyncClient = useAsyncClient;
+            return this;
+        }
+
+        public Builder withMaxInFlightRequestsPerRegion(int maxInFlightRequestsPerRegion) {
+            this.maxInFlightRequestsPerRegion = maxInFlightRequestsPerRegion;
+            return this;
+        }
+
+        public Builder withDefaultPeriodInSec(int defaultPeriodInSec) {
+            this.defaultPeriodInSec = defaultPeriodInSec;
+            return this;
+        }
+
+        public Builder withBackfillMaxWindowInMins(int backfillMaxWindowInMins) {
+            this.backfillMaxWindowInMins = backfillMaxWindowInMins;
+            return this;
+        }
+
+        public Builder withCollectionCycle(CollectionCycle collectionCycle) {
+            this.collectionCycle = collectionCycle;
+            return this;
+        }
+
+        /**
+         * Retrieves the asynchronous client of the account in the region from the cache, creating it on first
+         * use with the same credentials and override config as the synchronous one, and as many connections
+         * as the requests the limiter lets in flight
+         */
+        private CloudWatchAsyncClient getAwsCloudWatchAsync(final InFlightRequestLimiter requestLimiter) {
+            String asyncClientKey = AWSClientCache.getAsyncClientKey(clientKey, maxInFlightRequestsPerRegion);
+            return awsClientCache.getAsync(asyncClientKey, new Callable<CloudWatchAsyncClient>() {
+                public CloudWatchAsyncClient call() {
+                    LOGGER.info("CloudWatch async client not found in cache; creating a new client and adding it to cache.");
+
+                    CloudWatchAsyncClientBuilder clientBuilder = CloudWatchAsyncClient.builder()
+                            .endpointOverride(endpointUri)
+                            .region(Region.of(region))
+                            .httpClient(AWSUtil.createAsyncHttpClient(awsClientConfig.getProxyConfig(),
+                                    requestLimiter.getMaxInFlightRequests()))
+                            .overrideConfiguration(awsClientConfig.getOverrideConfiguration());
+
+                    if (awsCredentials != null) {
+                        clientBuilder.credentialsProvider(awsCredentials);
+                    }
+                    return clientBuilder.build();
+                }
+            });
+        }
+
+        private InFlightRequestLimiter getRequestLimiter() {
+            return awsClientCache.getRequestLimiter(AWSClientCache.getAsyncClientKey(clientKey,
+                    maxInFlightRequestsPerRegion), maxInFlightRequestsPerRegion);
+        }
     }
 }
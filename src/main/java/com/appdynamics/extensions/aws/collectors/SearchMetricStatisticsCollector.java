@@ -0,0 +1,430 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.config.Dimension;
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.predicate.MultiDimensionPredicate;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.StatusCode;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_END_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_START_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.MAX_SEARCH_EXPRESSIONS_PER_REQUEST;
+import static com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper.createInsightsQuery;
+import static com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper.createSearchExpression;
+import static com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper.createSearchLabel;
+import static com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper.parseSearchLabel;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getSeriesFingerprint;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getStartTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.QueryIds.toIndex;
+import static com.appdynamics.extensions.aws.util.QueryIds.toQueryId;
+import static com.appdynamics.extensions.aws.validators.Validator.validateTimeRange;
+
+/**
+ * Discovers and retrieves the series of a batch of include metrics with a
+ * single GetMetricData request, using one SEARCH expression per include metric
+ * instead of ListMetrics followed by a request per series.
+ * <p>
+ * Each SEARCH expression matches the series carrying exactly the configured
+ * dimensions, and is labelled with their values so every returned series can
+ * be turned back into an {@link AWSMetric}. The {@link MultiDimensionPredicate}
+ * is then applied to the discovered series.
+ * <p>
+ * With Metrics Insights queries, each include metric is instead queried for its
+ * top series grouped by its insightsGroupBy dimensions, bounding the number of
+ * series regardless of the number of matching metrics. A request can only hold
+ * a single Metrics Insights query.
+ * <p>
+ * <p>Cloudwatch Limitation:
+ * A single GetMetricData request can contain a limited number of
+ * SEARCH expressions, therefore batches should not exceed
+ * {@link com.appdynamics.extensions.aws.Constants#MAX_SEARCH_EXPRESSIONS_PER_REQUEST}.
+ */
+public class SearchMetricStatisticsCollector implements Callable<List<MetricStatistic>> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(SearchMetricStatisticsCollector.class);
+
+    private static final char QUERY_ID_PREFIX = 's';
+
+    private String accountName;
+
+    private String region;
+
+    private String namespace;
+
+    private CloudWatchClient awsCloudWatch;
+
+    private List<IncludeMetric> includeMetrics;
+
+    private List<StatisticType> statTypes;
+
+    private List<Dimension> dimensions;
+
+    private int startTimeInMinsBeforeNow;
+
+    private int endTimeInMinsBeforeNow;
+
+    private LongAdder awsRequestsCounter;
+
+    private int periodInSec;
+
+    private String metricPrefix;
+
+    private boolean insightsQueries;
+
+    private SearchMetricStatisticsCollector(Builder builder) {
+        this.accountName = builder.accountName;
+        this.region = builder.region;
+        this.namespace = builder.namespace;
+        this.awsCloudWatch = builder.awsCloudWatch;
+        this.includeMetrics = builder.includeMetrics;
+        this.statTypes = builder.statTypes;
+        this.dimensions = builder.dimensions;
+        this.awsRequestsCounter = builder.awsRequestsCounter;
+        this.periodInSec = builder.periodInSec > 0 ? builder.periodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
+        this.metricPrefix = builder.metricPrefix;
+        this.insightsQueries = builder.insightsQueries;
+
+        setStartTimeInMinsBeforeNow(builder.metricsTimeRange.getStartTimeInMinsBeforeNow());
+        setEndTimeInMinsBeforeNow(builder.metricsTimeRange.getEndTimeInMinsBeforeNow());
+    }
+
+    /**
+     * Uses {@link CloudWatchClient} to search the series of every include
+     * metric in the batch, following pagination until all are returned.
+     * <p>
+     * Returns one statistic per discovered series,
+     * based from the latest datapoint of the series.
+     */
+    public List<MetricStatistic> call() throws Exception {
+        List<MetricStatistic> metricStatistics = Lists.newArrayList();
+
+        try {
+            validateTimeRange(startTimeInMinsBeforeNow, endTimeInMinsBeforeNow);
+
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(String.format("Searching MetricStatistics for Namespace [%s] Account [%s] Region [%s] "
+                        + "Batch size [%s]", namespace, accountName, region, includeMetrics.size()));
+            }
+
+            List<MetricDataQuery> queries = Lists.newArrayListWithCapacity(includeMetrics.size());
+
+            for (int index = 0; index < includeMetrics.size(); index++) {
+                String expression = insightsQueries ?
+                        createInsightsQuery(namespace, includeMetrics.get(index), statTypes.get(index)) :
+                        createSearchExpression(namespace, includeMetrics.get(index), dimensions,
+                                statTypes.get(index), periodInSec);
+
+                queries.add(MetricDataQuery.builder()
+                        .id(toQueryId(QUERY_ID_PREFIX, index))
+                        .expression(expression)
+                        .label(createSearchLabel(getLabelDimensionNames(index)))
+                        .period(periodInSec)
+                        .returnData(true)
+                        .build());
+            }
+
+            Instant endTime = getTimeInMinsBeforeNow(endTimeInMinsBeforeNow, periodInSec);
+
+            GetMetricDataRequest.Builder requestBuilder = GetMetricDataRequest.builder()
+                    .metricDataQueries(queries)
+                    .startTime(getStartTimeInMinsBeforeNow(startTimeInMinsBeforeNow, endTime, periodInSec))
+                    .endTime(endTime);
+
+            // every series returned for a query shares its id, hence series are keyed by (id, label)
+            Map<List<String>, SearchedSeries> seriesByLabel = new LinkedHashMap<List<String>, SearchedSeries>();
+            // top series returned by Metrics Insights are not filtered on the configured dimensions
+            MultiDimensionPredicate dimensionPredicate = insightsQueries ? null : new MultiDimensionPredicate(dimensions);
+            String nextToken = null;
+
+            do {
+                GetMetricDataResponse response = RequestCoalescer.getInstance().getMetricData(awsCloudWatch,
+                        requestBuilder.nextToken(nextToken).build(), awsRequestsCounter);
+
+                for (MetricDataResult result : response.metricDataResults()) {
+                    int index = toIndex(result.id(), QUERY_ID_PREFIX);
+
+                    if (index < 0 || index >= includeMetrics.size()) {
+                        continue;
+                    }
+
+                    List<String> seriesKey = Arrays.asList(result.id(), result.label());
+                    SearchedSeries series = seriesByLabel.get(seriesKey);
+
+                    if (series == null) {
+                        series = createSeries(result, index, dimensionPredicate);
+                        seriesByLabel.put(seriesKey, series);
+                    }
+
+                    if (series.metric != null) {
+                        series.update(result);
+                    }
+                }
+
+                nextToken = response.nextToken();
+
+            } while (nextToken != null);
+
+            for (SearchedSeries series : seriesByLabel.values()) {
+                if (series.metric != null) {
+                    MetricStatistic metricStatistic = new MetricStatistic();
+                    metricStatistic.setMetric(series.metric);
+                    metricStatistic.setMetricPrefix(metricPrefix);
+                    if (series.latestTimestamp != null) {
+                        metricStatistic.setValue(series.latestValue);
+                        SeriesWatermarkProvider.getInstance().update(series.fingerprint, series.latestTimestamp,
+                                series.latestValue);
+
+                    } else if (series.datapointsReturned) {
+                        // nothing new past the watermark, the latest value consumed is reported again
+                        metricStatistic.setValue(SeriesWatermarkProvider.getInstance().getLatestValue(
+                                series.fingerprint));
+                    }
+
+                    metricStatistics.add(metricStatistic);
+                }
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Searched [%s] series for Namespace [%s] Account [%s] Region [%s]",
+                        metricStatistics.size(), namespace, accountName, region));
+            }
+
+        } catch (Exception e) {
+            throw new AwsException(String.format(
+                    "Error searching MetricStatistics for Namespace [%s] Account [%s] Region [%s] Batch size [%s]",
+                    namespace, accountName, region, includeMetrics.size()), e);
+        }
+
+        return metricStatistics;
+    }
+
+    private SearchedSeries createSeries(MetricDataResult result, int index, MultiDimensionPredicate dimensionPredicate) {
+        SearchedSeries series = new SearchedSeries();
+        IncludeMetric includeMetric = includeMetrics.get(index);
+        Metric metric = parseSearchLabel(namespace, includeMetric.getName(), result.label(),
+                getLabelDimensionNames(index));
+
+        if (result.statusCode() == StatusCode.FORBIDDEN || result.statusCode() == StatusCode.INTERNAL_ERROR) {
+            LOGGER.warn(String.format("GetMetricData returned status [%s] for Account [%s] Region [%s] Metric [%s] Messages [%s]",
+                    result.statusCodeAsString(), accountName, region, includeMetric.getName(), result.messages()));
+        }
+
+        if (metric == null) {
+            LOGGER.debug(String.format("Ignoring series with unexpected label [%s] for Metric [%s]",
+                    result.label(), includeMetric.getName()));
+
+        } else if (dimensionPredicate == null || dimensionPredicate.apply(metric)) {
+            series.metric = new AWSMetric();
+            series.metric.setIncludeMetric(includeMetric);
+            series.metric.setMetric(metric);
+
+            if (SeriesWatermarkProvider.getInstance().isEnabled()) {
+                series.fingerprint = getSeriesFingerprint(accountName, region, series.metric, statTypes.get(index));
+            }
+        }
+
+        return series;
+    }
+
+    private List<String> getLabelDimensionNames(int index) {
+        if (insightsQueries) {
+            return includeMetrics.get(index).getInsightsGroupBy();
+        }
+
+        List<String> dimensionNames = Lists.newArrayListWithCapacity(dimensions.size());
+
+        for (Dimension dimension : dimensions) {
+            dimensionNames.add(dimension.getName());
+        }
+
+        return dimensionNames;
+    }
+
+    /**
+     * Splits the metrics into the batches of the GetMetricData requests searching them, a request
+     * holds a single Metrics Insights query, only metrics sharing the same time range and period
+     * are batched together
+     */
+    static List<List<IncludeMetric>> createBatches(List<IncludeMetric> metrics,
+                                                   MetricTimeRangeResolver timeRangeResolver,
+                                                   boolean insightsQueries) {
+        List<List<IncludeMetric>> batches = Lists.newArrayList();
+        int batchSize = insightsQueries ? 1 : MAX_SEARCH_EXPRESSIONS_PER_REQUEST;
+
+        for (List<IncludeMetric> timeRangeMetrics : timeRangeResolver.groupByTimeRangeAndPeriod(metrics).values()) {
+            batches.addAll(Lists.partition(timeRangeMetrics, batchSize));
+        }
+
+        return batches;
+    }
+
+    private void setStartTimeInMinsBeforeNow(int startTimeInMinsBeforeNow) {
+        this.startTimeInMinsBeforeNow = startTimeInMinsBeforeNow < 0 ?
+                DEFAULT_START_TIME_IN_MINS_BEFORE_NOW : startTimeInMinsBeforeNow;
+    }
+
+    private void setEndTimeInMinsBeforeNow(int endTimeInMinsBeforeNow) {
+        this.endTimeInMinsBeforeNow = endTimeInMinsBeforeNow < 0 ?
+                DEFAULT_END_TIME_IN_MINS_BEFORE_NOW : endTimeInMinsBeforeNow;
+    }
+
+    /**
+     * A series discovered by a SEARCH expression, the metric is
+     * null if the series is filtered out
+     */
+    private static class SearchedSeries {
+
+        private AWSMetric metric;
+
+        private long fingerprint;
+
+        private Instant latestTimestamp;
+
+        private Double latestValue;
+
+        private boolean datapointsReturned;
+
+        private void update(MetricDataResult result) {
+            SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+            int size = Math.min(result.timestamps().size(), result.values().size());
+            datapointsReturned |= size > 0;
+
+            for (int pointIndex = 0; pointIndex < size; pointIndex++) {
+                Instant timestamp = result.timestamps().get(pointIndex);
+
+                if (watermarkProvider.isCurrent(fingerprint, timestamp)
+                        && (latestTimestamp == null || timestamp.isAfter(latestTimestamp))) {
+                    latestTimestamp = timestamp;
+                    latestValue = result.values().get(pointIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builder class to maintain readability when
+     * building {@link SearchMetricStatisticsCollector} due to its params size
+     */
+    public static class Builder {
+
+        private String accountName;
+
+        private String region;
+
+        private String namespace;
+
+        private CloudWatchClient awsCloudWatch;
+
+        private List<IncludeMetric> includeMetrics;
+
+        private List<StatisticType> statTypes;
+
+        private List<Dimension> dimensions;
+
+        private MetricsTimeRange metricsTimeRange;
+
+        private LongAdder awsRequestsCounter;
+
+        private int periodInSec;
+
+        private String metricPrefix;
+
+        private boolean insightsQueries;
+
+        public Builder withAccountName(String accountName) {
+            this.accountName = accountName;
+            return this;
+        }
+
+        public Builder withRegion(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder withNamespace(String namespace) {
+            this.namespace = namespace;
+            return this;
+        }
+
+        public Builder withAwsCloudWatch(CloudWatchClient awsCloudWatch) {
+            this.awsCloudWatch = awsCloudWatch;
+            return this;
+        }
+
+        public Builder withIncludeMetrics(List<IncludeMetric> includeMetrics) {
+            this.includeMetrics = includeMetrics;
+            return this;
+        }
+
+        public Builder withStatTypes(List<StatisticType> statTypes) {
+            this.statTypes = statTypes;
+            return this;
+        }
+
+        public Builder withDimensions(List<Dimension> dimensions) {
+            this.dimensions = dimensions;
+            return this;
+        }
+
+        public Builder withMetricsTimeRange(MetricsTimeRange metricsTimeRange) {
+            this.metricsTimeRange = metricsTimeRange;
+            return this;
+        }
+
+        public Builder withAWSRequestCounter(LongAdder awsRequestsCounter) {
+            this.awsRequestsCounter = awsRequestsCounter;
+            return this;
+        }
+
+        public Builder withPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        public Builder withInsightsQueries(boolean insightsQueries) {
+            this.insightsQueries = insightsQueries;
+            return this;
+        }
+
+        public SearchMetricStatisticsCollector build() {
+            return new SearchMetricStatisticsCollector(this);
+        }
+
+        public Builder withPeriodInSec(int periodInSec) {
+            this.periodInSec = periodInSec;
+            return this;
+        }
+    }
+}
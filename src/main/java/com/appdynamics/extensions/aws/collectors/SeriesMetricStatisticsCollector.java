@@ -0,0 +1,391 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.providers.PublishLagTracker;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.aws.util.InFlightRequestLimiter;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Datapoint;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Statistic;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_END_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_METRIC_PERIOD_IN_SEC;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_START_TIME_IN_MINS_BEFORE_NOW;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getSeriesFingerprint;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getStartTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getTimeInMinsBeforeNow;
+import static com.appdynamics.extensions.aws.validators.Validator.validateTimeRange;
+
+/**
+ * Retrieves several statistics of the same series with
+ * a single GetMetricStatistics request.
+ * <p>
+ * All metrics handed to this collector must share the same
+ * namespace, metric name, dimensions and time range, only their
+ * statistic types are expected to differ.
+ */
+public class SeriesMetricStatisticsCollector implements Callable<List<MetricStatistic>> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(SeriesMetricStatisticsCollector.class);
+
+    private String accountName;
+
+    private String region;
+
+    private CloudWatchClient awsCloudWatch;
+
+    private List<AWSMetric> metrics;
+
+    private List<StatisticType> statTypes;
+
+    private int startTimeInMinsBeforeNow;
+
+    private int endTimeInMinsBeforeNow;
+
+    private LongAdder awsRequestsCounter;
+
+    private int periodInSec;
+
+    private String metricPrefix;
+
+    private long[] fingerprints;
+
+    private SeriesMetricStatisticsCollector(Builder builder) {
+        this.accountName = builder.accountName;
+        this.region = builder.region;
+        this.awsCloudWatch = builder.awsCloudWatch;
+        this.metrics = builder.metrics;
+        this.statTypes = builder.statTypes;
+        this.awsRequestsCounter = builder.awsRequestsCounter;
+        this.periodInSec = builder.periodInSec > 0 ? builder.periodInSec : DEFAULT_METRIC_PERIOD_IN_SEC;
+        this.metricPrefix = builder.metricPrefix;
+
+        setStartTimeInMinsBeforeNow(builder.metricsTimeRange.getStartTimeInMinsBeforeNow());
+        setEndTimeInMinsBeforeNow(builder.metricsTimeRange.getEndTimeInMinsBeforeNow());
+    }
+
+    /**
+     * Uses {@link CloudWatchClient} to retrieve the datapoints of the
+     * series with every distinct statistic type requested at once.
+     * <p>
+     * Returns one statistic per metric, in the same order as given,
+     * based from the latest datapoint and the metric's statistic type.
+     */
+    public List<MetricStatistic> call() throws Exception {
+        List<MetricStatistic> metricStatistics = null;
+
+        try {
+            GetMetricStatisticsRequest request = createGetMetricStatisticsRequest();
+            GetMetricStatisticsResponse result = null;
+
+            if (request != null) {
+                result = RequestCoalescer.getInstance().getMetricStatistics(awsCloudWatch,
+                        request, awsRequestsCounter);
+            }
+
+            metricStatistics = createMetricStatistics(result);
+
+        } catch (Exception e) {
+            throw createAwsException(e);
+        }
+
+        return metricStatistics;
+    }
+
+    /**
+     * Same as {@link #call()}, but sends the request with the given {@link CloudWatchAsyncClient}
+     * once the limiter allows it, without holding the calling thread until the response arrives
+     */
+    public CompletableFuture<List<MetricStatistic>> callAsync(CloudWatchAsyncClient awsCloudWatchAsync,
+                                                              InFlightRequestLimiter requestLimiter) {
+        final GetMetricStatisticsRequest request;
+
+        try {
+            request = createGetMetricStatisticsRequest();
+
+            if (request == null) {
+                return CompletableFuture.completedFuture(createMetricStatistics(null));
+            }
+
+        } catch (Exception e) {
+            return InFlightRequestLimiter.failedFuture(createAwsException(e));
+        }
+
+        CompletableFuture<GetMetricStatisticsResponse> response = RequestCoalescer.getInstance()
+                .getMetricStatisticsAsync(awsCloudWatchAsync, request, requestLimiter, awsRequestsCounter);
+
+        CompletableFuture<List<MetricStatistic>> metricStatisticsResponse = response.handle(
+                new BiFunction<GetMetricStatisticsResponse, Throwable, List<MetricStatistic>>() {
+                    public List<MetricStatistic> apply(GetMetricStatisticsResponse result, Throwable throwable) {
+                        if (throwable != null) {
+                            throw createAwsException(throwable instanceof CompletionException
+                                    && throwable.getCause() != null ? throwable.getCause() : throwable);
+                        }
+
+                        return createMetricStatistics(result);
+                    }
+                });
+
+        InFlightRequestLimiter.propagateCancellation(metricStatisticsResponse, response);
+        return metricStatisticsResponse;
+    }
+
+    /**
+     * Returns the request of the datapoints not consumed yet by any of the
+     * statistics, null if no new datapoint is expected
+     */
+    private GetMetricStatisticsRequest createGetMetricStatisticsRequest() {
+        AWSMetric series = metrics.get(0);
+
+        validateTimeRange(startTimeInMinsBeforeNow, endTimeInMinsBeforeNow);
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(String.format("Collecting MetricStatistics %s for Namespace [%s] "
+                            + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
+                    statTypes, series.getMetric().namespace(), accountName, region,
+                    series.getIncludeMetric().getName(), series.getMetric().dimensions()));
+        }
+
+        SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+        fingerprints = new long[metrics.size()];
+
+        Instant endTime = getTimeInMinsBeforeNow(endTimeInMinsBeforeNow, periodInSec);
+        Instant configuredStartTime = getStartTimeInMinsBeforeNow(startTimeInMinsBeforeNow, endTime, periodInSec);
+        Instant startTime = null;
+
+        // the series is requested from the oldest watermark amongst its statistics
+        for (int index = 0; index < metrics.size(); index++) {
+            fingerprints[index] = watermarkProvider.isEnabled() ?
+                    getSeriesFingerprint(accountName, region, metrics.get(index), statTypes.get(index)) : 0L;
+
+            Instant metricStartTime = watermarkProvider.getStartTime(fingerprints[index],
+                    configuredStartTime, periodInSec, series.getMetric().namespace());
+
+            if (startTime == null || metricStartTime.isBefore(startTime)) {
+                startTime = metricStartTime;
+            }
+        }
+
+        return startTime.isBefore(endTime) ? createGetMetricStatisticsRequest(series, startTime, endTime) : null;
+    }
+
+    private List<MetricStatistic> createMetricStatistics(GetMetricStatisticsResponse result) {
+        List<MetricStatistic> metricStatistics = Lists.newArrayListWithCapacity(metrics.size());
+        AWSMetric series = metrics.get(0);
+
+        SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+        Datapoint latestDatapoint = null;
+
+        if (result != null) {
+            latestDatapoint = MetricStatisticCollector.findLatestDatapoint(result.datapoints());
+
+            if (latestDatapoint != null) {
+                PublishLagTracker.getInstance().recordDatapoint(series.getMetric().namespace(),
+                        latestDatapoint.timestamp().plusSeconds(periodInSec), System.currentTimeMillis());
+            }
+        }
+
+        if (latestDatapoint == null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("No statistics retrieved for Namespace [%s] "
+                            + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
+                    series.getMetric().namespace(), accountName, region,
+                    series.getIncludeMetric().getName(), series.getMetric().dimensions()));
+        }
+
+        for (int index = 0; index < metrics.size(); index++) {
+            MetricStatistic metricStatistic = new MetricStatistic();
+            metricStatistic.setMetric(metrics.get(index));
+            metricStatistic.setMetricPrefix(metricPrefix);
+
+            if (latestDatapoint != null && watermarkProvider.isCurrent(fingerprints[index],
+                    latestDatapoint.timestamp())) {
+                Double value = statTypes.get(index).getValue(latestDatapoint);
+                metricStatistic.setValue(value);
+                metricStatistic.setUnit(latestDatapoint.unitAsString());
+                watermarkProvider.update(fingerprints[index], latestDatapoint.timestamp(), value);
+
+            } else if (result == null || latestDatapoint != null) {
+                // nothing new past the watermark, the latest value consumed is reported again
+                metricStatistic.setValue(watermarkProvider.getLatestValue(fingerprints[index]));
+
+            } else {
+                metricStatistic.setNoDatapointReturned(true);
+            }
+
+            metricStatistics.add(metricStatistic);
+        }
+
+        return metricStatistics;
+    }
+
+    private AwsException createAwsException(Throwable cause) {
+        AWSMetric series = metrics.get(0);
+
+        return new AwsException(String.format(
+                "Error getting MetricStatistics for Namespace [%s] "
+                        + "Account [%s] Region [%s] Metric [%s] Dimensions [%s]",
+                series.getMetric().namespace(), accountName, region,
+                series.getIncludeMetric().getName(), series.getMetric().dimensions()), cause);
+    }
+
+    private GetMetricStatisticsRequest createGetMetricStatisticsRequest(AWSMetric series, Instant startTime, Instant endTime) {
+        Set<StatisticType> distinctStatTypes = EnumSet.copyOf(statTypes);
+        List<Statistic> statistics = Lists.newArrayListWithCapacity(distinctStatTypes.size());
+
+        for (StatisticType statType : distinctStatTypes) {
+            statistics.add(statType.asStatistic());
+        }
+
+        return GetMetricStatisticsRequest.builder()
+                .startTime(startTime)
+                .namespace(series.getMetric().namespace())
+                .dimensions(series.getMetric().dimensions())
+                .period(periodInSec)
+                .metricName(series.getIncludeMetric().getName())
+                .statistics(statistics)
+                .endTime(endTime)
+                .build();
+    }
+
+    /**
+     * Groups metrics pointing at the same series, i.e. same namespace, metric name,
+     * dimensions, time range and period, so their statistics can be fetched in one request
+     */
+    static List<List<AWSMetric>> groupBySeries(List<AWSMetric> metrics, MetricTimeRangeResolver timeRangeResolver) {
+        Map<List<Object>, List<AWSMetric>> metricsBySeries = new LinkedHashMap<List<Object>, List<AWSMetric>>();
+
+        for (AWSMetric metric : metrics) {
+            MetricsTimeRange timeRange = timeRangeResolver.getMetricsTimeRange(metric.getIncludeMetric());
+            List<Object> seriesKey = Arrays.<Object>asList(metric.getMetric().namespace(),
+                    metric.getIncludeMetric().getName(), metric.getMetric().dimensions(),
+                    timeRange.getStartTimeInMinsBeforeNow(), timeRange.getEndTimeInMinsBeforeNow(),
+                    timeRangeResolver.getPeriodInSec(metric.getIncludeMetric()));
+
+            List<AWSMetric> seriesMetrics = metricsBySeries.get(seriesKey);
+
+            if (seriesMetrics == null) {
+                seriesMetrics = Lists.newArrayList();
+                metricsBySeries.put(seriesKey, seriesMetrics);
+            }
+
+            seriesMetrics.add(metric);
+        }
+
+        return Lists.newArrayList(metricsBySeries.values());
+    }
+
+    private void setStartTimeInMinsBeforeNow(int startTimeInMinsBeforeNow) {
+        this.startTimeInMinsBeforeNow = startTimeInMinsBeforeNow < 0 ?
+                DEFAULT_START_TIME_IN_MINS_BEFORE_NOW : startTimeInMinsBeforeNow;
+    }
+
+    private void setEndTimeInMinsBeforeNow(int endTimeInMinsBeforeNow) {
+        this.endTimeInMinsBeforeNow = endTimeInMinsBeforeNow < 0 ?
+                DEFAULT_END_TIME_IN_MINS_BEFORE_NOW : endTimeInMinsBeforeNow;
+    }
+
+    /**
+     * Builder class to maintain readability when
+     * building {@link SeriesMetricStatisticsCollector} due to its params size
+     */
+    public static class Builder {
+
+        private String accountName;
+
+        private String region;
+
+        private CloudWatchClient awsCloudWatch;
+
+        private List<AWSMetric> metrics;
+
+        private List<StatisticType> statTypes;
+
+        private MetricsTimeRange metricsTimeRange;
+
+        private LongAdder awsRequestsCounter;
+
+        private int periodInSec;
+
+        private String metricPrefix;
+
+        public Builder withAccountName(String accountName) {
+            this.accountName = accountName;
+            return this;
+        }
+
+        public Builder withRegion(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder withAwsCloudWatch(CloudWatchClient awsCloudWatch) {
+            this.awsCloudWatch = awsCloudWatch;
+            return this;
+        }
+
+        public Builder withMetrics(List<AWSMetric> metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder withStatTypes(List<StatisticType> statTypes) {
+            this.statTypes = statTypes;
+            return this;
+        }
+
+        public Builder withMetricsTimeRange(MetricsTimeRange metricsTimeRange) {
+            this.metricsTimeRange = metricsTimeRange;
+            return this;
+        }
+
+        public Builder withAWSRequestCounter(LongAdder awsRequestsCounter) {
+            this.awsRequestsCounter = awsRequestsCounter;
+            return this;
+        }
+
+        public Builder withPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        public SeriesMetricStatisticsCollector build() {
+            return new SeriesMetricStatisticsCollector(this);
+        }
+
+        public Builder withPeriodInSec(int periodInSec) {
+            this.periodInSec = periodInSec;
+            return this;
+        }
+    }
+}
@@ -7,6 +7,7 @@
 
 package com.appdynamics.extensions.aws.config;
 
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -24,6 +25,8 @@ public class Account {
 	private String displayAccountName;
 	
 	private Set<String> regions;
+
+	private Map<String, String> linkedAccounts;
 	
 	public String getAwsAccessKey() {
 		return awsAccessKey;
@@ -64,4 +67,12 @@ public class Account {
 	public void setAwsSessionToken (String awsSessionToken) {
 		this.awsSessionToken = awsSessionToken;
 	}
+
+	public Map<String, String> getLinkedAccounts() {
+		return linkedAccounts;
+	}
+
+	public void setLinkedAccounts(Map<String, String> linkedAccounts) {
+		this.linkedAccounts = linkedAccounts;
+	}
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.config;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A metric aggregated by CloudWatch across every series matching
+ * a SEARCH expression, e.g. the total NetworkIn of all instances.
+ * <p>
+ * The name is the CloudWatch metric name, statType the statistic of
+ * each series and function how the series are aggregated.
+ */
+public class AggregateMetric extends IncludeMetric {
+
+    private String function = "sum";
+
+    private List<String> dimensionNames;
+
+    private Map<String, String> dimensionValues;
+
+    public String getFunction() {
+        return function;
+    }
+
+    public void setFunction(String function) {
+        this.function = function;
+    }
+
+    public List<String> getDimensionNames() {
+        return dimensionNames;
+    }
+
+    public void setDimensionNames(List<String> dimensionNames) {
+        this.dimensionNames = dimensionNames;
+    }
+
+    public Map<String, String> getDimensionValues() {
+        return dimensionValues;
+    }
+
+    public void setDimensionValues(Map<String, String> dimensionValues) {
+        this.dimensionValues = dimensionValues;
+    }
+}
@@ -11,10 +11,24 @@ import java.util.List;
 public class AwsClientConfig {
     private final SdkHttpClient httpClient;
     private final ClientOverrideConfiguration overrideConfiguration;
+    private final ProxyConfig proxyConfig;
+    private final List<Object> settings;
 
     public AwsClientConfig(SdkHttpClient httpClient, ClientOverrideConfiguration overrideConfiguration) {
+        this(httpClient, overrideConfiguration, null);
+    }
+
+    public AwsClientConfig(SdkHttpClient httpClient, ClientOverrideConfiguration overrideConfiguration,
+                           ProxyConfig proxyConfig) {
+        this(httpClient, overrideConfiguration, proxyConfig, Collections.<Object>emptyList());
+    }
+
+    public AwsClientConfig(SdkHttpClient httpClient, ClientOverrideConfiguration overrideConfiguration,
+                           ProxyConfig proxyConfig, List<Object> settings) {
         this.httpClient = httpClient;
         this.overrideConfiguration = overrideConfiguration.toBuilder().addExecutionInterceptor(new LoggingInterceptor()).build();
+        this.proxyConfig = proxyConfig;
+        this.settings = settings;
     }
 
     public SdkHttpClient getHttpClient() {
@@ -24,4 +38,19 @@ public class AwsClientConfig {
     public ClientOverrideConfiguration getOverrideConfiguration() {
         return overrideConfiguration;
     }
+
+    /**
+     * Returns the proxy the asynchronous http client must use, null if none
+     */
+    public ProxyConfig getProxyConfig() {
+        return proxyConfig;
+    }
+
+    /**
+     * Returns the configured values this config was created from, e.g. retries, timeouts and proxy,
+     * clients built from configs with other settings are not interchangeable
+     */
+    public List<Object> getSettings() {
+        return settings;
+    }
 }
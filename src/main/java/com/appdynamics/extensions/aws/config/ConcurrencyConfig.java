@@ -20,6 +20,24 @@ public class ConcurrencyConfig {
 
     private int threadTimeOut = 30;
 
+    private int maxTotalThreads;
+
+    private int maxNamespaceThreads;
+
+    private int maxAccountThreads;
+
+    private int maxRegionThreads;
+
+    private int maxMetricThreads;
+
+    private boolean useAsyncClient;
+
+    private int maxInFlightRequestsPerRegion;
+
+    private boolean useVirtualThreads;
+
+    private int cycleDeadlineInSecs;
+
     public int getNoOfAccountThreads() {
         return noOfAccountThreads;
     }
@@ -54,4 +72,76 @@ public class ConcurrencyConfig {
             this.threadTimeOut = threadTimeOut;
         }
     }
+
+    public int getMaxTotalThreads() {
+        return maxTotalThreads;
+    }
+
+    public void setMaxTotalThreads(int maxTotalThreads) {
+        this.maxTotalThreads = maxTotalThreads;
+    }
+
+    public int getMaxNamespaceThreads() {
+        return maxNamespaceThreads;
+    }
+
+    public void setMaxNamespaceThreads(int maxNamespaceThreads) {
+        this.maxNamespaceThreads = maxNamespaceThreads;
+    }
+
+    public int getMaxAccountThreads() {
+        return maxAccountThreads;
+    }
+
+    public void setMaxAccountThreads(int maxAccountThreads) {
+        this.maxAccountThreads = maxAccountThreads;
+    }
+
+    public int getMaxRegionThreads() {
+        return maxRegionThreads;
+    }
+
+    public void setMaxRegionThreads(int maxRegionThreads) {
+        this.maxRegionThreads = maxRegionThreads;
+    }
+
+    public int getMaxMetricThreads() {
+        return maxMetricThreads;
+    }
+
+    public void setMaxMetricThreads(int maxMetricThreads) {
+        this.maxMetricThreads = maxMetricThreads;
+    }
+
+    public boolean isUseAsyncClient() {
+        return useAsyncClient;
+    }
+
+    public void setUseAsyncClient(boolean useAsyncClient) {
+        this.useAsyncClient = useAsyncClient;
+    }
+
+    public int getMaxInFlightRequestsPerRegion() {
+        return maxInFlightRequestsPerRegion;
+    }
+
+    public void setMaxInFlightRequestsPerRegion(int maxInFlightRequestsPerRegion) {
+        this.maxInFlightRequestsPerRegion = maxInFlightRequestsPerRegion;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public int getCycleDeadlineInSecs() {
+        return cycleDeadlineInSecs;
+    }
+
+    public void setCycleDeadlineInSecs(int cycleDeadlineInSecs) {
+        this.cycleDeadlineInSecs = cycleDeadlineInSecs;
+    }
 }
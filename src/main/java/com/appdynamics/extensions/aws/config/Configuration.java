@@ -24,6 +24,8 @@ public class Configuration {
 
     private ProxyConfig proxyConfig;
 
+    private MetricStreamConfig metricStreamConfig;
+
     private MetricsConfig metricsConfig;
 
     private ConcurrencyConfig concurrencyConfig;
@@ -73,6 +75,14 @@ public class Configuration {
         this.proxyConfig = proxyConfig;
     }
 
+    public MetricStreamConfig getMetricStreamConfig() {
+        return metricStreamConfig;
+    }
+
+    public void setMetricStreamConfig(MetricStreamConfig metricStreamConfig) {
+        this.metricStreamConfig = metricStreamConfig;
+    }
+
     public MetricsConfig getMetricsConfig() {
         return metricsConfig;
     }
@@ -7,6 +7,8 @@
 
 package com.appdynamics.extensions.aws.config;
 
+import java.util.List;
+
 /**
  * @author Florencio Sarmiento
  * @author Satish Muddam
@@ -31,6 +33,16 @@ public class IncludeMetric {
 
     private MetricsTimeRange metricsTimeRange;
 
+    private int periodInSec;
+
+    private int priority;
+
+    private List<String> insightsGroupBy;
+
+    private int insightsLimit;
+
+    private String insightsOrder;
+
     public String getName() {
         return name;
     }
@@ -102,4 +114,44 @@ public class IncludeMetric {
     public void setMetricsTimeRange(MetricsTimeRange metricsTimeRange) {
         this.metricsTimeRange = metricsTimeRange;
     }
+
+    public List<String> getInsightsGroupBy() {
+        return insightsGroupBy;
+    }
+
+    public void setInsightsGroupBy(List<String> insightsGroupBy) {
+        this.insightsGroupBy = insightsGroupBy;
+    }
+
+    public int getInsightsLimit() {
+        return insightsLimit;
+    }
+
+    public void setInsightsLimit(int insightsLimit) {
+        this.insightsLimit = insightsLimit;
+    }
+
+    public String getInsightsOrder() {
+        return insightsOrder;
+    }
+
+    public void setInsightsOrder(String insightsOrder) {
+        this.insightsOrder = insightsOrder;
+    }
+
+    public int getPeriodInSec() {
+        return periodInSec;
+    }
+
+    public void setPeriodInSec(int periodInSec) {
+        this.periodInSec = periodInSec;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.config;
+
+import java.util.List;
+
+/**
+ * Embedded receiver of CloudWatch Metric Streams delivered by Kinesis Data Firehose
+ */
+public class MetricStreamConfig {
+
+    private String bindAddress = "127.0.0.1";
+
+    private int port;
+
+    private String path = "/";
+
+    private String accessKey;
+
+    private List<String> namespaces;
+
+    private int staleAfterInMins = 15;
+
+    private int maxDeliverySizeInMB = 128;
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    public void setAccessKey(String accessKey) {
+        this.accessKey = accessKey;
+    }
+
+    public List<String> getNamespaces() {
+        return namespaces;
+    }
+
+    public void setNamespaces(List<String> namespaces) {
+        this.namespaces = namespaces;
+    }
+
+    public int getStaleAfterInMins() {
+        return staleAfterInMins;
+    }
+
+    public void setStaleAfterInMins(int staleAfterInMins) {
+        this.staleAfterInMins = staleAfterInMins;
+    }
+
+    public int getMaxDeliverySizeInMB() {
+        return maxDeliverySizeInMB;
+    }
+
+    public void setMaxDeliverySizeInMB(int maxDeliverySizeInMB) {
+        this.maxDeliverySizeInMB = maxDeliverySizeInMB;
+    }
+}
@@ -22,6 +22,46 @@ public class MetricsConfig {
 
     private int maxErrorRetrySize;
 
+    private int apiCallTimeoutInSecs;
+
+    private int apiCallAttemptTimeoutInSecs;
+
+    private boolean useGetMetricData;
+
+    private int getMetricDataRateLimit = 50;
+
+    private boolean latestDatapointOnly;
+
+    private String checkpointFile;
+
+    private int listMetricsCacheTtlInMins;
+
+    private boolean recentlyActiveMetricsOnly;
+
+    private List<AggregateMetric> aggregateMetrics;
+
+    private boolean useSearchExpressions;
+
+    private int requestCoalescingTtlInSecs = 30;
+
+    private int defaultPeriodInSec;
+
+    private int backfillMaxWindowInMins;
+
+    private int backfillRateLimit = 5;
+
+    private int deadSeriesThreshold;
+
+    private int deadSeriesMaxProbeIntervalInMins = 60;
+
+    private int apiCallBudgetPerCycle;
+
+    private int apiCallBudgetPerDay;
+
+    private int requestMergingWindowInMillis;
+
+    private int prefetchLeadTimeInSecs;
+
     public List<IncludeMetric> getIncludeMetrics() {
         return includeMetrics;
     }
@@ -53,4 +93,164 @@ public class MetricsConfig {
     public void setMaxErrorRetrySize(int maxErrorRetrySize) {
         this.maxErrorRetrySize = maxErrorRetrySize;
     }
-}
\ No newline at end of file
+
+    public int getApiCallTimeoutInSecs() {
+        return apiCallTimeoutInSecs;
+    }
+
+    public void setApiCallTimeoutInSecs(int apiCallTimeoutInSecs) {
+        this.apiCallTimeoutInSecs = apiCallTimeoutInSecs;
+    }
+
+    public int getApiCallAttemptTimeoutInSecs() {
+        return apiCallAttemptTimeoutInSecs;
+    }
+
+    public void setApiCallAttemptTimeoutInSecs(int apiCallAttemptTimeoutInSecs) {
+        this.apiCallAttemptTimeoutInSecs = apiCallAttemptTimeoutInSecs;
+    }
+
+    public boolean isUseGetMetricData() {
+        return useGetMetricData;
+    }
+
+    public void setUseGetMetricData(boolean useGetMetricData) {
+        this.useGetMetricData = useGetMetricData;
+    }
+
+    public int getGetMetricDataRateLimit() {
+        return getMetricDataRateLimit;
+    }
+
+    public void setGetMetricDataRateLimit(int getMetricDataRateLimit) {
+        this.getMetricDataRateLimit = getMetricDataRateLimit;
+    }
+
+    public boolean isLatestDatapointOnly() {
+        return latestDatapointOnly;
+    }
+
+    public void setLatestDatapointOnly(boolean latestDatapointOnly) {
+        this.latestDatapointOnly = latestDatapointOnly;
+    }
+
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    public void setCheckpointFile(String checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public int getListMetricsCacheTtlInMins() {
+        return listMetricsCacheTtlInMins;
+    }
+
+    public void setListMetricsCacheTtlInMins(int listMetricsCacheTtlInMins) {
+        this.listMetricsCacheTtlInMins = listMetricsCacheTtlInMins;
+    }
+
+    public boolean isRecentlyActiveMetricsOnly() {
+        return recentlyActiveMetricsOnly;
+    }
+
+    public void setRecentlyActiveMetricsOnly(boolean recentlyActiveMetricsOnly) {
+        this.recentlyActiveMetricsOnly = recentlyActiveMetricsOnly;
+    }
+
+    public List<AggregateMetric> getAggregateMetrics() {
+        return aggregateMetrics;
+    }
+
+    public void setAggregateMetrics(List<AggregateMetric> aggregateMetrics) {
+        this.aggregateMetrics = aggregateMetrics;
+    }
+
+    public boolean isUseSearchExpressions() {
+        return useSearchExpressions;
+    }
+
+    public void setUseSearchExpressions(boolean useSearchExpressions) {
+        this.useSearchExpressions = useSearchExpressions;
+    }
+
+    public int getRequestCoalescingTtlInSecs() {
+        return requestCoalescingTtlInSecs;
+    }
+
+    public void setRequestCoalescingTtlInSecs(int requestCoalescingTtlInSecs) {
+        this.requestCoalescingTtlInSecs = requestCoalescingTtlInSecs;
+    }
+
+    public int getDefaultPeriodInSec() {
+        return defaultPeriodInSec;
+    }
+
+    public void setDefaultPeriodInSec(int defaultPeriodInSec) {
+        this.defaultPeriodInSec = defaultPeriodInSec;
+    }
+
+    public int getBackfillMaxWindowInMins() {
+        return backfillMaxWindowInMins;
+    }
+
+    public void setBackfillMaxWindowInMins(int backfillMaxWindowInMins) {
+        this.backfillMaxWindowInMins = backfillMaxWindowInMins;
+    }
+
+    public int getBackfillRateLimit() {
+        return backfillRateLimit;
+    }
+
+    public void setBackfillRateLimit(int backfillRateLimit) {
+        this.backfillRateLimit = backfillRateLimit;
+    }
+
+    public int getDeadSeriesThreshold() {
+        return deadSeriesThreshold;
+    }
+
+    public void setDeadSeriesThreshold(int deadSeriesThreshold) {
+        this.deadSeriesThreshold = deadSeriesThreshold;
+    }
+
+    public int getDeadSeriesMaxProbeIntervalInMins() {
+        return deadSeriesMaxProbeIntervalInMins;
+    }
+
+    public void setDeadSeriesMaxProbeIntervalInMins(int deadSeriesMaxProbeIntervalInMins) {
+        this.deadSeriesMaxProbeIntervalInMins = deadSeriesMaxProbeIntervalInMins;
+    }
+
+    public int getApiCallBudgetPerCycle() {
+        return apiCallBudgetPerCycle;
+    }
+
+    public void setApiCallBudgetPerCycle(int apiCallBudgetPerCycle) {
+        this.apiCallBudgetPerCycle = apiCallBudgetPerCycle;
+    }
+
+    public int getApiCallBudgetPerDay() {
+        return apiCallBudgetPerDay;
+    }
+
+    public void setApiCallBudgetPerDay(int apiCallBudgetPerDay) {
+        this.apiCallBudgetPerDay = apiCallBudgetPerDay;
+    }
+
+    public int getRequestMergingWindowInMillis() {
+        return requestMergingWindowInMillis;
+    }
+
+    public void setRequestMergingWindowInMillis(int requestMergingWindowInMillis) {
+        this.requestMergingWindowInMillis = requestMergingWindowInMillis;
+    }
+
+    public int getPrefetchLeadTimeInSecs() {
+        return prefetchLeadTimeInSecs;
+    }
+
+    public void setPrefetchLeadTimeInSecs(int prefetchLeadTimeInSecs) {
+        this.prefetchLeadTimeInSecs = prefetchLeadTimeInSecs;
+    }
+}
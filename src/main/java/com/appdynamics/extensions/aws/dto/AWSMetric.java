@@ -17,6 +17,7 @@ public class AWSMetric {
 
     private IncludeMetric includeMetric;
     private Metric metric;
+    private String accountId;
 
     public IncludeMetric getIncludeMetric() {
         return includeMetric;
@@ -33,4 +34,16 @@ public class AWSMetric {
     public void setMetric(Metric metric) {
         this.metric = metric;
     }
+
+    /**
+     * Id of the linked account owning the metric, when collected through a
+     * monitoring account, otherwise null
+     */
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
 }
@@ -11,6 +11,8 @@ import com.appdynamics.extensions.aws.dto.AWSMetric;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import java.time.Instant;
+
 /**
  * @author Florencio Sarmiento
  */
@@ -24,6 +26,10 @@ public class MetricStatistic {
 
     private String metricPrefix;
 
+    private Instant timestamp;
+
+    private boolean noDatapointReturned;
+
     public AWSMetric getMetric() {
         return metric;
     }
@@ -56,6 +62,29 @@ public class MetricStatistic {
         this.metricPrefix = metricPrefix;
     }
 
+    /**
+     * Timestamp of the datapoint, only set for backfilled statistics
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Instant timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * True if the datapoints of the metric were requested and none was returned in the requested
+     * time range, as opposed to a value missing because nothing was new past the watermark
+     */
+    public boolean isNoDatapointReturned() {
+        return noDatapointReturned;
+    }
+
+    public void setNoDatapointReturned(boolean noDatapointReturned) {
+        this.noDatapointReturned = noDatapointReturned;
+    }
+
     @Override
     public String toString() {
         return ReflectionToStringBuilder.toString(this, ToStringStyle.SHORT_PREFIX_STYLE);
@@ -10,6 +10,7 @@ package com.appdynamics.extensions.aws.metric;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.model.Datapoint;
 import software.amazon.awssdk.services.cloudwatch.model.Statistic;
 
 import java.util.Collection;
@@ -67,4 +68,23 @@ public enum StatisticType {
             default: return Statistic.UNKNOWN_TO_SDK_VERSION;
         }
     }
+
+    /**
+     * Returns the value of this statistic from the datapoint,
+     * or null if the datapoint was not requested with this statistic
+     */
+    public Double getValue(Datapoint datapoint) {
+        if (datapoint == null) {
+            return null;
+        }
+
+        switch (this) {
+            case AVE: return datapoint.average();
+            case MAX: return datapoint.maximum();
+            case MIN: return datapoint.minimum();
+            case SUM: return datapoint.sum();
+            case SAMPLE_COUNT: return datapoint.sampleCount();
+            default: return null;
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.metric.processors;
+
+import com.appdynamics.extensions.aws.collectors.AWSClientCache;
+import com.appdynamics.extensions.aws.collectors.LinkedAccountCloudWatchClient;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the ListMetrics catalog per (CloudWatch client, request), clients being
+ * identified by their key in the {@link AWSClientCache}, so a client built again,
+ * e.g. with new settings on config reload, does not keep the previous one's
+ * catalogs. Catalogs not requested for an hour are discarded, and catalogs of
+ * clients not in the {@link AWSClientCache} are not cached.
+ * <p>
+ * A catalog is only fetched on the collection path the first time it is
+ * requested. Once older than the configured TTL, the last good catalog
+ * keeps being returned while it is refreshed in the background, so
+ * collection never blocks on ListMetrics again. A failed refresh keeps
+ * the previous catalog.
+ * <p>
+ * Caching is disabled until {@link #initialise(int)} is called with a
+ * positive TTL.
+ */
+public class ListMetricsCache {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(ListMetricsCache.class);
+
+    private static final long UNUSED_CATALOG_EXPIRY_IN_MINS = 60;
+
+    private static ListMetricsCache instance;
+
+    private final Cache<List<Object>, CatalogEntry> catalogs = CacheBuilder.newBuilder()
+            .expireAfterAccess(UNUSED_CATALOG_EXPIRY_IN_MINS, TimeUnit.MINUTES)
+            .build();
+
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ListMetricsCacheRefresh-%d").setDaemon(true).build());
+
+    private volatile long ttlInMillis;
+
+    private ListMetricsCache() {
+    }
+
+    public static synchronized ListMetricsCache getInstance() {
+        if (instance == null) {
+            instance = new ListMetricsCache();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets the TTL of the cached catalogs, a non-positive TTL disables caching.
+     * Cached catalogs are discarded whenever the TTL changes.
+     */
+    public void initialise(int ttlInMins) {
+        long newTtlInMillis = TimeUnit.MINUTES.toMillis(Math.max(ttlInMins, 0));
+
+        if (newTtlInMillis != ttlInMillis) {
+            ttlInMillis = newTtlInMillis;
+            catalogs.invalidateAll();
+
+            LOGGER.info(String.format("ListMetrics cache initialised with TTL [%s] mins", ttlInMins));
+        }
+    }
+
+    public boolean isEnabled() {
+        return ttlInMillis > 0;
+    }
+
+    /**
+     * Returns the metrics listed by the request, from the cache if available
+     */
+    public List<Metric> getMetrics(CloudWatchClient awsCloudWatch, LongAdder awsRequestsCounter,
+                                   ListMetricsRequest request) {
+        String clientKey = isEnabled() ? getClientKey(awsCloudWatch) : null;
+
+        if (clientKey == null) {
+            return MetricsProcessorHelper.listMetrics(awsCloudWatch, awsRequestsCounter, request);
+        }
+
+        List<Object> key = Arrays.<Object>asList(clientKey, request);
+        CatalogEntry entry = getCatalogEntry(key, awsCloudWatch, awsRequestsCounter, request);
+
+        if (System.currentTimeMillis() - entry.loadedAt > ttlInMillis) {
+            scheduleRefresh(key, entry, awsCloudWatch, awsRequestsCounter, request);
+        }
+
+        return new ArrayList<Metric>(entry.metrics);
+    }
+
+    /**
+     * Returns the cached catalog, listing it if not cached yet, only once for
+     * concurrent callers of the same catalog
+     */
+    private CatalogEntry getCatalogEntry(List<Object> key, final CloudWatchClient awsCloudWatch,
+                                         final LongAdder awsRequestsCounter, final ListMetricsRequest request) {
+        try {
+            return catalogs.get(key, new Callable<CatalogEntry>() {
+                public CatalogEntry call() {
+                    return new CatalogEntry(MetricsProcessorHelper.listMetrics(awsCloudWatch, awsRequestsCounter, request));
+                }
+            });
+
+        } catch (ExecutionException e) {
+            throw new AwsException(String.format("Error listing metrics for Namespace [%s]", request.namespace()),
+                    e.getCause());
+
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void scheduleRefresh(final List<Object> key, final CatalogEntry entry, final CloudWatchClient awsCloudWatch,
+                                 final LongAdder awsRequestsCounter, final ListMetricsRequest request) {
+
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        refreshExecutor.submit(new Runnable() {
+            public void run() {
+                try {
+                    List<Metric> metrics = MetricsProcessorHelper.listMetrics(awsCloudWatch, awsRequestsCounter, request);
+
+                    // only replace the entry if it has not been discarded in the meantime
+                    catalogs.asMap().replace(key, entry, new CatalogEntry(metrics));
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(String.format("Refreshed ListMetrics catalog for Namespace [%s] with [%s] metrics",
+                                request.namespace(), metrics.size()));
+                    }
+
+                } catch (Exception e) {
+                    LOGGER.error(String.format("Error refreshing ListMetrics catalog for Namespace [%s], "
+                            + "the previous catalog will be used", request.namespace()), e);
+
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the key of the client in the {@link AWSClientCache}, with the linked account
+     * for the clients of a linked account, null if the client is not cached
+     */
+    private static String getClientKey(CloudWatchClient awsCloudWatch) {
+        if (awsCloudWatch instanceof LinkedAccountCloudWatchClient) {
+            LinkedAccountCloudWatchClient linkedAccountCloudWatch = (LinkedAccountCloudWatchClient) awsCloudWatch;
+            String clientKey = getClientKey(linkedAccountCloudWatch.getMonitoringAccountCloudWatch());
+
+            return clientKey != null ? clientKey + "/" + linkedAccountCloudWatch.getLinkedAccountId() : null;
+        }
+
+        return AWSClientCache.getInstance().getClientKey(awsCloudWatch);
+    }
+
+    private static class CatalogEntry {
+
+        private final List<Metric> metrics;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private CatalogEntry(List<Metric> metrics) {
+            this.metrics = metrics;
+        }
+    }
+}
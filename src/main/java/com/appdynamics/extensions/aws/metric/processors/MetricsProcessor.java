@@ -7,14 +7,17 @@
 
 package com.appdynamics.extensions.aws.metric.processors;
 
+import com.appdynamics.extensions.aws.config.Dimension;
 import com.appdynamics.extensions.aws.config.IncludeMetric;
 import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.NamespaceMetricStatistics;
 import com.appdynamics.extensions.aws.metric.StatisticType;
 import com.appdynamics.extensions.metrics.Metric;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -36,6 +39,58 @@ public interface MetricsProcessor {
     List<AWSMetric> getMetrics(
             CloudWatchClient awsCloudWatch, String accountName, LongAdder awsRequestsCounter);
 
+    /**
+     * Same as {@link #getMetrics(CloudWatchClient, String, LongAdder)}, with an executor
+     * on which independent ListMetrics partitions can be listed concurrently,
+     * see {@link MetricsProcessorHelper#getMetrics(CloudWatchClient, LongAdder, String, List, java.util.Collection, boolean, Executor)}
+     *
+     * @param awsCloudWatch      AmazonCloudWatch
+     * @param awsRequestsCounter a requests counter which counts the number of requests
+     * @param executor           executor of the region
+     * @return list of metrics
+     */
+    default List<AWSMetric> getMetrics(CloudWatchClient awsCloudWatch, String accountName,
+                                       LongAdder awsRequestsCounter, Executor executor) {
+        return getMetrics(awsCloudWatch, accountName, awsRequestsCounter);
+    }
+
+    /**
+     * Returns the configured dimensions the metrics are filtered on, which are
+     * needed to discover metrics with SEARCH expressions instead of ListMetrics.
+     * Metrics are always discovered with {@link #getMetrics} when null or empty.
+     *
+     * @return list of dimensions
+     */
+    default List<Dimension> getDimensions() {
+        return null;
+    }
+
+    /**
+     * Returns whether this processor handles backfilled statistics with
+     * {@link #processBackfilledStatistics}. Backfill is only scheduled for
+     * processors returning true, as the Controller only receives current values.
+     *
+     * @return false by default
+     */
+    default boolean isBackfillSupported() {
+        return false;
+    }
+
+    /**
+     * Receives the datapoints of the series which were missed since their last datapoint,
+     * e.g. while the agent was down, when backfill is enabled. Datapoints are streamed
+     * a page at a time, oldest first, with their original timestamp, from the backfill
+     * thread, so this method must not block for long. Only called when
+     * {@link #isBackfillSupported()} returns true.
+     *
+     * @param accountName       the account of the statistics
+     * @param region            the region of the statistics
+     * @param metricStatistics  statistics with their timestamp
+     */
+    default void processBackfilledStatistics(String accountName, String region,
+                                             List<MetricStatistic> metricStatistics) {
+    }
+
     /**
      * Returns the statistic type of the specified metric
      *
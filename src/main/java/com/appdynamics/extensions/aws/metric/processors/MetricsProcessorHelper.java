@@ -10,11 +10,16 @@ package com.appdynamics.extensions.aws.metric.processors;
 import com.appdynamics.extensions.aws.config.AwsClientConfig;
 import com.appdynamics.extensions.aws.config.IncludeMetric;
 import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
 import com.appdynamics.extensions.aws.metric.AccountMetricStatistics;
 import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.NamespaceMetricStatistics;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.predicate.MultiDimensionPredicate;
+import com.appdynamics.extensions.aws.util.AWSUtil;
+import com.appdynamics.extensions.aws.util.RequestCoalescer;
+import com.appdynamics.extensions.aws.util.TimeBoundExecutor;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
@@ -27,16 +32,28 @@ import software.amazon.awssdk.services.cloudwatch.model.DimensionFilter;
 import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
 import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.RecentlyActive;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static com.appdynamics.extensions.aws.Constants.MAX_DIMENSION_FILTERS_PER_LIST_METRICS_REQUEST;
+import static com.appdynamics.extensions.aws.Constants.MAX_INSIGHTS_QUERY_LIMIT;
+import static com.appdynamics.extensions.aws.Constants.MAX_LIST_METRICS_REQUESTS_PER_FILTER;
 import static com.appdynamics.extensions.aws.Constants.METRIC_PATH_SEPARATOR;
 
 /**
@@ -49,38 +66,119 @@ public class MetricsProcessorHelper {
 
     private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(MetricsProcessorHelper.class);
 
+    private static final String SEARCH_LABEL_SEPARATOR = "|";
+
+    private static final Pattern LITERAL_DIMENSION_VALUE = Pattern.compile("\\^((?:[\\w\\-:/ ]|\\\\\\.)+)\\$");
 
     public static List<AWSMetric> getFilteredMetrics(CloudWatchClient awsCloudWatch,
                                                      LongAdder awsRequestsCounter, String namespace, List<IncludeMetric> includeMetrics, String... dimensionNames) {
-        List<Metric> metrics = getMetrics(awsCloudWatch, awsRequestsCounter, namespace, dimensionNames);
+        return getFilteredMetrics(awsCloudWatch, awsRequestsCounter, namespace, includeMetrics, false, dimensionNames);
+    }
+
+    /**
+     * Lists the metrics of the include metrics with the given dimension names, only the ones with
+     * datapoints in the past 3 hours if recentlyActiveOnly, see
+     * {@link com.appdynamics.extensions.aws.config.MetricsConfig#isRecentlyActiveMetricsOnly()}
+     */
+    public static List<AWSMetric> getFilteredMetrics(CloudWatchClient awsCloudWatch,
+                                                     LongAdder awsRequestsCounter, String namespace, List<IncludeMetric> includeMetrics,
+                                                     boolean recentlyActiveOnly, String... dimensionNames) {
+        List<Metric> metrics = getMetrics(awsCloudWatch, awsRequestsCounter, namespace,
+                createDimensionFilters(dimensionNames), getMetricNames(includeMetrics), recentlyActiveOnly);
         return filterMetrics(metrics, includeMetrics);
     }
 
     public static List<AWSMetric> getFilteredMetrics(CloudWatchClient awsCloudWatch,
                                                      LongAdder awsRequestsCounter, String namespace, List<IncludeMetric> includeMetrics, List<DimensionFilter> dimensions) {
-        List<Metric> metrics = getMetrics(awsCloudWatch, awsRequestsCounter, namespace, dimensions);
+        return getFilteredMetrics(awsCloudWatch, awsRequestsCounter, namespace, includeMetrics, dimensions, false, (Executor) null);
+    }
+
+    /**
+     * Lists the metrics of the include metrics matching the dimension filters, only the ones with
+     * datapoints in the past 3 hours if recentlyActiveOnly, with each metric name listed
+     * concurrently on the executor. Lists sequentially if the executor is null.
+     */
+    public static List<AWSMetric> getFilteredMetrics(CloudWatchClient awsCloudWatch,
+                                                     LongAdder awsRequestsCounter, String namespace, List<IncludeMetric> includeMetrics, List<DimensionFilter> dimensions,
+                                                     boolean recentlyActiveOnly, Executor executor) {
+        List<Metric> metrics = getMetrics(awsCloudWatch, awsRequestsCounter, namespace,
+                dimensions, getMetricNames(includeMetrics), recentlyActiveOnly, executor);
         return filterMetrics(metrics, includeMetrics);
     }
 
     public static List<AWSMetric> getFilteredMetrics(CloudWatchClient awsCloudWatch,
                                                      LongAdder awsRequestsCounter, String namespace, List<IncludeMetric> includeMetrics, List<DimensionFilter> dimensions, Predicate<Metric> metricFilter) {
-        List<Metric> metrics = getMetrics(awsCloudWatch, awsRequestsCounter, namespace, dimensions);
+        return getFilteredMetrics(awsCloudWatch, awsRequestsCounter, namespace, includeMetrics, dimensions, false, metricFilter);
+    }
+
+    /**
+     * Same as {@link #getFilteredMetrics(CloudWatchClient, LongAdder, String, List, List, Predicate)},
+     * only listing the metrics with datapoints in the past 3 hours if recentlyActiveOnly
+     */
+    public static List<AWSMetric> getFilteredMetrics(CloudWatchClient awsCloudWatch,
+                                                     LongAdder awsRequestsCounter, String namespace, List<IncludeMetric> includeMetrics, List<DimensionFilter> dimensions,
+                                                     boolean recentlyActiveOnly, Predicate<Metric> metricFilter) {
+        List<Metric> metrics = getMetrics(awsCloudWatch, awsRequestsCounter, namespace,
+                dimensions, getMetricNames(includeMetrics), recentlyActiveOnly);
 
         metrics = Lists.newArrayList(Collections2.filter(metrics, metricFilter));
 
         return filterMetrics(metrics, includeMetrics);
     }
 
+    /**
+     * Lists the metrics matching the configured dimensions, pushing as much of the
+     * filtering as possible into ListMetrics:
+     * <ul>
+     * <li>metric names of the include metrics</li>
+     * <li>dimension values anchored as exact matches, e.g. "^my-instance$",
+     * other dimension values only filter on the dimension name</li>
+     * <li>only metrics with datapoints in the past 3 hours if recentlyActiveOnly</li>
+     * </ul>
+     * The {@link MultiDimensionPredicate} is still applied to the listed metrics.
+     * Unlike the predicate alone, metrics which do not carry every configured
+     * dimension are not listed.
+     */
+    public static List<AWSMetric> getFilteredMetricsByDimensions(CloudWatchClient awsCloudWatch, LongAdder awsRequestsCounter,
+                                                                 String namespace, List<IncludeMetric> includeMetrics,
+                                                                 List<com.appdynamics.extensions.aws.config.Dimension> dimensions,
+                                                                 boolean recentlyActiveOnly) {
+        return getFilteredMetricsByDimensions(awsCloudWatch, awsRequestsCounter, namespace, includeMetrics,
+                dimensions, recentlyActiveOnly, null);
+    }
 
-    public static List<Metric> getMetrics(CloudWatchClient awsCloudWatch,
-                                          LongAdder awsRequestsCounter, String namespace, String... dimensionNames) {
-        List<DimensionFilter> dimensions = new ArrayList<DimensionFilter>();
+    /**
+     * Same as {@link #getFilteredMetricsByDimensions(CloudWatchClient, LongAdder, String, List, List, boolean)},
+     * listing each (metric name, dimension filters) partition concurrently on the executor
+     */
+    public static List<AWSMetric> getFilteredMetricsByDimensions(CloudWatchClient awsCloudWatch, LongAdder awsRequestsCounter,
+                                                                 String namespace, List<IncludeMetric> includeMetrics,
+                                                                 List<com.appdynamics.extensions.aws.config.Dimension> dimensions,
+                                                                 boolean recentlyActiveOnly, Executor executor) {
+        Set<String> metricNames = getMetricNames(includeMetrics);
+        List<List<DimensionFilter>> dimensionFilterCombinations = createDimensionFilterCombinations(dimensions);
+
+        if (metricNames.size() * dimensionFilterCombinations.size() > MAX_LIST_METRICS_REQUESTS_PER_FILTER) {
+            metricNames = null;
+        }
 
-        for (String dimensionName : dimensionNames) {
-            dimensions.add(DimensionFilter.builder().name(dimensionName).build());
+        List<ListMetricsRequest> requests = new ArrayList<ListMetricsRequest>();
+
+        for (List<DimensionFilter> dimensionFilters : dimensionFilterCombinations) {
+            requests.addAll(createListMetricsRequests(namespace, dimensionFilters, metricNames,
+                    recentlyActiveOnly));
         }
 
-        return getMetrics(awsCloudWatch, awsRequestsCounter, namespace, dimensions);
+        List<Metric> metrics = listMetrics(awsCloudWatch, awsRequestsCounter, requests, executor);
+
+        metrics = Lists.newArrayList(Collections2.filter(metrics, new MultiDimensionPredicate(dimensions)));
+
+        return filterMetrics(metrics, includeMetrics);
+    }
+
+    public static List<Metric> getMetrics(CloudWatchClient awsCloudWatch,
+                                          LongAdder awsRequestsCounter, String namespace, String... dimensionNames) {
+        return getMetrics(awsCloudWatch, awsRequestsCounter, namespace, createDimensionFilters(dimensionNames));
     }
 
     public static List<Metric> getMetrics(CloudWatchClient awsCloudWatch,
@@ -90,14 +188,348 @@ public class MetricsProcessorHelper {
             .dimensions(dimensions)
             .build();
 
-        List<Metric> metrics = new ArrayList<>();
+        return ListMetricsCache.getInstance().getMetrics(awsCloudWatch, awsRequestsCounter, request);
+    }
+
+    /**
+     * Lists the metrics with one ListMetrics request per metric name, so CloudWatch
+     * only returns the relevant metrics. Metric names are not filtered if null or
+     * empty, or if there are more than {@link com.appdynamics.extensions.aws.Constants#MAX_LIST_METRICS_REQUESTS_PER_FILTER}.
+     */
+    public static List<Metric> getMetrics(CloudWatchClient awsCloudWatch, LongAdder awsRequestsCounter, String namespace,
+                                          List<DimensionFilter> dimensions, Collection<String> metricNames,
+                                          boolean recentlyActiveOnly) {
+        return getMetrics(awsCloudWatch, awsRequestsCounter, namespace, dimensions, metricNames, recentlyActiveOnly, null);
+    }
+
+    /**
+     * Same as {@link #getMetrics(CloudWatchClient, LongAdder, String, List, Collection, boolean)},
+     * with each metric name listed concurrently on the executor, one ListMetrics
+     * pagination per metric name. Lists sequentially if the executor is null.
+     */
+    public static List<Metric> getMetrics(CloudWatchClient awsCloudWatch, LongAdder awsRequestsCounter, String namespace,
+                                          List<DimensionFilter> dimensions, Collection<String> metricNames,
+                                          boolean recentlyActiveOnly, Executor executor) {
+        return listMetrics(awsCloudWatch, awsRequestsCounter,
+                createListMetricsRequests(namespace, dimensions, metricNames, recentlyActiveOnly), executor);
+    }
+
+    private static List<ListMetricsRequest> createListMetricsRequests(String namespace, List<DimensionFilter> dimensions,
+                                                                      Collection<String> metricNames,
+                                                                      boolean recentlyActiveOnly) {
+        ListMetricsRequest.Builder requestBuilder = ListMetricsRequest.builder()
+                .namespace(namespace)
+                .dimensions(dimensions);
+
+        if (recentlyActiveOnly) {
+            requestBuilder.recentlyActive(RecentlyActive.PT3_H);
+        }
+
+        List<ListMetricsRequest> requests = new ArrayList<ListMetricsRequest>();
+
+        if (metricNames == null || metricNames.isEmpty() || metricNames.size() > MAX_LIST_METRICS_REQUESTS_PER_FILTER) {
+            requests.add(requestBuilder.build());
+            return requests;
+        }
+
+        for (String metricName : metricNames) {
+            requests.add(requestBuilder.metricName(metricName).build());
+        }
+
+        return requests;
+    }
+
+    /**
+     * Lists every request through {@link ListMetricsCache}, each request being an
+     * independent pagination. Requests run concurrently on the executor if there
+     * is more than one, each waited for up to the timeout of the executor, see
+     * {@link TimeBoundExecutor}, and the listed metrics are merged without duplicates.
+     * The remaining requests are cancelled if one fails or times out.
+     */
+    private static List<Metric> listMetrics(final CloudWatchClient awsCloudWatch, final LongAdder awsRequestsCounter,
+                                            List<ListMetricsRequest> requests, Executor executor) {
+        Set<Metric> metrics = new LinkedHashSet<Metric>();
+
+        if (executor == null || requests.size() < 2) {
+            for (ListMetricsRequest request : requests) {
+                metrics.addAll(ListMetricsCache.getInstance().getMetrics(awsCloudWatch, awsRequestsCounter, request));
+            }
+
+            return new ArrayList<Metric>(metrics);
+        }
+
+        List<FutureTask<List<Metric>>> tasks = new ArrayList<FutureTask<List<Metric>>>();
+
+        for (final ListMetricsRequest request : requests) {
+            FutureTask<List<Metric>> task = new FutureTask<List<Metric>>(new Callable<List<Metric>>() {
+                public List<Metric> call() {
+                    return ListMetricsCache.getInstance().getMetrics(awsCloudWatch, awsRequestsCounter, request);
+                }
+            });
+
+            executor.execute(task);
+            tasks.add(task);
+        }
+
+        try {
+            for (FutureTask<List<Metric>> task : tasks) {
+                metrics.addAll(task.get(TimeBoundExecutor.getTimeoutInMillis(executor), TimeUnit.MILLISECONDS));
+            }
+
+        } catch (InterruptedException e) {
+            AWSUtil.cancelTasks(tasks);
+            Thread.currentThread().interrupt();
+            throw new AwsException("Interrupted while listing metrics", e);
+
+        } catch (ExecutionException e) {
+            AWSUtil.cancelTasks(tasks);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new AwsException("Error listing metrics", e.getCause());
+
+        } catch (TimeoutException e) {
+            AWSUtil.cancelTasks(tasks);
+            throw new AwsException(String.format("Timed out listing metrics of Namespace [%s]",
+                    requests.get(0).namespace()), e);
+        }
+
+        return new ArrayList<Metric>(metrics);
+    }
+
+    private static List<DimensionFilter> createDimensionFilters(String... dimensionNames) {
+        List<DimensionFilter> dimensions = new ArrayList<DimensionFilter>();
+
+        for (String dimensionName : dimensionNames) {
+            dimensions.add(DimensionFilter.builder().name(dimensionName).build());
+        }
+
+        return dimensions;
+    }
+
+    private static Set<String> getMetricNames(List<IncludeMetric> includeMetrics) {
+        Set<String> metricNames = new LinkedHashSet<String>();
+
+        if (includeMetrics != null) {
+            for (IncludeMetric includeMetric : includeMetrics) {
+                if (StringUtils.isNotBlank(includeMetric.getName())) {
+                    metricNames.add(includeMetric.getName());
+                }
+            }
+        }
 
-        awsCloudWatch.listMetricsPaginator(request).stream()
-                .peek(resp -> awsRequestsCounter.increment()) // count each API request
-                .flatMap(resp -> resp.metrics().stream())     // flatten pages into a single stream
-                .forEach(metrics::add);
+        return metricNames;
+    }
+
+    /**
+     * Creates every combination of dimension filters for the configured dimensions.
+     * Dimensions whose values are all exact matches produce one filter per value,
+     * any other dimension produces a single filter on its name.
+     * Falls back to filtering on dimension names only if there are too many combinations.
+     */
+    static List<List<DimensionFilter>> createDimensionFilterCombinations(
+            List<com.appdynamics.extensions.aws.config.Dimension> dimensions) {
+
+        List<List<DimensionFilter>> combinations = new ArrayList<List<DimensionFilter>>();
+        combinations.add(new ArrayList<DimensionFilter>());
+
+        if (dimensions == null || dimensions.isEmpty() || dimensions.size() > MAX_DIMENSION_FILTERS_PER_LIST_METRICS_REQUEST) {
+            return combinations;
+        }
+
+        for (com.appdynamics.extensions.aws.config.Dimension dimension : dimensions) {
+            List<DimensionFilter> options = new ArrayList<DimensionFilter>();
+            Set<String> values = dimension.getValues();
+
+            if (values != null && !values.isEmpty()) {
+                for (String value : values) {
+                    Matcher matcher = value != null ? LITERAL_DIMENSION_VALUE.matcher(value.trim()) : null;
+
+                    if (matcher == null || !matcher.matches()) {
+                        options.clear();
+                        break;
+                    }
+
+                    options.add(DimensionFilter.builder().name(dimension.getName()).value(matcher.group(1).replace("\\.", ".")).build());
+                }
+            }
+
+            if (options.isEmpty()) {
+                options.add(DimensionFilter.builder().name(dimension.getName()).build());
+            }
+
+            List<List<DimensionFilter>> newCombinations = new ArrayList<List<DimensionFilter>>();
+
+            for (List<DimensionFilter> combination : combinations) {
+                for (DimensionFilter option : options) {
+                    List<DimensionFilter> newCombination = new ArrayList<DimensionFilter>(combination);
+                    newCombination.add(option);
+                    newCombinations.add(newCombination);
+                }
+            }
+
+            if (newCombinations.size() > MAX_LIST_METRICS_REQUESTS_PER_FILTER) {
+                List<DimensionFilter> nameOnlyFilters = createNameOnlyFilters(dimensions);
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(String.format("Too many dimension value combinations, only filtering on dimension names %s",
+                            nameOnlyFilters));
+                }
+
+                combinations.clear();
+                combinations.add(nameOnlyFilters);
+                return combinations;
+            }
+
+            combinations = newCombinations;
+        }
+
+        return combinations;
+    }
+
+    private static List<DimensionFilter> createNameOnlyFilters(List<com.appdynamics.extensions.aws.config.Dimension> dimensions) {
+        List<DimensionFilter> filters = new ArrayList<DimensionFilter>();
+
+        for (com.appdynamics.extensions.aws.config.Dimension dimension : dimensions) {
+            filters.add(DimensionFilter.builder().name(dimension.getName()).build());
+        }
+
+        return filters;
+    }
+
+    /**
+     * Walks every page of the ListMetrics request, bypassing {@link ListMetricsCache}.
+     * Identical requests are coalesced by {@link RequestCoalescer}.
+     */
+    public static List<Metric> listMetrics(final CloudWatchClient awsCloudWatch,
+                                           final LongAdder awsRequestsCounter, final ListMetricsRequest request) {
+        List<Metric> metrics = RequestCoalescer.getInstance().execute(awsCloudWatch, request, new Callable<List<Metric>>() {
+            public List<Metric> call() {
+                List<Metric> listedMetrics = new ArrayList<Metric>();
+
+                for (ListMetricsResponse response : awsCloudWatch.listMetricsPaginator(request)) {
+                    // count each API request
+                    awsRequestsCounter.increment();
+                    listedMetrics.addAll(response.metrics());
+                }
+
+                return listedMetrics;
+            }
+        });
+
+        // the listed metrics may be shared with other callers
+        return new ArrayList<Metric>(metrics);
+    }
+
+    /**
+     * Creates the SEARCH expression matching the series of the include metric which carry
+     * exactly the configured dimensions. Dimensions configured with a single exact value,
+     * e.g. "^my-instance$", are matched on that value, other values are left to
+     * {@link MultiDimensionPredicate}.
+     */
+    public static String createSearchExpression(String namespace, IncludeMetric includeMetric,
+                                                List<com.appdynamics.extensions.aws.config.Dimension> dimensions,
+                                                StatisticType statType, int periodInSec) {
+        List<String> dimensionNames = new ArrayList<String>();
+        Map<String, String> dimensionValues = new HashMap<String, String>();
+
+        for (com.appdynamics.extensions.aws.config.Dimension dimension : dimensions) {
+            dimensionNames.add(dimension.getName());
+
+            if (dimension.getValues() != null && dimension.getValues().size() == 1) {
+                String value = dimension.getValues().iterator().next();
+                Matcher matcher = value != null ? LITERAL_DIMENSION_VALUE.matcher(value.trim()) : null;
+
+                if (matcher != null && matcher.matches()) {
+                    dimensionValues.put(dimension.getName(), matcher.group(1).replace("\\.", "."));
+                }
+            }
+        }
+
+        return AWSUtil.createSearchExpression(namespace, dimensionNames, includeMetric.getName(),
+                dimensionValues, statType, periodInSec);
+    }
+
+    /**
+     * Creates the Metrics Insights query returning the top series of the include metric,
+     * grouped by its insightsGroupBy dimensions, e.g.
+     * <b>SELECT AVG("CPUUtilization") FROM SCHEMA("AWS/EC2", "InstanceId") GROUP BY "InstanceId" ORDER BY AVG() DESC LIMIT 50</b>
+     */
+    public static String createInsightsQuery(String namespace, IncludeMetric includeMetric, StatisticType statType) {
+        String function = getInsightsFunction(statType);
+        List<String> groupBy = new ArrayList<String>();
+
+        for (String dimensionName : includeMetric.getInsightsGroupBy()) {
+            groupBy.add(quoteInsightsIdentifier(dimensionName));
+        }
+
+        return String.format("SELECT %s(%s) FROM SCHEMA(%s, %s) GROUP BY %s ORDER BY %s() %s LIMIT %s",
+                function, quoteInsightsIdentifier(includeMetric.getName()), quoteInsightsIdentifier(namespace),
+                StringUtils.join(groupBy, ", "), StringUtils.join(groupBy, ", "), function,
+                "asc".equalsIgnoreCase(StringUtils.trim(includeMetric.getInsightsOrder())) ? "ASC" : "DESC",
+                Math.min(includeMetric.getInsightsLimit(), MAX_INSIGHTS_QUERY_LIMIT));
+    }
+
+    /**
+     * Returns true if the include metric is retrieved with a Metrics Insights query
+     */
+    public static boolean isInsightsMetric(IncludeMetric includeMetric) {
+        return includeMetric.getInsightsLimit() > 0 && includeMetric.getInsightsGroupBy() != null
+                && !includeMetric.getInsightsGroupBy().isEmpty();
+    }
+
+    private static String getInsightsFunction(StatisticType statType) {
+        switch (statType) {
+            case MAX: return "MAX";
+            case MIN: return "MIN";
+            case SUM: return "SUM";
+            case SAMPLE_COUNT: return "COUNT";
+            default: return "AVG";
+        }
+    }
+
+    private static String quoteInsightsIdentifier(String identifier) {
+        return '"' + String.valueOf(identifier).replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Creates a dynamic label holding the dimension values of each series returned
+     * by a query, e.g. <b>${PROP('Dim.InstanceId')}|${PROP('Dim.ImageId')}</b>
+     */
+    public static String createSearchLabel(List<String> dimensionNames) {
+        List<String> properties = new ArrayList<String>();
+
+        for (String dimensionName : dimensionNames) {
+            properties.add(String.format("${PROP('Dim.%s')}", dimensionName));
+        }
+
+        return StringUtils.join(properties, SEARCH_LABEL_SEPARATOR);
+    }
+
+    /**
+     * Parses the dynamic label created by {@link #createSearchLabel(List)} back into
+     * the metric it was returned for, returns null if the label does not match the dimensions
+     */
+    public static Metric parseSearchLabel(String namespace, String metricName, String label, List<String> dimensionNames) {
+        if (label == null) {
+            return null;
+        }
+
+        String[] values = label.split(Pattern.quote(SEARCH_LABEL_SEPARATOR), -1);
+
+        if (values.length != dimensionNames.size()) {
+            return null;
+        }
+
+        List<Dimension> metricDimensions = new ArrayList<Dimension>();
+
+        for (int index = 0; index < values.length; index++) {
+            metricDimensions.add(Dimension.builder().name(dimensionNames.get(index)).value(values[index]).build());
+        }
 
-        return metrics;
+        return Metric.builder()
+                .namespace(namespace)
+                .metricName(metricName)
+                .dimensions(metricDimensions)
+                .build();
     }
 
     public static StatisticType getStatisticType(IncludeMetric metric, List<IncludeMetric> metrics) {
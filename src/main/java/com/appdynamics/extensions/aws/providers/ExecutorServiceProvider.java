@@ -0,0 +1,258 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_MAX_TOTAL_THREADS;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_NO_OF_THREADS;
+
+import com.appdynamics.extensions.aws.config.ConcurrencyConfig;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
+import com.appdynamics.extensions.aws.util.ConcurrencyLimitedExecutor;
+import com.appdynamics.extensions.aws.util.VirtualThreadSupport;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the long-lived thread pools shared by the collectors of every cycle,
+ * one per level of the Namespace, Account, Region and Metric collection hierarchy.
+ * <p>
+ * Each monitor owns its provider and hands it down with the {@link CollectionCycle}
+ * of each collection, so monitors running in the same JVM never resize each other's
+ * pools. The shared instance only runs collectors used outside of a monitor.
+ * <p>
+ * Each level runs on its own pool, since the collectors of a level wait for the tasks
+ * they hand off to the next level. The pool of a level is sized by its configured limit,
+ * or by the worst case of the per parent thread counts otherwise, and all pools are
+ * scaled down together to stay within the maximum total number of threads.
+ * <p>
+ * Pools are resized in place when the config is reloaded, and idle threads are only
+ * released after a few cycles without work.
+ * <p>
+ * When virtual threads are enabled and supported by the runtime, every task of a level
+ * runs on its own virtual thread instead, and the limit of the level is not scaled down
+ * to the maximum total number of threads, as blocked virtual threads hold no platform thread.
+ */
+public class ExecutorServiceProvider {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(ExecutorServiceProvider.class);
+
+    private static final int KEEP_ALIVE_IN_MINS = 10;
+
+    private static ExecutorServiceProvider instance;
+
+    private final Map<Level, ThreadPoolExecutor> executors = new EnumMap<Level, ThreadPoolExecutor>(Level.class);
+
+    private volatile Map<Level, ConcurrencyLimitedExecutor> virtualThreadExecutors = Collections.emptyMap();
+
+    public enum Level {
+        NAMESPACE("NamespaceCollector"),
+        ACCOUNT("AccountCollector"),
+        REGION("RegionCollector"),
+        METRIC("MetricCollector");
+
+        private final String threadName;
+
+        Level(String threadName) {
+            this.threadName = threadName;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+    }
+
+    public ExecutorServiceProvider() {
+        int[] poolSizes = getPoolSizes(1, new ConcurrencyConfig());
+
+        for (Level level : Level.values()) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSizes[level.ordinal()],
+                    poolSizes[level.ordinal()], KEEP_ALIVE_IN_MINS, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setNameFormat(level.getThreadName() + "-%d").setDaemon(true).build());
+            executor.allowCoreThreadTimeOut(true);
+
+            executors.put(level, executor);
+        }
+    }
+
+    public static synchronized ExecutorServiceProvider getInstance() {
+        if (instance == null) {
+            instance = new ExecutorServiceProvider();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Resizes the pools of all levels
+     *
+     * @param noOfNamespaceThreads the number of namespaces collected at the same time
+     * @param concurrencyConfig    the configured thread counts and limits, defaults if null
+     */
+    public synchronized void initialise(int noOfNamespaceThreads, ConcurrencyConfig concurrencyConfig) {
+        if (concurrencyConfig == null) {
+            concurrencyConfig = new ConcurrencyConfig();
+        }
+
+        if (concurrencyConfig.isUseVirtualThreads()) {
+            if (VirtualThreadSupport.isSupported()) {
+                initialiseVirtualThreadExecutors(getLimits(noOfNamespaceThreads, concurrencyConfig));
+                return;
+            }
+
+            LOGGER.warn(String.format("Virtual threads are not supported by Java [%s], the collector thread pools "
+                    + "are used instead", System.getProperty("java.version")));
+        }
+
+        virtualThreadExecutors = Collections.emptyMap();
+
+        int[] poolSizes = getPoolSizes(noOfNamespaceThreads, concurrencyConfig);
+
+        boolean resized = false;
+
+        for (Level level : Level.values()) {
+            resized |= resize(executors.get(level), poolSizes[level.ordinal()]);
+        }
+
+        if (resized) {
+            LOGGER.info(String.format("Collector thread pools resized to Namespace [%s] Account [%s] Region [%s] "
+                    + "Metric [%s] threads", poolSizes[0], poolSizes[1], poolSizes[2], poolSizes[3]));
+        }
+    }
+
+    /**
+     * Returns an executor running the tasks of the given level on its shared pool,
+     * with at most the given number of them running at the same time
+     */
+    public Executor getExecutor(Level level, int maxConcurrency) {
+        Executor virtualThreadExecutor = virtualThreadExecutors.get(level);
+
+        return new ConcurrencyLimitedExecutor(virtualThreadExecutor != null ?
+                virtualThreadExecutor : executors.get(level), maxConcurrency);
+    }
+
+    public int getPoolSize(Level level) {
+        ConcurrencyLimitedExecutor virtualThreadExecutor = virtualThreadExecutors.get(level);
+
+        return virtualThreadExecutor != null ?
+                virtualThreadExecutor.getMaxConcurrency() : executors.get(level).getMaximumPoolSize();
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return !virtualThreadExecutors.isEmpty();
+    }
+
+    /**
+     * Replaces the executors of all levels by virtual thread per task executors, each with at most
+     * the limit of its level running at the same time. Tasks already running complete on the
+     * previous executors.
+     */
+    private void initialiseVirtualThreadExecutors(long[] limits) {
+        Map<Level, ConcurrencyLimitedExecutor> newVirtualThreadExecutors =
+                new EnumMap<Level, ConcurrencyLimitedExecutor>(Level.class);
+
+        for (Level level : Level.values()) {
+            newVirtualThreadExecutors.put(level, new ConcurrencyLimitedExecutor(
+                    VirtualThreadSupport.newThreadPerTaskExecutor(level.getThreadName() + "-"),
+                    (int) limits[level.ordinal()]));
+        }
+
+        virtualThreadExecutors = newVirtualThreadExecutors;
+
+        LOGGER.info(String.format("Collector tasks run on virtual threads with at most Namespace [%s] Account [%s] "
+                + "Region [%s] Metric [%s] tasks at a time", limits[0], limits[1], limits[2], limits[3]));
+    }
+
+    static int[] getPoolSizes(int noOfNamespaceThreads, ConcurrencyConfig concurrencyConfig) {
+        long[] limits = getLimits(noOfNamespaceThreads, concurrencyConfig);
+
+        // every level needs a thread for the levels above it to complete
+        long maxTotalThreads = Math.max(concurrencyConfig.getMaxTotalThreads() > 0 ?
+                concurrencyConfig.getMaxTotalThreads() : DEFAULT_MAX_TOTAL_THREADS, limits.length);
+        long totalThreads = 0;
+
+        for (long limit : limits) {
+            totalThreads += limit;
+        }
+
+        int[] poolSizes = new int[limits.length];
+
+        for (int index = 0; index < limits.length; index++) {
+            // the threads above one per level are shared out in proportion to the limits
+            poolSizes[index] = (int) (totalThreads > maxTotalThreads ?
+                    1 + (limits[index] - 1) * (maxTotalThreads - limits.length) / (totalThreads - limits.length) :
+                    limits[index]);
+        }
+
+        if (totalThreads > maxTotalThreads && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Collector thread pools of [%s] threads scaled down to [%s] to stay within "
+                    + "[%s] threads", Arrays.toString(limits), Arrays.toString(poolSizes), maxTotalThreads));
+        }
+
+        return poolSizes;
+    }
+
+    /**
+     * Returns the limit of each level, i.e. the configured one or the worst case of its parent
+     */
+    static long[] getLimits(int noOfNamespaceThreads, ConcurrencyConfig concurrencyConfig) {
+        long[] limits = new long[Level.values().length];
+
+        limits[Level.NAMESPACE.ordinal()] = getLimit(concurrencyConfig.getMaxNamespaceThreads(),
+                1, noOfNamespaceThreads);
+        limits[Level.ACCOUNT.ordinal()] = getLimit(concurrencyConfig.getMaxAccountThreads(),
+                limits[Level.NAMESPACE.ordinal()], concurrencyConfig.getNoOfAccountThreads());
+        limits[Level.REGION.ordinal()] = getLimit(concurrencyConfig.getMaxRegionThreads(),
+                limits[Level.ACCOUNT.ordinal()], concurrencyConfig.getNoOfRegionThreadsPerAccount());
+        limits[Level.METRIC.ordinal()] = getLimit(concurrencyConfig.getMaxMetricThreads(),
+                limits[Level.REGION.ordinal()], concurrencyConfig.getNoOfMetricThreadsPerRegion());
+
+        return limits;
+    }
+
+    /**
+     * Returns the configured limit of a level, or its parent limit times
+     * the number of threads per parent, capped to avoid overflows
+     */
+    private static long getLimit(int configuredLimit, long parentLimit, int noOfThreadsPerParent) {
+        if (configuredLimit > 0) {
+            return configuredLimit;
+        }
+
+        return Math.min(parentLimit * (noOfThreadsPerParent > 0 ? noOfThreadsPerParent : DEFAULT_NO_OF_THREADS),
+                Integer.MAX_VALUE);
+    }
+
+    private static boolean resize(ThreadPoolExecutor executor, int poolSize) {
+        if (poolSize == executor.getMaximumPoolSize()) {
+            return false;
+        }
+
+        // the core size may never exceed the maximum size
+        if (poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+
+        } else {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+
+        return true;
+    }
+}
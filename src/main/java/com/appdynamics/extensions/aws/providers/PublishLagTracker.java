@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns, per namespace, how long after the end of a period CloudWatch publishes its datapoints.
+ * <p>
+ * Every cycle keeps the age of the freshest datapoint fetched for each namespace, i.e. the time
+ * between the end of its period and its fetch, which is an upper bound of the publish lag.
+ * The lag follows the lowest ages right away and only drifts up slowly when datapoints are
+ * published later, so it converges to the actual lag as fetches land at different times
+ * within the period.
+ * <p>
+ * Tracking is disabled until {@link #initialise(boolean)} is called with true.
+ */
+public class PublishLagTracker {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(PublishLagTracker.class);
+
+    private static final double LAG_INCREASE_WEIGHT = 0.2;
+
+    private static final long NO_DATAPOINT = Long.MAX_VALUE;
+
+    private static PublishLagTracker instance;
+
+    private final Map<String, AtomicLong> freshestAgesInCycle = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final Map<String, Long> publishLags = new ConcurrentHashMap<String, Long>();
+
+    private volatile boolean enabled;
+
+    private PublishLagTracker() {
+    }
+
+    public static synchronized PublishLagTracker getInstance() {
+        if (instance == null) {
+            instance = new PublishLagTracker();
+        }
+
+        return instance;
+    }
+
+    public void initialise(boolean enabled) {
+        if (enabled != this.enabled) {
+            this.enabled = enabled;
+            freshestAgesInCycle.clear();
+            publishLags.clear();
+
+            LOGGER.info(String.format("Publish lag tracking %s", enabled ? "enabled" : "disabled"));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records that the datapoint of the period ending at the given time was fetched
+     */
+    public void recordDatapoint(String namespace, Instant periodEndTime, long fetchTimeInMillis) {
+        if (!enabled || namespace == null || periodEndTime == null) {
+            return;
+        }
+
+        long age = Math.max(fetchTimeInMillis - periodEndTime.toEpochMilli(), 0);
+        AtomicLong freshestAge = freshestAgesInCycle.get(namespace);
+
+        if (freshestAge == null) {
+            freshestAgesInCycle.putIfAbsent(namespace, new AtomicLong(NO_DATAPOINT));
+            freshestAge = freshestAgesInCycle.get(namespace);
+        }
+
+        long currentAge = freshestAge.get();
+
+        while (age < currentAge && !freshestAge.compareAndSet(currentAge, age)) {
+            currentAge = freshestAge.get();
+        }
+    }
+
+    /**
+     * Folds the freshest datapoint fetched for each namespace during the cycle into its publish lag
+     */
+    public void completeCycle() {
+        for (Map.Entry<String, AtomicLong> freshestAge : freshestAgesInCycle.entrySet()) {
+            long age = freshestAge.getValue().getAndSet(NO_DATAPOINT);
+
+            if (age == NO_DATAPOINT) {
+                continue;
+            }
+
+            Long publishLag = publishLags.get(freshestAge.getKey());
+
+            if (publishLag == null || age < publishLag) {
+                publishLag = age;
+            } else {
+                publishLag += Math.round(LAG_INCREASE_WEIGHT * (age - publishLag));
+            }
+
+            publishLags.put(freshestAge.getKey(), publishLag);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Publish lag of Namespace [%s] is [%s] ms", freshestAge.getKey(),
+                        publishLag));
+            }
+        }
+    }
+
+    /**
+     * Returns the publish lag of the namespace in milliseconds, 0 if unknown
+     */
+    public long getPublishLagInMillis(String namespace) {
+        Long publishLag = publishLags.get(namespace);
+        return publishLag != null ? publishLag : 0;
+    }
+
+    /**
+     * Returns the largest publish lag amongst all namespaces in milliseconds, 0 if unknown
+     */
+    public long getMaxPublishLagInMillis() {
+        long maxPublishLag = 0;
+
+        for (Long publishLag : publishLags.values()) {
+            maxPublishLag = Math.max(maxPublishLag, publishLag);
+        }
+
+        return maxPublishLag;
+    }
+}
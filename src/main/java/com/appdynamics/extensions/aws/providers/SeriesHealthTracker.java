@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps, per series fingerprint, the number of consecutive fetches which returned
+ * no datapoint or failed, e.g. series of terminated instances still returned by
+ * ListMetrics for two weeks.
+ * <p>
+ * Once a series reaches the configured threshold it is suppressed, i.e. only
+ * probed again after an interval which doubles with every further empty fetch,
+ * starting at 1 minute and capped to the configured max. The series is healthy
+ * again as soon as a fetch returns a datapoint.
+ * <p>
+ * Suppression is disabled until {@link #initialise(int, int)} is called with
+ * a positive threshold.
+ */
+public class SeriesHealthTracker {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(SeriesHealthTracker.class);
+
+    private static final long INITIAL_PROBE_INTERVAL_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_PROBE_INTERVAL_DOUBLINGS = 20;
+
+    private static SeriesHealthTracker instance;
+
+    private final Map<Long, SeriesHealth> unhealthySeries = new ConcurrentHashMap<Long, SeriesHealth>();
+
+    private final Map<String, LongAdder> skippedFetches = new ConcurrentHashMap<String, LongAdder>();
+
+    private volatile int threshold;
+
+    private volatile long maxProbeIntervalInMillis;
+
+    private SeriesHealthTracker() {
+    }
+
+    public static synchronized SeriesHealthTracker getInstance() {
+        if (instance == null) {
+            instance = new SeriesHealthTracker();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets the number of consecutive empty or failed fetches after which a series is
+     * suppressed, a non-positive threshold disables suppression, and the max interval
+     * ( in minutes ) between the probes of a suppressed series
+     */
+    public void initialise(int threshold, int maxProbeIntervalInMins) {
+        long newMaxProbeIntervalInMillis = Math.max(TimeUnit.MINUTES.toMillis(maxProbeIntervalInMins),
+                INITIAL_PROBE_INTERVAL_IN_MILLIS);
+
+        if (threshold != this.threshold || newMaxProbeIntervalInMillis != maxProbeIntervalInMillis) {
+            this.threshold = threshold;
+            this.maxProbeIntervalInMillis = newMaxProbeIntervalInMillis;
+            unhealthySeries.clear();
+
+            LOGGER.info(String.format("Series suppression initialised with threshold [%s] max probe interval [%s] mins",
+                    threshold, maxProbeIntervalInMins));
+        }
+    }
+
+    public boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * Returns false if the series is suppressed and not due for a probe,
+     * counting the skipped fetch against the namespace
+     */
+    public boolean shouldFetch(String namespace, long fingerprint, long now) {
+        SeriesHealth health = unhealthySeries.get(fingerprint);
+
+        if (health == null || health.nextProbeTime <= now) {
+            return true;
+        }
+
+        getSkippedFetchesCounter(namespace).increment();
+        return false;
+    }
+
+    /**
+     * Records the outcome of a fetch of the series
+     */
+    public void recordFetch(String namespace, long fingerprint, boolean hasDatapoint, long now) {
+        if (hasDatapoint) {
+            SeriesHealth health = unhealthySeries.remove(fingerprint);
+
+            if (health != null && health.isSuppressed(threshold) && LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Series [%s] of Namespace [%s] is no longer suppressed after [%s] "
+                        + "empty fetches", fingerprint, namespace, health.emptyFetches));
+            }
+
+            return;
+        }
+
+        SeriesHealth health = unhealthySeries.get(fingerprint);
+
+        if (health == null) {
+            health = new SeriesHealth(namespace);
+            unhealthySeries.put(fingerprint, health);
+        }
+
+        health.emptyFetches++;
+
+        if (health.isSuppressed(threshold)) {
+            int doublings = Math.min(health.emptyFetches - threshold, MAX_PROBE_INTERVAL_DOUBLINGS);
+            long probeInterval = Math.min(INITIAL_PROBE_INTERVAL_IN_MILLIS << doublings, maxProbeIntervalInMillis);
+            health.nextProbeTime = now + probeInterval;
+        }
+    }
+
+    /**
+     * Returns the number of series of the namespace currently suppressed
+     */
+    public int getSuppressedSeriesCount(String namespace) {
+        int suppressedSeries = 0;
+
+        for (SeriesHealth health : unhealthySeries.values()) {
+            if (health.isSuppressed(threshold) && health.namespace.equals(namespace)) {
+                suppressedSeries++;
+            }
+        }
+
+        return suppressedSeries;
+    }
+
+    /**
+     * Returns the number of fetches skipped for the namespace since the previous call
+     */
+    public long getAndResetSkippedFetches(String namespace) {
+        return getSkippedFetchesCounter(namespace).sumThenReset();
+    }
+
+    private LongAdder getSkippedFetchesCounter(String namespace) {
+        LongAdder counter = skippedFetches.get(namespace);
+
+        if (counter == null) {
+            skippedFetches.putIfAbsent(namespace, new LongAdder());
+            counter = skippedFetches.get(namespace);
+        }
+
+        return counter;
+    }
+
+    private static class SeriesHealth {
+
+        private final String namespace;
+
+        // a series is only recorded by a single task per cycle
+        private volatile int emptyFetches;
+
+        private volatile long nextProbeTime;
+
+        private SeriesHealth(String namespace) {
+            this.namespace = namespace;
+        }
+
+        private boolean isSuppressed(int threshold) {
+            return emptyFetches >= threshold;
+        }
+    }
+}
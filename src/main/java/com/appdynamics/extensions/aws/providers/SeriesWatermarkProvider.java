@@ -0,0 +1,497 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps, per series fingerprint, the timestamp and value of the latest
+ * datapoint already consumed, so the next cycle only requests the datapoints
+ * from there onwards and still reports the series when nothing newer came in.
+ * <p>
+ * The period of the watermark, and the periods published within the learnt
+ * publish lag of the namespace, are requested again as their datapoints may
+ * have been partial when first read.
+ * <p>
+ * Watermarks are stored in a memory-mapped checkpoint file laid out as
+ * an open addressing hash table of (fingerprint, epoch millis, value,
+ * update time) slots, hence they survive restarts. The table doubles in
+ * size when it gets 70% full, and the watermarks of series not updated
+ * for {@link #MAX_AGE_IN_MILLIS} are evicted so it does not grow as
+ * series come and go. The resized table is written to a temporary file
+ * renamed over the checkpoint file once complete, so a crash while
+ * resizing leaves either the previous table or the new one.
+ * <p>
+ * Watermarks are disabled until {@link #initialise(String)} is called
+ * with a checkpoint file.
+ */
+public class SeriesWatermarkProvider {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(SeriesWatermarkProvider.class);
+
+    private static final int MAGIC = 0x41575357;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int SLOT_SIZE = 32;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long EMPTY_SLOT = 0L;
+
+    private static final long NO_WATERMARK = -1L;
+
+    // ListMetrics keeps returning the series of terminated resources for two weeks
+    static final long MAX_AGE_IN_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+    private static final long EVICTION_INTERVAL_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String RESIZED_CHECKPOINT_SUFFIX = ".resized";
+
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER_METHOD;
+
+    private static SeriesWatermarkProvider instance;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleanerMethod = null;
+
+        try {
+            // only available from Java 9, until then mappings are released when garbage collected
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            unsafe = unsafeField.get(null);
+
+        } catch (Throwable e) {
+            LOGGER.debug("Memory-mapped checkpoint files can not be unmapped by this runtime", e);
+            invokeCleanerMethod = null;
+        }
+
+        UNSAFE = unsafe;
+        INVOKE_CLEANER_METHOD = invokeCleanerMethod;
+    }
+
+    private String checkpointFile;
+
+    private RandomAccessFile file;
+
+    private MappedByteBuffer buffer;
+
+    private int capacity;
+
+    private int size;
+
+    private long lastEvictionTime;
+
+    private SeriesWatermarkProvider() {
+    }
+
+    public static synchronized SeriesWatermarkProvider getInstance() {
+        if (instance == null) {
+            instance = new SeriesWatermarkProvider();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Opens (or creates) the checkpoint file, closing any previously opened one.
+     * A blank path disables watermarks.
+     */
+    public synchronized void initialise(String checkpointFile) {
+        if (checkpointFile != null && checkpointFile.equals(this.checkpointFile)) {
+            return;
+        }
+
+        close();
+
+        if (checkpointFile == null || checkpointFile.trim().isEmpty()) {
+            return;
+        }
+
+        try {
+            File checkpoint = new File(checkpointFile.trim());
+
+            if (checkpoint.getParentFile() != null) {
+                checkpoint.getParentFile().mkdirs();
+            }
+
+            file = new RandomAccessFile(checkpoint, "rw");
+
+            if (file.length() >= HEADER_SIZE) {
+                map(readCapacity(file));
+
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity) {
+                    LOGGER.warn(String.format("Checkpoint file [%s] is not recognised, resetting it", checkpointFile));
+                    reset(INITIAL_CAPACITY);
+                } else {
+                    size = buffer.getInt(12);
+                }
+
+            } else {
+                reset(INITIAL_CAPACITY);
+            }
+
+            this.checkpointFile = checkpointFile;
+            LOGGER.info(String.format("Series watermarks successfully initialised from [%s] with [%s] series",
+                    checkpointFile, size));
+
+        } catch (IOException e) {
+            LOGGER.error(String.format("Unable to open checkpoint file [%s], series watermarks are disabled",
+                    checkpointFile), e);
+            close();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * Returns the start time to request for the series, which is the later of the configured
+     * start time and the period of the watermark, held back by the publish lag of the namespace
+     */
+    public Instant getStartTime(long fingerprint, Instant startTime, int periodInSec, String namespace) {
+        long publishLag = PublishLagTracker.getInstance().getPublishLagInMillis(namespace);
+        long periodInMillis = TimeUnit.SECONDS.toMillis(periodInSec);
+
+        return getStartTime(fingerprint, startTime, periodInMillis > 0 ?
+                publishLag - publishLag % periodInMillis : 0);
+    }
+
+    synchronized Instant getStartTime(long fingerprint, Instant startTime, long holdBackInMillis) {
+        long watermark = getWatermark(fingerprint);
+
+        if (watermark == NO_WATERMARK) {
+            return startTime;
+        }
+
+        Instant watermarkPeriod = Instant.ofEpochMilli(watermark - holdBackInMillis);
+        return watermarkPeriod.isAfter(startTime) ? watermarkPeriod : startTime;
+    }
+
+    /**
+     * Returns the timestamp of the latest datapoint consumed for the series, or null if none
+     */
+    public synchronized Instant getLatestTimestamp(long fingerprint) {
+        long watermark = getWatermark(fingerprint);
+        return watermark != NO_WATERMARK ? Instant.ofEpochMilli(watermark) : null;
+    }
+
+    /**
+     * Returns the value of the latest datapoint consumed for the series, or null if none
+     */
+    public synchronized Double getLatestValue(long fingerprint) {
+        if (buffer == null) {
+            return null;
+        }
+
+        long key = toKey(fingerprint);
+        long position = getPosition(findSlot(key));
+
+        return buffer.getLong((int) position) == key ?
+                Double.longBitsToDouble(buffer.getLong((int) position + 16)) : null;
+    }
+
+    /**
+     * Returns true if the timestamp is not older than the watermark of the series,
+     * i.e. its datapoint is either newer or a revision of the latest consumed one
+     */
+    public synchronized boolean isCurrent(long fingerprint, Instant timestamp) {
+        if (buffer == null) {
+            return true;
+        }
+
+        return timestamp != null && timestamp.toEpochMilli() >= getWatermark(fingerprint);
+    }
+
+    /**
+     * Moves the watermark of the series forward to the timestamp and keeps the value
+     * of its datapoint, which replaces the previous one for the same timestamp,
+     * older timestamps are ignored
+     */
+    public synchronized void update(long fingerprint, Instant timestamp, Double value) {
+        if (buffer == null || timestamp == null || value == null) {
+            return;
+        }
+
+        long key = toKey(fingerprint);
+        int slot = findSlot(key);
+        long position = getPosition(slot);
+
+        if (buffer.getLong((int) position) == EMPTY_SLOT) {
+            buffer.putLong((int) position, key);
+            putWatermark(position, timestamp, value);
+            size++;
+            buffer.putInt(12, size);
+
+            if (size > capacity * 0.7) {
+                rehash(capacity * 2, 0);
+            }
+
+        } else if (timestamp.toEpochMilli() >= buffer.getLong((int) position + 8)) {
+            putWatermark(position, timestamp, value);
+        }
+    }
+
+    /**
+     * Flushes the watermarks to the checkpoint file, evicting the watermarks
+     * of the series which have not been updated for a while first
+     */
+    public synchronized void force() {
+        if (buffer == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastEvictionTime >= EVICTION_INTERVAL_IN_MILLIS) {
+            lastEvictionTime = now;
+            evictExpired(now - MAX_AGE_IN_MILLIS);
+        }
+
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Evicts the watermarks not updated since the given time, shrinking
+     * the table back while it would stay less than 35% full
+     */
+    synchronized void evictExpired(long oldestUpdateTime) {
+        if (buffer == null) {
+            return;
+        }
+
+        int expired = 0;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            long position = getPosition(slot);
+
+            if (buffer.getLong((int) position) != EMPTY_SLOT
+                    && buffer.getLong((int) position + 24) < oldestUpdateTime) {
+                expired++;
+            }
+        }
+
+        if (expired == 0) {
+            return;
+        }
+
+        int newCapacity = capacity;
+
+        while (newCapacity > INITIAL_CAPACITY && size - expired < newCapacity * 0.35 / 2) {
+            newCapacity /= 2;
+        }
+
+        rehash(newCapacity, oldestUpdateTime);
+
+        LOGGER.info(String.format("Evicted [%s] expired series watermarks from checkpoint file [%s]",
+                expired, checkpointFile));
+    }
+
+    private long getWatermark(long fingerprint) {
+        if (buffer == null) {
+            return NO_WATERMARK;
+        }
+
+        long key = toKey(fingerprint);
+        long position = getPosition(findSlot(key));
+
+        return buffer.getLong((int) position) == key ? buffer.getLong((int) position + 8) : NO_WATERMARK;
+    }
+
+    private int findSlot(long key) {
+        int slot = (int) ((key ^ (key >>> 32)) & 0x7fffffff) % capacity;
+
+        while (true) {
+            long current = buffer.getLong((int) getPosition(slot));
+
+            if (current == EMPTY_SLOT || current == key) {
+                return slot;
+            }
+
+            slot = (slot + 1) % capacity;
+        }
+    }
+
+    private void putWatermark(long position, Instant timestamp, Double value) {
+        buffer.putLong((int) position + 8, timestamp.toEpochMilli());
+        buffer.putLong((int) position + 16, Double.doubleToLongBits(value));
+        buffer.putLong((int) position + 24, System.currentTimeMillis());
+    }
+
+    /**
+     * Moves the watermarks updated since the given time into a table of the
+     * new capacity, open addressing does not allow removing them in place.
+     * The new table is written to a temporary file first, which then atomically
+     * replaces the checkpoint file, so the checkpoint is never partially written.
+     */
+    private void rehash(int newCapacity, long oldestUpdateTime) {
+        int oldCapacity = capacity;
+        long[][] slots = new long[oldCapacity][];
+        int count = 0;
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long position = getPosition(slot);
+            long key = buffer.getLong((int) position);
+
+            if (key != EMPTY_SLOT && buffer.getLong((int) position + 24) >= oldestUpdateTime) {
+                slots[count++] = new long[]{key, buffer.getLong((int) position + 8),
+                        buffer.getLong((int) position + 16), buffer.getLong((int) position + 24)};
+            }
+        }
+
+        File checkpoint = new File(checkpointFile.trim());
+        File resizedCheckpoint = new File(checkpoint.getPath() + RESIZED_CHECKPOINT_SUFFIX);
+
+        RandomAccessFile previousFile = file;
+        MappedByteBuffer previousBuffer = buffer;
+        buffer = null;
+
+        try {
+            file = new RandomAccessFile(resizedCheckpoint, "rw");
+            reset(newCapacity);
+
+            for (int index = 0; index < count; index++) {
+                long position = getPosition(findSlot(slots[index][0]));
+
+                for (int field = 0; field < 4; field++) {
+                    buffer.putLong((int) position + field * 8, slots[index][field]);
+                }
+            }
+
+            size = count;
+            buffer.putInt(12, size);
+            buffer.force();
+
+            // the mapping of the resized file stays valid once renamed
+            close(previousFile, previousBuffer);
+            Files.move(resizedCheckpoint.toPath(), checkpoint.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Checkpoint file [%s] resized to [%s] slots", checkpointFile, capacity));
+            }
+
+        } catch (IOException e) {
+            LOGGER.error(String.format("Unable to resize checkpoint file [%s], series watermarks are disabled",
+                    checkpointFile), e);
+            close(previousFile, previousBuffer);
+            close();
+            resizedCheckpoint.delete();
+        }
+    }
+
+    private void reset(int newCapacity) throws IOException {
+        map(newCapacity);
+
+        for (int slot = 0; slot < newCapacity; slot++) {
+            buffer.putLong((int) getPosition(slot), EMPTY_SLOT);
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, newCapacity);
+        buffer.putInt(12, 0);
+        size = 0;
+    }
+
+    private void map(int newCapacity) throws IOException {
+        long length = HEADER_SIZE + (long) newCapacity * SLOT_SIZE;
+
+        // released before the file is resized, which some platforms refuse while mapped
+        unmap(buffer);
+        buffer = null;
+
+        file.setLength(length);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        capacity = newCapacity;
+    }
+
+    private int readCapacity(RandomAccessFile file) throws IOException {
+        file.seek(8);
+        int storedCapacity = file.readInt();
+        long expectedLength = HEADER_SIZE + (long) storedCapacity * SLOT_SIZE;
+
+        return storedCapacity > 0 && file.length() == expectedLength ? storedCapacity : INITIAL_CAPACITY;
+    }
+
+    private void close() {
+        if (buffer != null) {
+            buffer.force();
+        }
+
+        close(file, buffer);
+
+        file = null;
+        buffer = null;
+        checkpointFile = null;
+        capacity = 0;
+        size = 0;
+    }
+
+    private void close(RandomAccessFile file, MappedByteBuffer buffer) {
+        unmap(buffer);
+
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.warn(String.format("Unable to close checkpoint file [%s]", checkpointFile), e);
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping of the buffer right away rather than when garbage collected,
+     * it must not be accessed any more
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER_METHOD == null) {
+            return;
+        }
+
+        try {
+            INVOKE_CLEANER_METHOD.invoke(UNSAFE, buffer);
+        } catch (Exception e) {
+            LOGGER.debug("Unable to unmap checkpoint file", e);
+        }
+    }
+
+    private long getPosition(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    private long toKey(long fingerprint) {
+        // 0 marks an empty slot
+        return fingerprint == EMPTY_SLOT ? Long.MIN_VALUE : fingerprint;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the records of a Metric Stream in JSON output format, i.e. newline delimited
+ * objects of one datapoint each, without binding them to an intermediate tree
+ */
+public class JsonMetricStreamDecoder {
+
+    private final JsonFactory jsonFactory;
+
+    public JsonMetricStreamDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public int decode(byte[] data, Consumer<StreamedDatapoint> datapointConsumer) throws IOException {
+        int datapoints = 0;
+
+        try (JsonParser parser = jsonFactory.createParser(data)) {
+            JsonToken token;
+
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException(String.format("Unexpected token [%s] in metric stream record", token));
+                }
+
+                StreamedDatapoint datapoint = readDatapoint(parser);
+
+                if (datapoint.getNamespace() != null && datapoint.getMetricName() != null
+                        && datapoint.getTimestamp() != null) {
+                    datapointConsumer.accept(datapoint);
+                    datapoints++;
+                }
+            }
+        }
+
+        return datapoints;
+    }
+
+    private StreamedDatapoint readDatapoint(JsonParser parser) throws IOException {
+        StreamedDatapoint datapoint = new StreamedDatapoint();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            if ("account_id".equals(fieldName)) {
+                datapoint.setAccountId(parser.getValueAsString());
+
+            } else if ("region".equals(fieldName)) {
+                datapoint.setRegion(parser.getValueAsString());
+
+            } else if ("namespace".equals(fieldName)) {
+                datapoint.setNamespace(parser.getValueAsString());
+
+            } else if ("metric_name".equals(fieldName)) {
+                datapoint.setMetricName(parser.getValueAsString());
+
+            } else if ("unit".equals(fieldName)) {
+                datapoint.setUnit(parser.getValueAsString());
+
+            } else if ("timestamp".equals(fieldName)) {
+                datapoint.setTimestamp(Instant.ofEpochMilli(parser.getValueAsLong()));
+
+            } else if ("dimensions".equals(fieldName) && parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String dimensionName = parser.getCurrentName();
+                    parser.nextToken();
+                    datapoint.getDimensions().put(dimensionName, parser.getValueAsString());
+                }
+
+            } else if ("value".equals(fieldName) && parser.currentToken() == JsonToken.START_OBJECT) {
+                readValue(parser, datapoint);
+
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return datapoint;
+    }
+
+    private void readValue(JsonParser parser, StreamedDatapoint datapoint) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            if ("max".equals(fieldName)) {
+                datapoint.setMax(parser.getValueAsDouble());
+
+            } else if ("min".equals(fieldName)) {
+                datapoint.setMin(parser.getValueAsDouble());
+
+            } else if ("sum".equals(fieldName)) {
+                datapoint.setSum(parser.getValueAsDouble());
+
+            } else if ("count".equals(fieldName)) {
+                datapoint.setCount(parser.getValueAsDouble());
+
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
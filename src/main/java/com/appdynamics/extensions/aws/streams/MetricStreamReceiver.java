@@ -0,0 +1,441 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import com.appdynamics.extensions.aws.config.MetricStreamConfig;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embedded HTTP endpoint receiving CloudWatch Metric Streams delivered by Kinesis Data
+ * Firehose to an HTTP endpoint destination, shared by all monitors loaded with this library.
+ * <p>
+ * The records of each delivery are decoded, in JSON or OpenTelemetry 0.7 output format,
+ * into the {@link MetricStreamTable}, which is read by the collection cycles of the streamed
+ * namespaces instead of polling CloudWatch.
+ * <p>
+ * The receiver is stopped until {@link #initialise(MetricStreamConfig)} is called with a
+ * positive port, an access key and at least one namespace. It only speaks plain HTTP and
+ * binds to the loopback address by default, Firehose only delivers to HTTPS endpoints,
+ * so it is expected behind a TLS-terminating proxy.
+ */
+public class MetricStreamReceiver {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(MetricStreamReceiver.class);
+
+    static final String ACCESS_KEY_HEADER = "X-Amz-Firehose-Access-Key";
+
+    private static final int RECEIVER_THREADS = 2;
+
+    private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+    private static final int DEFAULT_MAX_DELIVERY_SIZE_IN_MB = 128;
+
+    private static MetricStreamReceiver instance;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final JsonMetricStreamDecoder jsonDecoder = new JsonMetricStreamDecoder(jsonFactory);
+
+    private final OpenTelemetryMetricStreamDecoder openTelemetryDecoder =
+            new OpenTelemetryMetricStreamDecoder(jsonFactory);
+
+    private final MetricStreamTable table = new MetricStreamTable();
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private String bindAddress;
+
+    private int port;
+
+    private String path;
+
+    private volatile String accessKey;
+
+    private volatile Set<String> namespaces = Collections.emptySet();
+
+    private volatile int staleAfterInMins;
+
+    private volatile long maxDeliverySizeInBytes;
+
+    private MetricStreamReceiver() {
+    }
+
+    public static synchronized MetricStreamReceiver getInstance() {
+        if (instance == null) {
+            instance = new MetricStreamReceiver();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Starts the receiver on the configured address, port and path, restarting it if they changed,
+     * or stops it if the config is missing. A receiver which cannot be started is left stopped,
+     * so the polled namespaces are still collected
+     */
+    public synchronized void initialise(MetricStreamConfig metricStreamConfig) {
+        if (metricStreamConfig == null || metricStreamConfig.getPort() <= 0
+                || metricStreamConfig.getNamespaces() == null || metricStreamConfig.getNamespaces().isEmpty()) {
+            stop();
+            return;
+        }
+
+        if (StringUtils.isBlank(metricStreamConfig.getAccessKey())) {
+            LOGGER.error("Metric stream receiver requires an accessKey, the metric streams are not received");
+            stop();
+            return;
+        }
+
+        String newBindAddress = StringUtils.isNotBlank(metricStreamConfig.getBindAddress()) ?
+                metricStreamConfig.getBindAddress() : DEFAULT_BIND_ADDRESS;
+        String newPath = metricStreamConfig.getPath() != null ? metricStreamConfig.getPath() : "/";
+        boolean restart = server == null || port != metricStreamConfig.getPort() || !newPath.equals(path)
+                || !newBindAddress.equals(bindAddress);
+
+        if (restart) {
+            stop();
+        }
+
+        // assigned before the server is started, so no delivery is received without them
+        accessKey = metricStreamConfig.getAccessKey();
+        namespaces = Collections.unmodifiableSet(Sets.newHashSet(metricStreamConfig.getNamespaces()));
+        staleAfterInMins = metricStreamConfig.getStaleAfterInMins();
+        maxDeliverySizeInBytes = (metricStreamConfig.getMaxDeliverySizeInMB() > 0 ?
+                metricStreamConfig.getMaxDeliverySizeInMB() : DEFAULT_MAX_DELIVERY_SIZE_IN_MB) * 1024L * 1024L;
+
+        if (restart && !start(newBindAddress, metricStreamConfig.getPort(), newPath)) {
+            return;
+        }
+
+        LOGGER.info(String.format("Metric stream receiver listening on [%s:%s] path [%s] for namespaces [%s]",
+                bindAddress, port, path, namespaces));
+    }
+
+    private boolean start(String newBindAddress, int newPort, String newPath) {
+        try {
+            serverExecutor = Executors.newFixedThreadPool(RECEIVER_THREADS,
+                    new ThreadFactoryBuilder().setNameFormat("MetricStreamReceiver-%d").setDaemon(true).build());
+
+            server = HttpServer.create(new InetSocketAddress(newBindAddress, newPort), 0);
+            server.createContext(newPath, new DeliveryHandler());
+            server.setExecutor(serverExecutor);
+            server.start();
+
+            bindAddress = newBindAddress;
+            port = newPort;
+            path = newPath;
+            return true;
+
+        } catch (IOException e) {
+            LOGGER.error(String.format("Unable to start metric stream receiver on [%s:%s], "
+                    + "the metric streams are not received", newBindAddress, newPort), e);
+            stop();
+            return false;
+        }
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+
+            LOGGER.info(String.format("Metric stream receiver on port [%s] stopped", port));
+        }
+
+        if (serverExecutor != null) {
+            serverExecutor.shutdownNow();
+            serverExecutor = null;
+        }
+
+        bindAddress = null;
+        port = 0;
+        path = null;
+        accessKey = null;
+        namespaces = Collections.emptySet();
+        table.clear();
+    }
+
+    /**
+     * Returns true if the namespace is collected from the metric streams instead of polling
+     */
+    public boolean isStreamed(String namespace) {
+        return namespaces.contains(namespace);
+    }
+
+    public MetricStreamTable getTable() {
+        return table;
+    }
+
+    public int getStaleAfterInMins() {
+        return staleAfterInMins;
+    }
+
+    /**
+     * Decodes the records of a Firehose delivery into the table, returning the number of datapoints,
+     * and writes the request id and timestamp of the delivery to the response
+     */
+    int receive(InputStream delivery, OutputStream response) throws IOException {
+        String requestId = null;
+        long timestamp = 0;
+        int datapoints = 0;
+
+        Consumer<StreamedDatapoint> tableUpdater = new Consumer<StreamedDatapoint>() {
+            public void accept(StreamedDatapoint datapoint) {
+                table.update(datapoint);
+            }
+        };
+
+        try (JsonParser parser = jsonFactory.createParser(delivery)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Firehose delivery is not a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+
+                if ("requestId".equals(fieldName)) {
+                    requestId = parser.getValueAsString();
+
+                } else if ("timestamp".equals(fieldName)) {
+                    timestamp = parser.getValueAsLong();
+
+                } else if ("records".equals(fieldName) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String recordFieldName = parser.getCurrentName();
+                            parser.nextToken();
+
+                            if ("data".equals(recordFieldName)) {
+                                datapoints += decode(parser.getBinaryValue(), tableUpdater);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        writeResponse(response, requestId, timestamp, null);
+
+        return datapoints;
+    }
+
+    private int decode(byte[] data, Consumer<StreamedDatapoint> tableUpdater) throws IOException {
+        if (data.length == 0) {
+            return 0;
+        }
+
+        // JSON records start with an object, OpenTelemetry ones with the varint length of a message
+        if (data[0] == '{') {
+            return jsonDecoder.decode(data, tableUpdater);
+        }
+
+        return openTelemetryDecoder.decode(data, tableUpdater);
+    }
+
+    /**
+     * Returns the body of the delivery, decompressed if sent with GZIP, which fails
+     * once more than the max delivery size is read
+     */
+    private InputStream getDeliveryBody(HttpExchange exchange) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+        if (contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.trim())) {
+            body = new GZIPInputStream(body);
+        }
+
+        // bounds the decompressed size, so compressed deliveries cannot expand past it either
+        return new BoundedInputStream(body, maxDeliverySizeInBytes);
+    }
+
+    private void writeResponse(OutputStream response, String requestId, long timestamp,
+                               String errorMessage) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(response)) {
+            generator.writeStartObject();
+            generator.writeStringField("requestId", requestId);
+            generator.writeNumberField("timestamp", timestamp > 0 ? timestamp : System.currentTimeMillis());
+
+            if (errorMessage != null) {
+                generator.writeStringField("errorMessage", errorMessage);
+            }
+
+            generator.writeEndObject();
+        }
+    }
+
+    private boolean isAuthorised(HttpExchange exchange) {
+        String accessKey = this.accessKey;
+
+        if (StringUtils.isBlank(accessKey)) {
+            return false;
+        }
+
+        String deliveredAccessKey = exchange.getRequestHeaders().getFirst(ACCESS_KEY_HEADER);
+
+        return deliveredAccessKey != null && MessageDigest.isEqual(
+                accessKey.getBytes(StandardCharsets.UTF_8), deliveredAccessKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private class DeliveryHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    sendError(exchange, 405, "Only POST is supported");
+
+                } else if (!isAuthorised(exchange)) {
+                    LOGGER.warn(String.format("Rejected metric stream delivery from [%s] with invalid access key",
+                            exchange.getRemoteAddress()));
+                    sendError(exchange, 401, "Invalid access key");
+
+                } else {
+                    ByteArrayOutputStream response = new ByteArrayOutputStream();
+                    int datapoints;
+
+                    try {
+                        datapoints = receive(getDeliveryBody(exchange), response);
+
+                    } catch (DeliveryTooLargeException e) {
+                        LOGGER.warn(String.format("Rejected metric stream delivery from [%s], %s",
+                                exchange.getRemoteAddress(), e.getMessage()));
+                        sendError(exchange, 413, e.getMessage());
+                        return;
+
+                    } catch (IOException e) {
+                        LOGGER.error("Unable to decode metric stream delivery", e);
+                        sendError(exchange, 400, "Unable to decode delivery: " + e.getMessage());
+                        return;
+                    }
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(String.format("Received [%s] metric stream datapoints", datapoints));
+                    }
+
+                    send(exchange, 200, response.toByteArray());
+                }
+
+            } catch (RuntimeException e) {
+                LOGGER.error("Error receiving metric stream delivery", e);
+                sendError(exchange, 500, "Error receiving delivery");
+
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void sendError(HttpExchange exchange, int status, String errorMessage) throws IOException {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            writeResponse(response, exchange.getRequestHeaders().getFirst("X-Amz-Firehose-Request-Id"),
+                    0, errorMessage);
+            send(exchange, status, response.toByteArray());
+        }
+
+        private void send(HttpExchange exchange, int status, byte[] response) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, response.length);
+
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(response);
+            }
+        }
+    }
+
+    /**
+     * Fails the read of a delivery once more than the max delivery size is read
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private final long maxSizeInBytes;
+
+        private long readBytes;
+
+        BoundedInputStream(InputStream in, long maxSizeInBytes) {
+            super(in);
+            this.maxSizeInBytes = maxSizeInBytes;
+        }
+
+        public int read() throws IOException {
+            int value = super.read();
+
+            if (value != -1) {
+                count(1);
+            }
+
+            return value;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0) {
+                count(read);
+            }
+
+            return read;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public long skip(long length) throws IOException {
+            long skipped = super.skip(length);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long bytes) throws DeliveryTooLargeException {
+            readBytes += bytes;
+
+            if (readBytes > maxSizeInBytes) {
+                throw new DeliveryTooLargeException(String.format(
+                        "delivery exceeds the max delivery size of [%s] bytes", maxSizeInBytes));
+            }
+        }
+    }
+
+    private static class DeliveryTooLargeException extends IOException {
+
+        DeliveryTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import com.google.common.collect.Lists;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the latest datapoint delivered for each streamed series.
+ * Datapoints delivered out of order never replace a newer one.
+ */
+public class MetricStreamTable {
+
+    private final Map<List<Object>, StreamedDatapoint> latestDatapoints =
+            new ConcurrentHashMap<List<Object>, StreamedDatapoint>();
+
+    public void update(StreamedDatapoint datapoint) {
+        List<Object> seriesKey = datapoint.getSeriesKey();
+
+        while (true) {
+            StreamedDatapoint latestDatapoint = latestDatapoints.putIfAbsent(seriesKey, datapoint);
+
+            if (latestDatapoint == null || !datapoint.getTimestamp().isAfter(latestDatapoint.getTimestamp())
+                    || latestDatapoints.replace(seriesKey, latestDatapoint, datapoint)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the latest datapoint of each series of the namespace not older
+     * than the given time, series without a newer datapoint are evicted
+     */
+    public List<StreamedDatapoint> getLatestDatapoints(String namespace, Instant notBefore) {
+        List<StreamedDatapoint> datapoints = Lists.newArrayList();
+        Iterator<StreamedDatapoint> iterator = latestDatapoints.values().iterator();
+
+        while (iterator.hasNext()) {
+            StreamedDatapoint datapoint = iterator.next();
+
+            if (datapoint.getTimestamp().isBefore(notBefore)) {
+                iterator.remove();
+
+            } else if (namespace.equals(datapoint.getNamespace())) {
+                datapoints.add(datapoint);
+            }
+        }
+
+        return datapoints;
+    }
+
+    public void clear() {
+        latestDatapoints.clear();
+    }
+
+    public int size() {
+        return latestDatapoints.size();
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the records of a Metric Stream in OpenTelemetry 0.7 output format, i.e. length
+ * delimited ExportMetricsServiceRequest messages, reading only the fields CloudWatch sets
+ * straight from the protobuf wire format.
+ * <p>
+ * CloudWatch delivers each series as a DoubleSummary whose datapoint labels hold the
+ * namespace, metric name and dimensions, with the minimum and maximum as the 0 and 1 quantiles.
+ */
+public class OpenTelemetryMetricStreamDecoder {
+
+    private static final String ACCOUNT_ID_ATTRIBUTE = "cloud.account.id";
+
+    private static final String REGION_ATTRIBUTE = "cloud.region";
+
+    private static final String NAMESPACE_LABEL = "Namespace";
+
+    private static final String METRIC_NAME_LABEL = "MetricName";
+
+    private static final String DIMENSIONS_LABEL = "Dimensions";
+
+    private static final int WIRE_TYPE_VARINT = 0;
+
+    private static final int WIRE_TYPE_FIXED64 = 1;
+
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+    private static final int WIRE_TYPE_FIXED32 = 5;
+
+    private final JsonFactory jsonFactory;
+
+    public OpenTelemetryMetricStreamDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public int decode(byte[] data, Consumer<StreamedDatapoint> datapointConsumer) throws IOException {
+        ProtobufReader reader = new ProtobufReader(data, 0, data.length);
+        int datapoints = 0;
+
+        while (!reader.isAtEnd()) {
+            // ExportMetricsServiceRequest
+            ProtobufReader request = reader.readMessage();
+
+            while (!request.isAtEnd()) {
+                if (request.readTag() == 1) {
+                    datapoints += readResourceMetrics(request.readMessage(), datapointConsumer);
+                } else {
+                    request.skipField();
+                }
+            }
+        }
+
+        return datapoints;
+    }
+
+    private int readResourceMetrics(ProtobufReader resourceMetrics, Consumer<StreamedDatapoint> datapointConsumer)
+            throws IOException {
+        Map<String, String> resourceAttributes = new HashMap<String, String>();
+        int datapoints = 0;
+
+        // the resource precedes the metrics on the wire, but is not required to
+        ProtobufReader metricsReader = resourceMetrics.duplicate();
+
+        while (!resourceMetrics.isAtEnd()) {
+            if (resourceMetrics.readTag() == 1) {
+                ProtobufReader resource = resourceMetrics.readMessage();
+
+                while (!resource.isAtEnd()) {
+                    if (resource.readTag() == 1) {
+                        readAttribute(resource.readMessage(), resourceAttributes);
+                    } else {
+                        resource.skipField();
+                    }
+                }
+            } else {
+                resourceMetrics.skipField();
+            }
+        }
+
+        while (!metricsReader.isAtEnd()) {
+            if (metricsReader.readTag() == 2) {
+                // InstrumentationLibraryMetrics
+                ProtobufReader libraryMetrics = metricsReader.readMessage();
+
+                while (!libraryMetrics.isAtEnd()) {
+                    if (libraryMetrics.readTag() == 2) {
+                        datapoints += readMetric(libraryMetrics.readMessage(), resourceAttributes, datapointConsumer);
+                    } else {
+                        libraryMetrics.skipField();
+                    }
+                }
+            } else {
+                metricsReader.skipField();
+            }
+        }
+
+        return datapoints;
+    }
+
+    private int readMetric(ProtobufReader metric, Map<String, String> resourceAttributes,
+                           Consumer<StreamedDatapoint> datapointConsumer) throws IOException {
+        String unit = null;
+        int datapoints = 0;
+        ProtobufReader summaryReader = metric.duplicate();
+
+        while (!metric.isAtEnd()) {
+            if (metric.readTag() == 3) {
+                unit = metric.readString();
+            } else {
+                metric.skipField();
+            }
+        }
+
+        while (!summaryReader.isAtEnd()) {
+            if (summaryReader.readTag() == 11) {
+                // DoubleSummary
+                ProtobufReader summary = summaryReader.readMessage();
+
+                while (!summary.isAtEnd()) {
+                    if (summary.readTag() == 1) {
+                        StreamedDatapoint datapoint = readSummaryDatapoint(summary.readMessage());
+                        datapoint.setAccountId(resourceAttributes.get(ACCOUNT_ID_ATTRIBUTE));
+                        datapoint.setRegion(resourceAttributes.get(REGION_ATTRIBUTE));
+                        datapoint.setUnit(unit);
+
+                        if (datapoint.getNamespace() != null && datapoint.getMetricName() != null
+                                && datapoint.getTimestamp() != null) {
+                            datapointConsumer.accept(datapoint);
+                            datapoints++;
+                        }
+                    } else {
+                        summary.skipField();
+                    }
+                }
+            } else {
+                summaryReader.skipField();
+            }
+        }
+
+        return datapoints;
+    }
+
+    private StreamedDatapoint readSummaryDatapoint(ProtobufReader summaryDatapoint) throws IOException {
+        StreamedDatapoint datapoint = new StreamedDatapoint();
+
+        while (!summaryDatapoint.isAtEnd()) {
+            switch (summaryDatapoint.readTag()) {
+                case 1:
+                    readLabel(summaryDatapoint.readMessage(), datapoint);
+                    break;
+                case 3:
+                    datapoint.setTimestamp(toInstant(summaryDatapoint.readFixed64()));
+                    break;
+                case 4:
+                    datapoint.setCount(summaryDatapoint.readFixed64());
+                    break;
+                case 5:
+                    datapoint.setSum(summaryDatapoint.readDouble());
+                    break;
+                case 6:
+                    readQuantile(summaryDatapoint.readMessage(), datapoint);
+                    break;
+                default:
+                    summaryDatapoint.skipField();
+            }
+        }
+
+        return datapoint;
+    }
+
+    private void readLabel(ProtobufReader label, StreamedDatapoint datapoint) throws IOException {
+        String key = null;
+        String value = null;
+
+        while (!label.isAtEnd()) {
+            int fieldNumber = label.readTag();
+
+            if (fieldNumber == 1) {
+                key = label.readString();
+            } else if (fieldNumber == 2) {
+                value = label.readString();
+            } else {
+                label.skipField();
+            }
+        }
+
+        if (NAMESPACE_LABEL.equals(key)) {
+            datapoint.setNamespace(value);
+
+        } else if (METRIC_NAME_LABEL.equals(key)) {
+            datapoint.setMetricName(value);
+
+        } else if (DIMENSIONS_LABEL.equals(key) && value != null) {
+            readDimensions(value, datapoint);
+        }
+    }
+
+    private void readDimensions(String dimensions, StreamedDatapoint datapoint) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(dimensions)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String dimensionName = parser.getCurrentName();
+                parser.nextToken();
+                datapoint.getDimensions().put(dimensionName, parser.getValueAsString());
+            }
+        }
+    }
+
+    private void readQuantile(ProtobufReader quantileValue, StreamedDatapoint datapoint) throws IOException {
+        double quantile = 0;
+        double value = 0;
+
+        while (!quantileValue.isAtEnd()) {
+            int fieldNumber = quantileValue.readTag();
+
+            if (fieldNumber == 1) {
+                quantile = quantileValue.readDouble();
+            } else if (fieldNumber == 2) {
+                value = quantileValue.readDouble();
+            } else {
+                quantileValue.skipField();
+            }
+        }
+
+        if (quantile == 0) {
+            datapoint.setMin(value);
+
+        } else if (quantile == 1) {
+            datapoint.setMax(value);
+        }
+    }
+
+    private void readAttribute(ProtobufReader attribute, Map<String, String> attributes) throws IOException {
+        String key = null;
+        String value = null;
+
+        while (!attribute.isAtEnd()) {
+            int fieldNumber = attribute.readTag();
+
+            if (fieldNumber == 1) {
+                key = attribute.readString();
+
+            } else if (fieldNumber == 2) {
+                // AnyValue
+                ProtobufReader anyValue = attribute.readMessage();
+
+                while (!anyValue.isAtEnd()) {
+                    if (anyValue.readTag() == 1) {
+                        value = anyValue.readString();
+                    } else {
+                        anyValue.skipField();
+                    }
+                }
+            } else {
+                attribute.skipField();
+            }
+        }
+
+        if (key != null && value != null) {
+            attributes.put(key, value);
+        }
+    }
+
+    private static Instant toInstant(long unixNanos) {
+        return Instant.ofEpochSecond(0, unixNanos);
+    }
+
+    /**
+     * Reads the protobuf wire format of a message, or of a sequence of length
+     * delimited messages, within the given bounds of a buffer
+     */
+    private static class ProtobufReader {
+
+        private final byte[] buffer;
+
+        private final int limit;
+
+        private int position;
+
+        private int wireType;
+
+        private ProtobufReader(byte[] buffer, int position, int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        private boolean isAtEnd() {
+            return position >= limit;
+        }
+
+        private ProtobufReader duplicate() {
+            return new ProtobufReader(buffer, position, limit);
+        }
+
+        /**
+         * Returns the field number of the next field
+         */
+        private int readTag() throws IOException {
+            long tag = readVarint();
+            wireType = (int) (tag & 0x7);
+            return (int) (tag >>> 3);
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Malformed protobuf varint");
+        }
+
+        private long readFixed64() throws IOException {
+            checkAvailable(8);
+            long value = 0;
+
+            for (int i = 0; i < 8; i++) {
+                value |= (long) (buffer[position++] & 0xFF) << (8 * i);
+            }
+
+            return value;
+        }
+
+        private double readDouble() throws IOException {
+            return Double.longBitsToDouble(readFixed64());
+        }
+
+        private String readString() throws IOException {
+            int length = readLength();
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private ProtobufReader readMessage() throws IOException {
+            int length = readLength();
+            ProtobufReader message = new ProtobufReader(buffer, position, position + length);
+            position += length;
+            return message;
+        }
+
+        private void skipField() throws IOException {
+            switch (wireType) {
+                case WIRE_TYPE_VARINT:
+                    readVarint();
+                    break;
+                case WIRE_TYPE_FIXED64:
+                    checkAvailable(8);
+                    position += 8;
+                    break;
+                case WIRE_TYPE_LENGTH_DELIMITED:
+                    int length = readLength();
+                    position += length;
+                    break;
+                case WIRE_TYPE_FIXED32:
+                    checkAvailable(4);
+                    position += 4;
+                    break;
+                default:
+                    throw new IOException(String.format("Unsupported protobuf wire type [%s]", wireType));
+            }
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarint();
+
+            if (length < 0 || length > limit - position) {
+                throw new IOException(String.format("Invalid protobuf length [%s]", length));
+            }
+
+            return (int) length;
+        }
+
+        private byte readByte() throws IOException {
+            checkAvailable(1);
+            return buffer[position++];
+        }
+
+        private void checkAvailable(int length) throws IOException {
+            if (limit - position < length) {
+                throw new IOException("Truncated protobuf message");
+            }
+        }
+    }
+}
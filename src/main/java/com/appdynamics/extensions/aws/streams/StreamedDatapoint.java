@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A datapoint of a series delivered by a CloudWatch Metric Stream,
+ * holding the statistics of one minute of the series
+ */
+public class StreamedDatapoint {
+
+    private String accountId;
+
+    private String region;
+
+    private String namespace;
+
+    private String metricName;
+
+    private Map<String, String> dimensions = new TreeMap<String, String>();
+
+    private Instant timestamp;
+
+    private double min;
+
+    private double max;
+
+    private double sum;
+
+    private double count;
+
+    private String unit;
+
+    /**
+     * Identifies the series of the datapoint
+     */
+    public List<Object> getSeriesKey() {
+        return Arrays.<Object>asList(accountId, region, namespace, metricName, dimensions);
+    }
+
+    /**
+     * Returns the value of the given statistic
+     */
+    public Double getValue(StatisticType statType) {
+        switch (statType) {
+            case MAX:
+                return max;
+            case MIN:
+                return min;
+            case SUM:
+                return sum;
+            case SAMPLE_COUNT:
+                return count;
+            default:
+                return count > 0 ? sum / count : null;
+        }
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    public void setMetricName(String metricName) {
+        this.metricName = metricName;
+    }
+
+    /**
+     * Dimensions sorted by name
+     */
+    public Map<String, String> getDimensions() {
+        return dimensions;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Instant timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public void setMin(double min) {
+        this.min = min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public void setMax(double max) {
+        this.max = max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public void setSum(double sum) {
+        this.sum = sum;
+    }
+
+    public double getCount() {
+        return count;
+    }
+
+    public void setCount(double count) {
+        this.count = count;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void setUnit(String unit) {
+        this.unit = unit;
+    }
+
+    @Override
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import com.appdynamics.extensions.aws.config.Account;
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.metric.AccountMetricStatistics;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.NamespaceMetricStatistics;
+import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.appdynamics.extensions.aws.predicate.MultiDimensionPredicate;
+import com.appdynamics.extensions.aws.providers.SeriesWatermarkProvider;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper.filterMetrics;
+import static com.appdynamics.extensions.aws.util.AWSUtil.getSeriesFingerprint;
+
+/**
+ * Builds the statistics of a namespace from the latest datapoints delivered by
+ * the metric streams, filtered by the configured dimensions and include metrics
+ * as listed metrics are, so they are converted for upload by the {@link MetricsProcessor}
+ * without any request to CloudWatch.
+ * <p>
+ * Streamed datapoints are reported under the display name of their (linked) account,
+ * or their account id if not configured.
+ */
+public class StreamedMetricStatisticsCollector implements Callable<NamespaceMetricStatistics> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(StreamedMetricStatisticsCollector.class);
+
+    private List<Account> accounts;
+
+    private MetricsProcessor metricsProcessor;
+
+    private List<IncludeMetric> includeMetrics;
+
+    private MetricStreamTable table;
+
+    private int staleAfterInMins;
+
+    private String metricPrefix;
+
+    private StreamedMetricStatisticsCollector(Builder builder) {
+        this.accounts = builder.accounts;
+        this.metricsProcessor = builder.metricsProcessor;
+        this.includeMetrics = builder.includeMetrics;
+        this.table = builder.table;
+        this.staleAfterInMins = builder.staleAfterInMins;
+        this.metricPrefix = builder.metricPrefix;
+    }
+
+    public NamespaceMetricStatistics call() {
+        String namespace = metricsProcessor.getNamespace();
+
+        NamespaceMetricStatistics namespaceMetrics = new NamespaceMetricStatistics();
+        namespaceMetrics.setNamespace(namespace);
+
+        Instant notBefore = Instant.now().minusSeconds(Math.max(staleAfterInMins, 1) * 60L);
+        List<StreamedDatapoint> datapoints = table.getLatestDatapoints(namespace, notBefore);
+
+        // series delivered by more than one account or region are the same metric
+        Map<Metric, List<StreamedDatapoint>> datapointsByMetric = new LinkedHashMap<Metric, List<StreamedDatapoint>>();
+
+        for (StreamedDatapoint datapoint : datapoints) {
+            Metric metric = toMetric(datapoint);
+
+            if (!datapointsByMetric.containsKey(metric)) {
+                datapointsByMetric.put(metric, Lists.<StreamedDatapoint>newArrayList());
+            }
+
+            datapointsByMetric.get(metric).add(datapoint);
+        }
+
+        List<Metric> metrics = Lists.newArrayList(datapointsByMetric.keySet());
+
+        List<com.appdynamics.extensions.aws.config.Dimension> dimensions = metricsProcessor.getDimensions();
+
+        if (dimensions != null && !dimensions.isEmpty()) {
+            MultiDimensionPredicate dimensionPredicate = new MultiDimensionPredicate(dimensions);
+            List<Metric> filteredMetrics = Lists.newArrayList();
+
+            for (Metric metric : metrics) {
+                if (dimensionPredicate.apply(metric)) {
+                    filteredMetrics.add(metric);
+                }
+            }
+
+            metrics = filteredMetrics;
+        }
+
+        Map<List<String>, RegionMetricStatistics> regionStatsByAccount = new LinkedHashMap<List<String>, RegionMetricStatistics>();
+        Map<String, AccountMetricStatistics> accountStatsByName = new LinkedHashMap<String, AccountMetricStatistics>();
+        SeriesWatermarkProvider watermarkProvider = SeriesWatermarkProvider.getInstance();
+
+        for (AWSMetric awsMetric : filterMetrics(metrics, includeMetrics)) {
+            for (StreamedDatapoint datapoint : datapointsByMetric.get(awsMetric.getMetric())) {
+                String accountName = getAccountName(datapoint.getAccountId());
+                StatisticType statType = metricsProcessor.getStatisticType(awsMetric);
+
+                AWSMetric seriesMetric = new AWSMetric();
+                seriesMetric.setIncludeMetric(awsMetric.getIncludeMetric());
+                seriesMetric.setMetric(awsMetric.getMetric());
+                seriesMetric.setAccountId(datapoint.getAccountId());
+
+                MetricStatistic metricStatistic = new MetricStatistic();
+                metricStatistic.setMetric(seriesMetric);
+                metricStatistic.setMetricPrefix(metricPrefix);
+
+                long fingerprint = watermarkProvider.isEnabled() ?
+                        getSeriesFingerprint(accountName, datapoint.getRegion(), seriesMetric, statType) : 0L;
+
+                if (watermarkProvider.isCurrent(fingerprint, datapoint.getTimestamp())) {
+                    Double value = datapoint.getValue(statType);
+                    metricStatistic.setValue(value);
+                    metricStatistic.setUnit(datapoint.getUnit());
+                    metricStatistic.setTimestamp(datapoint.getTimestamp());
+                    watermarkProvider.update(fingerprint, datapoint.getTimestamp(), value);
+
+                } else {
+                    // a late datapoint older than the latest one consumed
+                    metricStatistic.setValue(watermarkProvider.getLatestValue(fingerprint));
+                }
+
+                getRegionStats(accountName, datapoint.getRegion(), accountStatsByName, regionStatsByAccount)
+                        .addMetricStatistic(metricStatistic);
+            }
+        }
+
+        for (AccountMetricStatistics accountStats : accountStatsByName.values()) {
+            namespaceMetrics.add(accountStats);
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Built statistics of [%s] streamed series for Namespace [%s]",
+                    datapoints.size(), namespace));
+        }
+
+        return namespaceMetrics;
+    }
+
+    private RegionMetricStatistics getRegionStats(String accountName, String region,
+                                                  Map<String, AccountMetricStatistics> accountStatsByName,
+                                                  Map<List<String>, RegionMetricStatistics> regionStatsByAccount) {
+        List<String> regionKey = Lists.newArrayList(accountName, region);
+        RegionMetricStatistics regionStats = regionStatsByAccount.get(regionKey);
+
+        if (regionStats == null) {
+            AccountMetricStatistics accountStats = accountStatsByName.get(accountName);
+
+            if (accountStats == null) {
+                accountStats = new AccountMetricStatistics();
+                accountStats.setAccountName(accountName);
+                accountStatsByName.put(accountName, accountStats);
+            }
+
+            regionStats = new RegionMetricStatistics();
+            regionStats.setRegion(region);
+            accountStats.add(regionStats);
+            regionStatsByAccount.put(regionKey, regionStats);
+        }
+
+        return regionStats;
+    }
+
+    private String getAccountName(String accountId) {
+        if (accounts != null) {
+            for (Account account : accounts) {
+                Map<String, String> linkedAccounts = account.getLinkedAccounts();
+
+                if (linkedAccounts != null && linkedAccounts.containsKey(accountId)) {
+                    return StringUtils.isNotBlank(linkedAccounts.get(accountId)) ?
+                            linkedAccounts.get(accountId) : accountId;
+                }
+            }
+
+            if (accounts.size() == 1) {
+                return accounts.get(0).getDisplayAccountName();
+            }
+        }
+
+        return accountId;
+    }
+
+    private static Metric toMetric(StreamedDatapoint datapoint) {
+        List<Dimension> dimensions = Lists.newArrayListWithCapacity(datapoint.getDimensions().size());
+
+        for (Map.Entry<String, String> dimension : datapoint.getDimensions().entrySet()) {
+            dimensions.add(Dimension.builder().name(dimension.getKey()).value(dimension.getValue()).build());
+        }
+
+        return Metric.builder()
+                .namespace(datapoint.getNamespace())
+                .metricName(datapoint.getMetricName())
+                .dimensions(dimensions)
+                .build();
+    }
+
+    /**
+     * Builder class to maintain readability when
+     * building {@link StreamedMetricStatisticsCollector} due to its params size
+     */
+    public static class Builder {
+
+        private List<Account> accounts;
+        private MetricsProcessor metricsProcessor;
+        private List<IncludeMetric> includeMetrics;
+        private MetricStreamTable table;
+        private int staleAfterInMins;
+        private String metricPrefix;
+
+        public Builder withAccounts(List<Account> accounts) {
+            this.accounts = accounts;
+            return this;
+        }
+
+        public Builder withMetricsProcessor(MetricsProcessor metricsProcessor) {
+            this.metricsProcessor = metricsProcessor;
+            return this;
+        }
+
+        public Builder withIncludeMetrics(List<IncludeMetric> includeMetrics) {
+            this.includeMetrics = includeMetrics;
+            return this;
+        }
+
+        public Builder withTable(MetricStreamTable table) {
+            this.table = table;
+            return this;
+        }
+
+        public Builder withStaleAfterInMins(int staleAfterInMins) {
+            this.staleAfterInMins = staleAfterInMins;
+            return this;
+        }
+
+        public Builder withPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        public StreamedMetricStatisticsCollector build() {
+            return new StreamedMetricStatisticsCollector(this);
+        }
+    }
+}
@@ -9,23 +9,48 @@ package com.appdynamics.extensions.aws.util;
 
 import com.appdynamics.extensions.aws.config.AwsClientConfig;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import com.appdynamics.extensions.Constants;
 import com.appdynamics.extensions.aws.config.Account;
 import com.appdynamics.extensions.aws.config.CredentialsDecryptionConfig;
 import com.appdynamics.extensions.aws.config.ProxyConfig;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.metric.StatisticType;
 import com.appdynamics.extensions.util.CryptoUtils;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
 import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.http.apache.ProxyConfiguration;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_API_CALL_ATTEMPT_TIMEOUT_IN_SECS;
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_API_CALL_TIMEOUT_IN_SECS;
 
 /**
  * @author Florencio Sarmiento
@@ -79,6 +104,17 @@ public class AWSUtil {
     }
 
     public static AwsClientConfig createAwsClientConfiguration(int maxErrorRetrySize, ProxyConfig proxyConfig) {
+        return createAwsClientConfiguration(maxErrorRetrySize, proxyConfig, 0, 0);
+    }
+
+    /**
+     * Same as {@link #createAwsClientConfiguration(int, ProxyConfig)}, with requests aborted at the http layer
+     * once an attempt or the whole call, retries included, takes longer than the given timeouts ( in seconds ).
+     * Timeouts default if not positive, and are disabled if negative.
+     */
+    public static AwsClientConfig createAwsClientConfiguration(int maxErrorRetrySize, ProxyConfig proxyConfig,
+                                                               int apiCallTimeoutInSecs,
+                                                               int apiCallAttemptTimeoutInSecs) {
         // Configure the Apache HTTP client builder
         ApacheHttpClient.Builder httpClientBuilder = ApacheHttpClient.builder();
 
@@ -100,10 +136,190 @@ public class AWSUtil {
         SdkHttpClient httpClient = httpClientBuilder.build();
 
         // Configure client override settings (e.g., retry policy)
-        ClientOverrideConfiguration overrideConfiguration = ClientOverrideConfiguration.builder()
-                .retryPolicy(RetryPolicy.builder().numRetries(maxErrorRetrySize).build())
-                .build();
+        ClientOverrideConfiguration.Builder overrideConfigurationBuilder = ClientOverrideConfiguration.builder()
+                .retryPolicy(RetryPolicy.builder().numRetries(maxErrorRetrySize).build());
+
+        if (apiCallTimeoutInSecs >= 0) {
+            overrideConfigurationBuilder.apiCallTimeout(Duration.ofSeconds(apiCallTimeoutInSecs > 0 ?
+                    apiCallTimeoutInSecs : DEFAULT_API_CALL_TIMEOUT_IN_SECS));
+        }
+
+        if (apiCallAttemptTimeoutInSecs >= 0) {
+            overrideConfigurationBuilder.apiCallAttemptTimeout(Duration.ofSeconds(apiCallAttemptTimeoutInSecs > 0 ?
+                    apiCallAttemptTimeoutInSecs : DEFAULT_API_CALL_ATTEMPT_TIMEOUT_IN_SECS));
+        }
+
+        ClientOverrideConfiguration overrideConfiguration = overrideConfigurationBuilder.build();
+
+        List<Object> settings = Arrays.<Object>asList(maxErrorRetrySize, apiCallTimeoutInSecs, apiCallAttemptTimeoutInSecs,
+                proxyConfig != null ? proxyConfig.getHost() : null, proxyConfig != null ? proxyConfig.getPort() : null,
+                proxyConfig != null ? proxyConfig.getUsername() : null, proxyConfig != null ? proxyConfig.getPassword() : null);
+
+        return new AwsClientConfig(httpClient, overrideConfiguration, proxyConfig, settings);
+    }
+
+    /**
+     * Returns a fingerprint of the credentials and client config the clients of an account are built from,
+     * so clients are built again, rather than reused from the cache, once any of them changes
+     */
+    public static String getClientSettingsFingerprint(AwsCredentialsProvider awsCredentials,
+                                                      AwsClientConfig awsClientConfig) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+
+        AwsCredentials credentials = awsCredentials instanceof StaticCredentialsProvider ?
+                awsCredentials.resolveCredentials() : null;
+
+        if (credentials != null) {
+            hasher.putString(String.valueOf(credentials.accessKeyId()), StandardCharsets.UTF_8).putByte((byte) 0)
+                    .putString(String.valueOf(credentials.secretAccessKey()), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+
+        if (awsClientConfig != null && awsClientConfig.getSettings() != null) {
+            for (Object setting : awsClientConfig.getSettings()) {
+                hasher.putString(String.valueOf(setting), StandardCharsets.UTF_8).putByte((byte) 0);
+            }
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Creates the non-blocking http client of a {@link software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient},
+     * which keeps up to the given number of requests in flight on a few event loop threads
+     */
+    public static SdkAsyncHttpClient createAsyncHttpClient(ProxyConfig proxyConfig, int maxConcurrency) {
+        NettyNioAsyncHttpClient.Builder httpClientBuilder = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(maxConcurrency);
+
+        if (proxyConfig != null && StringUtils.isNotBlank(proxyConfig.getHost()) && proxyConfig.getPort() != null) {
+            software.amazon.awssdk.http.nio.netty.ProxyConfiguration.Builder proxyBuilder =
+                    software.amazon.awssdk.http.nio.netty.ProxyConfiguration.builder()
+                            .scheme("http")
+                            .host(proxyConfig.getHost())
+                            .port(proxyConfig.getPort());
+
+            if (StringUtils.isNotBlank(proxyConfig.getUsername())) {
+                proxyBuilder.username(proxyConfig.getUsername());
+            }
+            if (StringUtils.isNotBlank(proxyConfig.getPassword())) {
+                proxyBuilder.password(proxyConfig.getPassword());
+            }
+
+            httpClientBuilder.proxyConfiguration(proxyBuilder.build());
+        }
+
+        return httpClientBuilder.build();
+    }
+
+    /**
+     * Cancels the tasks not completed yet, interrupting the running ones, so tasks
+     * given up on neither keep their thread nor start later from an executor queue
+     */
+    public static void cancelTasks(Collection<? extends Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            if (!task.isDone()) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the time the given minutes before now, truncated to the start of its period,
+     * so only complete periods are requested and identical requests made within
+     * the same period cover the same time range
+     */
+    public static Instant getTimeInMinsBeforeNow(int minsBeforeNow, int periodInSec) {
+        long epochSecond = DateTime.now(DateTimeZone.UTC).minusMinutes(minsBeforeNow).getMillis() / 1000;
+        return Instant.ofEpochSecond(epochSecond - epochSecond % periodInSec);
+    }
+
+    /**
+     * Returns the period aligned start time the given minutes before now,
+     * moved back if needed so the time range covers at least one period
+     */
+    public static Instant getStartTimeInMinsBeforeNow(int startTimeInMinsBeforeNow, Instant endTime, int periodInSec) {
+        Instant startTime = getTimeInMinsBeforeNow(startTimeInMinsBeforeNow, periodInSec);
+        Instant latestStartTime = endTime.minusSeconds(periodInSec);
+
+        return startTime.isAfter(latestStartTime) ? latestStartTime : startTime;
+    }
+
+    /**
+     * Returns a stable 64 bit fingerprint identifying the series of the metric
+     * for the given account, region and statistic type.
+     * Dimensions are sorted by name so their order does not matter.
+     */
+    public static long getSeriesFingerprint(String accountName, String region,
+                                            AWSMetric metric, StatisticType statType) {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(String.valueOf(accountName), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(String.valueOf(region), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(String.valueOf(metric.getMetric().namespace()), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(String.valueOf(metric.getIncludeMetric().getName()), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(String.valueOf(statType), StandardCharsets.UTF_8).putByte((byte) 0);
+
+        if (metric.getAccountId() != null) {
+            hasher.putString(metric.getAccountId(), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+
+        if (metric.getMetric().hasDimensions()) {
+            List<Dimension> dimensions = new ArrayList<Dimension>(metric.getMetric().dimensions());
+            Collections.sort(dimensions, new Comparator<Dimension>() {
+                public int compare(Dimension first, Dimension second) {
+                    return first.name().compareTo(second.name());
+                }
+            });
+
+            for (Dimension dimension : dimensions) {
+                hasher.putString(String.valueOf(dimension.name()), StandardCharsets.UTF_8).putByte((byte) 0)
+                        .putString(String.valueOf(dimension.value()), StandardCharsets.UTF_8).putByte((byte) 0);
+            }
+        }
+
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * Creates a CloudWatch SEARCH expression, e.g.
+     * <b>SEARCH('{"AWS/EC2","InstanceId"} MetricName="CPUUtilization"', 'Average', 60)</b>
+     *
+     * @param namespace       the namespace of the schema
+     * @param dimensionNames  the dimension names of the schema, only series with exactly these dimensions match
+     * @param metricName      the metric name to match, ignored if blank
+     * @param dimensionValues exact dimension values to match, may be null
+     * @param statType        the statistic of the returned series
+     * @param periodInSec     the period of the returned series
+     * @return search expression
+     */
+    public static String createSearchExpression(String namespace, Collection<String> dimensionNames, String metricName,
+                                                Map<String, String> dimensionValues, StatisticType statType,
+                                                int periodInSec) {
+        StringBuilder searchTerm = new StringBuilder("{").append(quoteSearchTerm(namespace));
+
+        if (dimensionNames != null) {
+            for (String dimensionName : dimensionNames) {
+                searchTerm.append(',').append(quoteSearchTerm(dimensionName));
+            }
+        }
+
+        searchTerm.append('}');
+
+        if (StringUtils.isNotBlank(metricName)) {
+            searchTerm.append(" MetricName=").append(quoteSearchTerm(metricName));
+        }
+
+        if (dimensionValues != null) {
+            for (Map.Entry<String, String> dimensionValue : new TreeMap<String, String>(dimensionValues).entrySet()) {
+                searchTerm.append(' ').append(quoteSearchTerm(dimensionValue.getKey()))
+                        .append('=').append(quoteSearchTerm(dimensionValue.getValue()));
+            }
+        }
+
+        return String.format("SEARCH('%s', '%s', %s)",
+                searchTerm.toString().replace("'", "\\'"), statType.getTypeName(), periodInSec);
+    }
 
-        return new AwsClientConfig(httpClient, overrideConfiguration);
+    private static String quoteSearchTerm(String term) {
+        return '"' + String.valueOf(term).replace("\\", "\\\\").replace("\"", "\\\"") + '"';
     }
 }
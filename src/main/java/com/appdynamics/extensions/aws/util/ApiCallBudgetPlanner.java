@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enforces a per-cycle and per-day budget of CloudWatch requests retrieving
+ * statistics, shared by all namespaces and monitors loaded with this library.
+ * <p>
+ * Collectors estimate the requests and datapoints needed by the series they
+ * are about to fetch and reserve the requests before sending any of them.
+ * A partially granted reservation lets the collector fetch its highest priority
+ * series and defer the others to a later cycle, so budgets are never overrun.
+ * <p>
+ * The per-cycle budget is reserved from the {@link CollectionCycle} of each
+ * collection, so collections running at the same time do not renew each
+ * other's budget. Once a collection completes, its usage is projected over a
+ * day and a warning is logged if the projection exceeds the per-day budget,
+ * before the budget is actually exhausted.
+ * <p>
+ * Budgets are disabled until {@link #initialise(int, int, int)} is called
+ * with a positive budget.
+ */
+public class ApiCallBudgetPlanner {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(ApiCallBudgetPlanner.class);
+
+    private static ApiCallBudgetPlanner instance;
+
+    private final Map<String, NamespacePlan> namespacePlans = new ConcurrentHashMap<String, NamespacePlan>();
+
+    private int budgetPerCycle;
+
+    private int budgetPerDay;
+
+    private int cycleIntervalInSecs;
+
+    private long reservedInDay;
+
+    private LocalDate day;
+
+    private ApiCallBudgetPlanner() {
+    }
+
+    public static synchronized ApiCallBudgetPlanner getInstance() {
+        if (instance == null) {
+            instance = new ApiCallBudgetPlanner();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets the max number of requests per cycle and per day, non-positive
+     * budgets are unlimited, and the interval ( in seconds ) between cycles
+     */
+    public synchronized void initialise(int budgetPerCycle, int budgetPerDay, int cycleIntervalInSecs) {
+        if (budgetPerCycle != this.budgetPerCycle || budgetPerDay != this.budgetPerDay) {
+            LOGGER.info(String.format("API call budget initialised to [%s] per cycle and [%s] per day",
+                    budgetPerCycle > 0 ? budgetPerCycle : "unlimited", budgetPerDay > 0 ? budgetPerDay : "unlimited"));
+        }
+
+        this.budgetPerCycle = budgetPerCycle;
+        this.budgetPerDay = budgetPerDay;
+        this.cycleIntervalInSecs = cycleIntervalInSecs;
+    }
+
+    public synchronized boolean isEnabled() {
+        return budgetPerCycle > 0 || budgetPerDay > 0;
+    }
+
+    /**
+     * Completes the given collection, warning if its usage would overrun the per-day budget
+     */
+    public synchronized void completeCycle(CollectionCycle collectionCycle) {
+        rollDay();
+
+        long reservedInCycle = collectionCycle.getReservedApiCalls();
+
+        if (budgetPerDay > 0 && cycleIntervalInSecs > 0 && reservedInCycle > 0) {
+            long cyclesPerDay = TimeUnit.DAYS.toSeconds(1) / cycleIntervalInSecs;
+            long projectedPerDay = reservedInCycle * cyclesPerDay;
+
+            if (projectedPerDay > budgetPerDay) {
+                LOGGER.warn(String.format("Projected [%s] API calls per day ( [%s] per cycle ) exceed the budget of [%s] "
+                                + "per day, series will be deferred once [%s] calls remain today",
+                        projectedPerDay, reservedInCycle, budgetPerDay, getRemainingInDay()));
+            }
+        }
+    }
+
+    /**
+     * Reserves up to the given number of requests for the namespace in the given
+     * collection, returns the number granted by the remaining budgets
+     */
+    public synchronized int reserve(CollectionCycle collectionCycle, String namespace, int calls) {
+        rollDay();
+
+        long granted = Math.min(calls, Math.min(getRemainingInCycle(collectionCycle), getRemainingInDay()));
+        granted = Math.max(granted, 0);
+
+        if (granted < calls) {
+            LOGGER.warn(String.format("Estimated [%s] API calls for Namespace [%s] exceed the remaining budget, "
+                    + "only [%s] calls granted", calls, namespace, granted));
+        }
+
+        collectionCycle.addReservedApiCalls(granted);
+        reservedInDay += granted;
+        getNamespacePlan(namespace).plannedCalls.add(granted);
+
+        return (int) granted;
+    }
+
+    /**
+     * Gives back reserved requests of the given collection which are not needed, the
+     * daily usage does not drop below zero if they were reserved before the day rolled over
+     */
+    public synchronized void release(CollectionCycle collectionCycle, String namespace, int calls) {
+        rollDay();
+
+        long released = Math.min(Math.max(calls, 0), collectionCycle.getReservedApiCalls());
+
+        collectionCycle.addReservedApiCalls(-released);
+        reservedInDay = Math.max(reservedInDay - released, 0);
+        getNamespacePlan(namespace).plannedCalls.add(-released);
+    }
+
+    /**
+     * Returns the number of requests which can still be reserved in the given collection
+     */
+    public synchronized long getRemainingCalls(CollectionCycle collectionCycle) {
+        rollDay();
+        return Math.min(getRemainingInCycle(collectionCycle), getRemainingInDay());
+    }
+
+    public void recordPlannedDatapoints(String namespace, long datapoints) {
+        getNamespacePlan(namespace).plannedDatapoints.add(datapoints);
+    }
+
+    public void recordDeferredSeries(String namespace, int series) {
+        getNamespacePlan(namespace).deferredSeries.add(series);
+    }
+
+    /**
+     * Returns the requests reserved for the namespace since the previous call
+     */
+    public long getAndResetPlannedCalls(String namespace) {
+        return getNamespacePlan(namespace).plannedCalls.sumThenReset();
+    }
+
+    /**
+     * Returns the datapoints planned for the namespace since the previous call
+     */
+    public long getAndResetPlannedDatapoints(String namespace) {
+        return getNamespacePlan(namespace).plannedDatapoints.sumThenReset();
+    }
+
+    /**
+     * Returns the series of the namespace deferred since the previous call
+     */
+    public long getAndResetDeferredSeries(String namespace) {
+        return getNamespacePlan(namespace).deferredSeries.sumThenReset();
+    }
+
+    private long getRemainingInCycle(CollectionCycle collectionCycle) {
+        return budgetPerCycle > 0 ? budgetPerCycle - collectionCycle.getReservedApiCalls() : Long.MAX_VALUE;
+    }
+
+    private long getRemainingInDay() {
+        return budgetPerDay > 0 ? budgetPerDay - reservedInDay : Long.MAX_VALUE;
+    }
+
+    private void rollDay() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+        if (!today.equals(day)) {
+            day = today;
+            reservedInDay = 0;
+        }
+    }
+
+    private NamespacePlan getNamespacePlan(String namespace) {
+        NamespacePlan plan = namespacePlans.get(namespace);
+
+        if (plan == null) {
+            namespacePlans.putIfAbsent(namespace, new NamespacePlan());
+            plan = namespacePlans.get(namespace);
+        }
+
+        return plan;
+    }
+
+    private static class NamespacePlan {
+
+        private final LongAdder plannedCalls = new LongAdder();
+
+        private final LongAdder plannedDatapoints = new LongAdder();
+
+        private final LongAdder deferredSeries = new LongAdder();
+    }
+}
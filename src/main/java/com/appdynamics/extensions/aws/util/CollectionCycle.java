@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider.Level;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State of a single collection of stats, created when the collection starts and
+ * passed down every level of the Namespace, Account, Region and Metric collection
+ * hierarchy, so collections running at the same time, e.g. a prefetch given up on
+ * and the collection replacing it, or the collections of two monitors, never
+ * affect each other.
+ * <p>
+ * It bounds the time the collection may take with a single deadline. Collectors
+ * wait for each task up to the configured thread timeout, but no later than the
+ * deadline of its level, keep whatever completed by then and drop the rest. The
+ * deadline of each level is a little earlier than the one of the level above it,
+ * so the partial results of a level still reach its parent before the parent's
+ * own deadline. Without a deadline, the configured thread timeouts apply.
+ * <p>
+ * It also holds the thread pools of the monitor running the collection, and the
+ * API calls reserved by the collection from the per-cycle budget of the
+ * {@link ApiCallBudgetPlanner}.
+ */
+public class CollectionCycle {
+
+    private static final long MARGIN_PER_LEVEL_IN_MILLIS = 1000L;
+
+    private final Map<String, LongAdder> droppedTasks = new ConcurrentHashMap<String, LongAdder>();
+
+    private final long deadline;
+
+    private final ExecutorServiceProvider executorServiceProvider;
+
+    private long reservedApiCalls;
+
+    /**
+     * Starts a collection which may take up to the given time ( in milliseconds ),
+     * non-positive does not bound it, running on the shared thread pools
+     */
+    public CollectionCycle(long deadlineInMillis) {
+        this(deadlineInMillis, ExecutorServiceProvider.getInstance());
+    }
+
+    /**
+     * Starts a collection which may take up to the given time ( in milliseconds ),
+     * non-positive does not bound it, running on the thread pools of the given provider
+     */
+    public CollectionCycle(long deadlineInMillis, ExecutorServiceProvider executorServiceProvider) {
+        this.deadline = deadlineInMillis > 0 ? System.currentTimeMillis() + deadlineInMillis : 0;
+        this.executorServiceProvider = executorServiceProvider;
+    }
+
+    public ExecutorServiceProvider getExecutorServiceProvider() {
+        return executorServiceProvider;
+    }
+
+    /**
+     * Returns whether the collection is bounded by a deadline
+     */
+    public boolean hasDeadline() {
+        return deadline != 0;
+    }
+
+    /**
+     * Returns how long ( in milliseconds ) to wait for a task of the given level, i.e. the thread
+     * timeout, shortened to the deadline of the level if any. A non-positive thread timeout only
+     * waits until the deadline
+     */
+    public long getTimeoutInMillis(Level level, int threadTimeOutInSecs) {
+        long threadTimeOutInMillis = TimeUnit.SECONDS.toMillis(threadTimeOutInSecs);
+
+        if (!hasDeadline()) {
+            return threadTimeOutInMillis;
+        }
+
+        long remainingInMillis = Math.max(getLevelDeadline(level) - System.currentTimeMillis(), 0);
+
+        return threadTimeOutInMillis > 0 ? Math.min(remainingInMillis, threadTimeOutInMillis) : remainingInMillis;
+    }
+
+    /**
+     * Returns whether the deadline of the given level has passed
+     */
+    public boolean isExpired(Level level) {
+        return hasDeadline() && System.currentTimeMillis() >= getLevelDeadline(level);
+    }
+
+    public void recordDroppedTasks(String namespace, int count) {
+        if (count <= 0) {
+            return;
+        }
+
+        LongAdder namespaceDroppedTasks = droppedTasks.get(namespace);
+
+        if (namespaceDroppedTasks == null) {
+            droppedTasks.putIfAbsent(namespace, new LongAdder());
+            namespaceDroppedTasks = droppedTasks.get(namespace);
+        }
+
+        namespaceDroppedTasks.add(count);
+    }
+
+    /**
+     * Returns the tasks of the namespace dropped in this collection
+     */
+    public long getDroppedTasks(String namespace) {
+        LongAdder namespaceDroppedTasks = droppedTasks.get(namespace);
+
+        return namespaceDroppedTasks != null ? namespaceDroppedTasks.sum() : 0;
+    }
+
+    /**
+     * Returns the API calls reserved in this collection, guarded by the {@link ApiCallBudgetPlanner}
+     */
+    long getReservedApiCalls() {
+        return reservedApiCalls;
+    }
+
+    void addReservedApiCalls(long calls) {
+        reservedApiCalls += calls;
+    }
+
+    private long getLevelDeadline(Level level) {
+        return deadline - level.ordinal() * MARGIN_PER_LEVEL_IN_MILLIS;
+    }
+}
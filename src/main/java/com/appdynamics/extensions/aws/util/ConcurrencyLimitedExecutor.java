@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on a shared executor, with at most the given number of them
+ * running at the same time. Further tasks are queued here, in submission order,
+ * until a running task completes, so no thread of the shared executor is held
+ * by a waiting task.
+ */
+public class ConcurrencyLimitedExecutor implements Executor {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(ConcurrencyLimitedExecutor.class);
+
+    private final Executor executor;
+
+    private final int maxConcurrency;
+
+    private final Queue<Runnable> queuedTasks = new ArrayDeque<Runnable>();
+
+    private int runningTasks;
+
+    public ConcurrencyLimitedExecutor(Executor executor, int maxConcurrency) {
+        this.executor = executor;
+        this.maxConcurrency = Math.max(maxConcurrency, 1);
+    }
+
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (runningTasks >= maxConcurrency) {
+                queuedTasks.add(task);
+                return;
+            }
+
+            runningTasks++;
+        }
+
+        try {
+            executor.execute(wrap(task));
+
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                runningTasks--;
+            }
+
+            throw e;
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    private Runnable wrap(final Runnable task) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+
+                } finally {
+                    executeNext();
+                }
+            }
+        };
+    }
+
+    private void executeNext() {
+        while (true) {
+            Runnable nextTask;
+
+            synchronized (this) {
+                nextTask = queuedTasks.poll();
+
+                if (nextTask == null) {
+                    runningTasks--;
+                    return;
+                }
+            }
+
+            try {
+                executor.execute(wrap(nextTask));
+                return;
+
+            } catch (RejectedExecutionException e) {
+                LOGGER.error("Queued task rejected by the shared executor", e);
+            }
+        }
+    }
+}
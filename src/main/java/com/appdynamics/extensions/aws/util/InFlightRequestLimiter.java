@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of asynchronous requests in flight at the same time.
+ * <p>
+ * Requests are sent from the calling thread, which waits for a request
+ * in flight to complete when the limit is reached, so the requests of a
+ * region are throttled without holding a thread per request.
+ */
+public class InFlightRequestLimiter {
+
+    private final Semaphore permits;
+
+    private final int maxInFlightRequests;
+
+    public InFlightRequestLimiter(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests > 0 ?
+                maxInFlightRequests : DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION;
+        this.permits = new Semaphore(this.maxInFlightRequests);
+    }
+
+    /**
+     * Sends the request once one of the permits is available, the permit
+     * is released as soon as the returned future completes
+     *
+     * @param request sends the request and returns its pending response
+     * @return the pending response, or a failed future if the caller is
+     * interrupted while waiting or the request cannot be sent
+     */
+    public <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> request) {
+        try {
+            permits.acquire();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failedFuture(e);
+        }
+
+        CompletableFuture<T> response;
+
+        try {
+            response = request.get();
+
+        } catch (RuntimeException e) {
+            permits.release();
+            return failedFuture(e);
+        }
+
+        // completed from the response rather than derived from it, a dependent stage
+        // cancelled before the response completes would never release the permit
+        final CompletableFuture<T> limitedResponse = new CompletableFuture<T>();
+
+        response.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T result, Throwable throwable) {
+                permits.release();
+
+                if (throwable != null) {
+                    limitedResponse.completeExceptionally(throwable);
+                } else {
+                    limitedResponse.complete(result);
+                }
+            }
+        });
+
+        propagateCancellation(limitedResponse, response);
+        return limitedResponse;
+    }
+
+    /**
+     * Cancels the source future when the dependent future is cancelled, so cancelling
+     * the future of a response aborts its request, which releases its permit
+     */
+    public static void propagateCancellation(CompletableFuture<?> dependent, final Future<?> source) {
+        dependent.whenComplete(new BiConsumer<Object, Throwable>() {
+            public void accept(Object result, Throwable throwable) {
+                if (throwable instanceof CancellationException) {
+                    source.cancel(true);
+                }
+            }
+        });
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public int getInFlightRequests() {
+        return maxInFlightRequests - permits.availablePermits();
+    }
+
+    public static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.appdynamics.extensions.aws.Constants.MAX_METRIC_DATA_QUERIES_PER_REQUEST;
+
+/**
+ * Compact GetMetricData query ids, made of a lowercase letter prefix followed by
+ * the index of the query in its batch in base 36, e.g. "m0", "mz", "m10".
+ * <p>
+ * The index of a result is parsed back from its id without any lookup, so results
+ * can be written straight into arrays indexed by query. The ids of a full request
+ * are created once per prefix and shared.
+ */
+public class QueryIds {
+
+    private static final int RADIX = Character.MAX_RADIX;
+
+    private static final AtomicReferenceArray<String[]> CACHED_QUERY_IDS =
+            new AtomicReferenceArray<String[]>('z' - 'a' + 1);
+
+    /**
+     * Returns the query id of the given index
+     *
+     * @param prefix a lowercase letter, as query ids must start with one
+     * @param index  the index of the query
+     */
+    public static String toQueryId(char prefix, int index) {
+        if (prefix < 'a' || prefix > 'z' || index < 0) {
+            throw new IllegalArgumentException(String.format("Invalid query id prefix [%s] or index [%s]",
+                    prefix, index));
+        }
+
+        if (index >= MAX_METRIC_DATA_QUERIES_PER_REQUEST) {
+            return prefix + Integer.toString(index, RADIX);
+        }
+
+        return getCachedQueryIds(prefix)[index];
+    }
+
+    /**
+     * Returns the index of the query id, or -1 if the id was not created
+     * with the given prefix
+     */
+    public static int toIndex(String queryId, char prefix) {
+        int length = queryId != null ? queryId.length() : 0;
+
+        if (length < 2 || queryId.charAt(0) != prefix) {
+            return -1;
+        }
+
+        int index = 0;
+
+        for (int position = 1; position < length; position++) {
+            int digit = Character.digit(queryId.charAt(position), RADIX);
+
+            if (digit < 0 || index > (Integer.MAX_VALUE - digit) / RADIX) {
+                return -1;
+            }
+
+            index = index * RADIX + digit;
+        }
+
+        return index;
+    }
+
+    private static String[] getCachedQueryIds(char prefix) {
+        String[] queryIds = CACHED_QUERY_IDS.get(prefix - 'a');
+
+        if (queryIds == null) {
+            queryIds = new String[MAX_METRIC_DATA_QUERIES_PER_REQUEST];
+
+            for (int index = 0; index < queryIds.length; index++) {
+                queryIds[index] = prefix + Integer.toString(index, RADIX);
+            }
+
+            // racing threads create identical arrays
+            CACHED_QUERY_IDS.set(prefix - 'a', queryIds);
+        }
+
+        return queryIds;
+    }
+}
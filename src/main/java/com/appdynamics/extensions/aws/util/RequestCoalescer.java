@@ -0,0 +1,337 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight layer in front of CloudWatch requests, shared by all namespaces and
+ * monitors loaded with this library.
+ * <p>
+ * Concurrent identical requests, i.e. the same request sent with the same CloudWatch client,
+ * share a single call and its result. The result is then reused by identical requests
+ * for the configured TTL. Failed calls are not reused. Requests sent with the asynchronous
+ * client are coalesced the same way, without blocking the callers.
+ * <p>
+ * Coalescing is disabled until {@link #initialise(int)} is called with a non-negative TTL.
+ */
+public class RequestCoalescer {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(RequestCoalescer.class);
+
+    private static RequestCoalescer instance;
+
+    private final Map<List<Object>, Flight> flights = new ConcurrentHashMap<List<Object>, Flight>();
+
+    private final Map<List<Object>, AsyncFlight> asyncFlights = new ConcurrentHashMap<List<Object>, AsyncFlight>();
+
+    private volatile boolean enabled;
+
+    private volatile long ttlInMillis;
+
+    private volatile long lastEvictionTime;
+
+    private RequestCoalescer() {
+    }
+
+    public static synchronized RequestCoalescer getInstance() {
+        if (instance == null) {
+            instance = new RequestCoalescer();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets how long ( in seconds ) results are reused. 0 only shares in-flight
+     * requests and a negative TTL disables coalescing.
+     */
+    public void initialise(int ttlInSecs) {
+        boolean newEnabled = ttlInSecs >= 0;
+        long newTtlInMillis = TimeUnit.SECONDS.toMillis(Math.max(ttlInSecs, 0));
+
+        if (newEnabled != enabled || newTtlInMillis != ttlInMillis) {
+            enabled = newEnabled;
+            ttlInMillis = newTtlInMillis;
+            flights.clear();
+            asyncFlights.clear();
+
+            LOGGER.info(String.format("Request coalescing %s with TTL [%s] secs",
+                    enabled ? "enabled" : "disabled", ttlInSecs));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the result of the call, shared with identical requests
+     * in flight or completed within the TTL
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(CloudWatchClient awsCloudWatch, Object request, Callable<T> call) {
+        if (!enabled) {
+            return callDirectly(call);
+        }
+
+        long now = System.currentTimeMillis();
+        evictExpiredFlights(now);
+
+        List<Object> key = Arrays.<Object>asList(awsCloudWatch, request);
+        Flight flight = flights.get(key);
+
+        if (flight != null && flight.isExpired(now, ttlInMillis)) {
+            flights.remove(key, flight);
+            flight = null;
+        }
+
+        if (flight == null) {
+            Flight newFlight = new Flight((Callable<Object>) call);
+            flight = flights.putIfAbsent(key, newFlight);
+
+            if (flight == null) {
+                flight = newFlight;
+                flight.run();
+
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Coalesced request [%s]", request));
+            }
+        }
+
+        try {
+            return (T) flight.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AwsException("Interrupted while waiting for coalesced request", e);
+
+        } catch (ExecutionException e) {
+            // a failure is only shared with the requests already waiting for it
+            flights.remove(key, flight);
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new AwsException("Error executing coalesced request", e.getCause());
+        }
+    }
+
+    /**
+     * Same as {@link #execute(CloudWatchClient, Object, Callable)} for requests sent with the
+     * asynchronous client. Cancelling the response of the request that was actually sent aborts
+     * it, whereas cancelling a shared response only detaches its caller from the call.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(CloudWatchAsyncClient awsCloudWatchAsync, Object request,
+                                                 Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        long now = System.currentTimeMillis();
+        evictExpiredFlights(now);
+
+        final List<Object> key = Arrays.<Object>asList(awsCloudWatchAsync, request);
+        AsyncFlight flight = asyncFlights.get(key);
+
+        if (flight != null && flight.isExpired(now, ttlInMillis)) {
+            asyncFlights.remove(key, flight);
+            flight = null;
+        }
+
+        if (flight == null) {
+            final AsyncFlight newFlight = new AsyncFlight();
+            flight = asyncFlights.putIfAbsent(key, newFlight);
+
+            if (flight == null) {
+                CompletableFuture<T> response;
+
+                try {
+                    response = call.get();
+
+                } catch (RuntimeException e) {
+                    asyncFlights.remove(key, newFlight);
+                    newFlight.result.completeExceptionally(e);
+                    throw e;
+                }
+
+                response.whenComplete(new BiConsumer<T, Throwable>() {
+                    public void accept(T result, Throwable throwable) {
+                        if (throwable != null) {
+                            // a failure is only shared with the requests already waiting for it
+                            asyncFlights.remove(key, newFlight);
+                            newFlight.result.completeExceptionally(throwable);
+
+                        } else {
+                            newFlight.result.complete(result);
+                        }
+
+                        newFlight.completedAt = System.currentTimeMillis();
+                    }
+                });
+
+                return response;
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Coalesced request [%s]", request));
+        }
+
+        final CompletableFuture<T> sharedResponse = new CompletableFuture<T>();
+
+        flight.result.whenComplete(new BiConsumer<Object, Throwable>() {
+            public void accept(Object result, Throwable throwable) {
+                if (throwable != null) {
+                    sharedResponse.completeExceptionally(throwable);
+                } else {
+                    sharedResponse.complete((T) result);
+                }
+            }
+        });
+
+        return sharedResponse;
+    }
+
+    /**
+     * Sends the GetMetricStatistics request, counting it unless its result is shared
+     */
+    public GetMetricStatisticsResponse getMetricStatistics(final CloudWatchClient awsCloudWatch,
+                                                           final GetMetricStatisticsRequest request,
+                                                           final LongAdder awsRequestsCounter) {
+        return execute(awsCloudWatch, request, new Callable<GetMetricStatisticsResponse>() {
+            public GetMetricStatisticsResponse call() {
+                GetMetricStatisticsResponse response = awsCloudWatch.getMetricStatistics(request);
+                awsRequestsCounter.increment();
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Sends the GetMetricData request, counting it unless its result is shared
+     */
+    public GetMetricDataResponse getMetricData(final CloudWatchClient awsCloudWatch,
+                                               final GetMetricDataRequest request,
+                                               final LongAdder awsRequestsCounter) {
+        return execute(awsCloudWatch, request, new Callable<GetMetricDataResponse>() {
+            public GetMetricDataResponse call() {
+                GetMetricDataResponse response = awsCloudWatch.getMetricData(request);
+                awsRequestsCounter.increment();
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Sends the GetMetricStatistics request with the asynchronous client once the limiter
+     * allows it, counting it unless its result is shared
+     */
+    public CompletableFuture<GetMetricStatisticsResponse> getMetricStatisticsAsync(
+            final CloudWatchAsyncClient awsCloudWatchAsync, final GetMetricStatisticsRequest request,
+            final InFlightRequestLimiter requestLimiter, final LongAdder awsRequestsCounter) {
+        return executeAsync(awsCloudWatchAsync, request, new Supplier<CompletableFuture<GetMetricStatisticsResponse>>() {
+            public CompletableFuture<GetMetricStatisticsResponse> get() {
+                return requestLimiter.send(new Supplier<CompletableFuture<GetMetricStatisticsResponse>>() {
+                    public CompletableFuture<GetMetricStatisticsResponse> get() {
+                        awsRequestsCounter.increment();
+                        return awsCloudWatchAsync.getMetricStatistics(request);
+                    }
+                });
+            }
+        });
+    }
+
+    private <T> T callDirectly(Callable<T> call) {
+        try {
+            return call.call();
+
+        } catch (RuntimeException e) {
+            throw e;
+
+        } catch (Exception e) {
+            throw new AwsException("Error executing request", e);
+        }
+    }
+
+    private void evictExpiredFlights(long now) {
+        if (now - lastEvictionTime < Math.max(ttlInMillis, 1000L)) {
+            return;
+        }
+
+        lastEvictionTime = now;
+        Iterator<Flight> iterator = flights.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now, ttlInMillis)) {
+                iterator.remove();
+            }
+        }
+
+        Iterator<AsyncFlight> asyncIterator = asyncFlights.values().iterator();
+
+        while (asyncIterator.hasNext()) {
+            if (asyncIterator.next().isExpired(now, ttlInMillis)) {
+                asyncIterator.remove();
+            }
+        }
+    }
+
+    private static class Flight extends FutureTask<Object> {
+
+        private volatile long completedAt = Long.MAX_VALUE;
+
+        private Flight(Callable<Object> call) {
+            super(call);
+        }
+
+        @Override
+        protected void done() {
+            completedAt = System.currentTimeMillis();
+        }
+
+        private boolean isExpired(long now, long ttlInMillis) {
+            return completedAt != Long.MAX_VALUE && now - completedAt >= ttlInMillis;
+        }
+    }
+
+    private static class AsyncFlight {
+
+        private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+        private volatile long completedAt = Long.MAX_VALUE;
+
+        private boolean isExpired(long now, long ttlInMillis) {
+            return completedAt != Long.MAX_VALUE && now - completedAt >= ttlInMillis;
+        }
+    }
+}
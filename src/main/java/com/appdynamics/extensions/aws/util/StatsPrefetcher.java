@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import com.appdynamics.extensions.aws.providers.PublishLagTracker;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.metrics.Metric;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects the stats of the next upload ahead of it, so each monitor run only uploads
+ * stats which are already collected.
+ * <p>
+ * After each upload, the next collection is scheduled to complete, with the configured
+ * lead time, just before the next upload is expected. It is never started before the
+ * newest period expected by the next upload is published, according to the publish lag
+ * learnt by the {@link PublishLagTracker}, so prefetching does not return older datapoints
+ * than collecting at upload time would.
+ * <p>
+ * Stats are collected at upload time when prefetching is disabled, i.e. the lead time
+ * is not positive, when the first collection is not yet timed, or when the upload runs
+ * before the prefetch started.
+ * <p>
+ * A prefetch collects the stats with the config of the upload which scheduled it, so a
+ * config reloaded in the meantime is never read while the stats are collected.
+ *
+ * @param <C> type of the config the stats are collected with
+ */
+public class StatsPrefetcher<C> {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(StatsPrefetcher.class);
+
+    private static final double FETCH_DURATION_WEIGHT = 0.3;
+
+    private static final long UNKNOWN = -1;
+
+    private final ScheduledExecutorService prefetchExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("StatsPrefetcher-%d").setDaemon(true).build());
+
+    private final StatsCollector<C> statsCollector;
+
+    private ScheduledFuture<List<Metric>> prefetch;
+
+    private volatile long expectedCollectionTimeInMillis = UNKNOWN;
+
+    private volatile int leadTimeInSecs;
+
+    private volatile int uploadIntervalInSecs;
+
+    private volatile int periodInSecs;
+
+    public StatsPrefetcher(StatsCollector<C> statsCollector) {
+        this.statsCollector = statsCollector;
+    }
+
+    /**
+     * Collects the stats of an upload with the given config
+     */
+    public interface StatsCollector<C> {
+
+        List<Metric> collectStats(C config) throws Exception;
+    }
+
+    /**
+     * Sets how long ( in seconds ) before the next upload the prefetch should complete,
+     * a non-positive lead time disables prefetching, the interval between uploads and
+     * the period of the collected datapoints. Any pending prefetch is cancelled.
+     */
+    public synchronized void initialise(int leadTimeInSecs, int uploadIntervalInSecs, int periodInSecs) {
+        cancelPrefetch();
+
+        if (leadTimeInSecs != this.leadTimeInSecs || uploadIntervalInSecs != this.uploadIntervalInSecs
+                || periodInSecs != this.periodInSecs) {
+            this.leadTimeInSecs = leadTimeInSecs;
+            this.uploadIntervalInSecs = uploadIntervalInSecs;
+            this.periodInSecs = periodInSecs;
+
+            LOGGER.info(String.format("Stats prefetching initialised with lead time [%s] secs upload interval [%s] "
+                    + "secs period [%s] secs", leadTimeInSecs, uploadIntervalInSecs, periodInSecs));
+        }
+    }
+
+    public boolean isEnabled() {
+        return leadTimeInSecs > 0 && uploadIntervalInSecs > 0;
+    }
+
+    /**
+     * Returns the stats prefetched for this upload, waiting for the prefetch to
+     * complete if still running, or collects them now if none was started,
+     * then schedules the prefetch of the next upload
+     *
+     * @param config the config of this upload, which the prefetch of the next upload uses too
+     */
+    public List<Metric> getStats(C config) throws Exception {
+        ScheduledFuture<List<Metric>> currentPrefetch;
+
+        synchronized (this) {
+            currentPrefetch = prefetch;
+            prefetch = null;
+        }
+
+        List<Metric> stats = null;
+
+        if (currentPrefetch != null) {
+            if (currentPrefetch.getDelay(TimeUnit.MILLISECONDS) > 0 && currentPrefetch.cancel(false)) {
+                LOGGER.debug("Upload started before the stats prefetch, collecting stats now");
+
+            } else {
+                stats = getPrefetchedStats(currentPrefetch);
+            }
+        }
+
+        if (stats == null) {
+            stats = collectStats(config);
+        }
+
+        if (isEnabled()) {
+            schedulePrefetch(System.currentTimeMillis(), config);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Returns the delay ( in milliseconds ) after which the prefetch of the next upload starts
+     *
+     * @param now                            current time
+     * @param nextUploadTime                 expected time of the next upload
+     * @param publishLagInMillis             time after the end of a period its datapoints are published
+     * @param periodInMillis                 period of the collected datapoints
+     * @param expectedCollectionTimeInMillis expected time to collect the stats
+     * @param leadTimeInMillis               time before the next upload the stats should be collected
+     */
+    static long getPrefetchDelayInMillis(long now, long nextUploadTime, long publishLagInMillis, long periodInMillis,
+                                         long expectedCollectionTimeInMillis, long leadTimeInMillis) {
+        long startTime = nextUploadTime - expectedCollectionTimeInMillis - leadTimeInMillis;
+
+        if (periodInMillis > 0) {
+            // the newest period published by the next upload must not be missed
+            long newestPeriodEndTime = Math.floorDiv(nextUploadTime - publishLagInMillis, periodInMillis)
+                    * periodInMillis;
+            startTime = Math.max(startTime, newestPeriodEndTime + publishLagInMillis);
+        }
+
+        return Math.max(startTime - now, 0);
+    }
+
+    private List<Metric> getPrefetchedStats(ScheduledFuture<List<Metric>> currentPrefetch) {
+        try {
+            return currentPrefetch.get(uploadIntervalInSecs, TimeUnit.SECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            currentPrefetch.cancel(true);
+
+        } catch (ExecutionException e) {
+            LOGGER.error("Stats prefetch failed, collecting stats now", e.getCause());
+
+        } catch (TimeoutException e) {
+            LOGGER.error("Stats prefetch timed out, collecting stats now");
+            currentPrefetch.cancel(true);
+        }
+
+        return null;
+    }
+
+    private List<Metric> collectStats(C config) throws Exception {
+        long startTime = System.currentTimeMillis();
+
+        try {
+            return statsCollector.collectStats(config);
+
+        } finally {
+            long collectionTimeInMillis = System.currentTimeMillis() - startTime;
+            long expected = expectedCollectionTimeInMillis;
+
+            expectedCollectionTimeInMillis = expected == UNKNOWN ? collectionTimeInMillis :
+                    Math.round(expected + FETCH_DURATION_WEIGHT * (collectionTimeInMillis - expected));
+        }
+    }
+
+    private synchronized void schedulePrefetch(long now, final C config) {
+        if (expectedCollectionTimeInMillis == UNKNOWN || prefetch != null) {
+            return;
+        }
+
+        long delayInMillis = getPrefetchDelayInMillis(now,
+                now + TimeUnit.SECONDS.toMillis(uploadIntervalInSecs),
+                PublishLagTracker.getInstance().getMaxPublishLagInMillis(),
+                TimeUnit.SECONDS.toMillis(periodInSecs),
+                expectedCollectionTimeInMillis,
+                TimeUnit.SECONDS.toMillis(leadTimeInSecs));
+
+        prefetch = prefetchExecutor.schedule(new Callable<List<Metric>>() {
+            public List<Metric> call() throws Exception {
+                return collectStats(config);
+            }
+        }, delayInMillis, TimeUnit.MILLISECONDS);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Stats of the next upload prefetched in [%s] ms", delayInMillis));
+        }
+    }
+
+    private void cancelPrefetch() {
+        if (prefetch != null) {
+            prefetch.cancel(true);
+            prefetch = null;
+        }
+    }
+}
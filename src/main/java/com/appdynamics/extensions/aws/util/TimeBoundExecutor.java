@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_THREAD_TIMEOUT;
+
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider.Level;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on the executor of a collector, and tells whoever submits them how long
+ * to wait for each of them, i.e. the thread timeout of the collector shortened to
+ * the deadline of its level in the current collection.
+ * <p>
+ * Handed to the metrics processors, so the ListMetrics partitions they run
+ * concurrently are given up on with the rest of the collector's tasks.
+ */
+public class TimeBoundExecutor implements Executor {
+
+    private final Executor executor;
+
+    private final CollectionCycle collectionCycle;
+
+    private final Level level;
+
+    private final int threadTimeOutInSecs;
+
+    public TimeBoundExecutor(Executor executor, CollectionCycle collectionCycle, Level level, int threadTimeOutInSecs) {
+        this.executor = executor;
+        this.collectionCycle = collectionCycle;
+        this.level = level;
+        this.threadTimeOutInSecs = threadTimeOutInSecs;
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Returns how long ( in milliseconds ) to wait for the next task
+     */
+    public long getTimeoutInMillis() {
+        return collectionCycle.getTimeoutInMillis(level, threadTimeOutInSecs);
+    }
+
+    /**
+     * Returns how long ( in milliseconds ) to wait for the next task run on the given executor,
+     * the default thread timeout unless it is time bound
+     */
+    public static long getTimeoutInMillis(Executor executor) {
+        return executor instanceof TimeBoundExecutor ? ((TimeBoundExecutor) executor).getTimeoutInMillis() :
+                TimeUnit.SECONDS.toMillis(DEFAULT_THREAD_TIMEOUT);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads when the runtime supports them (Java 21 onwards).
+ * <p>
+ * The extension is built for Java 8, so the virtual thread builder
+ * is looked up by reflection and callers fall back to platform threads
+ * when it is not available.
+ */
+public class VirtualThreadSupport {
+
+    private static Logger LOGGER = ExtensionsLoggerFactory.getLogger(VirtualThreadSupport.class);
+
+    private static final Method OF_VIRTUAL_METHOD;
+
+    private static final Method NAME_METHOD;
+
+    private static final Method FACTORY_METHOD;
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+
+        try {
+            Class<?> threadBuilderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            nameMethod = threadBuilderClass.getMethod("name", String.class, long.class);
+            factoryMethod = threadBuilderClass.getMethod("factory");
+
+            // preview releases expose the methods but refuse to create virtual threads
+            ofVirtualMethod.invoke(null);
+
+        } catch (Throwable e) {
+            LOGGER.debug("Virtual threads are not supported by this runtime", e);
+            ofVirtualMethod = null;
+        }
+
+        OF_VIRTUAL_METHOD = ofVirtualMethod;
+        NAME_METHOD = nameMethod;
+        FACTORY_METHOD = factoryMethod;
+    }
+
+    private VirtualThreadSupport() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL_METHOD != null;
+    }
+
+    /**
+     * Returns a factory of virtual threads named with the given
+     * prefix and a sequence number, null if not supported
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        if (!isSupported()) {
+            return null;
+        }
+
+        try {
+            Object threadBuilder = OF_VIRTUAL_METHOD.invoke(null);
+            threadBuilder = NAME_METHOD.invoke(threadBuilder, namePrefix, 0L);
+            return (ThreadFactory) FACTORY_METHOD.invoke(threadBuilder);
+
+        } catch (Exception e) {
+            LOGGER.error(String.format("Unable to create virtual thread factory [%s]", namePrefix), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns an executor starting a new virtual thread per task, null if not supported
+     */
+    public static Executor newThreadPerTaskExecutor(String namePrefix) {
+        final ThreadFactory threadFactory = newThreadFactory(namePrefix);
+
+        if (threadFactory == null) {
+            return null;
+        }
+
+        return new Executor() {
+            public void execute(Runnable task) {
+                threadFactory.newThread(task).start();
+            }
+        };
+    }
+}
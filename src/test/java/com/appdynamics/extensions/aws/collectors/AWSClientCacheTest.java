@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static com.appdynamics.extensions.aws.Constants.DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.appdynamics.extensions.aws.util.InFlightRequestLimiter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AWSClientCacheTest {
+
+    private static final String ENDPOINT = "https://monitoring.us-east-1.amazonaws.com";
+
+    private static final String SETTINGS = "settings";
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    @Mock
+    private CloudWatchAsyncClient mockAwsCloudWatchAsync;
+
+    private AWSClientCache classUnderTest = new AWSClientCache();
+
+    @Test
+    public void testAccountsInSameRegionDoNotShareClients() {
+        String firstAccountKey = AWSClientCache.getClientKey("account1", ENDPOINT, SETTINGS);
+        String secondAccountKey = AWSClientCache.getClientKey("account2", ENDPOINT, SETTINGS);
+
+        classUnderTest.put(firstAccountKey, mockAwsCloudWatch);
+        classUnderTest.putAsync(firstAccountKey, mockAwsCloudWatchAsync);
+
+        assertNotEquals(firstAccountKey, secondAccountKey);
+        assertSame(mockAwsCloudWatch, classUnderTest.get(firstAccountKey));
+        assertNull(classUnderTest.get(secondAccountKey));
+        assertNull(classUnderTest.getAsync(secondAccountKey));
+    }
+
+    @Test
+    public void testRequestLimiterAndAsyncClientAreRebuiltWhenLimitChanges() {
+        String clientKey = AWSClientCache.getClientKey("account1", ENDPOINT, SETTINGS);
+        String key = AWSClientCache.getAsyncClientKey(clientKey, 10);
+        InFlightRequestLimiter requestLimiter = classUnderTest.getRequestLimiter(key, 10);
+        classUnderTest.putAsync(key, mockAwsCloudWatchAsync);
+
+        assertSame(requestLimiter, classUnderTest.getRequestLimiter(key, 10));
+
+        String reloadedKey = AWSClientCache.getAsyncClientKey(clientKey, 20);
+        InFlightRequestLimiter reloadedRequestLimiter = classUnderTest.getRequestLimiter(reloadedKey, 20);
+
+        assertNotEquals(key, reloadedKey);
+        assertEquals(20, reloadedRequestLimiter.getMaxInFlightRequests());
+        // the connections of the asynchronous client were sized to the previous limit
+        assertNull(classUnderTest.getAsync(reloadedKey));
+        // but it may still be sending requests, so it is only closed once it expires
+        assertSame(mockAwsCloudWatchAsync, classUnderTest.getAsync(key));
+        verify(mockAwsCloudWatchAsync, never()).close();
+    }
+
+    @Test
+    public void testDefaultLimitIsPartOfTheAsyncClientKey() {
+        String clientKey = AWSClientCache.getClientKey("account1", ENDPOINT, SETTINGS);
+
+        assertEquals(AWSClientCache.getAsyncClientKey(clientKey, 0),
+                AWSClientCache.getAsyncClientKey(clientKey, DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION));
+        assertEquals(DEFAULT_MAX_IN_FLIGHT_REQUESTS_PER_REGION, classUnderTest.getRequestLimiter(
+                AWSClientCache.getAsyncClientKey(clientKey, 0), 0).getMaxInFlightRequests());
+    }
+
+    @Test
+    public void testClientsAreNotReusedWhenClientSettingsChange() {
+        String key = AWSClientCache.getClientKey("account1", ENDPOINT, SETTINGS);
+        String reloadedKey = AWSClientCache.getClientKey("account1", ENDPOINT, "reloadedSettings");
+
+        classUnderTest.put(key, mockAwsCloudWatch);
+        classUnderTest.putAsync(key, mockAwsCloudWatchAsync);
+
+        assertNotEquals(key, reloadedKey);
+        assertNull(classUnderTest.get(reloadedKey));
+        assertNull(classUnderTest.getAsync(reloadedKey));
+    }
+}
@@ -8,16 +8,18 @@
 package com.appdynamics.extensions.aws.collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 import com.appdynamics.extensions.aws.config.AwsClientConfig;
-import com.appdynamics.extensions.executorservice.MonitorThreadPoolExecutor;
 import com.appdynamics.extensions.aws.config.Account;
 import com.appdynamics.extensions.aws.config.IncludeMetric;
 import com.appdynamics.extensions.aws.config.MetricsTimeRange;
@@ -27,12 +29,14 @@ import com.appdynamics.extensions.aws.metric.AccountMetricStatistics;
 import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.RateLimiter;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
-import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -41,9 +45,7 @@ import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 
 @RunWith(PowerMockRunner.class)
@@ -106,6 +108,16 @@ public class AccountMetricStatisticsCollectorTest {
         when(mockBuilder.withRateLimiter(any(RateLimiter.class))).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(any(LongAdder.class))).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseGetMetricData(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withLatestDatapointOnly(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withAggregateMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseSearchExpressions(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withIncludeMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withDefaultPeriodInSec(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withBackfillMaxWindowInMins(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseAsyncClient(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withMaxInFlightRequestsPerRegion(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withLinkedAccounts(anyMap())).thenReturn(mockBuilder);
 
         when(mockBuilder.build()).thenReturn(mockRegionStatsCollector1, mockRegionStatsCollector2);
 
@@ -152,7 +164,7 @@ public class AccountMetricStatisticsCollectorTest {
     }
 
     @Test()
-    public void testThreadPoolShutdown() throws Exception {
+    public void testRegionsAreCollectedOnSharedThreads() throws Exception {
         Account testAccount = new Account();
         testAccount.setAwsAccessKey("testAccessKey");
         testAccount.setAwsSecretKey("testAwsSecretKey");
@@ -167,7 +179,13 @@ public class AccountMetricStatisticsCollectorTest {
 
         RegionMetricStatisticsCollector mockRegionStatsCollector1 = mock(RegionMetricStatisticsCollector.class);
         RegionMetricStatistics regionStats1 = createTestMetricStatistics("region1");
-        when(mockRegionStatsCollector1.call()).thenReturn(regionStats1);
+        final AtomicReference<String> collectingThreadName = new AtomicReference<String>();
+        when(mockRegionStatsCollector1.call()).thenAnswer(new Answer<RegionMetricStatistics>() {
+            public RegionMetricStatistics answer(InvocationOnMock invocation) {
+                collectingThreadName.set(Thread.currentThread().getName());
+                return regionStats1;
+            }
+        });
 
         RegionMetricStatisticsCollector mockRegionStatsCollector2 = mock(RegionMetricStatisticsCollector.class);
         RegionMetricStatistics regionStats2 = createTestMetricStatistics("region2");
@@ -187,6 +205,16 @@ public class AccountMetricStatisticsCollectorTest {
         when(mockBuilder.withRateLimiter(any(RateLimiter.class))).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(any(LongAdder.class))).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseGetMetricData(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withLatestDatapointOnly(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withAggregateMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseSearchExpressions(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withIncludeMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withDefaultPeriodInSec(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withBackfillMaxWindowInMins(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseAsyncClient(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withMaxInFlightRequestsPerRegion(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withLinkedAccounts(anyMap())).thenReturn(mockBuilder);
 
         when(mockBuilder.build()).thenReturn(mockRegionStatsCollector1, mockRegionStatsCollector2);
 
@@ -202,19 +230,11 @@ public class AccountMetricStatisticsCollectorTest {
                 .withThreadTimeOut(3000)
                 .build();
 
-        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
-        MonitorThreadPoolExecutor executorService = new MonitorThreadPoolExecutor(threadPoolExecutor);
-
-        MonitorThreadPoolExecutor executorServiceSpy = Mockito.spy(executorService);
-
-        whenNew(MonitorThreadPoolExecutor.class).withArguments(any(ScheduledThreadPoolExecutor.class)).thenReturn(executorServiceSpy);
-
         AccountMetricStatistics result = classUnderTest.call();
         assertEquals(testAccount.getDisplayAccountName(), result.getAccountName());
         assertEquals(regionStats1, result.getRegionMetricStatisticsList().get(0));
         assertEquals(regionStats2, result.getRegionMetricStatisticsList().get(1));
 
-        //Test if shutdown was called once on MonitorThreadPoolExecutor
-        verify(executorServiceSpy, Mockito.times(1)).shutdown();
+        assertTrue(collectingThreadName.get().startsWith(ExecutorServiceProvider.Level.REGION.getThreadName()));
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.config.AggregateMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.StatusCode;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AggregateMetricStatisticsCollectorTest {
+
+    private AggregateMetricStatisticsCollector classUnderTest;
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @Test
+    public void testAggregatesAreRetrievedAsSearchExpressions() throws Exception {
+        Instant now = DateTime.now().toDate().toInstant();
+        Instant fiveMinsAgo = DateTime.now().minusMinutes(5).toDate().toInstant();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(
+                GetMetricDataResponse.builder().metricDataResults(MetricDataResult.builder()
+                        .id("a0")
+                        .timestamps(fiveMinsAgo, now)
+                        .values(100.0, 200.0)
+                        .statusCode(StatusCode.COMPLETE)
+                        .build()).build());
+
+        AggregateMetric networkIn = createAggregateMetric("NetworkIn", "sum", "sum");
+
+        Map<String, String> dimensionValues = Maps.newHashMap();
+        dimensionValues.put("AutoScalingGroupName", "my-asg");
+        AggregateMetric cpuUtilization = createAggregateMetric("CPUUtilization", "ave", "max");
+        cpuUtilization.setDimensionNames(Lists.newArrayList("AutoScalingGroupName"));
+        cpuUtilization.setDimensionValues(dimensionValues);
+
+        classUnderTest = new AggregateMetricStatisticsCollector.Builder()
+                .withAccountName("testAccount")
+                .withRegion("testRegion")
+                .withNamespace("AWS/EC2")
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withAggregateMetrics(Lists.newArrayList(networkIn, cpuUtilization))
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withAWSRequestCounter(requestCounter)
+                .withPrefix("Custom Metrics|AWS|")
+                .build();
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        ArgumentCaptor<GetMetricDataRequest> request = ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(mockAwsCloudWatch).getMetricData(request.capture());
+
+        assertEquals("SUM(SEARCH('{\"AWS/EC2\",\"InstanceId\"} MetricName=\"NetworkIn\"', 'Sum', 60))",
+                request.getValue().metricDataQueries().get(0).expression());
+        assertEquals("MAX(SEARCH('{\"AWS/EC2\",\"AutoScalingGroupName\"} MetricName=\"CPUUtilization\" "
+                        + "\"AutoScalingGroupName\"=\"my-asg\"', 'Average', 60))",
+                request.getValue().metricDataQueries().get(1).expression());
+
+        assertEquals(2, result.size());
+        assertEquals(Double.valueOf(200.0), result.get(0).getValue());
+        assertEquals(Lists.newArrayList(Dimension.builder().name("Aggregate").value("SUM").build()),
+                result.get(0).getMetric().getMetric().dimensions());
+        assertNull(result.get(1).getValue());
+        assertEquals(2, result.get(1).getMetric().getMetric().dimensions().size());
+        assertEquals(1, requestCounter.intValue());
+    }
+
+    @Test
+    public void testAggregatesAreBatchedByTimeRangeAndPeriod() {
+        List<AggregateMetric> aggregateMetrics = Lists.newArrayList();
+
+        for (int index = 0; index < 7; index++) {
+            aggregateMetrics.add(createAggregateMetric("CPUUtilization" + index, "ave", "AVG"));
+        }
+
+        aggregateMetrics.get(1).setPeriodInSec(300);
+
+        List<List<AggregateMetric>> batches = AggregateMetricStatisticsCollector.createBatches(aggregateMetrics,
+                new MetricTimeRangeResolver(new MetricsTimeRange(), 60));
+
+        assertEquals(3, batches.size());
+        assertEquals(5, batches.get(0).size());
+        assertEquals(Lists.newArrayList(aggregateMetrics.get(6)), batches.get(1));
+        assertEquals(Lists.newArrayList(aggregateMetrics.get(1)), batches.get(2));
+    }
+
+    private AggregateMetric createAggregateMetric(String name, String statType, String function) {
+        AggregateMetric aggregateMetric = new AggregateMetric();
+        aggregateMetric.setName(name);
+        aggregateMetric.setStatType(statType);
+        aggregateMetric.setFunction(function);
+        aggregateMetric.setDimensionNames(Lists.newArrayList("InstanceId"));
+        return aggregateMetric;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.ScanBy;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BackfillMetricStatisticsCollectorTest {
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    @Mock
+    private MetricsProcessor mockMetricsProcessor;
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEveryDatapointOfTheGapIsStreamedPerPage() throws Exception {
+        Instant endTime = Instant.parse("2018-01-01T01:00:00Z");
+        Instant firstStartTime = endTime.minusSeconds(20 * 60);
+        Instant secondStartTime = endTime.minusSeconds(10 * 60);
+
+        GetMetricDataResponse page1 = GetMetricDataResponse.builder()
+                .metricDataResults(
+                        MetricDataResult.builder().id("b0")
+                                .timestamps(firstStartTime, firstStartTime.plusSeconds(300)).values(1.0, 2.0).build(),
+                        MetricDataResult.builder().id("b1")
+                                // older than the start time of the second series
+                                .timestamps(firstStartTime).values(3.0).build())
+                .nextToken("token")
+                .build();
+
+        GetMetricDataResponse page2 = GetMetricDataResponse.builder()
+                .metricDataResults(
+                        MetricDataResult.builder().id("b1")
+                                .timestamps(secondStartTime, secondStartTime.plusSeconds(300)).values(4.0, 5.0).build())
+                .build();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(page1, page2);
+
+        List<AWSMetric> testMetrics = getTestMetrics(2);
+
+        BackfillMetricStatisticsCollector classUnderTest = new BackfillMetricStatisticsCollector.Builder()
+                .withAccountName("testAccount")
+                .withRegion("testRegion")
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withMetrics(testMetrics)
+                .withStatTypes(Lists.newArrayList(StatisticType.AVE, StatisticType.SUM))
+                .withStartTimes(Lists.newArrayList(firstStartTime, secondStartTime))
+                .withEndTime(endTime)
+                .withPeriodInSec(300)
+                .withMetricsProcessor(mockMetricsProcessor)
+                .withRateLimiter(RateLimiter.create(100))
+                .withAWSRequestCounter(requestCounter)
+                .build();
+
+        assertEquals(Integer.valueOf(4), classUnderTest.call());
+        assertEquals(2, requestCounter.intValue());
+
+        ArgumentCaptor<GetMetricDataRequest> request = ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(mockAwsCloudWatch, times(2)).getMetricData(request.capture());
+
+        assertEquals(firstStartTime, request.getValue().startTime());
+        assertEquals(endTime, request.getValue().endTime());
+        assertEquals(ScanBy.TIMESTAMP_ASCENDING, request.getValue().scanBy());
+        assertEquals("token", request.getValue().nextToken());
+
+        ArgumentCaptor<List> pages = ArgumentCaptor.forClass(List.class);
+        verify(mockMetricsProcessor, times(2)).processBackfilledStatistics(eq("testAccount"), eq("testRegion"),
+                pages.capture());
+
+        List<MetricStatistic> firstPage = pages.getAllValues().get(0);
+        assertEquals(2, firstPage.size());
+        assertEquals(testMetrics.get(0), firstPage.get(0).getMetric());
+        assertEquals(firstStartTime, firstPage.get(0).getTimestamp());
+        assertEquals(Double.valueOf(2.0), firstPage.get(1).getValue());
+
+        List<MetricStatistic> secondPage = pages.getAllValues().get(1);
+        assertEquals(2, secondPage.size());
+        assertEquals(testMetrics.get(1), secondPage.get(0).getMetric());
+        assertEquals(secondStartTime, secondPage.get(0).getTimestamp());
+    }
+
+    private List<AWSMetric> getTestMetrics(int size) {
+        List<AWSMetric> testMetrics = Lists.newArrayList();
+
+        for (int index = 0; index < size; index++) {
+            IncludeMetric includeMetric = new IncludeMetric();
+            includeMetric.setName("testMetric" + index);
+
+            Dimension dimension = Dimension.builder().name("testDimesionName").value("testDimesionValue" + index).build();
+            Metric metric = Metric.builder().metricName("testMetric" + index).namespace("testNamespace")
+                    .dimensions(Lists.newArrayList(dimension)).build();
+
+            AWSMetric awsMetric = new AWSMetric();
+            awsMetric.setIncludeMetric(includeMetric);
+            awsMetric.setMetric(metric);
+
+            testMetrics.add(awsMetric);
+        }
+
+        return testMetrics;
+    }
+}
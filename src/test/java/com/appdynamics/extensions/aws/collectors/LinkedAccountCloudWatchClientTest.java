@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.metric.processors.MetricsProcessorHelper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LinkedAccountCloudWatchClientTest {
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    @Test
+    public void testLinkedAccountMetricsAreListedThroughMonitoringAccount() {
+        when(mockAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenReturn(
+                ListMetricsResponse.builder()
+                        .metrics(Metric.builder().namespace("AWS/EC2").metricName("CPUUtilization").build())
+                        .nextToken("token")
+                        .build(),
+                ListMetricsResponse.builder()
+                        .metrics(Metric.builder().namespace("AWS/EC2").metricName("NetworkIn").build())
+                        .build());
+
+        LinkedAccountCloudWatchClient classUnderTest =
+                new LinkedAccountCloudWatchClient(mockAwsCloudWatch, "111122223333");
+
+        LongAdder requestCounter = new LongAdder();
+        List<Metric> metrics = MetricsProcessorHelper.listMetrics(classUnderTest, requestCounter,
+                ListMetricsRequest.builder().namespace("AWS/EC2").build());
+
+        ArgumentCaptor<ListMetricsRequest> request = ArgumentCaptor.forClass(ListMetricsRequest.class);
+        verify(mockAwsCloudWatch, times(2)).listMetrics(request.capture());
+
+        for (ListMetricsRequest listMetricsRequest : request.getAllValues()) {
+            assertEquals("AWS/EC2", listMetricsRequest.namespace());
+            assertTrue(listMetricsRequest.includeLinkedAccounts());
+            assertEquals("111122223333", listMetricsRequest.owningAccount());
+        }
+
+        assertEquals("token", request.getAllValues().get(1).nextToken());
+        assertEquals(2, metrics.size());
+        assertEquals(classUnderTest, new LinkedAccountCloudWatchClient(mockAwsCloudWatch, "111122223333"));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricDataRequestMergerTest {
+
+    private MetricDataRequestMerger classUnderTest = MetricDataRequestMerger.getInstance();
+
+    private CloudWatchClient mockAwsCloudWatch = mock(CloudWatchClient.class);
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(0, 0);
+    }
+
+    @Test
+    public void testConcurrentRequestsAreMergedAndSplitBack() throws Exception {
+        classUnderTest.initialise(2000, 100);
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(
+                GetMetricDataResponse.builder()
+                        .metricDataResults(
+                                MetricDataResult.builder().id("q0").values(1.0).build(),
+                                MetricDataResult.builder().id("q1").values(2.0).build())
+                        .build());
+
+        final Instant endTime = Instant.parse("2018-01-01T01:00:00Z");
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<List<MetricDataResult>> ec2Results = executorService.submit(
+                    createTask(createRequest("AWS/EC2", endTime)));
+            Future<List<MetricDataResult>> elbResults = executorService.submit(
+                    createTask(createRequest("AWS/ELB", endTime)));
+
+            List<MetricDataResult> ec2 = ec2Results.get(5, TimeUnit.SECONDS);
+            List<MetricDataResult> elb = elbResults.get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, ec2.size());
+            assertEquals(1, elb.size());
+            assertEquals("m0", ec2.get(0).id());
+            assertEquals("m0", elb.get(0).id());
+            assertEquals(3.0, ec2.get(0).values().get(0) + elb.get(0).values().get(0), 0);
+
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        ArgumentCaptor<GetMetricDataRequest> request = ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(mockAwsCloudWatch, times(1)).getMetricData(request.capture());
+
+        assertEquals(2, request.getValue().metricDataQueries().size());
+        assertEquals(1, requestCounter.intValue());
+    }
+
+    private Callable<List<MetricDataResult>> createTask(final GetMetricDataRequest request) {
+        return new Callable<List<MetricDataResult>>() {
+            public List<MetricDataResult> call() {
+                return classUnderTest.getMetricData(mockAwsCloudWatch, request, requestCounter);
+            }
+        };
+    }
+
+    private GetMetricDataRequest createRequest(String namespace, Instant endTime) {
+        MetricStat metricStat = MetricStat.builder()
+                .metric(Metric.builder().namespace(namespace).metricName("testMetric").build())
+                .period(60)
+                .stat("Average")
+                .build();
+
+        return GetMetricDataRequest.builder()
+                .metricDataQueries(MetricDataQuery.builder().id("m0").metricStat(metricStat).returnData(true).build())
+                .startTime(endTime.minusSeconds(600))
+                .endTime(endTime)
+                .build();
+    }
+}
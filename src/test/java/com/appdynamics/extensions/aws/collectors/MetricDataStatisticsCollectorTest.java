@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.ScanBy;
+import software.amazon.awssdk.services.cloudwatch.model.StatusCode;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricDataStatisticsCollectorTest {
+
+    private MetricDataStatisticsCollector classUnderTest;
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @Test(expected = AwsException.class)
+    public void testInvalidTimeRangeThrowsException() throws Exception {
+        MetricsTimeRange invalidTimeRange = new MetricsTimeRange();
+        invalidTimeRange.setEndTimeInMinsBeforeNow(10);
+        invalidTimeRange.setStartTimeInMinsBeforeNow(5);
+
+        classUnderTest = createClassUnderTest(getTestMetrics(1), invalidTimeRange);
+        classUnderTest.call();
+    }
+
+    @Test
+    public void testLatestDatapointIsUsedForEachMetric() throws Exception {
+        Instant now = DateTime.now().toDate().toInstant();
+        Instant fiveMinsAgo = DateTime.now().minusMinutes(5).toDate().toInstant();
+
+        MetricDataResult result1 = MetricDataResult.builder()
+                .id("m0")
+                .timestamps(fiveMinsAgo, now)
+                .values(1.0, 2.0)
+                .statusCode(StatusCode.COMPLETE)
+                .build();
+
+        MetricDataResult result2 = MetricDataResult.builder()
+                .id("m1")
+                .timestamps(now, fiveMinsAgo)
+                .values(3.0, 4.0)
+                .statusCode(StatusCode.COMPLETE)
+                .build();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(
+                GetMetricDataResponse.builder().metricDataResults(result1, result2).build());
+
+        List<AWSMetric> testMetrics = getTestMetrics(3);
+        classUnderTest = createClassUnderTest(testMetrics, new MetricsTimeRange());
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        assertEquals(3, result.size());
+        assertEquals(testMetrics.get(0), result.get(0).getMetric());
+        assertEquals(Double.valueOf(2.0), result.get(0).getValue());
+        assertEquals(Double.valueOf(3.0), result.get(1).getValue());
+        assertNull(result.get(2).getValue());
+        assertEquals(1, requestCounter.intValue());
+    }
+
+    @Test
+    public void testPaginatedResultsAreMerged() throws Exception {
+        Instant now = DateTime.now().toDate().toInstant();
+        Instant fiveMinsAgo = DateTime.now().minusMinutes(5).toDate().toInstant();
+
+        GetMetricDataResponse page1 = GetMetricDataResponse.builder()
+                .metricDataResults(MetricDataResult.builder().id("m0").timestamps(fiveMinsAgo).values(1.0).build())
+                .nextToken("token")
+                .build();
+
+        GetMetricDataResponse page2 = GetMetricDataResponse.builder()
+                .metricDataResults(MetricDataResult.builder().id("m0").timestamps(now).values(5.0).build())
+                .build();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(page1, page2);
+
+        classUnderTest = createClassUnderTest(getTestMetrics(1), new MetricsTimeRange());
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        assertEquals(Double.valueOf(5.0), result.get(0).getValue());
+        assertEquals(2, requestCounter.intValue());
+        verify(mockAwsCloudWatch, times(2)).getMetricData(any(GetMetricDataRequest.class));
+    }
+
+    @Test
+    public void testLatestDatapointOnlyStopsPaginationOnceAllMetricsHaveValue() throws Exception {
+        Instant now = DateTime.now().toDate().toInstant();
+        Instant fiveMinsAgo = DateTime.now().minusMinutes(5).toDate().toInstant();
+
+        GetMetricDataResponse page1 = GetMetricDataResponse.builder()
+                .metricDataResults(
+                        MetricDataResult.builder().id("m0").timestamps(now, fiveMinsAgo).values(7.0, 1.0).build(),
+                        MetricDataResult.builder().id("m1").timestamps(fiveMinsAgo).values(8.0).build())
+                .nextToken("token")
+                .build();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(page1);
+
+        classUnderTest = new MetricDataStatisticsCollector.Builder()
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withMetrics(getTestMetrics(2))
+                .withStatTypes(Lists.newArrayList(StatisticType.AVE, StatisticType.AVE))
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withAWSRequestCounter(requestCounter)
+                .withLatestDatapointOnly(true)
+                .build();
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        ArgumentCaptor<GetMetricDataRequest> requestCaptor = ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(mockAwsCloudWatch, times(1)).getMetricData(requestCaptor.capture());
+
+        assertEquals(ScanBy.TIMESTAMP_DESCENDING, requestCaptor.getValue().scanBy());
+        assertEquals(Double.valueOf(7.0), result.get(0).getValue());
+        assertEquals(Double.valueOf(8.0), result.get(1).getValue());
+    }
+
+    @Test
+    public void testLatestDatapointOnlyRequestsLatestPeriodsInOnePage() throws Exception {
+        Instant now = DateTime.now().toDate().toInstant();
+
+        GetMetricDataResponse page = GetMetricDataResponse.builder()
+                .metricDataResults(
+                        MetricDataResult.builder().id("m0").timestamps(now).values(7.0).build(),
+                        MetricDataResult.builder().id("m1").timestamps(now).values(8.0).build())
+                .build();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(page);
+
+        // an hour of datapoints, of which only the latest ones are needed
+        MetricsTimeRange timeRange = new MetricsTimeRange();
+        timeRange.setStartTimeInMinsBeforeNow(60);
+        timeRange.setEndTimeInMinsBeforeNow(0);
+
+        classUnderTest = new MetricDataStatisticsCollector.Builder()
+                .withMetricsTimeRange(timeRange)
+                .withMetrics(getTestMetrics(2))
+                .withStatTypes(Lists.newArrayList(StatisticType.AVE, StatisticType.AVE))
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withAWSRequestCounter(requestCounter)
+                .withPeriodInSec(60)
+                .withLatestDatapointOnly(true)
+                .build();
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        ArgumentCaptor<GetMetricDataRequest> requestCaptor = ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(mockAwsCloudWatch, times(1)).getMetricData(requestCaptor.capture());
+
+        GetMetricDataRequest request = requestCaptor.getValue();
+        assertEquals(120, request.endTime().getEpochSecond() - request.startTime().getEpochSecond());
+        assertNull(request.maxDatapoints());
+        assertEquals(1, requestCounter.intValue());
+        assertEquals(Double.valueOf(7.0), result.get(0).getValue());
+        assertEquals(Double.valueOf(8.0), result.get(1).getValue());
+    }
+
+    @Test
+    public void testMaxBatchSizeRespectsQueryAndDatapointLimits() {
+        // 10 mins at 60 sec period is 10 datapoints per query, so only the query limit applies
+        assertEquals(500, MetricDataStatisticsCollector.getMaxBatchSize(10, 60));
+
+        // 2 weeks at 60 sec period is 20,160 datapoints per query
+        assertEquals(5, MetricDataStatisticsCollector.getMaxBatchSize(14 * 24 * 60, 60));
+
+        assertEquals(1, MetricDataStatisticsCollector.getMaxBatchSize(200000, 1));
+    }
+
+    @Test
+    public void testBatchesAreSplitByTimeRangeAndPeriod() {
+        MetricsTimeRange twoWeeks = new MetricsTimeRange();
+        twoWeeks.setStartTimeInMinsBeforeNow(14 * 24 * 60);
+        twoWeeks.setEndTimeInMinsBeforeNow(0);
+        MetricTimeRangeResolver timeRangeResolver = new MetricTimeRangeResolver(twoWeeks, 60);
+
+        List<AWSMetric> metrics = getTestMetrics(7);
+        metrics.get(6).getIncludeMetric().setPeriodInSec(300);
+
+        List<List<AWSMetric>> batches = MetricDataStatisticsCollector.createBatches(metrics, timeRangeResolver, false);
+
+        // 20,160 datapoints per query at 60 sec period, the metric at 300 sec period is batched separately
+        assertEquals(3, batches.size());
+        assertEquals(5, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+        assertEquals(Lists.newArrayList(metrics.get(6)), batches.get(2));
+
+        // only the latest periods are requested, so the query limit applies
+        assertEquals(2, MetricDataStatisticsCollector.createBatches(metrics, timeRangeResolver, true).size());
+        assertEquals(2, MetricDataStatisticsCollector.getRequestedTimeRangeInMins(twoWeeks, 60, true));
+    }
+
+    private MetricDataStatisticsCollector createClassUnderTest(List<AWSMetric> metrics, MetricsTimeRange timeRange) {
+        List<StatisticType> statTypes = Lists.newArrayList();
+
+        for (int index = 0; index < metrics.size(); index++) {
+            statTypes.add(StatisticType.AVE);
+        }
+
+        return new MetricDataStatisticsCollector.Builder()
+                .withMetricsTimeRange(timeRange)
+                .withMetrics(metrics)
+                .withStatTypes(statTypes)
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withAWSRequestCounter(requestCounter)
+                .build();
+    }
+
+    private List<AWSMetric> getTestMetrics(int size) {
+        List<AWSMetric> testMetrics = Lists.newArrayList();
+
+        for (int index = 0; index < size; index++) {
+            IncludeMetric includeMetric = new IncludeMetric();
+            includeMetric.setName("testMetric" + index);
+
+            Dimension dimension = Dimension.builder().name("testDimesionName").value("testDimesionValue" + index).build();
+            Metric metric = Metric.builder().metricName("testMetric" + index).namespace("testNamespace")
+                    .dimensions(Lists.newArrayList(dimension)).build();
+
+            AWSMetric awsMetric = new AWSMetric();
+            awsMetric.setIncludeMetric(includeMetric);
+            awsMetric.setMetric(metric);
+
+            testMetrics.add(awsMetric);
+        }
+
+        return testMetrics;
+    }
+}
@@ -8,7 +8,9 @@
 package com.appdynamics.extensions.aws.collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.when;
 
@@ -131,6 +133,7 @@ public class MetricStatisticsCollectorTest {
 
         assertEquals(latestDatapoint.sum(), result.getValue());
         assertEquals(latestDatapoint.unit(), result.getUnit());
+        assertFalse(result.isNoDatapointReturned());
     }
 
     @Test
@@ -154,6 +157,7 @@ public class MetricStatisticsCollectorTest {
 
         assertNull(result.getValue());
         assertNull(result.getUnit());
+        assertTrue(result.isNoDatapointReturned());
     }
 
     @Test
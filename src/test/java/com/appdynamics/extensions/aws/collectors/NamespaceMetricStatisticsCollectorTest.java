@@ -20,13 +20,15 @@ import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.NamespaceMetricStatistics;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
-import com.appdynamics.extensions.executorservice.MonitorThreadPoolExecutor;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.RateLimiter;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -36,13 +38,14 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.isA;
@@ -90,6 +93,8 @@ public class NamespaceMetricStatisticsCollectorTest {
 
         when(mockBuilder.withAccount(any(Account.class))).thenReturn(mockBuilder);
         when(mockBuilder.withMaxErrorRetrySize(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withApiCallTimeoutInSecs(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withApiCallAttemptTimeoutInSecs(anyInt())).thenReturn(mockBuilder);
         when(mockBuilder.withMetricsProcessor(any(MetricsProcessor.class))).thenReturn(mockBuilder);
         when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
         when(mockBuilder.withNoOfMetricThreadsPerRegion(anyInt())).thenReturn(mockBuilder);
@@ -100,6 +105,15 @@ public class NamespaceMetricStatisticsCollectorTest {
         when(mockBuilder.withRateLimiter(any(RateLimiter.class))).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(any(LongAdder.class))).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseGetMetricData(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withLatestDatapointOnly(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withAggregateMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseSearchExpressions(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withIncludeMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withDefaultPeriodInSec(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withBackfillMaxWindowInMins(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseAsyncClient(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withMaxInFlightRequestsPerRegion(anyInt())).thenReturn(mockBuilder);
 
         when(mockBuilder.build()).thenReturn(mockAccountStatsCollector1, mockAccountStatsCollector2);
 
@@ -180,7 +194,7 @@ public class NamespaceMetricStatisticsCollectorTest {
 
     @SuppressWarnings("unchecked")
     @Test
-    public void testThreadPoolShutdown() throws Exception {
+    public void testAccountsAreCollectedOnSharedThreads() throws Exception {
 
         MetricsProcessor mockMetricsProcessor = Mockito.mock(MetricsProcessor.class);
 
@@ -194,7 +208,13 @@ public class NamespaceMetricStatisticsCollectorTest {
 
         AccountMetricStatisticsCollector mockAccountStatsCollector1 = mock(AccountMetricStatisticsCollector.class);
         AccountMetricStatistics accountStats1 = createTestAccountMetricStatistics(testAccounts.get(0).getDisplayAccountName());
-        when(mockAccountStatsCollector1.call()).thenReturn(accountStats1);
+        final AtomicReference<String> collectingThreadName = new AtomicReference<String>();
+        when(mockAccountStatsCollector1.call()).thenAnswer(new Answer<AccountMetricStatistics>() {
+            public AccountMetricStatistics answer(InvocationOnMock invocation) {
+                collectingThreadName.set(Thread.currentThread().getName());
+                return accountStats1;
+            }
+        });
 
         // simulate account stats collector creation
         AccountMetricStatisticsCollector.Builder mockBuilder = mock(AccountMetricStatisticsCollector.Builder.class);
@@ -203,6 +223,8 @@ public class NamespaceMetricStatisticsCollectorTest {
 
         when(mockBuilder.withAccount(any(Account.class))).thenReturn(mockBuilder);
         when(mockBuilder.withMaxErrorRetrySize(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withApiCallTimeoutInSecs(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withApiCallAttemptTimeoutInSecs(anyInt())).thenReturn(mockBuilder);
         when(mockBuilder.withMetricsProcessor(any(MetricsProcessor.class))).thenReturn(mockBuilder);
         when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
         when(mockBuilder.withNoOfMetricThreadsPerRegion(anyInt())).thenReturn(mockBuilder);
@@ -213,6 +235,15 @@ public class NamespaceMetricStatisticsCollectorTest {
         when(mockBuilder.withRateLimiter(any(RateLimiter.class))).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(any(LongAdder.class))).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseGetMetricData(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withLatestDatapointOnly(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withAggregateMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseSearchExpressions(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withIncludeMetrics(anyList())).thenReturn(mockBuilder);
+        when(mockBuilder.withDefaultPeriodInSec(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withBackfillMaxWindowInMins(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withUseAsyncClient(anyBoolean())).thenReturn(mockBuilder);
+        when(mockBuilder.withMaxInFlightRequestsPerRegion(anyInt())).thenReturn(mockBuilder);
 
         when(mockBuilder.build()).thenReturn(mockAccountStatsCollector1);
 
@@ -231,13 +262,6 @@ public class NamespaceMetricStatisticsCollectorTest {
                 .build();
 
 
-        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
-        MonitorThreadPoolExecutor executorService = new MonitorThreadPoolExecutor(threadPoolExecutor);
-
-        MonitorThreadPoolExecutor executorServiceSpy = Mockito.spy(executorService);
-
-        whenNew(MonitorThreadPoolExecutor.class).withArguments(any(ScheduledThreadPoolExecutor.class)).thenReturn(executorServiceSpy);
-
         classUnderTest.call();
 
         NamespaceMetricStatistics result = argumentCaptor.getValue();
@@ -245,7 +269,6 @@ public class NamespaceMetricStatisticsCollectorTest {
         verify(mockMetricsProcessor).createMetricStatsMapForUpload(isA(NamespaceMetricStatistics.class));
         assertEquals(accountStats1, result.getAccountMetricStatisticsList().get(0));
 
-        //Test if shutdown was called once on MonitorThreadPoolExecutor
-        verify(executorServiceSpy, Mockito.times(1)).shutdown();
+        assertTrue(collectingThreadName.get().startsWith(ExecutorServiceProvider.Level.ACCOUNT.getThreadName()));
     }
 }
\ No newline at end of file
@@ -15,15 +15,19 @@ import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.StatisticType;
 import com.appdynamics.extensions.aws.metric.processors.MetricsProcessor;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider;
 import com.appdynamics.extensions.aws.providers.RegionEndpointProvider;
-import com.appdynamics.extensions.executorservice.MonitorThreadPoolExecutor;
+import com.appdynamics.extensions.aws.providers.SeriesHealthTracker;
+import com.appdynamics.extensions.aws.util.AWSUtil;
+import com.appdynamics.extensions.aws.util.ApiCallBudgetPlanner;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.RateLimiter;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
-import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -31,28 +35,39 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClientBuilder;
 import software.amazon.awssdk.services.cloudwatch.endpoints.CloudWatchEndpointProvider;
 import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
 
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
@@ -70,6 +85,9 @@ public class RegionMetricStatisticsCollectorTest {
     @Mock
     private CloudWatchClient amazonCloudWatch;
 
+    @Mock
+    private CloudWatchAsyncClient amazonCloudWatchAsync;
+
     @Mock
     private StaticCredentialsProvider mockAWSCredentials;
 
@@ -106,7 +124,7 @@ public class RegionMetricStatisticsCollectorTest {
 
         when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
         when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
-        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class))).thenReturn(new ArrayList<AWSMetric>());
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(new ArrayList<AWSMetric>());
 
         String testRegion = "testRegion";
 
@@ -123,12 +141,65 @@ public class RegionMetricStatisticsCollectorTest {
         assertTrue(result.getMetricStatisticsList().isEmpty());
     }
 
+    @Test
+    public void testMetricsOfLinkedAccountsAreListedConcurrently() throws Exception {
+        when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
+        when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
+        when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
+
+        final Map<String, AWSMetric> linkedAccountMetrics = new ConcurrentHashMap<String, AWSMetric>();
+        final List<String> listingThreads = Collections.synchronizedList(new ArrayList<String>());
+
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenAnswer(
+                new Answer<List<AWSMetric>>() {
+                    public List<AWSMetric> answer(InvocationOnMock invocation) {
+                        Object awsCloudWatch = invocation.getArguments()[0];
+
+                        if (!(awsCloudWatch instanceof LinkedAccountCloudWatchClient)) {
+                            return new ArrayList<AWSMetric>();
+                        }
+
+                        // each linked account lists its own partitions, on one of the region's threads
+                        assertNull(invocation.getArguments()[3]);
+                        listingThreads.add(Thread.currentThread().getName());
+
+                        AWSMetric metric = getTestMetrics().get(0);
+                        linkedAccountMetrics.put(((LinkedAccountCloudWatchClient) awsCloudWatch).getLinkedAccountId(), metric);
+                        return Lists.newArrayList(metric);
+                    }
+                });
+
+        Map<String, String> linkedAccounts = new LinkedHashMap<String, String>();
+        linkedAccounts.put("111111111111", "first");
+        linkedAccounts.put("222222222222", "second");
+
+        classUnderTest = new RegionMetricStatisticsCollector.Builder()
+                .withMetricsProcessor(mockMetricsProcessor)
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withAccountName("testAccount")
+                .withRegion("testRegion")
+                .withRateLimiter(RateLimiter.create(400))
+                .withAWSRequestCounter(requestsCounter)
+                .withPrefix("Custom Metrics|AWS|")
+                .withThreadTimeOut(30)
+                .withLinkedAccounts(linkedAccounts)
+                .withAmazonCloudWatchConfig(mockAWSCredentials, mockAwsClientConfig)
+                .build();
+
+        classUnderTest.call();
+
+        assertEquals(2, linkedAccountMetrics.size());
+        assertEquals("111111111111", linkedAccountMetrics.get("111111111111").getAccountId());
+        assertEquals("222222222222", linkedAccountMetrics.get("222222222222").getAccountId());
+        assertFalse(listingThreads.contains(Thread.currentThread().getName()));
+    }
+
     @Test
     public void testMetricsRetrievalIsSuccessful() throws Exception {
         when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
 
         List<AWSMetric> testMetrics = getTestMetrics();
-        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
         when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
         when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
 
@@ -150,6 +221,7 @@ public class RegionMetricStatisticsCollectorTest {
         when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
         when(mockBuilder.withRegion(anyString())).thenReturn(mockBuilder);
         when(mockBuilder.withStatType(any(StatisticType.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withPeriodInSec(anyInt())).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(requestsCounter)).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
         when(mockBuilder.build()).thenReturn(mockMetricStatsCollector1, mockMetricStatsCollector2);
@@ -185,7 +257,7 @@ public class RegionMetricStatisticsCollectorTest {
 
         testMetrics.addAll(testAdditionalMetrics);
 
-        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
         when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
         when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
 
@@ -214,6 +286,7 @@ public class RegionMetricStatisticsCollectorTest {
         when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
         when(mockBuilder.withRegion(anyString())).thenReturn(mockBuilder);
         when(mockBuilder.withStatType(any(StatisticType.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withPeriodInSec(anyInt())).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(requestsCounter)).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
         when(mockBuilder.build()).thenReturn(mockMetricStatsCollector1, mockMetricStatsCollector2, mockMetricStatsCollector3, mockMetricStatsCollector4);
@@ -269,18 +342,24 @@ public class RegionMetricStatisticsCollectorTest {
     }
 
     @Test
-    public void testThreadPoolShutdown() throws Exception {
+    public void testMetricsAreCollectedOnSharedThreads() throws Exception {
         when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
 
         List<AWSMetric> testMetrics = getTestMetrics();
-        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
         when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
         when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
 
 
         MetricStatisticCollector mockMetricStatsCollector1 = mock(MetricStatisticCollector.class);
         MetricStatistic metricStatistic1 = createTestMetricStatistics(testMetrics.get(0));
-        when(mockMetricStatsCollector1.call()).thenReturn(metricStatistic1);
+        final AtomicReference<String> collectingThreadName = new AtomicReference<String>();
+        when(mockMetricStatsCollector1.call()).thenAnswer(new Answer<MetricStatistic>() {
+            public MetricStatistic answer(InvocationOnMock invocation) {
+                collectingThreadName.set(Thread.currentThread().getName());
+                return metricStatistic1;
+            }
+        });
 
         MetricStatisticCollector mockMetricStatsCollector2 = mock(MetricStatisticCollector.class);
         MetricStatistic metricStatistic2 = createTestMetricStatistics(testMetrics.get(1));
@@ -295,6 +374,7 @@ public class RegionMetricStatisticsCollectorTest {
         when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
         when(mockBuilder.withRegion(anyString())).thenReturn(mockBuilder);
         when(mockBuilder.withStatType(any(StatisticType.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withPeriodInSec(anyInt())).thenReturn(mockBuilder);
         when(mockBuilder.withAWSRequestCounter(requestsCounter)).thenReturn(mockBuilder);
         when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
         when(mockBuilder.build()).thenReturn(mockMetricStatsCollector1, mockMetricStatsCollector2);
@@ -313,13 +393,6 @@ public class RegionMetricStatisticsCollectorTest {
                 .withAmazonCloudWatchConfig(mockAWSCredentials, mockAwsClientConfig)
                 .build();
 
-        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
-        MonitorThreadPoolExecutor executorService = new MonitorThreadPoolExecutor(threadPoolExecutor);
-
-        MonitorThreadPoolExecutor executorServiceSpy = Mockito.spy(executorService);
-
-        whenNew(MonitorThreadPoolExecutor.class).withArguments(any(ScheduledThreadPoolExecutor.class)).thenReturn(executorServiceSpy);
-
         RegionMetricStatistics result = classUnderTest.call();
 
         assertEquals(testRegion, result.getRegion());
@@ -327,8 +400,265 @@ public class RegionMetricStatisticsCollectorTest {
         assertEquals(metricStatistic1, result.getMetricStatisticsList().get(0));
         assertEquals(metricStatistic2, result.getMetricStatisticsList().get(1));
 
-        //Test if shutdown was called once on MonitorThreadPoolExecutor
-        verify(executorServiceSpy, Mockito.times(1)).shutdown();
+        assertTrue(collectingThreadName.get().startsWith(ExecutorServiceProvider.Level.METRIC.getThreadName()));
+    }
+
+    @Test
+    public void testOnlySeriesWithoutDatapointsInTimeRangeCountAsEmpty() throws Exception {
+        when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
+
+        List<AWSMetric> testMetrics = getTestMetrics();
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
+        when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
+
+        // nothing new past the watermark of the first series, no datapoint at all for the second one
+        MetricStatisticCollector mockMetricStatsCollector1 = mock(MetricStatisticCollector.class);
+        MetricStatistic metricStatistic1 = createTestMetricStatistics(testMetrics.get(0));
+        metricStatistic1.setValue(null);
+        when(mockMetricStatsCollector1.call()).thenReturn(metricStatistic1);
+
+        MetricStatisticCollector mockMetricStatsCollector2 = mock(MetricStatisticCollector.class);
+        MetricStatistic metricStatistic2 = createTestMetricStatistics(testMetrics.get(1));
+        metricStatistic2.setValue(null);
+        metricStatistic2.setNoDatapointReturned(true);
+        when(mockMetricStatsCollector2.call()).thenReturn(metricStatistic2);
+
+        MetricStatisticCollector.Builder mockBuilder = mock(MetricStatisticCollector.Builder.class);
+        whenNew(MetricStatisticCollector.Builder.class).withNoArguments().thenReturn(mockBuilder);
+        when(mockBuilder.withAccountName(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withAwsCloudWatch(any(CloudWatchClient.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withMetric(any(AWSMetric.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withRegion(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withStatType(any(StatisticType.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withPeriodInSec(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withAWSRequestCounter(requestsCounter)).thenReturn(mockBuilder);
+        when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.build()).thenReturn(mockMetricStatsCollector1, mockMetricStatsCollector2);
+
+        SeriesHealthTracker seriesHealthTracker = SeriesHealthTracker.getInstance();
+        seriesHealthTracker.initialise(1, 60);
+
+        try {
+            classUnderTest = new RegionMetricStatisticsCollector.Builder()
+                    .withMetricsProcessor(mockMetricsProcessor)
+                    .withMetricsTimeRange(new MetricsTimeRange())
+                    .withAccountName("testAccount")
+                    .withRegion("testRegion")
+                    .withRateLimiter(RateLimiter.create(400))
+                    .withAWSRequestCounter(requestsCounter)
+                    .withPrefix("Custom Metrics|AWS|")
+                    .withAmazonCloudWatchConfig(mockAWSCredentials, mockAwsClientConfig)
+                    .build();
+
+            classUnderTest.call();
+
+            assertEquals(1, seriesHealthTracker.getSuppressedSeriesCount("testNamespace"));
+
+        } finally {
+            seriesHealthTracker.initialise(0, 60);
+        }
+    }
+
+    @Test
+    public void testBudgetIsReservedForEachTimeRangeBatched() throws Exception {
+        when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
+
+        // same time range length, but different time ranges, which cannot share a GetMetricData request
+        List<AWSMetric> testMetrics = getTestMetrics();
+        testMetrics.get(0).getIncludeMetric().setMetricsTimeRange(createMetricsTimeRange(10, 5));
+        testMetrics.get(1).getIncludeMetric().setMetricsTimeRange(createMetricsTimeRange(15, 10));
+
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
+        when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
+
+        ApiCallBudgetPlanner budgetPlanner = ApiCallBudgetPlanner.getInstance();
+        budgetPlanner.initialise(1, 0, 60);
+
+        try {
+            classUnderTest = new RegionMetricStatisticsCollector.Builder()
+                    .withMetricsProcessor(mockMetricsProcessor)
+                    .withMetricsTimeRange(new MetricsTimeRange())
+                    .withAccountName("testAccount")
+                    .withRegion("testRegion")
+                    .withRateLimiter(RateLimiter.create(400))
+                    .withAWSRequestCounter(requestsCounter)
+                    .withPrefix("Custom Metrics|AWS|")
+                    .withUseGetMetricData(true)
+                    .withAmazonCloudWatchConfig(mockAWSCredentials, mockAwsClientConfig)
+                    .build();
+
+            classUnderTest.call();
+
+            assertEquals(1, budgetPlanner.getAndResetPlannedCalls("testNamespace"));
+            assertEquals(1, budgetPlanner.getAndResetDeferredSeries("testNamespace"));
+
+        } finally {
+            budgetPlanner.initialise(0, 0, 60);
+        }
+    }
+
+    @Test
+    public void testTimedOutMetricTasksAreCancelled() throws Exception {
+        when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
+
+        List<AWSMetric> testMetrics = getTestMetrics();
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
+        when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
+
+        // the first request hangs until its thread is interrupted
+        final CountDownLatch requestAborted = new CountDownLatch(1);
+        MetricStatisticCollector mockMetricStatsCollector1 = mock(MetricStatisticCollector.class);
+        when(mockMetricStatsCollector1.call()).thenAnswer(new Answer<MetricStatistic>() {
+            public MetricStatistic answer(InvocationOnMock invocation) throws Throwable {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    return null;
+                } catch (InterruptedException e) {
+                    requestAborted.countDown();
+                    throw e;
+                }
+            }
+        });
+
+        MetricStatisticCollector mockMetricStatsCollector2 = mock(MetricStatisticCollector.class);
+        MetricStatistic metricStatistic2 = createTestMetricStatistics(testMetrics.get(1));
+        when(mockMetricStatsCollector2.call()).thenReturn(metricStatistic2);
+
+        MetricStatisticCollector.Builder mockBuilder = mock(MetricStatisticCollector.Builder.class);
+        whenNew(MetricStatisticCollector.Builder.class).withNoArguments().thenReturn(mockBuilder);
+        when(mockBuilder.withAccountName(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withAwsCloudWatch(any(CloudWatchClient.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withMetric(any(AWSMetric.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withMetricsTimeRange(any(MetricsTimeRange.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withRegion(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.withStatType(any(StatisticType.class))).thenReturn(mockBuilder);
+        when(mockBuilder.withPeriodInSec(anyInt())).thenReturn(mockBuilder);
+        when(mockBuilder.withAWSRequestCounter(requestsCounter)).thenReturn(mockBuilder);
+        when(mockBuilder.withPrefix(anyString())).thenReturn(mockBuilder);
+        when(mockBuilder.build()).thenReturn(mockMetricStatsCollector1, mockMetricStatsCollector2);
+
+        classUnderTest = new RegionMetricStatisticsCollector.Builder()
+                .withMetricsProcessor(mockMetricsProcessor)
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withAccountName("testAccount")
+                .withRegion("testRegion")
+                .withRateLimiter(RateLimiter.create(400))
+                .withAWSRequestCounter(requestsCounter)
+                .withPrefix("Custom Metrics|AWS|")
+                .withThreadTimeOut(1)
+                .withAmazonCloudWatchConfig(mockAWSCredentials, mockAwsClientConfig)
+                .build();
+
+        RegionMetricStatistics result = classUnderTest.call();
+
+        assertTrue(requestAborted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, result.getMetricStatisticsList().size());
+        assertEquals(metricStatistic2, result.getMetricStatisticsList().get(0));
+    }
+
+    @Test
+    public void testTimedOutAsyncRequestsAreAborted() throws Exception {
+        List<CompletableFuture<GetMetricStatisticsResponse>> pendingResponses = givenPendingAsyncRequests(
+                new CountDownLatch(2));
+
+        classUnderTest = createAsyncRegionCollector(1);
+
+        RegionMetricStatistics result = classUnderTest.call();
+
+        assertTrue(result.getMetricStatisticsList().isEmpty());
+        assertTrue(pendingResponses.get(0).isCancelled());
+        assertTrue(pendingResponses.get(1).isCancelled());
+    }
+
+    @Test
+    public void testAsyncRequestsAreAbortedWhenCollectorIsInterrupted() throws Exception {
+        CountDownLatch requestsSent = new CountDownLatch(2);
+        List<CompletableFuture<GetMetricStatisticsResponse>> pendingResponses = givenPendingAsyncRequests(
+                requestsSent);
+
+        classUnderTest = createAsyncRegionCollector(60);
+
+        Thread regionThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    classUnderTest.call();
+                } catch (Exception e) {
+                    // the statistics of an interrupted collector are not needed
+                }
+            }
+        });
+        regionThread.start();
+
+        assertTrue(requestsSent.await(5, TimeUnit.SECONDS));
+
+        // e.g. the account collector giving up on this region
+        regionThread.interrupt();
+        regionThread.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse(regionThread.isAlive());
+        assertTrue(pendingResponses.get(0).isCancelled());
+        assertTrue(pendingResponses.get(1).isCancelled());
+    }
+
+    /**
+     * Returns the responses of the asynchronous requests of the test metrics, which never complete,
+     * so only cancelling them, which aborts the requests, completes them
+     */
+    private List<CompletableFuture<GetMetricStatisticsResponse>> givenPendingAsyncRequests(
+            final CountDownLatch requestsSent) throws Exception {
+        when(mockRegionEndpointProvider.getEndpoint(anyString())).thenReturn("test-endpoint");
+
+        List<AWSMetric> testMetrics = getTestMetrics();
+        when(mockMetricsProcessor.getMetrics(any(CloudWatchClient.class), anyString(), any(LongAdder.class), any(Executor.class))).thenReturn(testMetrics);
+        when(mockMetricsProcessor.getStatisticType(any(AWSMetric.class))).thenReturn(StatisticType.AVE);
+        when(mockMetricsProcessor.getNamespace()).thenReturn("testNamespace");
+
+        final List<CompletableFuture<GetMetricStatisticsResponse>> pendingResponses = Lists.newArrayList(
+                new CompletableFuture<GetMetricStatisticsResponse>(),
+                new CompletableFuture<GetMetricStatisticsResponse>());
+        when(amazonCloudWatchAsync.getMetricStatistics(any(GetMetricStatisticsRequest.class))).thenAnswer(
+                new Answer<CompletableFuture<GetMetricStatisticsResponse>>() {
+                    public CompletableFuture<GetMetricStatisticsResponse> answer(InvocationOnMock invocation) {
+                        CompletableFuture<GetMetricStatisticsResponse> pendingResponse =
+                                pendingResponses.get(2 - (int) requestsSent.getCount());
+                        requestsSent.countDown();
+                        return pendingResponse;
+                    }
+                });
+
+        // the clients of the account in the region are already cached
+        String clientKey = AWSClientCache.getClientKey("testAccount", URI.create("https://test-endpoint"),
+                AWSUtil.getClientSettingsFingerprint(mockAWSCredentials, mockAwsClientConfig));
+        AWSClientCache.getInstance().put(clientKey, amazonCloudWatch);
+        AWSClientCache.getInstance().putAsync(AWSClientCache.getAsyncClientKey(clientKey, 0), amazonCloudWatchAsync);
+
+        return pendingResponses;
+    }
+
+    private RegionMetricStatisticsCollector createAsyncRegionCollector(int threadTimeOut) {
+        return new RegionMetricStatisticsCollector.Builder()
+                .withMetricsProcessor(mockMetricsProcessor)
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withAccountName("testAccount")
+                .withRegion("testRegion")
+                .withRateLimiter(RateLimiter.create(400))
+                .withAWSRequestCounter(requestsCounter)
+                .withPrefix("Custom Metrics|AWS|")
+                .withThreadTimeOut(threadTimeOut)
+                .withUseAsyncClient(true)
+                .withAmazonCloudWatchConfig(mockAWSCredentials, mockAwsClientConfig)
+                .build();
+    }
+
+    private MetricsTimeRange createMetricsTimeRange(int startTimeInMinsBeforeNow, int endTimeInMinsBeforeNow) {
+        MetricsTimeRange metricsTimeRange = new MetricsTimeRange();
+        metricsTimeRange.setStartTimeInMinsBeforeNow(startTimeInMinsBeforeNow);
+        metricsTimeRange.setEndTimeInMinsBeforeNow(endTimeInMinsBeforeNow);
+        return metricsTimeRange;
     }
 
     private List<AWSMetric> getTestAdditionalMetrics() {
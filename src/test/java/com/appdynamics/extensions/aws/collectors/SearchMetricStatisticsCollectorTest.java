@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.config.Dimension;
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SearchMetricStatisticsCollectorTest {
+
+    private SearchMetricStatisticsCollector classUnderTest;
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @Test
+    public void testSearchedSeriesAreParsedFromLabels() throws Exception {
+        Instant now = DateTime.now().toDate().toInstant();
+        Instant fiveMinsAgo = DateTime.now().minusMinutes(5).toDate().toInstant();
+
+        GetMetricDataResponse page1 = GetMetricDataResponse.builder()
+                .metricDataResults(
+                        MetricDataResult.builder().id("s0").label("i-1|ami-1").timestamps(fiveMinsAgo).values(1.0).build(),
+                        MetricDataResult.builder().id("s0").label("i-2|ami-1").timestamps(now).values(2.0).build(),
+                        MetricDataResult.builder().id("s0").label("i-3|ami-2").timestamps(now).values(3.0).build())
+                .nextToken("token")
+                .build();
+
+        GetMetricDataResponse page2 = GetMetricDataResponse.builder()
+                .metricDataResults(
+                        MetricDataResult.builder().id("s0").label("i-1|ami-1").timestamps(now).values(4.0).build())
+                .build();
+
+        when(mockAwsCloudWatch.getMetricData(any(GetMetricDataRequest.class))).thenReturn(page1, page2);
+
+        IncludeMetric includeMetric = new IncludeMetric();
+        includeMetric.setName("CPUUtilization");
+
+        classUnderTest = new SearchMetricStatisticsCollector.Builder()
+                .withAccountName("testAccount")
+                .withRegion("testRegion")
+                .withNamespace("AWS/EC2")
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withIncludeMetrics(Lists.newArrayList(includeMetric))
+                .withStatTypes(Lists.newArrayList(StatisticType.AVE))
+                .withDimensions(Lists.newArrayList(createDimension("InstanceId", ".*"),
+                        createDimension("ImageId", "^ami-1$")))
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withAWSRequestCounter(requestCounter)
+                .withPrefix("Custom Metrics|AWS|")
+                .build();
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        ArgumentCaptor<GetMetricDataRequest> request = ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(mockAwsCloudWatch, times(2)).getMetricData(request.capture());
+
+        MetricDataQuery query = request.getValue().metricDataQueries().get(0);
+        assertEquals("SEARCH('{\"AWS/EC2\",\"InstanceId\",\"ImageId\"} MetricName=\"CPUUtilization\" "
+                + "\"ImageId\"=\"ami-1\"', 'Average', 60)", query.expression());
+        assertEquals("${PROP('Dim.InstanceId')}|${PROP('Dim.ImageId')}", query.label());
+
+        // i-3 does not match the ImageId dimension
+        assertEquals(2, result.size());
+        assertEquals("i-1", result.get(0).getMetric().getMetric().dimensions().get(0).value());
+        assertEquals("ami-1", result.get(0).getMetric().getMetric().dimensions().get(1).value());
+        assertEquals(Double.valueOf(4.0), result.get(0).getValue());
+        assertEquals("i-2", result.get(1).getMetric().getMetric().dimensions().get(0).value());
+        assertEquals(Double.valueOf(2.0), result.get(1).getValue());
+        assertEquals(includeMetric, result.get(1).getMetric().getIncludeMetric());
+        assertEquals(2, requestCounter.intValue());
+    }
+
+    @Test
+    public void testInsightsQueriesAreSentOnePerRequest() {
+        List<IncludeMetric> includeMetrics = Lists.newArrayList();
+
+        for (int index = 0; index < 6; index++) {
+            IncludeMetric includeMetric = new IncludeMetric();
+            includeMetric.setName("CPUUtilization" + index);
+            includeMetrics.add(includeMetric);
+        }
+
+        MetricTimeRangeResolver timeRangeResolver = new MetricTimeRangeResolver(new MetricsTimeRange(), 60);
+
+        assertEquals(2, SearchMetricStatisticsCollector.createBatches(includeMetrics, timeRangeResolver, false).size());
+        assertEquals(6, SearchMetricStatisticsCollector.createBatches(includeMetrics, timeRangeResolver, true).size());
+    }
+
+    private Dimension createDimension(String name, String value) {
+        Dimension dimension = new Dimension();
+        dimension.setName(name);
+        dimension.setValues(Sets.newHashSet(value));
+        return dimension;
+    }
+}
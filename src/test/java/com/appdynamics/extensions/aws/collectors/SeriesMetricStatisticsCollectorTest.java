@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.config.IncludeMetric;
+import com.appdynamics.extensions.aws.config.MetricsTimeRange;
+import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.metric.MetricStatistic;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Datapoint;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.Statistic;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SeriesMetricStatisticsCollectorTest {
+
+    @Mock
+    private CloudWatchClient mockAwsCloudWatch;
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @Test
+    public void testAllStatisticsAreRetrievedWithOneRequest() throws Exception {
+        Datapoint olderDatapoint = Datapoint.builder()
+                .timestamp(DateTime.now().minusMinutes(5).toDate().toInstant())
+                .average(1.0).maximum(2.0).unit("Percent").build();
+
+        Datapoint latestDatapoint = Datapoint.builder()
+                .timestamp(DateTime.now().toDate().toInstant())
+                .average(10.0).maximum(20.0).unit("Percent").build();
+
+        when(mockAwsCloudWatch.getMetricStatistics(any(GetMetricStatisticsRequest.class))).thenReturn(
+                GetMetricStatisticsResponse.builder().datapoints(latestDatapoint, olderDatapoint).build());
+
+        List<AWSMetric> testMetrics = Lists.newArrayList(createTestMetric(), createTestMetric());
+
+        SeriesMetricStatisticsCollector classUnderTest = new SeriesMetricStatisticsCollector.Builder()
+                .withMetricsTimeRange(new MetricsTimeRange())
+                .withMetrics(testMetrics)
+                .withStatTypes(Lists.newArrayList(StatisticType.AVE, StatisticType.MAX))
+                .withAwsCloudWatch(mockAwsCloudWatch)
+                .withAWSRequestCounter(requestCounter)
+                .build();
+
+        List<MetricStatistic> result = classUnderTest.call();
+
+        ArgumentCaptor<GetMetricStatisticsRequest> requestCaptor = ArgumentCaptor.forClass(GetMetricStatisticsRequest.class);
+        verify(mockAwsCloudWatch, times(1)).getMetricStatistics(requestCaptor.capture());
+
+        List<Statistic> requestedStatistics = requestCaptor.getValue().statistics();
+        assertEquals(2, requestedStatistics.size());
+        assertTrue(requestedStatistics.contains(Statistic.AVERAGE));
+        assertTrue(requestedStatistics.contains(Statistic.MAXIMUM));
+
+        assertEquals(1, requestCounter.intValue());
+        assertEquals(Double.valueOf(10.0), result.get(0).getValue());
+        assertEquals(Double.valueOf(20.0), result.get(1).getValue());
+        assertEquals("Percent", result.get(1).getUnit());
+    }
+
+    @Test
+    public void testMetricsAreGroupedBySeriesAndPeriod() {
+        AWSMetric averageMetric = createTestMetric();
+        AWSMetric maximumMetric = createTestMetric();
+        AWSMetric fiveMinuteMetric = createTestMetric();
+        fiveMinuteMetric.getIncludeMetric().setPeriodInSec(300);
+
+        List<List<AWSMetric>> series = SeriesMetricStatisticsCollector.groupBySeries(
+                Lists.newArrayList(averageMetric, fiveMinuteMetric, maximumMetric),
+                new MetricTimeRangeResolver(new MetricsTimeRange(), 60));
+
+        assertEquals(2, series.size());
+        assertEquals(Lists.newArrayList(averageMetric, maximumMetric), series.get(0));
+        assertEquals(Lists.newArrayList(fiveMinuteMetric), series.get(1));
+    }
+
+    private AWSMetric createTestMetric() {
+        IncludeMetric includeMetric = new IncludeMetric();
+        includeMetric.setName("CPUUtilization");
+
+        Dimension dimension = Dimension.builder().name("InstanceId").value("i-123").build();
+        Metric metric = Metric.builder().metricName("CPUUtilization").namespace("AWS/EC2")
+                .dimensions(Lists.newArrayList(dimension)).build();
+
+        AWSMetric awsMetric = new AWSMetric();
+        awsMetric.setIncludeMetric(includeMetric);
+        awsMetric.setMetric(metric);
+        return awsMetric;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.metric.processors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.aws.collectors.AWSClientCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.paginators.ListMetricsIterable;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ListMetricsCacheTest {
+
+    private ListMetricsCache classUnderTest = ListMetricsCache.getInstance();
+
+    private CloudWatchClient mockAwsCloudWatch = mock(CloudWatchClient.class);
+
+    private LongAdder requestCounter = new LongAdder();
+
+    @Before
+    public void setUp() {
+        AWSClientCache.getInstance().put("testAccount@testRegion#ListMetricsCacheTest", mockAwsCloudWatch);
+
+        when(mockAwsCloudWatch.listMetricsPaginator(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsIterable>() {
+            public ListMetricsIterable answer(InvocationOnMock invocation) {
+                return new ListMetricsIterable(mockAwsCloudWatch, (ListMetricsRequest) invocation.getArguments()[0]);
+            }
+        });
+
+        when(mockAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenReturn(ListMetricsResponse.builder()
+                .metrics(Metric.builder().namespace("AWS/EC2").metricName("CPUUtilization").build())
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(0);
+    }
+
+    @Test
+    public void testCatalogIsReusedWithinTtl() {
+        classUnderTest.initialise(10);
+
+        List<Metric> firstResult = MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/EC2");
+        List<Metric> secondResult = MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/EC2");
+
+        assertEquals(1, firstResult.size());
+        assertEquals(firstResult, secondResult);
+        assertEquals(1, requestCounter.intValue());
+        verify(mockAwsCloudWatch, times(1)).listMetrics(any(ListMetricsRequest.class));
+    }
+
+    @Test
+    public void testConcurrentFirstLoadsListTheCatalogOnce() throws Exception {
+        classUnderTest.initialise(10);
+
+        when(mockAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsResponse>() {
+            public ListMetricsResponse answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(200);
+                return ListMetricsResponse.builder()
+                        .metrics(Metric.builder().namespace("AWS/ELB").metricName("Latency").build())
+                        .build();
+            }
+        });
+
+        Thread otherCaller = new Thread(new Runnable() {
+            public void run() {
+                MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/ELB");
+            }
+        });
+        otherCaller.start();
+
+        List<Metric> result = MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/ELB");
+        otherCaller.join();
+
+        assertEquals(1, result.size());
+        assertEquals(1, requestCounter.intValue());
+        verify(mockAwsCloudWatch, times(1)).listMetrics(any(ListMetricsRequest.class));
+    }
+
+    @Test
+    public void testCatalogsOfClientsBuiltAgainAreNotReused() {
+        classUnderTest.initialise(10);
+
+        MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/EC2");
+
+        // same settings, but a client not cached, e.g. replaced after its settings changed
+        final CloudWatchClient otherAwsCloudWatch = mock(CloudWatchClient.class);
+        when(otherAwsCloudWatch.listMetricsPaginator(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsIterable>() {
+            public ListMetricsIterable answer(InvocationOnMock invocation) {
+                return new ListMetricsIterable(otherAwsCloudWatch, (ListMetricsRequest) invocation.getArguments()[0]);
+            }
+        });
+        when(otherAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenReturn(ListMetricsResponse.builder().build());
+
+        assertEquals(0, MetricsProcessorHelper.getMetrics(otherAwsCloudWatch, requestCounter, "AWS/EC2").size());
+        assertEquals(0, MetricsProcessorHelper.getMetrics(otherAwsCloudWatch, requestCounter, "AWS/EC2").size());
+        verify(otherAwsCloudWatch, times(2)).listMetrics(any(ListMetricsRequest.class));
+    }
+
+    @Test
+    public void testCatalogIsListedEveryTimeWhenDisabled() {
+        classUnderTest.initialise(0);
+
+        MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/EC2");
+        MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/EC2");
+
+        assertEquals(2, requestCounter.intValue());
+        verify(mockAwsCloudWatch, times(2)).listMetrics(any(ListMetricsRequest.class));
+    }
+}
@@ -9,24 +9,49 @@ package com.appdynamics.extensions.aws.metric.processors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import com.appdynamics.extensions.aws.config.IncludeMetric;
 import com.appdynamics.extensions.aws.dto.AWSMetric;
+import com.appdynamics.extensions.aws.exceptions.AwsException;
 import com.appdynamics.extensions.aws.metric.AccountMetricStatistics;
 import com.appdynamics.extensions.aws.metric.MetricStatistic;
 import com.appdynamics.extensions.aws.metric.NamespaceMetricStatistics;
 import com.appdynamics.extensions.aws.metric.RegionMetricStatistics;
 import com.appdynamics.extensions.aws.metric.StatisticType;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider.Level;
+import com.appdynamics.extensions.aws.util.CollectionCycle;
+import com.appdynamics.extensions.aws.util.TimeBoundExecutor;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.DimensionFilter;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.RecentlyActive;
+import software.amazon.awssdk.services.cloudwatch.paginators.ListMetricsIterable;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MetricsProcessorHelperTest {
 
@@ -87,6 +112,151 @@ public class MetricsProcessorHelperTest {
         assertEquals(metric1, result.get(0).getMetric());
     }
 
+    @Test
+    public void testDimensionFilterCombinationsOnlyUseExactValues() {
+        com.appdynamics.extensions.aws.config.Dimension instanceDimension = new com.appdynamics.extensions.aws.config.Dimension();
+        instanceDimension.setName("InstanceId");
+        instanceDimension.setValues(Sets.newLinkedHashSet(Lists.newArrayList("^i-1$", "^i-2$")));
+
+        com.appdynamics.extensions.aws.config.Dimension zoneDimension = new com.appdynamics.extensions.aws.config.Dimension();
+        zoneDimension.setName("AvailabilityZone");
+        zoneDimension.setValues(Sets.newLinkedHashSet(Lists.newArrayList("us-east-1.*")));
+
+        List<List<DimensionFilter>> result = MetricsProcessorHelper.createDimensionFilterCombinations(
+                Lists.newArrayList(instanceDimension, zoneDimension));
+
+        assertEquals(2, result.size());
+        assertEquals(DimensionFilter.builder().name("InstanceId").value("i-1").build(), result.get(0).get(0));
+        assertEquals(DimensionFilter.builder().name("AvailabilityZone").build(), result.get(0).get(1));
+        assertEquals(DimensionFilter.builder().name("InstanceId").value("i-2").build(), result.get(1).get(0));
+    }
+
+    @Test
+    public void testMetricNamePartitionsAreListedConcurrentlyWithoutDuplicates() {
+        CloudWatchClient mockAwsCloudWatch = mock(CloudWatchClient.class);
+
+        when(mockAwsCloudWatch.listMetricsPaginator(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsIterable>() {
+            public ListMetricsIterable answer(InvocationOnMock invocation) {
+                return new ListMetricsIterable(mockAwsCloudWatch, (ListMetricsRequest) invocation.getArguments()[0]);
+            }
+        });
+
+        when(mockAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsResponse>() {
+            public ListMetricsResponse answer(InvocationOnMock invocation) {
+                ListMetricsRequest request = (ListMetricsRequest) invocation.getArguments()[0];
+                return ListMetricsResponse.builder()
+                        .metrics(Metric.builder().namespace("AWS/EC2").metricName(request.metricName()).build(),
+                                Metric.builder().namespace("AWS/EC2").metricName("Shared").build())
+                        .build();
+            }
+        });
+
+        LongAdder requestCounter = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            List<Metric> result = MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, requestCounter, "AWS/EC2",
+                    new ArrayList<DimensionFilter>(), Lists.newArrayList("NetworkIn", "NetworkOut"), false, executor);
+
+            assertEquals(3, result.size());
+            assertEquals(2, requestCounter.intValue());
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPartitionsNotListedInTimeAreCancelled() throws Exception {
+        final CloudWatchClient mockAwsCloudWatch = mock(CloudWatchClient.class);
+        final CountDownLatch cancelledPartitions = new CountDownLatch(2);
+
+        when(mockAwsCloudWatch.listMetricsPaginator(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsIterable>() {
+            public ListMetricsIterable answer(InvocationOnMock invocation) {
+                return new ListMetricsIterable(mockAwsCloudWatch, (ListMetricsRequest) invocation.getArguments()[0]);
+            }
+        });
+
+        when(mockAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsResponse>() {
+            public ListMetricsResponse answer(InvocationOnMock invocation) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    cancelledPartitions.countDown();
+                }
+
+                return ListMetricsResponse.builder().build();
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // the deadline of the metric level has already passed
+        Executor timeBoundExecutor = new TimeBoundExecutor(executor, new CollectionCycle(2500), Level.METRIC, 30);
+
+        try {
+            MetricsProcessorHelper.getMetrics(mockAwsCloudWatch, new LongAdder(), "AWS/EC2",
+                    new ArrayList<DimensionFilter>(), Lists.newArrayList("NetworkIn", "NetworkOut"), false,
+                    timeBoundExecutor);
+            fail("Partitions not listed in time should fail the listing");
+
+        } catch (AwsException e) {
+            assertTrue(cancelledPartitions.await(5, TimeUnit.SECONDS));
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFilteredMetricsAreRecentlyActiveOnlyWhenRequested() {
+        CloudWatchClient mockAwsCloudWatch = mock(CloudWatchClient.class);
+        final List<ListMetricsRequest> requests = new ArrayList<ListMetricsRequest>();
+
+        when(mockAwsCloudWatch.listMetricsPaginator(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsIterable>() {
+            public ListMetricsIterable answer(InvocationOnMock invocation) {
+                return new ListMetricsIterable(mockAwsCloudWatch, (ListMetricsRequest) invocation.getArguments()[0]);
+            }
+        });
+
+        when(mockAwsCloudWatch.listMetrics(any(ListMetricsRequest.class))).thenAnswer(new Answer<ListMetricsResponse>() {
+            public ListMetricsResponse answer(InvocationOnMock invocation) {
+                requests.add((ListMetricsRequest) invocation.getArguments()[0]);
+                return ListMetricsResponse.builder().build();
+            }
+        });
+
+        IncludeMetric includeMetric = new IncludeMetric();
+        includeMetric.setName("NetworkIn");
+
+        MetricsProcessorHelper.getFilteredMetrics(mockAwsCloudWatch, new LongAdder(), "AWS/EC2",
+                Lists.newArrayList(includeMetric), new ArrayList<DimensionFilter>(), true, (Executor) null);
+
+        // other callers keep listing every metric
+        MetricsProcessorHelper.getFilteredMetrics(mockAwsCloudWatch, new LongAdder(), "AWS/EC2",
+                Lists.newArrayList(includeMetric), new ArrayList<DimensionFilter>());
+
+        assertEquals(2, requests.size());
+        assertEquals(RecentlyActive.PT3_H, requests.get(0).recentlyActive());
+        assertNull(requests.get(1).recentlyActive());
+    }
+
+    @Test
+    public void testInsightsQueryReturnsTopSeries() {
+        IncludeMetric includeMetric = new IncludeMetric();
+        includeMetric.setName("CPUUtilization");
+        includeMetric.setInsightsGroupBy(Lists.newArrayList("InstanceId"));
+        includeMetric.setInsightsLimit(50);
+
+        assertEquals(true, MetricsProcessorHelper.isInsightsMetric(includeMetric));
+        assertEquals("SELECT MAX(\"CPUUtilization\") FROM SCHEMA(\"AWS/EC2\", \"InstanceId\") "
+                        + "GROUP BY \"InstanceId\" ORDER BY MAX() DESC LIMIT 50",
+                MetricsProcessorHelper.createInsightsQuery("AWS/EC2", includeMetric, StatisticType.MAX));
+
+        includeMetric.setInsightsLimit(0);
+        assertEquals(false, MetricsProcessorHelper.isInsightsMetric(includeMetric));
+    }
+
     @Test
     public void testCreateMetricStatsMapForUploadWithNamespaceAsPrefix() {
         NamespaceMetricStatistics testNamespaceStats = createTestNamespaceMetricStatistics("testNamespace");
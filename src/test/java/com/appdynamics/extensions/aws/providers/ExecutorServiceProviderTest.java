@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.appdynamics.extensions.aws.config.ConcurrencyConfig;
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider.Level;
+import com.appdynamics.extensions.aws.util.VirtualThreadSupport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutorServiceProviderTest {
+
+    @After
+    public void tearDown() {
+        ExecutorServiceProvider.getInstance().initialise(1, null);
+    }
+
+    @Test
+    public void testPoolSizesDefaultToTheWorstCaseOfEachLevel() {
+        ConcurrencyConfig concurrencyConfig = new ConcurrencyConfig();
+        concurrencyConfig.setNoOfAccountThreads(2);
+        concurrencyConfig.setNoOfRegionThreadsPerAccount(3);
+        concurrencyConfig.setNoOfMetricThreadsPerRegion(4);
+
+        assertArrayEquals(new int[]{2, 4, 12, 48}, ExecutorServiceProvider.getPoolSizes(2, concurrencyConfig));
+
+        concurrencyConfig.setMaxRegionThreads(5);
+
+        assertArrayEquals(new int[]{2, 4, 5, 20}, ExecutorServiceProvider.getPoolSizes(2, concurrencyConfig));
+    }
+
+    @Test
+    public void testPoolSizesAreScaledDownToTheMaxTotalThreads() {
+        ConcurrencyConfig concurrencyConfig = new ConcurrencyConfig();
+        concurrencyConfig.setNoOfAccountThreads(10);
+        concurrencyConfig.setNoOfRegionThreadsPerAccount(10);
+        concurrencyConfig.setNoOfMetricThreadsPerRegion(10);
+        concurrencyConfig.setMaxTotalThreads(100);
+
+        int[] poolSizes = ExecutorServiceProvider.getPoolSizes(10, concurrencyConfig);
+        int totalThreads = 0;
+
+        for (int poolSize : poolSizes) {
+            assertTrue(poolSize >= 1);
+            totalThreads += poolSize;
+        }
+
+        assertTrue(totalThreads <= 100);
+        assertEquals(87, poolSizes[Level.METRIC.ordinal()]);
+
+        // without a configured ceiling, the default one applies
+        concurrencyConfig.setMaxTotalThreads(0);
+        poolSizes = ExecutorServiceProvider.getPoolSizes(10, concurrencyConfig);
+
+        assertEquals(112, poolSizes[Level.METRIC.ordinal()]);
+    }
+
+    @Test
+    public void testPoolsAreResizedOnInitialise() {
+        ExecutorServiceProvider executorServiceProvider = ExecutorServiceProvider.getInstance();
+
+        ConcurrencyConfig concurrencyConfig = new ConcurrencyConfig();
+        concurrencyConfig.setMaxAccountThreads(1);
+        concurrencyConfig.setMaxMetricThreads(7);
+        executorServiceProvider.initialise(2, concurrencyConfig);
+
+        assertEquals(2, executorServiceProvider.getPoolSize(Level.NAMESPACE));
+        assertEquals(1, executorServiceProvider.getPoolSize(Level.ACCOUNT));
+        assertEquals(3, executorServiceProvider.getPoolSize(Level.REGION));
+        assertEquals(7, executorServiceProvider.getPoolSize(Level.METRIC));
+
+        concurrencyConfig.setMaxMetricThreads(2);
+        executorServiceProvider.initialise(2, concurrencyConfig);
+
+        assertEquals(2, executorServiceProvider.getPoolSize(Level.METRIC));
+    }
+
+    @Test
+    public void testMonitorsDoNotResizeEachOthersPools() {
+        ExecutorServiceProvider monitorProvider = new ExecutorServiceProvider();
+        ExecutorServiceProvider otherMonitorProvider = new ExecutorServiceProvider();
+
+        ConcurrencyConfig concurrencyConfig = new ConcurrencyConfig();
+        concurrencyConfig.setMaxMetricThreads(7);
+        monitorProvider.initialise(1, concurrencyConfig);
+
+        concurrencyConfig.setMaxMetricThreads(2);
+        otherMonitorProvider.initialise(1, concurrencyConfig);
+
+        assertEquals(7, monitorProvider.getPoolSize(Level.METRIC));
+        assertEquals(2, otherMonitorProvider.getPoolSize(Level.METRIC));
+        assertEquals(ExecutorServiceProvider.getPoolSizes(1, new ConcurrencyConfig())[Level.METRIC.ordinal()],
+                ExecutorServiceProvider.getInstance().getPoolSize(Level.METRIC));
+    }
+
+    @Test
+    public void testTasksRunOnNamedThreadsWithinTheGivenConcurrency() throws Exception {
+        ExecutorServiceProvider executorServiceProvider = ExecutorServiceProvider.getInstance();
+        executorServiceProvider.initialise(1, null);
+
+        Executor executor = executorServiceProvider.getExecutor(Level.METRIC, 2);
+
+        final AtomicInteger runningTasks = new AtomicInteger();
+        final AtomicInteger maxRunningTasks = new AtomicInteger();
+        final AtomicInteger unnamedThreads = new AtomicInteger();
+        final CountDownLatch completedTasks = new CountDownLatch(10);
+
+        for (int index = 0; index < 10; index++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    int running = runningTasks.incrementAndGet();
+                    maxRunningTasks.set(Math.max(maxRunningTasks.get(), running));
+
+                    if (!Thread.currentThread().getName().startsWith(Level.METRIC.getThreadName())) {
+                        unnamedThreads.incrementAndGet();
+                    }
+
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    runningTasks.decrementAndGet();
+                    completedTasks.countDown();
+                }
+            });
+        }
+
+        assertTrue(completedTasks.await(5, TimeUnit.SECONDS));
+        assertTrue(maxRunningTasks.get() <= 2);
+        assertEquals(0, unnamedThreads.get());
+    }
+
+    @Test
+    public void testVirtualThreadsAreUsedOnlyWhenSupported() throws Exception {
+        ExecutorServiceProvider executorServiceProvider = ExecutorServiceProvider.getInstance();
+
+        ConcurrencyConfig concurrencyConfig = new ConcurrencyConfig();
+        concurrencyConfig.setNoOfAccountThreads(10);
+        concurrencyConfig.setNoOfRegionThreadsPerAccount(10);
+        concurrencyConfig.setNoOfMetricThreadsPerRegion(10);
+        concurrencyConfig.setUseVirtualThreads(true);
+        executorServiceProvider.initialise(10, concurrencyConfig);
+
+        if (VirtualThreadSupport.isSupported()) {
+            assertTrue(executorServiceProvider.isUsingVirtualThreads());
+            // not scaled down to the maximum total number of threads
+            assertEquals(10000, executorServiceProvider.getPoolSize(Level.METRIC));
+
+        } else {
+            assertFalse(executorServiceProvider.isUsingVirtualThreads());
+            assertEquals(112, executorServiceProvider.getPoolSize(Level.METRIC));
+        }
+
+        final CountDownLatch completedTask = new CountDownLatch(1);
+        final StringBuilder threadName = new StringBuilder();
+
+        executorServiceProvider.getExecutor(Level.METRIC, 1).execute(new Runnable() {
+            public void run() {
+                threadName.append(Thread.currentThread().getName());
+                completedTask.countDown();
+            }
+        });
+
+        assertTrue(completedTask.await(5, TimeUnit.SECONDS));
+        assertTrue(threadName.toString().startsWith(Level.METRIC.getThreadName()));
+
+        concurrencyConfig.setUseVirtualThreads(false);
+        executorServiceProvider.initialise(10, concurrencyConfig);
+
+        assertFalse(executorServiceProvider.isUsingVirtualThreads());
+    }
+}
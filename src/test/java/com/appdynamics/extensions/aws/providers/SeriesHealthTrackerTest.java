@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SeriesHealthTrackerTest {
+
+    private static final String NAMESPACE = "AWS/EC2";
+
+    private SeriesHealthTracker classUnderTest = SeriesHealthTracker.getInstance();
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(0, 0);
+    }
+
+    @Test
+    public void testSeriesIsProbedOnExponentialIntervalOnceSuppressed() {
+        classUnderTest.initialise(3, 4);
+        long now = 0;
+
+        for (int fetch = 0; fetch < 2; fetch++) {
+            classUnderTest.recordFetch(NAMESPACE, 1L, false, now);
+            assertTrue(classUnderTest.shouldFetch(NAMESPACE, 1L, now));
+        }
+
+        // third empty fetch in a row, next probe in 1 min
+        classUnderTest.recordFetch(NAMESPACE, 1L, false, now);
+        assertFalse(classUnderTest.shouldFetch(NAMESPACE, 1L, now));
+        assertTrue(classUnderTest.shouldFetch(NAMESPACE, 1L, now + mins(1)));
+        assertEquals(1, classUnderTest.getSuppressedSeriesCount(NAMESPACE));
+
+        // empty probe, next one in 2 mins
+        now += mins(1);
+        classUnderTest.recordFetch(NAMESPACE, 1L, false, now);
+        assertFalse(classUnderTest.shouldFetch(NAMESPACE, 1L, now + mins(1)));
+        assertTrue(classUnderTest.shouldFetch(NAMESPACE, 1L, now + mins(2)));
+
+        // capped to the max probe interval
+        for (int probe = 0; probe < 5; probe++) {
+            classUnderTest.recordFetch(NAMESPACE, 1L, false, now);
+        }
+
+        assertTrue(classUnderTest.shouldFetch(NAMESPACE, 1L, now + mins(4)));
+        assertEquals(2, classUnderTest.getAndResetSkippedFetches(NAMESPACE));
+        assertEquals(0, classUnderTest.getAndResetSkippedFetches(NAMESPACE));
+
+        // a datapoint makes the series healthy again
+        classUnderTest.recordFetch(NAMESPACE, 1L, true, now);
+        assertTrue(classUnderTest.shouldFetch(NAMESPACE, 1L, now));
+        assertEquals(0, classUnderTest.getSuppressedSeriesCount(NAMESPACE));
+    }
+
+    private long mins(int mins) {
+        return TimeUnit.MINUTES.toMillis(mins);
+    }
+}
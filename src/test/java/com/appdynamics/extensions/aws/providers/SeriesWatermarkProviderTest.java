@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.Instant;
+
+public class SeriesWatermarkProviderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SeriesWatermarkProvider classUnderTest = SeriesWatermarkProvider.getInstance();
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(null);
+    }
+
+    @Test
+    public void testDisabledWithoutCheckpointFile() {
+        classUnderTest.initialise(null);
+
+        Instant startTime = Instant.ofEpochMilli(1000);
+        classUnderTest.update(1L, Instant.ofEpochMilli(5000), 1.0);
+
+        assertFalse(classUnderTest.isEnabled());
+        assertEquals(startTime, classUnderTest.getStartTime(1L, startTime, 60, "AWS/EC2"));
+        assertTrue(classUnderTest.isCurrent(1L, Instant.ofEpochMilli(5000)));
+        assertNull(classUnderTest.getLatestValue(1L));
+    }
+
+    @Test
+    public void testWatermarksMoveStartTimeAndSurviveRestart() throws Exception {
+        String checkpointFile = new File(temporaryFolder.getRoot(), "watermarks.bin").getPath();
+        classUnderTest.initialise(checkpointFile);
+
+        // enough series to force the table to grow a few times
+        for (long fingerprint = 1; fingerprint <= 5000; fingerprint++) {
+            classUnderTest.update(fingerprint, Instant.ofEpochMilli(100000 + fingerprint), (double) fingerprint);
+        }
+
+        classUnderTest.update(42L, Instant.ofEpochMilli(1), 1.0);
+        classUnderTest.force();
+
+        classUnderTest.initialise(null);
+        classUnderTest.initialise(checkpointFile);
+
+        Instant configuredStartTime = Instant.ofEpochMilli(0);
+
+        for (long fingerprint = 1; fingerprint <= 5000; fingerprint++) {
+            // the period of the watermark is requested again
+            assertEquals(Instant.ofEpochMilli(100000 + fingerprint),
+                    classUnderTest.getStartTime(fingerprint, configuredStartTime, 60, "AWS/EC2"));
+            assertEquals(Double.valueOf(fingerprint), classUnderTest.getLatestValue(fingerprint));
+        }
+
+        assertFalse(classUnderTest.isCurrent(42L, Instant.ofEpochMilli(100041)));
+        assertTrue(classUnderTest.isCurrent(42L, Instant.ofEpochMilli(100042)));
+        assertTrue(classUnderTest.isCurrent(99999L, Instant.ofEpochMilli(1)));
+        assertNull(classUnderTest.getLatestValue(99999L));
+    }
+
+    @Test
+    public void testRevisedDatapointReplacesLatestValue() {
+        classUnderTest.initialise(new File(temporaryFolder.getRoot(), "watermarks.bin").getPath());
+
+        classUnderTest.update(1L, Instant.ofEpochMilli(60000), 2.0);
+        // late datapoints of the same period revise the partial value first read
+        classUnderTest.update(1L, Instant.ofEpochMilli(60000), 5.0);
+        classUnderTest.update(1L, Instant.ofEpochMilli(0), 9.0);
+
+        assertEquals(Double.valueOf(5.0), classUnderTest.getLatestValue(1L));
+        assertEquals(Instant.ofEpochMilli(60000), classUnderTest.getLatestTimestamp(1L));
+    }
+
+    @Test
+    public void testStartTimeIsHeldBackByPublishLag() {
+        classUnderTest.initialise(new File(temporaryFolder.getRoot(), "watermarks.bin").getPath());
+
+        classUnderTest.update(1L, Instant.ofEpochMilli(600000), 1.0);
+
+        assertEquals(Instant.ofEpochMilli(480000),
+                classUnderTest.getStartTime(1L, Instant.ofEpochMilli(0), 120000));
+        // never before the configured start time
+        assertEquals(Instant.ofEpochMilli(540000),
+                classUnderTest.getStartTime(1L, Instant.ofEpochMilli(540000), 120000));
+    }
+
+    @Test
+    public void testResizedTableReplacesTheCheckpointFile() {
+        File checkpointFile = new File(temporaryFolder.getRoot(), "watermarks.bin");
+        classUnderTest.initialise(checkpointFile.getPath());
+
+        for (long fingerprint = 1; fingerprint <= 1000; fingerprint++) {
+            classUnderTest.update(fingerprint, Instant.ofEpochMilli(fingerprint * 1000), 1.0);
+        }
+
+        assertEquals(16 + 2048 * 32, checkpointFile.length());
+        assertFalse(new File(checkpointFile.getPath() + ".resized").exists());
+
+        // the watermarks written before and after resizing are read back from the renamed file
+        classUnderTest.update(1001L, Instant.ofEpochMilli(1001000), 2.0);
+        classUnderTest.initialise(null);
+        classUnderTest.initialise(checkpointFile.getPath());
+
+        assertEquals(Instant.ofEpochMilli(1000), classUnderTest.getLatestTimestamp(1L));
+        assertEquals(Double.valueOf(2.0), classUnderTest.getLatestValue(1001L));
+    }
+
+    @Test
+    public void testWatermarksNotUpdatedAreEvicted() throws Exception {
+        File checkpointFile = new File(temporaryFolder.getRoot(), "watermarks.bin");
+        classUnderTest.initialise(checkpointFile.getPath());
+
+        for (long fingerprint = 1; fingerprint <= 5000; fingerprint++) {
+            classUnderTest.update(fingerprint, Instant.ofEpochMilli(100000), 1.0);
+        }
+
+        long lastUpdateTime = System.currentTimeMillis();
+        Thread.sleep(5);
+        classUnderTest.update(42L, Instant.ofEpochMilli(200000), 2.0);
+
+        classUnderTest.evictExpired(lastUpdateTime + 1);
+
+        assertNull(classUnderTest.getLatestTimestamp(1L));
+        assertNull(classUnderTest.getLatestValue(4999L));
+        assertEquals(Double.valueOf(2.0), classUnderTest.getLatestValue(42L));
+
+        // the table shrinks back to its initial size
+        assertEquals(16 + 1024 * 32, checkpointFile.length());
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.appdynamics.extensions.aws.config.MetricStreamConfig;
+import com.appdynamics.extensions.aws.metric.StatisticType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class MetricStreamReceiverTest {
+
+    private static final String ACCESS_KEY = "testAccessKey";
+
+    private MetricStreamReceiver classUnderTest = MetricStreamReceiver.getInstance();
+
+    private int port;
+
+    private Instant timestamp = Instant.now().minusSeconds(60);
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+
+        classUnderTest.initialise(createMetricStreamConfig(ACCESS_KEY));
+    }
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(null);
+    }
+
+    @Test
+    public void testJsonRecordsAreDecodedIntoTheLatestValueTable() throws IOException {
+        String records = createJsonDatapoint("AWS/EC2", "CPUUtilization", timestamp.minusSeconds(60), 10)
+                + "\n" + createJsonDatapoint("AWS/EC2", "CPUUtilization", timestamp, 20)
+                + "\n" + createJsonDatapoint("AWS/ELB", "RequestCount", timestamp, 5);
+
+        String response = post(ACCESS_KEY, records.getBytes(StandardCharsets.UTF_8), 200);
+        assertTrue(response.contains("\"requestId\":\"test-request\""));
+
+        List<StreamedDatapoint> datapoints = classUnderTest.getTable().getLatestDatapoints("AWS/EC2",
+                Instant.now().minusSeconds(900));
+
+        assertEquals(1, datapoints.size());
+        assertEquals("CPUUtilization", datapoints.get(0).getMetricName());
+        assertEquals("i-12345", datapoints.get(0).getDimensions().get("InstanceId"));
+        assertEquals("123456789012", datapoints.get(0).getAccountId());
+        assertEquals(timestamp.toEpochMilli(), datapoints.get(0).getTimestamp().toEpochMilli());
+        assertEquals(20, datapoints.get(0).getSum(), 0);
+        assertEquals(10, datapoints.get(0).getValue(StatisticType.AVE), 0);
+
+        assertTrue(classUnderTest.isStreamed("AWS/ELB"));
+        assertEquals(1, classUnderTest.getTable().getLatestDatapoints("AWS/ELB",
+                Instant.now().minusSeconds(900)).size());
+    }
+
+    @Test
+    public void testOpenTelemetryRecordsAreDecodedIntoTheLatestValueTable() throws IOException {
+        post(ACCESS_KEY, createOpenTelemetryRecord(), 200);
+
+        List<StreamedDatapoint> datapoints = classUnderTest.getTable().getLatestDatapoints("AWS/EC2",
+                Instant.now().minusSeconds(900));
+
+        assertEquals(1, datapoints.size());
+        assertEquals("CPUUtilization", datapoints.get(0).getMetricName());
+        assertEquals("i-12345", datapoints.get(0).getDimensions().get("InstanceId"));
+        assertEquals("123456789012", datapoints.get(0).getAccountId());
+        assertEquals("us-east-1", datapoints.get(0).getRegion());
+        assertEquals(timestamp.toEpochMilli(), datapoints.get(0).getTimestamp().toEpochMilli());
+        assertEquals(1, datapoints.get(0).getMin(), 0);
+        assertEquals(9, datapoints.get(0).getMax(), 0);
+        assertEquals(20, datapoints.get(0).getSum(), 0);
+        assertEquals(4, datapoints.get(0).getCount(), 0);
+    }
+
+    @Test
+    public void testDeliveriesWithInvalidAccessKeyAreRejected() throws IOException {
+        String records = createJsonDatapoint("AWS/EC2", "CPUUtilization", timestamp, 20);
+
+        post("wrongAccessKey", records.getBytes(StandardCharsets.UTF_8), 401);
+
+        assertEquals(0, classUnderTest.getTable().size());
+    }
+
+    @Test
+    public void testGzipDeliveriesAreDecompressed() throws IOException {
+        String records = createJsonDatapoint("AWS/EC2", "CPUUtilization", timestamp, 20);
+
+        post(ACCESS_KEY, createDelivery(records.getBytes(StandardCharsets.UTF_8)), true, 200);
+
+        assertEquals(1, classUnderTest.getTable().getLatestDatapoints("AWS/EC2",
+                Instant.now().minusSeconds(900)).size());
+    }
+
+    @Test
+    public void testDeliveriesLargerThanTheMaxSizeAreRejected() throws IOException {
+        MetricStreamConfig metricStreamConfig = createMetricStreamConfig(ACCESS_KEY);
+        metricStreamConfig.setMaxDeliverySizeInMB(1);
+        classUnderTest.initialise(metricStreamConfig);
+
+        StringBuilder records = new StringBuilder();
+
+        while (records.length() < 1024 * 1024) {
+            records.append(createJsonDatapoint("AWS/EC2", "CPUUtilization", timestamp, 20)).append("\n");
+        }
+
+        // compressed far below the max size, but not once decompressed
+        post(ACCESS_KEY, createDelivery(records.toString().getBytes(StandardCharsets.UTF_8)), true, 413);
+
+        assertEquals(0, classUnderTest.getTable().size());
+    }
+
+    @Test
+    public void testReceiverIsNotStartedWithoutAccessKey() throws IOException {
+        classUnderTest.initialise(createMetricStreamConfig(""));
+
+        assertFalse(classUnderTest.isStreamed("AWS/EC2"));
+
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getByName("127.0.0.1"))) {
+            assertEquals(port, serverSocket.getLocalPort());
+        }
+    }
+
+    @Test
+    public void testReceiverIsLeftStoppedWhenPortIsInUse() throws IOException {
+        classUnderTest.initialise(null);
+
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getByName("127.0.0.1"))) {
+            classUnderTest.initialise(createMetricStreamConfig(ACCESS_KEY));
+
+            assertFalse(classUnderTest.isStreamed("AWS/EC2"));
+        }
+    }
+
+    private MetricStreamConfig createMetricStreamConfig(String accessKey) {
+        MetricStreamConfig metricStreamConfig = new MetricStreamConfig();
+        metricStreamConfig.setPort(port);
+        metricStreamConfig.setPath("/metrics");
+        metricStreamConfig.setAccessKey(accessKey);
+        metricStreamConfig.setNamespaces(Arrays.asList("AWS/EC2", "AWS/ELB"));
+        return metricStreamConfig;
+    }
+
+    private String post(String accessKey, byte[] record, int expectedStatus) throws IOException {
+        return post(accessKey, createDelivery(record), false, expectedStatus);
+    }
+
+    private byte[] createDelivery(byte[] record) {
+        return ("{\"requestId\":\"test-request\",\"timestamp\":" + System.currentTimeMillis()
+                + ",\"records\":[{\"data\":\"" + Base64.getEncoder().encodeToString(record) + "\"}]}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String post(String accessKey, byte[] delivery, boolean gzip, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/metrics")
+                .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty(MetricStreamReceiver.ACCESS_KEY_HEADER, accessKey);
+
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+
+        try (OutputStream requestBody = gzip ? new GZIPOutputStream(connection.getOutputStream())
+                : connection.getOutputStream()) {
+            requestBody.write(delivery);
+        }
+
+        assertEquals(expectedStatus, connection.getResponseCode());
+
+        InputStream responseBody = expectedStatus == 200 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+
+        while ((read = responseBody.read(buffer)) != -1) {
+            response.write(buffer, 0, read);
+        }
+
+        responseBody.close();
+        connection.disconnect();
+
+        return new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String createJsonDatapoint(String namespace, String metricName, Instant timestamp, double sum) {
+        return "{\"metric_stream_name\":\"test-stream\",\"account_id\":\"123456789012\",\"region\":\"us-east-1\","
+                + "\"namespace\":\"" + namespace + "\",\"metric_name\":\"" + metricName + "\","
+                + "\"dimensions\":{\"InstanceId\":\"i-12345\"},\"timestamp\":" + timestamp.toEpochMilli() + ","
+                + "\"value\":{\"max\":9.0,\"min\":1.0,\"sum\":" + sum + ",\"count\":2.0},\"unit\":\"Percent\"}";
+    }
+
+    private byte[] createOpenTelemetryRecord() throws IOException {
+        byte[] datapoint = concat(
+                lengthDelimited(1, concat(lengthDelimited(1, string("Namespace")), lengthDelimited(2, string("AWS/EC2")))),
+                lengthDelimited(1, concat(lengthDelimited(1, string("MetricName")), lengthDelimited(2, string("CPUUtilization")))),
+                lengthDelimited(1, concat(lengthDelimited(1, string("Dimensions")),
+                        lengthDelimited(2, string("{\"InstanceId\":\"i-12345\"}")))),
+                fixed64(3, timestamp.getEpochSecond() * 1000000000L + timestamp.getNano()),
+                fixed64(4, 4),
+                fixed64(5, Double.doubleToLongBits(20)),
+                lengthDelimited(6, concat(fixed64(1, Double.doubleToLongBits(0)), fixed64(2, Double.doubleToLongBits(1)))),
+                lengthDelimited(6, concat(fixed64(1, Double.doubleToLongBits(1)), fixed64(2, Double.doubleToLongBits(9)))));
+
+        byte[] metric = concat(
+                lengthDelimited(1, string("amazonaws.com/AWS/EC2/CPUUtilization")),
+                lengthDelimited(3, string("Percent")),
+                lengthDelimited(11, lengthDelimited(1, datapoint)));
+
+        byte[] resource = concat(
+                lengthDelimited(1, concat(lengthDelimited(1, string("cloud.account.id")),
+                        lengthDelimited(2, lengthDelimited(1, string("123456789012"))))),
+                lengthDelimited(1, concat(lengthDelimited(1, string("cloud.region")),
+                        lengthDelimited(2, lengthDelimited(1, string("us-east-1"))))));
+
+        byte[] resourceMetrics = concat(lengthDelimited(1, resource), lengthDelimited(2, lengthDelimited(2, metric)));
+        byte[] request = lengthDelimited(1, resourceMetrics);
+
+        return concat(varint(request.length), request);
+    }
+
+    private static byte[] string(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] lengthDelimited(int fieldNumber, byte[] value) throws IOException {
+        return concat(varint(fieldNumber << 3 | 2), varint(value.length), value);
+    }
+
+    private static byte[] fixed64(int fieldNumber, long value) throws IOException {
+        return concat(varint(fieldNumber << 3 | 1),
+                ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array());
+    }
+
+    private static byte[] varint(long value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        while ((value & ~0x7FL) != 0) {
+            bytes.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        bytes.write((int) value);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        for (byte[] value : values) {
+            bytes.write(value);
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -1,6 +1,7 @@
 package com.appdynamics.extensions.aws.util;
 
 import com.appdynamics.extensions.aws.config.Account;
+import com.appdynamics.extensions.aws.config.AwsClientConfig;
 import com.appdynamics.extensions.aws.config.CredentialsDecryptionConfig;
 import com.appdynamics.extensions.crypto.Encryptor;
 import org.junit.Assert;
@@ -10,9 +11,12 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 
+import java.time.Instant;
+
 /**
  * @author Satish Muddam
  */
@@ -57,4 +61,38 @@ public class AWSUtilTest {
         Assert.assertEquals("accessKey1", awsCredentials.accessKeyId());
         Assert.assertEquals("secretKey1", awsCredentials.secretAccessKey());
     }
+
+    @Test
+    public void testTimeRangeIsAlignedToPeriod() {
+        Instant endTime = AWSUtil.getTimeInMinsBeforeNow(0, 300);
+        Instant startTime = AWSUtil.getStartTimeInMinsBeforeNow(10, endTime, 300);
+
+        Assert.assertEquals(0, endTime.getEpochSecond() % 300);
+        Assert.assertEquals(0, startTime.getEpochSecond() % 300);
+        Assert.assertTrue(System.currentTimeMillis() / 1000 - endTime.getEpochSecond() < 300);
+        Assert.assertTrue(endTime.getEpochSecond() - startTime.getEpochSecond() >= 600);
+
+        // a time range shorter than the period still covers one period
+        Instant shortStartTime = AWSUtil.getStartTimeInMinsBeforeNow(1, endTime, 300);
+        Assert.assertEquals(endTime.minusSeconds(300), shortStartTime);
+    }
+
+    @Test
+    public void testClientSettingsFingerprintChangesWithCredentialsOrClientConfig() {
+        StaticCredentialsProvider awsCredentials = StaticCredentialsProvider.create(
+                AwsBasicCredentials.create("accessKey1", "secretKey1"));
+        StaticCredentialsProvider rotatedAwsCredentials = StaticCredentialsProvider.create(
+                AwsBasicCredentials.create("accessKey1", "secretKey2"));
+        AwsClientConfig awsClientConfig = AWSUtil.createAwsClientConfiguration(3, null, 30, 10);
+
+        String fingerprint = AWSUtil.getClientSettingsFingerprint(awsCredentials, awsClientConfig);
+
+        Assert.assertEquals(fingerprint, AWSUtil.getClientSettingsFingerprint(awsCredentials,
+                AWSUtil.createAwsClientConfiguration(3, null, 30, 10)));
+        Assert.assertNotEquals(fingerprint, AWSUtil.getClientSettingsFingerprint(rotatedAwsCredentials, awsClientConfig));
+        Assert.assertNotEquals(fingerprint, AWSUtil.getClientSettingsFingerprint(awsCredentials,
+                AWSUtil.createAwsClientConfiguration(3, null, 60, 10)));
+        Assert.assertNotEquals(fingerprint, AWSUtil.getClientSettingsFingerprint(awsCredentials,
+                AWSUtil.createAwsClientConfiguration(5, null, 30, 10)));
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ApiCallBudgetPlannerTest {
+
+    private ApiCallBudgetPlanner classUnderTest = ApiCallBudgetPlanner.getInstance();
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(0, 0, 0);
+        classUnderTest.getAndResetPlannedCalls("AWS/EC2");
+        classUnderTest.getAndResetPlannedCalls("AWS/ELB");
+    }
+
+    @Test
+    public void testReservationsAreCappedByTheRemainingBudgets() {
+        classUnderTest.initialise(100, 1000, 60);
+        CollectionCycle collectionCycle = new CollectionCycle(0);
+
+        assertEquals(60, classUnderTest.reserve(collectionCycle, "AWS/EC2", 60));
+        assertEquals(40, classUnderTest.reserve(collectionCycle, "AWS/ELB", 60));
+        assertEquals(0, classUnderTest.reserve(collectionCycle, "AWS/EC2", 10));
+
+        classUnderTest.release(collectionCycle, "AWS/ELB", 15);
+        assertEquals(15, classUnderTest.getRemainingCalls(collectionCycle));
+
+        assertEquals(60, classUnderTest.getAndResetPlannedCalls("AWS/EC2"));
+        assertEquals(25, classUnderTest.getAndResetPlannedCalls("AWS/ELB"));
+
+        // the cycle budget is renewed, the daily one is not
+        classUnderTest.completeCycle(collectionCycle);
+        collectionCycle = new CollectionCycle(0);
+        assertEquals(100, classUnderTest.getRemainingCalls(collectionCycle));
+        assertEquals(100, classUnderTest.reserve(collectionCycle, "AWS/EC2", 100));
+
+        for (int cycle = 0; cycle < 8; cycle++) {
+            classUnderTest.reserve(new CollectionCycle(0), "AWS/EC2", 100);
+        }
+
+        assertEquals(15, classUnderTest.reserve(new CollectionCycle(0), "AWS/EC2", 100));
+    }
+
+    @Test
+    public void testConcurrentCollectionsKeepTheirOwnCycleBudget() {
+        classUnderTest.initialise(100, 0, 60);
+        CollectionCycle prefetchCycle = new CollectionCycle(0);
+
+        assertEquals(80, classUnderTest.reserve(prefetchCycle, "AWS/EC2", 80));
+
+        // a collection started meanwhile neither renews nor uses the budget of the running one
+        CollectionCycle uploadCycle = new CollectionCycle(0);
+        assertEquals(100, classUnderTest.reserve(uploadCycle, "AWS/EC2", 100));
+        assertEquals(20, classUnderTest.reserve(prefetchCycle, "AWS/EC2", 50));
+
+        classUnderTest.release(prefetchCycle, "AWS/EC2", 100);
+        classUnderTest.release(uploadCycle, "AWS/EC2", 100);
+        assertEquals(0, classUnderTest.getAndResetPlannedCalls("AWS/EC2"));
+    }
+
+    @Test
+    public void testReleasesAreCappedByTheReservedCalls() {
+        classUnderTest.initialise(100, 0, 60);
+        CollectionCycle collectionCycle = new CollectionCycle(0);
+
+        assertEquals(10, classUnderTest.reserve(collectionCycle, "AWS/EC2", 10));
+
+        classUnderTest.release(collectionCycle, "AWS/EC2", 50);
+        assertEquals(100, classUnderTest.getRemainingCalls(collectionCycle));
+        assertEquals(0, classUnderTest.getAndResetPlannedCalls("AWS/EC2"));
+
+        // releasing more than reserved does not grant more than the budgets
+        assertEquals(100, classUnderTest.reserve(collectionCycle, "AWS/EC2", 200));
+
+        classUnderTest.release(collectionCycle, "AWS/EC2", 100);
+        assertEquals(0, classUnderTest.getAndResetPlannedCalls("AWS/EC2"));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.appdynamics.extensions.aws.providers.ExecutorServiceProvider.Level;
+import org.junit.Test;
+
+public class CollectionCycleTest {
+
+    @Test
+    public void testThreadTimeOutAppliesWithoutDeadline() {
+        CollectionCycle collectionCycle = new CollectionCycle(0);
+
+        assertFalse(collectionCycle.hasDeadline());
+        assertFalse(collectionCycle.isExpired(Level.METRIC));
+        assertEquals(30000, collectionCycle.getTimeoutInMillis(Level.METRIC, 30));
+        assertEquals(30000, new CollectionCycle(-1).getTimeoutInMillis(Level.NAMESPACE, 30));
+    }
+
+    @Test
+    public void testLowerLevelsTimeOutBeforeTheirParents() {
+        CollectionCycle collectionCycle = new CollectionCycle(60000);
+
+        long namespaceTimeout = collectionCycle.getTimeoutInMillis(Level.NAMESPACE, 0);
+        long metricTimeout = collectionCycle.getTimeoutInMillis(Level.METRIC, 0);
+
+        assertTrue(collectionCycle.hasDeadline());
+        assertTrue(namespaceTimeout > 55000 && namespaceTimeout <= 60000);
+        assertTrue(namespaceTimeout - metricTimeout >= 2900);
+        assertFalse(collectionCycle.isExpired(Level.METRIC));
+    }
+
+    @Test
+    public void testThreadTimeOutStillBoundsEachTaskWithinDeadline() {
+        CollectionCycle collectionCycle = new CollectionCycle(60000);
+
+        assertEquals(30000, collectionCycle.getTimeoutInMillis(Level.METRIC, 30));
+
+        long metricTimeout = collectionCycle.getTimeoutInMillis(Level.METRIC, 120);
+        assertTrue(metricTimeout > 55000 && metricTimeout <= 57000);
+    }
+
+    @Test
+    public void testExpiredDeadlineDoesNotWait() {
+        CollectionCycle collectionCycle = new CollectionCycle(2500);
+
+        // the metric level deadline is 3 margins earlier, already passed
+        assertTrue(collectionCycle.isExpired(Level.METRIC));
+        assertEquals(0, collectionCycle.getTimeoutInMillis(Level.METRIC, 30));
+        assertFalse(collectionCycle.isExpired(Level.NAMESPACE));
+    }
+
+    @Test
+    public void testConcurrentCollectionsKeepTheirOwnDeadline() {
+        CollectionCycle expiredCycle = new CollectionCycle(2500);
+        CollectionCycle runningCycle = new CollectionCycle(60000);
+        CollectionCycle unboundedCycle = new CollectionCycle(0);
+
+        assertTrue(expiredCycle.isExpired(Level.METRIC));
+        assertFalse(runningCycle.isExpired(Level.METRIC));
+        assertTrue(runningCycle.getTimeoutInMillis(Level.METRIC, 0) > 55000);
+        assertFalse(unboundedCycle.hasDeadline());
+    }
+
+    @Test
+    public void testDroppedTasksAreCountedPerNamespaceAndCollection() {
+        CollectionCycle collectionCycle = new CollectionCycle(60000);
+
+        collectionCycle.recordDroppedTasks("AWS/EC2", 2);
+        collectionCycle.recordDroppedTasks("AWS/EC2", 3);
+        collectionCycle.recordDroppedTasks("AWS/EC2", 0);
+
+        assertEquals(5, collectionCycle.getDroppedTasks("AWS/EC2"));
+        assertEquals(0, collectionCycle.getDroppedTasks("AWS/ELB"));
+        assertEquals(0, new CollectionCycle(60000).getDroppedTasks("AWS/EC2"));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class InFlightRequestLimiterTest {
+
+    @Test
+    public void testPermitIsReleasedWhenResponseCompletes() throws Exception {
+        InFlightRequestLimiter requestLimiter = new InFlightRequestLimiter(2);
+        final CompletableFuture<String> pendingResponse = new CompletableFuture<String>();
+
+        CompletableFuture<String> response = requestLimiter.send(new Supplier<CompletableFuture<String>>() {
+            public CompletableFuture<String> get() {
+                return pendingResponse;
+            }
+        });
+
+        assertEquals(1, requestLimiter.getInFlightRequests());
+        assertFalse(response.isDone());
+
+        pendingResponse.complete("result");
+
+        assertEquals("result", response.get());
+        assertEquals(0, requestLimiter.getInFlightRequests());
+    }
+
+    @Test
+    public void testSenderWaitsWhenLimitIsReached() throws Exception {
+        final InFlightRequestLimiter requestLimiter = new InFlightRequestLimiter(1);
+        final List<CompletableFuture<String>> pendingResponses = Lists.newArrayList(
+                new CompletableFuture<String>(), new CompletableFuture<String>());
+        final AtomicInteger sentRequests = new AtomicInteger();
+        final CountDownLatch secondRequestSent = new CountDownLatch(1);
+
+        Thread sender = new Thread(new Runnable() {
+            public void run() {
+                for (final CompletableFuture<String> pendingResponse : pendingResponses) {
+                    requestLimiter.send(new Supplier<CompletableFuture<String>>() {
+                        public CompletableFuture<String> get() {
+                            sentRequests.incrementAndGet();
+                            return pendingResponse;
+                        }
+                    });
+                }
+
+                secondRequestSent.countDown();
+            }
+        });
+        sender.start();
+
+        assertFalse(secondRequestSent.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, sentRequests.get());
+
+        pendingResponses.get(0).complete("first");
+
+        assertTrue(secondRequestSent.await(5, TimeUnit.SECONDS));
+        assertEquals(2, sentRequests.get());
+        assertEquals(1, requestLimiter.getInFlightRequests());
+    }
+
+    @Test
+    public void testPermitIsReleasedWhenRequestFails() throws Exception {
+        InFlightRequestLimiter requestLimiter = new InFlightRequestLimiter(1);
+        final IllegalStateException failure = new IllegalStateException("request failed");
+
+        CompletableFuture<String> response = requestLimiter.send(new Supplier<CompletableFuture<String>>() {
+            public CompletableFuture<String> get() {
+                throw failure;
+            }
+        });
+
+        try {
+            response.get();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+
+        assertTrue(response.isCompletedExceptionally());
+        assertEquals(0, requestLimiter.getInFlightRequests());
+    }
+
+    @Test
+    public void testCancellingResponseCancelsRequestAndReleasesPermit() {
+        InFlightRequestLimiter requestLimiter = new InFlightRequestLimiter(1);
+        final CompletableFuture<String> pendingResponse = new CompletableFuture<String>();
+
+        CompletableFuture<String> response = requestLimiter.send(new Supplier<CompletableFuture<String>>() {
+            public CompletableFuture<String> get() {
+                return pendingResponse;
+            }
+        });
+
+        assertEquals(1, requestLimiter.getInFlightRequests());
+
+        response.cancel(true);
+
+        assertTrue(pendingResponse.isCancelled());
+        assertEquals(0, requestLimiter.getInFlightRequests());
+    }
+
+    @Test
+    public void testDefaultLimitIsUsedWhenNotConfigured() {
+        assertEquals(50, new InFlightRequestLimiter(0).getMaxInFlightRequests());
+    }
+}
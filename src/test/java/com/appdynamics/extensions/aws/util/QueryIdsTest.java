@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class QueryIdsTest {
+
+    @Test
+    public void testQueryIdsAreEncodedInBase36() {
+        assertEquals("m0", QueryIds.toQueryId('m', 0));
+        assertEquals("mz", QueryIds.toQueryId('m', 35));
+        assertEquals("m10", QueryIds.toQueryId('m', 36));
+        assertEquals("mdv", QueryIds.toQueryId('m', 499));
+        assertEquals("mdw", QueryIds.toQueryId('m', 500));
+
+        assertSame(QueryIds.toQueryId('m', 42), QueryIds.toQueryId('m', 42));
+    }
+
+    @Test
+    public void testQueryIdsAreDecodedBackToTheirIndex() {
+        for (int index = 0; index < 100000; index += 7) {
+            assertEquals(index, QueryIds.toIndex(QueryIds.toQueryId('q', index), 'q'));
+        }
+
+        assertEquals(-1, QueryIds.toIndex("m1", 'q'));
+        assertEquals(-1, QueryIds.toIndex("m", 'm'));
+        assertEquals(-1, QueryIds.toIndex("m_1", 'm'));
+        assertEquals(-1, QueryIds.toIndex(null, 'm'));
+        assertEquals(-1, QueryIds.toIndex("mzzzzzzzzzzzz", 'm'));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryIdsMustStartWithALowercaseLetter() {
+        QueryIds.toQueryId('M', 0);
+    }
+}
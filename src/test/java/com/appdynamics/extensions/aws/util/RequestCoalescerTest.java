@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import org.junit.After;
+import org.junit.Test;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class RequestCoalescerTest {
+
+    private RequestCoalescer classUnderTest = RequestCoalescer.getInstance();
+
+    private CloudWatchClient awsCloudWatch = mock(CloudWatchClient.class);
+
+    private CloudWatchAsyncClient awsCloudWatchAsync = mock(CloudWatchAsyncClient.class);
+
+    @After
+    public void tearDown() {
+        classUnderTest.initialise(-1);
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneCall() throws Exception {
+        classUnderTest.initialise(30);
+
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object result = new Object();
+
+        final Callable<Object> call = new Callable<Object>() {
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return result;
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Object> first = executorService.submit(new Callable<Object>() {
+                public Object call() {
+                    return classUnderTest.execute(awsCloudWatch, createRequest("AWS/EC2"), call);
+                }
+            });
+
+            started.await(5, TimeUnit.SECONDS);
+
+            Future<Object> second = executorService.submit(new Callable<Object>() {
+                public Object call() {
+                    return classUnderTest.execute(awsCloudWatch, createRequest("AWS/EC2"), call);
+                }
+            });
+
+            release.countDown();
+
+            assertSame(result, first.get(5, TimeUnit.SECONDS));
+            assertSame(result, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+
+            // reused within the TTL
+            assertSame(result, classUnderTest.execute(awsCloudWatch, createRequest("AWS/EC2"), call));
+            assertEquals(1, calls.get());
+
+            // not identical
+            classUnderTest.execute(awsCloudWatch, createRequest("AWS/ELB"), call);
+            assertEquals(2, calls.get());
+
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedRequestsAreNotReused() {
+        classUnderTest.initialise(30);
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        Callable<Object> call = new Callable<Object>() {
+            public Object call() {
+                calls.incrementAndGet();
+                throw new IllegalStateException("Throttled");
+            }
+        };
+
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            try {
+                classUnderTest.execute(awsCloudWatch, createRequest("AWS/EC2"), call);
+                fail("The failure should be rethrown");
+
+            } catch (IllegalStateException e) {
+                assertEquals(attempt, calls.get());
+            }
+        }
+    }
+
+    @Test
+    public void testIdenticalAsyncRequestsShareOneCall() throws Exception {
+        classUnderTest.initialise(30);
+
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<Object> pendingResponse = new CompletableFuture<Object>();
+        final Object result = new Object();
+
+        Supplier<CompletableFuture<Object>> call = new Supplier<CompletableFuture<Object>>() {
+            public CompletableFuture<Object> get() {
+                calls.incrementAndGet();
+                return pendingResponse;
+            }
+        };
+
+        CompletableFuture<Object> first = classUnderTest.executeAsync(awsCloudWatchAsync, createRequest("AWS/EC2"), call);
+        CompletableFuture<Object> second = classUnderTest.executeAsync(awsCloudWatchAsync, createRequest("AWS/EC2"), call);
+
+        assertEquals(1, calls.get());
+        assertFalse(second.isDone());
+
+        pendingResponse.complete(result);
+
+        assertSame(result, first.get(5, TimeUnit.SECONDS));
+        assertSame(result, second.get(5, TimeUnit.SECONDS));
+
+        // reused within the TTL
+        assertSame(result, classUnderTest.executeAsync(awsCloudWatchAsync, createRequest("AWS/EC2"), call)
+                .get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testCancellingSharedAsyncResponseDoesNotAbortCall() {
+        classUnderTest.initialise(30);
+
+        final CompletableFuture<Object> pendingResponse = new CompletableFuture<Object>();
+
+        Supplier<CompletableFuture<Object>> call = new Supplier<CompletableFuture<Object>>() {
+            public CompletableFuture<Object> get() {
+                return pendingResponse;
+            }
+        };
+
+        CompletableFuture<Object> first = classUnderTest.executeAsync(awsCloudWatchAsync, createRequest("AWS/EC2"), call);
+        CompletableFuture<Object> second = classUnderTest.executeAsync(awsCloudWatchAsync, createRequest("AWS/EC2"), call);
+
+        second.cancel(true);
+
+        assertFalse(pendingResponse.isCancelled());
+        assertFalse(first.isDone());
+    }
+
+    private ListMetricsRequest createRequest(String namespace) {
+        return ListMetricsRequest.builder().namespace(namespace).build();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.extensions.aws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import com.appdynamics.extensions.aws.providers.PublishLagTracker;
+import com.appdynamics.extensions.metrics.Metric;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StatsPrefetcherTest {
+
+    @After
+    public void tearDown() {
+        PublishLagTracker.getInstance().initialise(false);
+    }
+
+    @Test
+    public void testPrefetchCompletesTheLeadTimeBeforeTheNextUpload() {
+        // next upload at 600s, 10s to collect, 5s lead time, 30s publish lag of 60s periods
+        long delay = StatsPrefetcher.getPrefetchDelayInMillis(300000, 600000, 30000, 60000, 10000, 5000);
+
+        assertEquals(285000, delay);
+    }
+
+    @Test
+    public void testPrefetchWaitsForTheNewestPeriodToBePublished() {
+        // the period ending at 540s is published at 595s, after 600s - 10s - 20s
+        long delay = StatsPrefetcher.getPrefetchDelayInMillis(300000, 600000, 55000, 60000, 10000, 20000);
+
+        assertEquals(295000, delay);
+
+        // the period ending at 540s is only published after the upload
+        delay = StatsPrefetcher.getPrefetchDelayInMillis(300000, 600000, 65000, 60000, 10000, 20000);
+
+        assertEquals(270000, delay);
+    }
+
+    @Test
+    public void testPrefetchStartsNowWhenLate() {
+        assertEquals(0, StatsPrefetcher.getPrefetchDelayInMillis(600000, 610000, 0, 60000, 20000, 5000));
+    }
+
+    @Test
+    public void testStatsAreCollectedAtUploadWhenDisabled() throws Exception {
+        final AtomicInteger collections = new AtomicInteger();
+        final List<Metric> stats = new ArrayList<Metric>();
+
+        StatsPrefetcher<String> statsPrefetcher = new StatsPrefetcher<String>(new StatsPrefetcher.StatsCollector<String>() {
+            public List<Metric> collectStats(String config) {
+                collections.incrementAndGet();
+                return stats;
+            }
+        });
+        statsPrefetcher.initialise(0, 60, 60);
+
+        assertFalse(statsPrefetcher.isEnabled());
+        assertSame(stats, statsPrefetcher.getStats("config"));
+        assertSame(stats, statsPrefetcher.getStats("config"));
+        assertEquals(2, collections.get());
+    }
+
+    @Test
+    public void testPrefetchUsesTheConfigOfTheUploadWhichScheduledIt() throws Exception {
+        final List<String> collectedConfigs = new CopyOnWriteArrayList<String>();
+
+        StatsPrefetcher<String> statsPrefetcher = new StatsPrefetcher<String>(new StatsPrefetcher.StatsCollector<String>() {
+            public List<Metric> collectStats(String config) {
+                collectedConfigs.add(config);
+                return new ArrayList<Metric>();
+            }
+        });
+        // the prefetch of the next upload starts right away, as collecting takes as long as the lead time
+        statsPrefetcher.initialise(1, 1, 0);
+
+        try {
+            statsPrefetcher.getStats("config1");
+            // collected by the prefetch scheduled with the first config, though the config was reloaded since
+            statsPrefetcher.getStats("config2");
+            statsPrefetcher.getStats("config3");
+
+            assertEquals(Arrays.asList("config1", "config1", "config2"), collectedConfigs.subList(0, 3));
+
+        } finally {
+            statsPrefetcher.initialise(0, 1, 0);
+        }
+    }
+
+    @Test
+    public void testPublishLagFollowsTheFreshestDatapoints() {
+        PublishLagTracker publishLagTracker = PublishLagTracker.getInstance();
+        publishLagTracker.initialise(true);
+
+        Instant periodEndTime = Instant.ofEpochMilli(600000);
+
+        publishLagTracker.recordDatapoint("AWS/EC2", periodEndTime, 700000);
+        publishLagTracker.recordDatapoint("AWS/EC2", periodEndTime, 690000);
+        publishLagTracker.completeCycle();
+
+        assertEquals(90000, publishLagTracker.getPublishLagInMillis("AWS/EC2"));
+
+        // later datapoints only drift the lag up
+        publishLagTracker.recordDatapoint("AWS/EC2", periodEndTime, 740000);
+        publishLagTracker.recordDatapoint("AWS/ELB", periodEndTime, 630000);
+        publishLagTracker.completeCycle();
+
+        assertEquals(100000, publishLagTracker.getPublishLagInMillis("AWS/EC2"));
+        assertEquals(30000, publishLagTracker.getPublishLagInMillis("AWS/ELB"));
+        assertEquals(100000, publishLagTracker.getMaxPublishLagInMillis());
+
+        // earlier datapoints lower the lag right away
+        publishLagTracker.recordDatapoint("AWS/EC2", periodEndTime, 660000);
+        publishLagTracker.completeCycle();
+
+        assertEquals(60000, publishLagTracker.getPublishLagInMillis("AWS/EC2"));
+        assertEquals(0, publishLagTracker.getPublishLagInMillis("AWS/S3"));
+    }
+
+    @Test
+    public void testPublishLagIsNotTrackedWhenDisabled() {
+        PublishLagTracker publishLagTracker = PublishLagTracker.getInstance();
+        publishLagTracker.recordDatapoint("AWS/EC2", Instant.ofEpochMilli(600000), 700000);
+        publishLagTracker.completeCycle();
+
+        assertFalse(publishLagTracker.isEnabled());
+        assertEquals(0, publishLagTracker.getMaxPublishLagInMillis());
+    }
+}